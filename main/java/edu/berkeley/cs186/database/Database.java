@@ -1,27 +1,40 @@
 package edu.berkeley.cs186.database;
 
 import edu.berkeley.cs186.database.datatypes.DataType;
+import edu.berkeley.cs186.database.datatypes.IntDataType;
+import edu.berkeley.cs186.database.query.ParallelScanOperator;
 import edu.berkeley.cs186.database.query.QueryPlan;
 import edu.berkeley.cs186.database.table.*;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 import edu.berkeley.cs186.database.concurrency.*;
 import edu.berkeley.cs186.database.index.BPlusTree;
+import edu.berkeley.cs186.database.index.BPlusTreeException;
+import edu.berkeley.cs186.database.index.LeafEntry;
 import edu.berkeley.cs186.database.io.Page;
+import edu.berkeley.cs186.database.io.PageAllocator;
+import edu.berkeley.cs186.database.io.PageException;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.List;
 import java.util.Iterator;
 
 import java.io.File;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.HashSet;
 
 public class Database {
   private Map<String, Table> tableLookup;
   private Map<String, BPlusTree> indexLookup;
+  private Map<String, IndexBuild> indexBuilds;
   private long numTransactions;
   private String fileDir;
   private LockManager lockMan;
@@ -52,6 +65,7 @@ public class Database {
     numTransactions = 0;
     tableLookup = new ConcurrentHashMap<String, Table>();
     indexLookup = new ConcurrentHashMap<String, BPlusTree>();
+    indexBuilds = new ConcurrentHashMap<String, IndexBuild>();
 
     File dir = new File(fileDir);
     lockMan = new LockManager();
@@ -85,16 +99,63 @@ public class Database {
    * @throws DatabaseException
    */
   public synchronized void createTable(Schema s, String tableName) throws DatabaseException {
+    this.createTable(s, tableName, false);
+  }
+
+  /**
+   * Create a new table in this database. Records can only be appended to an append-only table;
+   * deleting or updating them throws a DatabaseException.
+   *
+   * @param s the table schema
+   * @param tableName the name of the table
+   * @param appendOnly whether the table is append-only
+   * @throws DatabaseException
+   */
+  public synchronized void createTable(Schema s, String tableName, boolean appendOnly) throws DatabaseException {
     if (this.tableLookup.containsKey(tableName)) {
       throw new DatabaseException("Table name already exists");
     }
 
-    this.tableLookup.put(tableName, new Table(s, tableName, this.fileDir));
+    this.tableLookup.put(tableName, new Table(s, tableName, this.fileDir, appendOnly));
+  }
+
+  /**
+   * Create a new table in this database whose given STRING columns are dictionary-encoded: each
+   * distinct value is stored once in the table's dictionary, and rows hold a 4 byte code instead.
+   * This pays off for wide columns with few distinct values.
+   *
+   * @param s the table schema
+   * @param tableName the name of the table
+   * @param dictionaryColumns the list of unique STRING columnNames to dictionary-encode
+   * @throws DatabaseException
+   */
+  public synchronized void createTableWithDictionaries(Schema s, String tableName, List<String> dictionaryColumns) throws DatabaseException {
+    if (this.tableLookup.containsKey(tableName)) {
+      throw new DatabaseException("Table name already exists");
+    }
+
+    List<String> schemaColNames = s.getFieldNames();
+    List<DataType> schemaColType = s.getFieldTypes();
+
+    HashSet<String> seenColNames = new HashSet<String>();
+    for (String col : dictionaryColumns) {
+      if (!schemaColNames.contains(col)) {
+        throw new DatabaseException("Column desired for dictionary does not exist");
+      }
+      if (schemaColType.get(schemaColNames.indexOf(col)).type() != DataType.Types.STRING) {
+        throw new DatabaseException("Only STRING columns can be dictionary-encoded");
+      }
+      if (seenColNames.contains(col)) {
+        throw new DatabaseException("Column desired for dictionary has been duplicated");
+      }
+      seenColNames.add(col);
+    }
+
+    this.tableLookup.put(tableName, new Table(s, tableName, this.fileDir, false, dictionaryColumns));
   }
 
   /**
    * Create a new table in this database with an index on each of the given column names.
-   * NOTE: YOU CAN NOT DELETE/UPDATE FROM THIS TABLE IF YOU CHOOSE TO BUILD INDICES!!
    * @param s the table schema
    * @param tableName the name of the table
    * @param indexColumns the list of unique columnNames on the maintain an index on
@@ -127,7 +188,77 @@ public class Database {
       String colName = schemaColNames.get(i);
       DataType colType = schemaColType.get(i);
       String indexName = tableName + "," + colName;
-      this.indexLookup.put(indexName, new BPlusTree(colType, indexName, this.fileDir));
+      // a BOOL column only has two keys to repeat
+      boolean postingLists = colType.type() == DataType.Types.BOOL;
+      this.indexLookup.put(indexName, new BPlusTree(colType, indexName, this.fileDir, postingLists));
+    }
+  }
+
+  /**
+   * Build an index on a column of an existing table, without blocking writes to the table while
+   * the index is built. From the moment the build starts, every write to the column is logged.
+   * Once the transactions already writing to the table have ended, the table's data pages are
+   * listed and scanned by one worker per processor, on the pool of ParallelScanOperator, and the
+   * index is bulk loaded from the scan,
+   * sorting with numMemoryPages pages of memory. The logged writes are then applied to the index
+   * before it is registered; a write that the scan already saw is not indexed twice.
+   *
+   * @param tableName the name of the table
+   * @param columnName the name of the column to index
+   * @throws DatabaseException if the table or column does not exist, the column already has an
+   *         index, or the index could not be built
+   */
+  public void createIndex(String tableName, String columnName) throws DatabaseException {
+    String indexName = tableName + "," + columnName;
+    Table tab;
+    int column;
+    IndexBuild build;
+
+    synchronized (this) {
+      if (!this.tableLookup.containsKey(tableName)) {
+        throw new DatabaseException("Table: " + tableName + " does not exist");
+      }
+      tab = this.tableLookup.get(tableName);
+      column = tab.getSchema().getFieldNames().indexOf(columnName);
+      if (column == -1) {
+        throw new DatabaseException("Column desired for index does not exist");
+      }
+      if (this.indexLookup.containsKey(indexName) || this.indexBuilds.containsKey(indexName)) {
+        throw new DatabaseException("Index already exists");
+      }
+
+      DataType colType = tab.getSchema().getFieldTypes().get(column);
+      // posting lists pay off once keys repeat, on average
+      TableStats stats = tab.getStats();
+      boolean postingLists = colType.type() == DataType.Types.BOOL
+          || (stats.getNumRecords() > 0 && stats.getNumRecords() >= 2 * stats.getNumDistinct(column));
+      build = new IndexBuild(new BPlusTree(colType, indexName, this.fileDir, postingLists));
+      this.indexBuilds.put(indexName, build);
+    }
+
+    ColumnScan scan = null;
+    try {
+      // the shared lock waits out the writers that started before the build was logging
+      Transaction t = beginTransaction();
+      List<Integer> pageNums;
+      try {
+        pageNums = t.getCandidatePages(tableName, new ArrayList<Integer>(),
+            new ArrayList<QueryPlan.PredicateOperator>(), new ArrayList<DataType>());
+      } finally {
+        t.end();
+      }
+
+      scan = new ColumnScan(tab, column, pageNums);
+      build.tree.bulkLoad(scan, BPlusTree.DEFAULT_FILL_FACTOR, this.numMemoryPages);
+      build.register(indexName);
+    } catch (RuntimeException e) {
+      Paths.get(this.fileDir, indexName + BPlusTree.FILENAME_EXTENSION).toFile().delete();
+      throw new DatabaseException(e);
+    } finally {
+      if (scan != null) {
+        scan.close();
+      }
+      this.indexBuilds.remove(indexName);
     }
   }
 
@@ -145,8 +276,12 @@ public class Database {
     this.tableLookup.get(tableName).close();
     this.tableLookup.remove(tableName);
 
-    File f = new File(fileDir + tableName + Table.FILENAME_EXTENSION);
+    File f = Paths.get(this.fileDir, tableName + Table.FILENAME_EXTENSION).toFile();
     f.delete();
+    // the dictionaries of dictionary-encoded columns live in a side file
+    new File(f.getPath() + Table.DICTIONARY_EXTENSION).delete();
+    // and compressed pages in an extent file
+    new File(f.getPath() + PageAllocator.EXTENT_FILE_EXTENSION).delete();
 
     return true;
   }
@@ -185,6 +320,203 @@ public class Database {
     return t;
   }
 
+  /**
+   * An index being built by createIndex. Until the index is registered, writes to its column are
+   * logged instead of being applied to the tree. Writers that find the build after it has
+   * registered the index apply their writes to the tree directly.
+   *
+   * Properties:
+   * `tree`: the index being built
+   * `entries`: the logged writes, in the order they were made
+   * `inserts`: whether each logged write added its entry, rather than deleted it
+   * `registered`: whether the index has been registered
+   */
+  private class IndexBuild {
+    private BPlusTree tree;
+    private List<LeafEntry> entries;
+    private List<Boolean> inserts;
+    private boolean registered;
+
+    private IndexBuild(BPlusTree tree) {
+      this.tree = tree;
+      this.entries = new ArrayList<LeafEntry>();
+      this.inserts = new ArrayList<Boolean>();
+      this.registered = false;
+    }
+
+    public synchronized void insert(DataType key, RecordID rid) {
+      if (this.registered) {
+        this.tree.insertKey(key, rid);
+      } else {
+        this.entries.add(new LeafEntry(key, rid));
+        this.inserts.add(true);
+      }
+    }
+
+    public synchronized void delete(DataType key, RecordID rid) {
+      if (this.registered) {
+        this.tree.deleteKey(key, rid);
+      } else {
+        this.entries.add(new LeafEntry(key, rid));
+        this.inserts.add(false);
+      }
+    }
+
+    /**
+     * Applies the logged writes to the tree and registers it in indexLookup. A logged insert is
+     * skipped if the scan already added its entry.
+     */
+    public synchronized void register(String indexName) {
+      for (int i = 0; i < this.entries.size(); i++) {
+        DataType key = this.entries.get(i).getKey();
+        RecordID rid = this.entries.get(i).getRecordID();
+        if (!this.inserts.get(i)) {
+          this.tree.deleteKey(key, rid);
+          continue;
+        }
+
+        if (!this.tree.containsEntry(key, rid)) {
+          this.tree.insertKey(key, rid);
+        }
+      }
+
+      Database.this.indexLookup.put(indexName, this.tree);
+      this.registered = true;
+    }
+  }
+
+  /**
+   * An iterator over the (value, RecordID) pairs of one column on a list of data pages. The pages
+   * are split between one worker per processor, run on the shared pool of parallel scan workers,
+   * each of which reads its pages a page at a time and hands the pairs over through a bounded
+   * queue, so the pairs come out in no particular order. The scan holds no lock on the table, so
+   * a compaction may free pages after they are listed; they are skipped, since the compaction
+   * logs the moves of their records for the build.
+   *
+   * Properties:
+   * `queue`: the pairs read by the threads but not yet returned
+   * `numRunning`: the number of workers that have not finished
+   * `failure`: the exception a worker failed with, if any
+   * `closed`: whether close() has been called
+   * `next`: the next pair to return, if it has been taken from the queue
+   */
+  private static class ColumnScan implements Iterator<LeafEntry> {
+    private static final int QUEUE_SIZE = 1024;
+
+    // put by each worker once it has read all of its pages
+    private static final LeafEntry DONE = new LeafEntry(new IntDataType(0), new RecordID(-1, -1));
+
+    private BlockingQueue<LeafEntry> queue;
+    private int numRunning;
+    private volatile RuntimeException failure;
+    private volatile boolean closed;
+    private LeafEntry next;
+
+    public ColumnScan(final Table tab, final int column, List<Integer> pageNums) {
+      int numWorkers = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), pageNums.size()));
+      this.queue = new ArrayBlockingQueue<LeafEntry>(QUEUE_SIZE);
+      this.numRunning = numWorkers;
+      this.failure = null;
+      this.closed = false;
+      this.next = null;
+
+      for (int i = 0; i < numWorkers; i++) {
+        final List<Integer> pages = pageNums.subList(pageNums.size() * i / numWorkers,
+                                                     pageNums.size() * (i + 1) / numWorkers);
+        ParallelScanOperator.WORKER_POOL.execute(new Runnable() {
+          public void run() {
+            try {
+              for (int pageNum : pages) {
+                if (ColumnScan.this.closed) {
+                  break;
+                }
+                Iterator<RecordView> views = tab.viewIterator(Collections.singletonList(pageNum));
+                try {
+                  // the page is copied as a whole when it is first read
+                  views.hasNext();
+                } catch (PageException e) {
+                  // freed by a compaction since it was listed
+                  continue;
+                }
+                while (!ColumnScan.this.closed && views.hasNext()) {
+                  RecordView view = views.next();
+                  ColumnScan.this.queue.put(new LeafEntry(view.get(column), view.getRecordID()));
+                }
+              }
+            } catch (RuntimeException e) {
+              ColumnScan.this.failure = e;
+            } catch (InterruptedException e) {
+              ColumnScan.this.failure = new BPlusTreeException(e);
+            } finally {
+              putDone();
+            }
+          }
+        });
+      }
+    }
+
+    public boolean hasNext() {
+      while (this.next == null && this.numRunning > 0) {
+        LeafEntry entry;
+        try {
+          entry = this.queue.take();
+        } catch (InterruptedException e) {
+          throw new BPlusTreeException(e);
+        }
+
+        if (entry == DONE) {
+          this.numRunning--;
+          if (this.failure != null) {
+            throw this.failure;
+          }
+        } else {
+          this.next = entry;
+        }
+      }
+      return this.next != null;
+    }
+
+    public LeafEntry next() {
+      if (!this.hasNext()) {
+        throw new NoSuchElementException();
+      }
+      LeafEntry entry = this.next;
+      this.next = null;
+      return entry;
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Stops the workers that are still reading, e.g. if the consumer of the scan failed.
+     */
+    public void close() {
+      this.closed = true;
+      while (this.numRunning > 0) {
+        try {
+          if (this.queue.take() == DONE) {
+            this.numRunning--;
+          }
+        } catch (InterruptedException e) {
+          throw new BPlusTreeException(e);
+        }
+      }
+    }
+
+    private void putDone() {
+      while (true) {
+        try {
+          this.queue.put(DONE);
+          return;
+        } catch (InterruptedException e) {
+          // keep trying: hasNext() and close() count on every worker putting DONE
+        }
+      }
+    }
+  }
+
   public class Transaction {
     long transNum;
     boolean active;
@@ -308,6 +640,37 @@ public class Database {
       return new RecordIterator(tab, index.lookupKey(key));
     }
 
+    /**
+     * Scans the records whose indexed column lies between low and high, in key order. Records are
+     * fetched as the scan reaches them, and the scan stops at the first key past high. A null
+     * bound leaves the range open on that side.
+     *
+     * @return an iterator over the records in the range
+     * @throws DatabaseException if there is no index on the column
+     */
+    public Iterator<Record> scanRange(String tableName, String columnName,
+                                      DataType low, boolean lowInclusive,
+                                      DataType high, boolean highInclusive) throws DatabaseException {
+      Table tab = getTable(tableName);
+      BPlusTree index = resolveIndexFromName(tableName, columnName);
+      return new RecordIterator(tab, index.scanRange(low, lowInclusive, high, highInclusive));
+    }
+
+    /**
+     * Looks up the RecordIDs of all records whose indexed column lies between low and high, without
+     * fetching the records. A null bound leaves the range open on that side.
+     *
+     * @return the RecordIDs in the range, in key order
+     * @throws DatabaseException if there is no index on the column
+     */
+    public List<RecordID> lookupRange(String tableName, String columnName,
+                                      DataType low, boolean lowInclusive,
+                                      DataType high, boolean highInclusive) throws DatabaseException {
+      checkAndGrabSharedLock(tableName);
+      BPlusTree index = resolveIndexFromName(tableName, columnName);
+      return index.lookupRange(low, lowInclusive, high, highInclusive);
+    }
+
     public boolean contains(String tableName, String columnName, DataType key) throws DatabaseException {
       checkAndGrabSharedLock(tableName);
       BPlusTree index = resolveIndexFromName(tableName, columnName);
@@ -324,10 +687,7 @@ public class Database {
       List<String> colNames = s.getFieldNames();
 
       for (int i = 0; i < colNames.size(); i++) {
-        String col = colNames.get(i);
-        if (indexExists(tableName, col)) {
-          resolveIndexFromName(tableName, col).insertKey(values.get(i), rid);
-        }
+        insertIndexEntry(tableName, colNames.get(i), values.get(i), rid);
       }
 
       return rid;
@@ -350,12 +710,101 @@ public class Database {
       Record rec = tab.deleteRecord(rid);
       List<DataType> values = rec.getValues();
       List<String> colNames = s.getFieldNames();
+      for (int i = 0; i < colNames.size(); i++) {
+        deleteIndexEntry(tableName, colNames.get(i), values.get(i), rid);
+      }
+    }
+
+    /**
+     * Compacts a table by emptying up to maxPages of its sparsest data pages into
+     * its denser ones and freeing them, then points every index on the table at
+     * the moved records. Holds the table's exclusive lock, so a large table
+     * should be compacted by calling this repeatedly with a small budget until it
+     * returns 0.
+     *
+     * @param tableName the name of the table to compact
+     * @param maxPages the maximum number of data pages to free
+     * @return the number of data pages freed
+     * @throws DatabaseException if the table does not exist, or an index on it
+     *         has no entry for a record that would move, in which case nothing
+     *         is moved
+     */
+    public int compactTable(String tableName, int maxPages) throws DatabaseException {
+      assert(active);
+
+      checkAndGrabExclusiveLock(tableName);
+      Table tab = getTable(tableName);
+      int numDataPages = tab.getNumDataPages();
+
+      // read the records that will move once, and check that every index has
+      // them before anything moves, so a bad index leaves the table untouched
+      List<Integer> sources = tab.getPagesToCompact(maxPages);
+      Map<RecordID, List<DataType>> values = new HashMap<RecordID, List<DataType>>();
+      Iterator<RecordView> views = tab.viewIterator(sources);
+      while (views.hasNext()) {
+        RecordView view = views.next();
+        values.put(view.getRecordID(), view.materialize().getValues());
+      }
+
+      List<String> colNames = tab.getSchema().getFieldNames();
       for (int i = 0; i < colNames.size(); i++) {
         String col = colNames.get(i);
-        if (indexExists(tableName, col)) {
-          resolveIndexFromName(tableName, col).deleteKey(values.get(i), rid);
+        if (getIndexBuild(tableName, col) != null || !indexExists(tableName, col)) {
+          continue;
+        }
+
+        BPlusTree index = resolveIndexFromName(tableName, col);
+        for (Map.Entry<RecordID, List<DataType>> entry : values.entrySet()) {
+          if (!index.containsEntry(entry.getValue().get(i), entry.getKey())) {
+            throw new DatabaseException("Index on column " + col + " has no entry for record "
+                + entry.getKey());
+          }
         }
       }
+
+      Map<RecordID, RecordID> moved = tab.compact(sources);
+      for (int i = 0; i < colNames.size(); i++) {
+        String col = colNames.get(i);
+        IndexBuild build = getIndexBuild(tableName, col);
+        if (build != null) {
+          for (Map.Entry<RecordID, RecordID> entry : moved.entrySet()) {
+            DataType key = values.get(entry.getKey()).get(i);
+            build.delete(key, entry.getKey());
+            build.insert(key, entry.getValue());
+          }
+          continue;
+        }
+        if (!indexExists(tableName, col)) {
+          continue;
+        }
+
+        BPlusTree index = resolveIndexFromName(tableName, col);
+        for (Map.Entry<RecordID, RecordID> entry : moved.entrySet()) {
+          DataType key = values.get(entry.getKey()).get(i);
+          if (!index.updateRecordID(key, entry.getKey(), entry.getValue())) {
+            throw new DatabaseException("Index on column " + col + " has no entry for moved record "
+                + entry.getKey());
+          }
+        }
+      }
+
+      return numDataPages - tab.getNumDataPages();
+    }
+
+    /**
+     * Stores the sealed pages of an append-only table compressed (see
+     * Table#compressSealedPages). Holds the table's exclusive lock, so no
+     * reader still has a page whose block is reused afterwards.
+     *
+     * @param tableName the name of the table to compress
+     * @return the number of pages that were compressed
+     * @throws DatabaseException if the table does not exist
+     */
+    public int compressTable(String tableName) throws DatabaseException {
+      assert(active);
+
+      checkAndGrabExclusiveLock(tableName);
+      return getTable(tableName).compressSealedPages();
     }
 
     public Record getRecord(String tableName, RecordID rid) throws DatabaseException {
@@ -365,6 +814,21 @@ public class Database {
       return getTable(tableName).getRecord(rid);
     }
 
+    /**
+     * Retrieves many records of a table at once, reading each page they are on only once.
+     *
+     * @param tableName the name of the table
+     * @param rids the RecordIDs of the records to retrieve
+     * @return the Records referenced by rids, in the iteration order of rids
+     * @throws DatabaseException if the table does not exist or a rid is invalid
+     */
+    public List<Record> getRecords(String tableName, Collection<RecordID> rids) throws DatabaseException {
+      assert(active);
+
+      checkAndGrabSharedLock(tableName);
+      return getTable(tableName).getRecords(rids);
+    }
+
     public Iterator<Record> getRecordIterator(String tableName) throws DatabaseException {
       assert(this.active);
 
@@ -372,6 +836,51 @@ public class Database {
       return getTable(tableName).iterator();
     }
 
+    public Iterator<RecordView> getRecordViewIterator(String tableName) throws DatabaseException {
+      assert(this.active);
+
+      checkAndGrabSharedLock(tableName);
+      return getTable(tableName).viewIterator();
+    }
+
+    public Iterator<RecordView> getRecordViewIterator(String tableName,
+                                                     List<Integer> columns,
+                                                     List<QueryPlan.PredicateOperator> predicates,
+                                                     List<DataType> values) throws DatabaseException {
+      assert(this.active);
+
+      checkAndGrabSharedLock(tableName);
+      return getTable(tableName).viewIterator(columns, predicates, values);
+    }
+
+    public Iterator<RecordView> getRecordViewIterator(String tableName,
+                                                     List<Integer> pageNums) throws DatabaseException {
+      assert(this.active);
+
+      checkAndGrabSharedLock(tableName);
+      return getTable(tableName).viewIterator(pageNums);
+    }
+
+    public List<Integer> getCandidatePages(String tableName,
+                                           List<Integer> columns,
+                                           List<QueryPlan.PredicateOperator> predicates,
+                                           List<DataType> values) throws DatabaseException {
+      assert(this.active);
+
+      checkAndGrabSharedLock(tableName);
+      return getTable(tableName).getCandidatePages(columns, predicates, values);
+    }
+
+    public int getNumCandidatePages(String tableName,
+                                    List<Integer> columns,
+                                    List<QueryPlan.PredicateOperator> predicates,
+                                    List<DataType> values) throws DatabaseException {
+      assert(this.active);
+
+      checkAndGrabSharedLock(tableName);
+      return getTable(tableName).getNumCandidatePages(columns, predicates, values);
+    }
+
     public Iterator<Page> getPageIterator(String tableName) throws DatabaseException {
       assert(this.active);
 
@@ -391,12 +900,8 @@ public class Database {
       List<String> colNames = s.getFieldNames();
 
       for (int i = 0; i < colNames.size(); i++) {
-        String col = colNames.get(i);
-        if (indexExists(tableName, col)) {
-          BPlusTree tree = resolveIndexFromName(tableName, col);
-          tree.deleteKey(oldValues.get(i), rid);
-          tree.insertKey(values.get(i), rid);
-        }
+        deleteIndexEntry(tableName, colNames.get(i), oldValues.get(i), rid);
+        insertIndexEntry(tableName, colNames.get(i), values.get(i), rid);
       }
     }
 
@@ -500,6 +1005,42 @@ public class Database {
       throw new DatabaseException("Index does not exist");
     }
 
+    /**
+     * Adds an entry to the index on a column, if the column has one. If the index is still being
+     * built, the entry is logged for the build instead.
+     */
+    private void insertIndexEntry(String tableName, String columnName, DataType key, RecordID rid) throws DatabaseException {
+      IndexBuild build = getIndexBuild(tableName, columnName);
+      if (build != null) {
+        build.insert(key, rid);
+      } else if (indexExists(tableName, columnName)) {
+        resolveIndexFromName(tableName, columnName).insertKey(key, rid);
+      }
+    }
+
+    /**
+     * Deletes an entry from the index on a column, if the column has one. If the index is still
+     * being built, the deletion is logged for the build instead.
+     */
+    private void deleteIndexEntry(String tableName, String columnName, DataType key, RecordID rid) throws DatabaseException {
+      IndexBuild build = getIndexBuild(tableName, columnName);
+      if (build != null) {
+        build.delete(key, rid);
+      } else if (indexExists(tableName, columnName)) {
+        resolveIndexFromName(tableName, columnName).deleteKey(key, rid);
+      }
+    }
+
+    /**
+     * @return the build of the index on a column, or null if no index is being built on it
+     */
+    private IndexBuild getIndexBuild(String tableName, String columnName) {
+      while (aliasMaps.containsKey(tableName)) {
+        tableName = aliasMaps.get(tableName);
+      }
+      return Database.this.indexBuilds.get(tableName + "," + columnName);
+    }
+
     private Table getTable(String tableName) throws DatabaseException {
       if (this.tempTables.containsKey(tableName)) {
         return this.tempTables.get(tableName);
@@ -534,6 +1075,7 @@ public class Database {
         this.locksHeld.put(tableName, LockManager.LockType.SHARED);
       } else {
         lockMan.acquireLock(tableName, this.transNum, LockManager.LockType.SHARED);
+        this.locksHeld.put(tableName, LockManager.LockType.SHARED);
       }
     }
 
@@ -556,6 +1098,7 @@ public class Database {
         this.locksHeld.put(tableName, LockManager.LockType.EXCLUSIVE);
       } else {
         lockMan.acquireLock(tableName, this.transNum, LockManager.LockType.EXCLUSIVE);
+        this.locksHeld.put(tableName, LockManager.LockType.EXCLUSIVE);
       }
     }
 
@@ -0,0 +1,131 @@
+package edu.berkeley.cs186.database.datatypes;
+
+/**
+ * Encodes DataTypes as normalized keys: byte strings whose unsigned lexicographic order is the
+ * order of the values they encode. Two keys of the same type can be compared with compare()
+ * without decoding either of them and without calling DataType#compareTo.
+ *
+ * INT: the value with its sign bit flipped, big endian
+ * FLOAT: the IEEE 754 bits, with the sign bit flipped for non-negative values and every bit
+ *        flipped for negative values, big endian; this orders floats the way Float.compare does,
+ *        so -0.0 sorts before 0.0 and NaN after every other value
+ * BOOL: 0 for false and 1 for true
+ * STRING: the UTF-8 bytes of the string. UTF-8 orders strings by code point, which agrees with
+ *         String#compareTo unless the strings hold characters outside the Basic Multilingual Plane
+ *
+ * A normalized key is exactly as long as the value's own serialization, DataType#getSize().
+ */
+public class KeyCodec {
+
+  /**
+   * @param key the value to encode
+   * @return the normalized key of value
+   */
+  public static byte[] encode(DataType key) {
+    byte[] dst = new byte[key.getSize()];
+    encode(key, dst, 0);
+    return dst;
+  }
+
+  /**
+   * Writes the normalized key of a value into dst.
+   *
+   * @param key the value to encode
+   * @param dst the buffer to write into
+   * @param offset the position in dst where the key starts
+   */
+  public static void encode(DataType key, byte[] dst, int offset) {
+    switch (key.type()) {
+      case BOOL:
+        dst[offset] = key.getBool() ? (byte) 1 : (byte) 0;
+        break;
+      case INT:
+        writeInt(dst, offset, key.getInt() ^ Integer.MIN_VALUE);
+        break;
+      case FLOAT:
+        int bits = Float.floatToIntBits(key.getFloat());
+        writeInt(dst, offset, bits ^ ((bits >> 31) | Integer.MIN_VALUE));
+        break;
+      case STRING:
+        byte[] bytes = key.getBytes();
+        System.arraycopy(bytes, 0, dst, offset, bytes.length);
+        break;
+    }
+  }
+
+  /**
+   * Decodes a normalized key.
+   *
+   * @param keySchema a value of the type of the key
+   * @param src the buffer holding the key
+   * @param offset the position in src where the key starts
+   * @param length the length of the key
+   * @return the value the key encodes
+   */
+  public static DataType decode(DataType keySchema, byte[] src, int offset, int length) {
+    switch (keySchema.type()) {
+      case BOOL:
+        return new BoolDataType(src[offset] != 0);
+      case INT:
+        return new IntDataType(readInt(src, offset) ^ Integer.MIN_VALUE);
+      case FLOAT:
+        int bits = readInt(src, offset);
+        bits = bits < 0 ? bits ^ Integer.MIN_VALUE : ~bits;
+        return new FloatDataType(Float.intBitsToFloat(bits));
+      case STRING:
+        return new StringDataType(src, offset, length);
+      default:
+        throw new DataTypeException("No type");
+    }
+  }
+
+  /**
+   * Compares two normalized keys. A key that is a prefix of the other sorts first.
+   *
+   * @return a negative number, zero, or a positive number as the first key is less than, equal to,
+   *         or greater than the second
+   */
+  public static int compare(byte[] a, int aOffset, int aLength, byte[] b, int bOffset, int bLength) {
+    int length = Math.min(aLength, bLength);
+    int i = 0;
+
+    // compare 8 bytes at a time while both keys have them
+    for (; i + 8 <= length; i += 8) {
+      long x = readLong(a, aOffset + i);
+      long y = readLong(b, bOffset + i);
+      if (x != y) {
+        return Long.compareUnsigned(x, y);
+      }
+    }
+
+    for (; i < length; i++) {
+      int x = a[aOffset + i] & 0xFF;
+      int y = b[bOffset + i] & 0xFF;
+      if (x != y) {
+        return x - y;
+      }
+    }
+
+    return aLength - bLength;
+  }
+
+  public static int compare(byte[] a, byte[] b) {
+    return compare(a, 0, a.length, b, 0, b.length);
+  }
+
+  private static int readInt(byte[] src, int pos) {
+    return ((src[pos] & 0xFF) << 24) | ((src[pos + 1] & 0xFF) << 16)
+        | ((src[pos + 2] & 0xFF) << 8) | (src[pos + 3] & 0xFF);
+  }
+
+  private static long readLong(byte[] src, int pos) {
+    return ((long) readInt(src, pos) << 32) | (readInt(src, pos + 4) & 0xFFFFFFFFL);
+  }
+
+  private static void writeInt(byte[] dst, int pos, int value) {
+    dst[pos] = (byte) (value >>> 24);
+    dst[pos + 1] = (byte) (value >>> 16);
+    dst[pos + 2] = (byte) (value >>> 8);
+    dst[pos + 3] = (byte) value;
+  }
+}
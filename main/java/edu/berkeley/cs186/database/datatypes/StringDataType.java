@@ -8,6 +8,8 @@ import java.nio.ByteBuffer;
  * Fixed-length String data type which serializes to UTF-8 bytes.
  */
 public class StringDataType extends DataType {
+  public static final Charset UTF8 = Charset.forName("UTF-8");
+
   private String s;
 
   /**
@@ -37,7 +39,18 @@ public class StringDataType extends DataType {
    * @param buf the byte buffer source
    */
   public StringDataType(byte[] buf) {
-    this.s = new String(buf, Charset.forName("UTF-8"));
+    this.s = new String(buf, UTF8);
+  }
+
+  /**
+   * Construct a StringDataType from len bytes of buf starting at offset.
+   *
+   * @param buf the byte buffer source
+   * @param offset the position of the first byte of the string in buf
+   * @param len the number of bytes to decode
+   */
+  public StringDataType(byte[] buf, int offset, int len) {
+    this.s = new String(buf, offset, len, UTF8);
   }
 
   public StringDataType(int len) {
@@ -95,12 +108,12 @@ public class StringDataType extends DataType {
 
   @Override
   public byte[] getBytes() {
-    return this.s.getBytes(Charset.forName("UTF-8"));
+    return this.s.getBytes(UTF8);
   }
 
   @Override
   public int getSize() {
-    return s.getBytes(Charset.forName("UTF-8")).length;
+    return s.getBytes(UTF8).length;
   }
 
   @Override
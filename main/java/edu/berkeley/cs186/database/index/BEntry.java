@@ -6,8 +6,20 @@ import edu.berkeley.cs186.database.table.RecordID;
 import java.util.Arrays;
 import java.nio.ByteBuffer;
 
+/**
+ * An entry of a B+ tree node. Nodes store keys as normalized keys (see KeyCodec), and an entry read
+ * out of a node keeps the normalized key and only decodes it into a DataType when getKey() is
+ * called, so entries can be sorted and searched without decoding their keys.
+ *
+ * Properties:
+ * `key`: the search key, or null if it hasn't been decoded yet
+ * `keyBytes`: the normalized search key, or null if it hasn't been encoded yet
+ * `keySchema`: the DataType of the tree's search key, used to decode keyBytes
+ */
 public abstract class BEntry implements Comparable {
   protected DataType key;
+  protected byte[] keyBytes;
+  protected DataType keySchema;
 
   public BEntry() {
   }
@@ -18,14 +30,47 @@ public abstract class BEntry implements Comparable {
   }
 
   public BEntry(DataType keySchema, byte[] buff) {
-    throw new BPlusTreeException("Not Implemented");
+    this.keySchema = keySchema;
+    this.keyBytes = Arrays.copyOfRange(buff, 0, keySchema.getSize());
   }
 
 
   public DataType getKey() {
+    if (key == null) {
+      key = KeyCodec.decode(keySchema, keyBytes, 0, keyBytes.length);
+    }
     return key;
   }
 
+  public byte[] getKeyBytes() {
+    if (keyBytes == null) {
+      keyBytes = KeyCodec.encode(key);
+    }
+    return keyBytes;
+  }
+
+  /**
+   * Compares the key of this entry with a normalized key.
+   *
+   * @param otherKeyBytes the normalized key to compare against
+   * @return a negative number, zero, or a positive number as the key of this entry is less than,
+   *         equal to, or greater than otherKeyBytes
+   */
+  public int compareKey(byte[] otherKeyBytes) {
+    return KeyCodec.compare(getKeyBytes(), otherKeyBytes);
+  }
+
+  /**
+   * Compares the keys of two entries of the same tree, which must have the same size.
+   */
+  protected int compareKeys(BEntry other) {
+    byte[] otherKeyBytes = other.getKeyBytes();
+    if (otherKeyBytes.length != getKeyBytes().length) {
+      throw new BPlusTreeException("Keys in BEntry compareTo have differing sizes");
+    }
+    return compareKey(otherKeyBytes);
+  }
+
   public int getPageNum() {
     throw new BPlusTreeException("Not Implemented");
   }
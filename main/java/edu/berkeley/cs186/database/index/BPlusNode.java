@@ -1,37 +1,83 @@
 package edu.berkeley.cs186.database.index;
 
 import edu.berkeley.cs186.database.io.Page;
-import edu.berkeley.cs186.database.datatypes.DataType;
+import edu.berkeley.cs186.database.datatypes.*;
 import edu.berkeley.cs186.database.table.RecordID;
 
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
 import java.util.ArrayList;
 
 /**
- * A B+ tree node. A node is represented as a page with a page header, slot
- * bitmap, and entries. The type of page header and entry are determined by
- * the subclasses InnerNode and LeafNode.
+ * A B+ tree node. A node is represented as a page with a page header, the
+ * number of entries in the node, and the entries themselves, packed one after
+ * the other in sorted order starting at slot 0. The type of page header and
+ * entry are determined by the subclasses InnerNode and LeafNode.
+ *
+ * An entry of a leaf is its normalized key (see KeyCodec) followed by a
+ * RecordID. An entry of an inner node is a separator, a normalized key followed
+ * by a RecordID, and then a child page number. None of these are ever negative,
+ * so the bytes of an entry compare, as unsigned bytes, the way the entry does.
+ * Searches binary-search the keys in the page and inserts shift the entries
+ * after the new one over by one slot, so neither decodes the entries of the
+ * node.
+ *
+ * Nodes of trees with STRING keys are stored compressed instead (see
+ * PrefixCodec): the prefix all their keys share is stored once, and the keys
+ * are stored without it and without their trailing padding, so that they hold
+ * as many entries as fit rather than a fixed number. Leaves of trees with
+ * posting lists are compressed too, and also store each key once, followed by
+ * the RecordIDs of its entries (see PostingCodec). Compressed nodes are decoded
+ * whole whenever they change, and they split when an entry doesn't fit.
+ *
+ * Deletes remove entries from their leaf without restructuring the tree, so
+ * nodes may be left underfull or even empty. The tree merges or redistributes
+ * underfull nodes later, in batches (see BPlusTree#rebalance).
+ *
+ * Every node starts with the same header: its type, the page number of the
+ * node to its right on the same level (or -1 for the last one), its level
+ * (0 for leaves), and its high key, the separator of the node to its right
+ * in their parent, which no entry of the node is greater than (absent for the
+ * last node of a level). A split moves the upper half of a node into a new
+ * node to its right, so a search that reaches the node before the new node's
+ * entry is in the parent finds it through the right link (see BPlusTree).
+ * A node doesn't store the page number of its parent, so splitting an inner
+ * node doesn't have to rewrite the header of every child that moves to the
+ * new node.
+ *
+ * A node doesn't latch its page itself: BPlusTree latches a node before using
+ * it.
  *
  * Properties:
  * `keySchema`: the DataType for this index's search key
+ * `keySize`: the physical size (in bytes) of the search key
  * `entrySize`: the physical size (in bytes) of a page entry of this node
- * `numEntries`: number of entries this node can hold
- * `bitMapSize`: physical size (in bytes) of a page header slot bitmap
+ * `numEntries`: number of entries this node can hold, unless it is compressed
  * `headerSize`: physical size (in bytes) of the rest of the page header
  * `tree`: the BPlusTree containing this node
  * `pageNum`: the page number corresponding to this node
+ * `codec`: the PrefixCodec (or PostingCodec) of a compressed node, or null
  */
 public abstract class BPlusNode {
+  private static final int ENTRY_COUNT_SIZE = 4;
+  private static final int RIGHT_LINK_OFFSET = 1;
+  private static final int LEVEL_OFFSET = 5;
+  private static final int HIGH_KEY_FLAG_OFFSET = 6;
+  protected static final int HIGH_KEY_OFFSET = 7;
+  // the size of the header of leaves, and of inner nodes, before FORMAT_BLINK
+  private static final int LEGACY_LEAF_HEADER_SIZE = 9;
+  private static final int LEGACY_INNER_HEADER_SIZE = 5;
+
   private DataType keySchema;
-  
+
+  private int keySize;
   private int entrySize;
   protected int numEntries;
-  private int bitMapSize;
   private int headerSize;
   private BPlusTree tree;
   private int pageNum;
-  
+  private PrefixCodec codec;
+
   /**
    * Abstract Constructor for BPlusNode for existing Nodes
    *
@@ -44,18 +90,26 @@ public abstract class BPlusNode {
     this.keySchema = tree.keySchema;
     this.tree = tree;
     this.pageNum = pageNum;
+    this.keySize = keySchema.getSize();
     if (isLeaf) {
-      this.headerSize = 13;
-      this.entrySize = keySchema.getSize() + RecordID.getSize();
+      this.headerSize = HIGH_KEY_OFFSET + getSeparatorSize();
+      this.entrySize = this.keySize + RecordID.getSize();
     } else {
-      this.headerSize = 9;
-      this.entrySize = keySchema.getSize() + 4;
+      // the page number of the first child follows the high key
+      this.headerSize = HIGH_KEY_OFFSET + getSeparatorSize() + 4;
+      this.entrySize = this.keySize + RecordID.getSize() + 4;
+    }
+    if (isLeaf && tree.hasPostingLists()) {
+      this.codec = new PostingCodec(this.keySize, this.entrySize - this.keySize);
+    } else if (keySchema.type() == DataType.Types.STRING) {
+      this.codec = new PrefixCodec(this.keySize, this.entrySize - this.keySize);
     }
 
-    this.bitMapSize = (8 * (Page.pageSize - 13) / (1 + 8 * this.entrySize)) / 8;
-    this.numEntries = bitMapSize * 8;
+    // the capacity nodes had when they tracked their slots with a bitmap, so
+    // that the fan-out of a tree, and the costs estimated from it, stay the same
+    this.numEntries = getLegacyBitMapSize() * 8;
   }
-  
+
   /**
    * Abstract Constructor for BPlusNode for new Nodes.
    * Auto-allocates Page for this node
@@ -64,8 +118,9 @@ public abstract class BPlusNode {
    */
   public BPlusNode(BPlusTree tree, boolean isLeaf) {
     this(tree, tree.allocator.allocPage(), isLeaf);
+    writeEntryBytes(new byte[0], 0);
   }
-  
+
   /**
    * Helper method to return an existing Node from a Page
    * @param tree the BPlusTree this Node belongs to
@@ -74,9 +129,9 @@ public abstract class BPlusNode {
    */
   public static BPlusNode getBPlusNode(BPlusTree tree, int pageNum) {
     if (tree.allocator.fetchPage(pageNum).readByte(0) == (byte) 0) {
-      return new InnerNode(tree, pageNum);  
+      return new InnerNode(tree, pageNum);
     }
-    return new LeafNode(tree, pageNum);  
+    return new LeafNode(tree, pageNum);
   }
 
   /**
@@ -90,11 +145,87 @@ public abstract class BPlusNode {
   public int getPageNum() {
     return pageNum;
   }
-  
+
+  /**
+   * @return the page number of the node to the right of this one on its
+   *         level, or -1 if this is the last one
+   */
+  public int getRightLink() {
+    return getPage().readInt(RIGHT_LINK_OFFSET);
+  }
+
+  public void setRightLink(int pageNum) {
+    getPage().writeInt(RIGHT_LINK_OFFSET, pageNum);
+    changed();
+  }
+
+  /**
+   * @return the level of this node: 0 for leaves, and one more than the
+   *         level of its children for inner nodes
+   */
+  public int getLevel() {
+    return getPage().readByte(LEVEL_OFFSET);
+  }
+
+  public void setLevel(int level) {
+    getPage().writeByte(LEVEL_OFFSET, (byte) level);
+    changed();
+  }
+
+  /**
+   * @return the high key of this node, or null if it is the last one of its
+   *         level
+   */
+  public byte[] getHighKey() {
+    if (getPage().readByte(HIGH_KEY_FLAG_OFFSET) == 0) {
+      return null;
+    }
+    return getPage().readBytes(HIGH_KEY_OFFSET, getSeparatorSize());
+  }
+
+  /**
+   * @param highKey a separator, or null if this node is the last one of its
+   *                level
+   */
+  public void setHighKey(byte[] highKey) {
+    getPage().writeByte(HIGH_KEY_FLAG_OFFSET, (byte) (highKey == null ? 0 : 1));
+    if (highKey != null) {
+      getPage().writeBytes(HIGH_KEY_OFFSET, getSeparatorSize(), highKey);
+    }
+    changed();
+  }
+
+  /**
+   * @param keyBytes a normalized key, or the bytes of an entry
+   * @return whether keyBytes is greater than the high key of this node, and
+   *         so belongs in a node to its right
+   */
+  public boolean isPastHighKey(byte[] keyBytes) {
+    byte[] highKey = getHighKey();
+    return highKey != null && KeyCodec.compare(keyBytes, 0, keyBytes.length, highKey, 0, highKey.length) > 0;
+  }
+
+  /**
+   * @return the size (in bytes) of a separator: a key followed by a RecordID
+   */
+  protected int getSeparatorSize() {
+    return this.keySize + RecordID.getSize();
+  }
+
+  /**
+   * Drops an inner node from the tree's cache of decoded nodes after it has
+   * changed.
+   */
+  protected void changed() {
+    if (!isLeaf()) {
+      this.tree.invalidateNode(this.pageNum);
+    }
+  }
+
   public boolean hasSpace() {
-    return findFreeSlot() > -1;
+    return getNumValidEntries() < this.numEntries;
   }
-  
+
   /**
    * Retrieves the BPlusTree that this BPlusNode belongs to
    * @return the BPlusTree that owns this node
@@ -103,54 +234,139 @@ public abstract class BPlusNode {
     return tree;
   }
 
-  public void splitNode() {
+  /**
+   * Splits this node, moving the upper half of its entries into a new node
+   * to its right. The new node is written in full before this node links to
+   * it. Its entry still has to be inserted into the parent (see
+   * BPlusTree#insertKey).
+   *
+   * @param entries the entries to split between this node and the new one,
+   *                packed one after the other in sorted order; one more than
+   *                this node can hold
+   * @param count the number of entries
+   * @return the entry of the new node in the parent
+   */
+  public InnerEntry splitNode(byte[] entries, int count) {
     throw new BPlusTreeException("Not Implemented");
   }
- 
+
   public boolean isLeaf() {
     throw new BPlusTreeException("Not Implemented");
   }
 
-  public boolean isRoot() {
-    return getParent() == -1;
+  /**
+   * Merges this node's right sibling into it, or moves entries between them.
+   * Called by BPlusTree#rebalance, with both nodes and their parent latched.
+   *
+   * @param parent the parent of both nodes
+   * @param sepSlot the slot of the right sibling's entry in the parent
+   * @param right the right sibling
+   * @return whether the right sibling was merged into this node, in which
+   *         case its page is free to be freed
+   */
+  public boolean rebalance(InnerNode parent, int sepSlot, BPlusNode right) {
+    throw new BPlusTreeException("Not Implemented");
+  }
+
+  /**
+   * @return whether this node holds fewer than a quarter of the entries it can
+   *         hold, and should be merged with or filled up from a sibling
+   */
+  public boolean isUnderfull() {
+    if (this.codec != null) {
+      return this.codec.getSize(readEncodedEntries()) < getCapacity() / 4;
+    }
+    return getNumValidEntries() < this.numEntries / 4;
+  }
+
+  /**
+   * @param entries entries packed one after the other, in sorted order
+   * @param count the number of entries
+   * @return whether the entries fit in this node without filling it
+   */
+  protected boolean canHold(byte[] entries, int count) {
+    if (this.codec != null) {
+      return this.codec.getEncodedSize(entries, count) <= getCapacity();
+    }
+    return count < this.numEntries;
+  }
+
+  /**
+   * @param bytes the bytes of an entry
+   * @return whether the entry can be inserted into this node without
+   *         splitting it
+   */
+  public boolean hasSpaceFor(byte[] bytes) {
+    int count = getNumValidEntries();
+    if (this.codec != null) {
+      return canHold(withEntry(entryUpperBound(bytes), bytes), count + 1);
+    }
+    return count + 1 < this.numEntries;
   }
 
-  public int getParent() {
-    return getPage().readInt(1);
+  /**
+   * @return whether this node is stored compressed (see PrefixCodec)
+   */
+  public boolean isCompressed() {
+    return this.codec != null;
   }
 
-  public void setParent(int val) {
-    getPage().writeInt(1, val);
+  /**
+   * @return the most entries a compressed node can hold
+   */
+  protected int getMaxCount() {
+    return this.codec.getMaxCount(getCapacity());
   }
-  
-  private byte[] getBitMap() {
-    return getPage().readBytes(headerSize, bitMapSize);
+
+  /**
+   * @param entries entries packed one after the other, in sorted order
+   * @param count the number of entries
+   * @param fillFactor the fraction of the node to fill
+   * @return how many of the entries, from the first one on, fill no more than
+   *         fillFactor of a compressed node, but at least one
+   */
+  protected int getFitCount(byte[] entries, int count, double fillFactor) {
+    int fit = this.codec.getFitCount(entries, count, (int) (getCapacity() * fillFactor));
+    return Math.min(count, Math.max(1, fit));
   }
 
-  private void setBitMap(byte[] bitMap) {
-    getPage().writeBytes(headerSize, bitMapSize, bitMap);
+  /**
+   * @return the number of bytes of the page the entries of a compressed node
+   *         may take up
+   */
+  private int getCapacity() {
+    return Page.pageSize - this.headerSize;
   }
 
-  public int getOffset(int slotNum) {
-    return slotNum*entrySize + this.headerSize + this.bitMapSize;
+  /**
+   * @return the bytes of the page from the entry count on, of a compressed node
+   */
+  private byte[] readEncodedEntries() {
+    return getPage().readBytes(this.headerSize, getCapacity());
   }
 
   /**
-   * Writes a given entry into the given slot specified.
-   *
-   * @param slot the slot number to fill
-   * @param ent the entry to write
+   * @return the number of entries in this node
    */
-  private void writeEntry(int slot, BEntry ent) {
-    int byteOffset = slot/8;
-    int bitOffset = 7 - (slot % 8);
-    byte mask = (byte) (1 << bitOffset);
-    
-    byte[] bitMap = getBitMap();
-    bitMap[byteOffset] = (byte) (bitMap[byteOffset] | mask);
-    setBitMap(bitMap); 
-    int entryOffset = getOffset(slot);
-    getPage().writeBytes(entryOffset, entrySize, ent.toBytes());
+  public int getNumValidEntries() {
+    return getPage().readInt(this.headerSize);
+  }
+
+  protected void setNumValidEntries(int count) {
+    getPage().writeInt(this.headerSize, count);
+    changed();
+  }
+
+  public int getOffset(int slotNum) {
+    return slotNum*entrySize + this.headerSize + ENTRY_COUNT_SIZE;
+  }
+
+  protected int getKeySize() {
+    return this.keySize;
+  }
+
+  protected int getEntrySize() {
+    return this.entrySize;
   }
 
   /**
@@ -159,32 +375,107 @@ public abstract class BPlusNode {
    * @param slot the slot number to read from
    * @return the entry corresponding to the slot
    */
-  private BEntry readEntry(int slot) {
+  protected BEntry readEntry(int slot) {
+    return toEntry(readEntryBytes(slot, slot + 1));
+  }
+
+  private BEntry toEntry(byte[] bytes) {
     if (isLeaf()) {
-      return new LeafEntry(this.keySchema, getPage().readBytes(getOffset(slot), entrySize));
+      return new LeafEntry(this.keySchema, bytes);
     } else {
-      return new InnerEntry(this.keySchema, getPage().readBytes(getOffset(slot), entrySize));
+      return new InnerEntry(this.keySchema, bytes);
     }
   }
-  
+
   /**
-   * Returns the slot number of the first free slot of this node.
+   * Compares the first length bytes of the entry in a slot with bytes.
    *
-   * @return the first free slot, otherwise -1 if none exists
-   */
-  private int findFreeSlot() {
-    byte[] bitMap = this.getBitMap();
-
-    for (int i = 0; i < this.numEntries; i++) {
-      int byteOffset = i/8;
-      int bitOffset = 7 - (i % 8);
-      byte mask = (byte) (1 << bitOffset);
-      byte value = (byte) (bitMap[byteOffset] & mask);
-      if (value == 0) {
-        return i;
+   * @param slot the slot of the entry
+   * @param bytes the bytes to compare against
+   * @param length the number of bytes of the entry to compare
+   * @param scratch a buffer of at least length bytes to read the entry into
+   * @return a negative number, zero, or a positive number as the entry is less
+   *         than, equal to, or greater than bytes
+   */
+  private int compareAt(int slot, byte[] bytes, int length, byte[] scratch) {
+    getPage().readBytes(getOffset(slot), length, scratch);
+    return KeyCodec.compare(scratch, 0, length, bytes, 0, bytes.length);
+  }
+
+  /**
+   * Binary-searches the entries of this node for the first one whose first
+   * length bytes are greater than bytes, or, if inclusive is set, greater than
+   * or equal to bytes.
+   */
+  private int search(byte[] bytes, int length, boolean inclusive) {
+    if (this.codec != null) {
+      return this.codec.search(readEncodedEntries(), bytes, length, inclusive);
+    }
+
+    byte[] scratch = new byte[length];
+    int low = 0;
+    int high = getNumValidEntries();
+
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      int c = compareAt(mid, bytes, length, scratch);
+      if (c < 0 || (c == 0 && !inclusive)) {
+        low = mid + 1;
+      } else {
+        high = mid;
       }
     }
-    return -1;
+    return low;
+  }
+
+  /**
+   * @param ent an entry
+   * @return the slot of an entry equal to ent, or -1 if this node has none
+   */
+  protected int findEntry(BEntry ent) {
+    byte[] bytes = ent.toBytes();
+    int slot = entryLowerBound(bytes);
+
+    if (slot == getNumValidEntries() || !Arrays.equals(readEntryBytes(slot, slot + 1), bytes)) {
+      return -1;
+    }
+    return slot;
+  }
+
+  /**
+   * @param keyBytes a normalized key
+   * @return the first slot whose key is greater than or equal to keyBytes, or
+   *         the number of entries if there is none
+   */
+  protected int lowerBound(byte[] keyBytes) {
+    return search(keyBytes, this.keySize, true);
+  }
+
+  /**
+   * @param keyBytes a normalized key
+   * @return the first slot whose key is greater than keyBytes, or the number of
+   *         entries if there is none
+   */
+  protected int upperBound(byte[] keyBytes) {
+    return search(keyBytes, this.keySize, false);
+  }
+
+  /**
+   * @param entryBytes the bytes of an entry
+   * @return the first slot whose entry is greater than or equal to
+   *         entryBytes, or the number of entries if there is none
+   */
+  protected int entryLowerBound(byte[] entryBytes) {
+    return search(entryBytes, entrySize, true);
+  }
+
+  /**
+   * @param entryBytes the bytes of an entry
+   * @return the first slot whose entry is greater than entryBytes, or the
+   *         number of entries if there is none
+   */
+  protected int entryUpperBound(byte[] entryBytes) {
+    return search(entryBytes, entrySize, false);
   }
 
   /**
@@ -193,59 +484,326 @@ public abstract class BPlusNode {
    * @return a list of entries that have the valid bit set
    */
   protected List<BEntry> getAllValidEntries() {
-    byte[] bitMap = this.getBitMap();
-    List<BEntry> entries = new ArrayList<BEntry>(); 
-    for (int i = 0; i < this.numEntries; i++) {
-      int byteOffset = i/8;
-      int bitOffset = 7 - (i % 8);
-      byte mask = (byte) (1 << bitOffset);
-      
-      byte value = (byte) (bitMap[byteOffset] & mask);
-      
-      if (value != 0) {
-        entries.add(readEntry(i));
-      }
+    int count = getNumValidEntries();
+    byte[] bytes = readEntryBytes(0, count);
+    List<BEntry> entries = new ArrayList<BEntry>(count);
+
+    for (int i = 0; i < count; i++) {
+      entries.add(toEntry(Arrays.copyOfRange(bytes, i * entrySize, (i + 1) * entrySize)));
     }
     return entries;
   }
 
   /**
    * Clears all the entries of this node, and writes all the given entries into
-   * the node, starting from the first slot.
+   * the node, starting from the first slot. The entries must be sorted.
    *
    * @param entries the list of entries to write
    */
   protected void overwriteBNodeEntries(List<BEntry> entries) {
-    byte[] zeros = new byte[bitMapSize];
-    setBitMap(zeros);
-    if (entries.size() > numEntries) {
+    writeEntryBytes(toBytes(entries), entries.size());
+  }
+
+  /**
+   * @param entries a list of entries
+   * @return the entries packed one after the other
+   */
+  protected byte[] toBytes(List<BEntry> entries) {
+    byte[] bytes = new byte[entries.size() * entrySize];
+    for (int i = 0; i < entries.size(); i++) {
+      System.arraycopy(entries.get(i).toBytes(), 0, bytes, i * entrySize, entrySize);
+    }
+    return bytes;
+  }
+
+  /**
+   * @param fromSlot the first slot to read
+   * @param toSlot the slot after the last slot to read
+   * @return the entries in the slots, packed one after the other
+   */
+  protected byte[] readEntryBytes(int fromSlot, int toSlot) {
+    if (this.codec != null) {
+      return this.codec.decode(readEncodedEntries(), fromSlot, toSlot);
+    }
+    return getPage().readBytes(getOffset(fromSlot), (toSlot - fromSlot) * entrySize);
+  }
+
+  /**
+   * Replaces the entries of this node with entries that are already packed
+   * one after the other, in sorted order.
+   *
+   * @param bytes the packed entries
+   * @param count the number of entries in bytes
+   */
+  protected void writeEntryBytes(byte[] bytes, int count) {
+    if (this.codec != null) {
+      byte[] encoded = this.codec.encode(bytes, count);
+      if (encoded.length > getCapacity()) {
+        throw new BPlusTreeException("too many BEntry given to fit on page");
+      }
+      getPage().writeBytes(this.headerSize, encoded.length, encoded);
+      setNumValidEntries(count);
+      return;
+    }
+
+    if (count > numEntries) {
       throw new BPlusTreeException("too many BEntry given to fit on page");
     }
+    getPage().writeBytes(getOffset(0), count * entrySize, bytes);
+    setNumValidEntries(count);
+  }
 
-    for (int i = 0; i < entries.size(); i++) {
-      writeEntry(i, entries.get(i));
+  /**
+   * @param slot a slot
+   * @param bytes the bytes of an entry
+   * @return the entries of this node, packed one after the other, with the
+   *         entry inserted into the slot
+   */
+  protected byte[] withEntry(int slot, byte[] bytes) {
+    int count = getNumValidEntries();
+    byte[] entries = new byte[(count + 1) * entrySize];
+    byte[] before = readEntryBytes(0, slot);
+    byte[] after = readEntryBytes(slot, count);
+    System.arraycopy(before, 0, entries, 0, before.length);
+    System.arraycopy(bytes, 0, entries, before.length, entrySize);
+    System.arraycopy(after, 0, entries, before.length + entrySize, after.length);
+    return entries;
+  }
+
+  /**
+   * Picks where to split entries between two nodes: as close to the middle
+   * as both nodes can hold their share. The entries of compressed nodes take
+   * up different amounts of room, so that is not always the middle.
+   *
+   * @param entries the entries to split, packed one after the other
+   * @param count the number of entries
+   * @param gap the number of entries between the two shares, which go to
+   *            neither node
+   * @return the number of entries of the first share
+   */
+  protected int getSplitSlot(byte[] entries, int count, int gap) {
+    int middle = count / 2;
+    if (this.codec == null) {
+      return middle;
+    }
+
+    for (int distance = 0; distance <= count; distance++) {
+      for (int slot : new int[] {middle - distance, middle + distance}) {
+        int rightCount = count - slot - gap;
+        if (slot < 1 || rightCount < 1 - gap) {
+          continue;
+        }
+        if (canHold(entries, slot)
+            && canHold(Arrays.copyOfRange(entries, (slot + gap) * entrySize, count * entrySize), rightCount)) {
+          return slot;
+        }
+      }
+    }
+    throw new BPlusTreeException("entries do not fit in two nodes");
+  }
+
+  /**
+   * @return the separator to split the entries of two leaves by, in their
+   *         parent: the first entry of the right leaf or, in a tree with STRING
+   *         keys, if the last key of the left leaf is a different one, the
+   *         shortest key that still separates the two (see
+   *         PrefixCodec#getSeparator), followed by the smallest RecordID
+   */
+  protected byte[] getSeparatorKey(byte[] left, int leftOffset, byte[] right, int rightOffset) {
+    int separatorSize = this.keySize + RecordID.getSize();
+    if (this.keySchema.type() == DataType.Types.STRING
+        && KeyCodec.compare(left, leftOffset, this.keySize, right, rightOffset, this.keySize) != 0) {
+      return Arrays.copyOf(this.codec.getSeparator(left, leftOffset, right, rightOffset), separatorSize);
     }
+    return Arrays.copyOfRange(right, rightOffset, rightOffset + separatorSize);
   }
 
   /**
-   * Inserts an entry into this node. Note that we split this node immediately
-   * after it becomes full rather than when trying to insert an entry into a
+   * Writes the bytes of an entry into its sorted position, shifting the
+   * entries after it over by one slot.
+   */
+  private void insertEntryBytes(byte[] bytes) {
+    insertEntryBytes(entryUpperBound(bytes), bytes);
+  }
+
+  /**
+   * Writes the bytes of an entry into a slot, shifting the entries from that
+   * slot on over by one slot.
+   *
+   * @param slot the slot to write the entry into
+   * @param bytes the entry
+   */
+  protected void insertEntryBytes(int slot, byte[] bytes) {
+    int count = getNumValidEntries();
+    if (this.codec != null) {
+      writeEntryBytes(withEntry(slot, bytes), count + 1);
+      return;
+    }
+
+    if (slot < count) {
+      int length = (count - slot) * entrySize;
+      byte[] tail = getPage().readBytes(getOffset(slot), length);
+      getPage().writeBytes(getOffset(slot + 1), length, tail);
+    }
+    getPage().writeBytes(getOffset(slot), entrySize, bytes);
+    setNumValidEntries(count + 1);
+  }
+
+  /**
+   * Removes the entry in a slot, shifting the entries after it back by one
+   * slot.
+   *
+   * @param slot the slot of the entry to remove
+   */
+  protected void removeEntry(int slot) {
+    int count = getNumValidEntries();
+    if (this.codec != null) {
+      byte[] entries = readEntryBytes(0, count);
+      byte[] rest = new byte[(count - 1) * entrySize];
+      System.arraycopy(entries, 0, rest, 0, slot * entrySize);
+      System.arraycopy(entries, (slot + 1) * entrySize, rest, slot * entrySize, rest.length - slot * entrySize);
+      writeEntryBytes(rest, count - 1);
+      return;
+    }
+
+    if (slot < count - 1) {
+      int length = (count - slot - 1) * entrySize;
+      byte[] tail = getPage().readBytes(getOffset(slot + 1), length);
+      getPage().writeBytes(getOffset(slot), length, tail);
+    }
+    setNumValidEntries(count - 1);
+  }
+
+  /**
+   * Inserts an entry into this node. Note that we split this node as soon as
+   * it would become full rather than when trying to insert an entry into a
    * full node.
    *
    * @param ent the entry to insert
+   * @return the entry of the node split off this one (see splitNode), or null
+   *         if this node didn't split
+   */
+  public InnerEntry insertBEntry(BEntry ent) {
+    byte[] bytes = ent.toBytes();
+    return insertOrSplit(entryUpperBound(bytes), bytes);
+  }
+
+  /**
+   * Writes the bytes of an entry into a slot, or, if this node can't hold it,
+   * splits this node's entries and the new one between this node and a new
+   * one.
+   *
+   * @param slot the slot to write the entry into
+   * @param bytes the entry
+   * @return the entry of the node split off this one, or null if this node
+   *         didn't split
    */
-  public void insertBEntry(BEntry ent) {
-    if (!hasSpace()) {
-      throw new BPlusTreeException("Node should have split before; Currently is full");
+  protected InnerEntry insertOrSplit(int slot, byte[] bytes) {
+    if (hasSpaceFor(bytes)) {
+      insertEntryBytes(slot, bytes);
+      return null;
     }
-    List<BEntry> entries = getAllValidEntries();
-    entries.add(ent);
-    Collections.sort(entries);
-    overwriteBNodeEntries(entries);
-    if (!hasSpace()) {
-      splitNode();
+    return splitNode(withEntry(slot, bytes), getNumValidEntries() + 1);
+  }
+
+  /**
+   * Overwrites the entry in a slot without moving it. The new entry must sort
+   * between the entries on either side of the slot.
+   *
+   * @param slot the slot of the entry to overwrite
+   * @param ent the new entry
+   */
+  protected void writeEntry(int slot, BEntry ent) {
+    if (this.codec != null) {
+      byte[] entries = readEntryBytes(0, getNumValidEntries());
+      System.arraycopy(ent.toBytes(), 0, entries, slot * entrySize, entrySize);
+      writeEntryBytes(entries, getNumValidEntries());
+      return;
     }
-   }
+    getPage().writeBytes(getOffset(slot), entrySize, ent.toBytes());
+    changed();
+  }
+
+  /**
+   * Reads the entries of a leaf written by an older version of the index.
+   * Before FORMAT_BLINK, the header of a leaf held the page numbers of the
+   * leaves before and after it, and nothing else. Before
+   * FORMAT_PREFIX_COMPRESSION, leaves with STRING keys were not
+   * compressed. Before FORMAT_NO_PARENT_POINTERS, nodes kept the page number of
+   * their parent in their header, in front of the other page numbers there.
+   * Before FORMAT_SORTED_NODES, nodes also kept their entries unsorted in the
+   * slots marked in a slot bitmap, and before FORMAT_NORMALIZED_KEYS, their
+   * keys in their DataType serialization.
+   *
+   * @param format the format the index was written in (see BPlusTree)
+   * @return the entries of the leaf, not necessarily in sorted order
+   */
+  List<byte[]> readLegacyEntries(int format) {
+    int legacyHeaderSize = isLeaf() ? LEGACY_LEAF_HEADER_SIZE : LEGACY_INNER_HEADER_SIZE;
+    if (format < BPlusTree.FORMAT_NO_PARENT_POINTERS) {
+      legacyHeaderSize += 4;
+    }
+    List<byte[]> entries = new ArrayList<byte[]>();
+
+    if (this.codec != null && format >= BPlusTree.FORMAT_PREFIX_COMPRESSION) {
+      int count = getPage().readInt(legacyHeaderSize);
+      byte[] encoded = getPage().readBytes(legacyHeaderSize, Page.pageSize - legacyHeaderSize);
+      byte[] bytes = this.codec.decode(encoded, 0, count);
+      for (int i = 0; i < count; i++) {
+        entries.add(Arrays.copyOfRange(bytes, i * entrySize, (i + 1) * entrySize));
+      }
+    } else if (format < BPlusTree.FORMAT_SORTED_NODES) {
+      int bitMapSize = getLegacyBitMapSize();
+      int entriesOffset = legacyHeaderSize + bitMapSize;
+      byte[] bitMap = getPage().readBytes(legacyHeaderSize, bitMapSize);
+
+      for (int i = 0; i < this.numEntries; i++) {
+        if ((bitMap[i/8] & (1 << (7 - (i % 8)))) == 0) {
+          continue;
+        }
+
+        byte[] bytes = getPage().readBytes(entriesOffset + i * entrySize, entrySize);
+        if (format < BPlusTree.FORMAT_NORMALIZED_KEYS) {
+          normalizeLegacyKey(bytes);
+        }
+        entries.add(bytes);
+      }
+    } else {
+      int count = getPage().readInt(legacyHeaderSize);
+      for (int i = 0; i < count; i++) {
+        entries.add(getPage().readBytes(legacyHeaderSize + ENTRY_COUNT_SIZE + i * entrySize, entrySize));
+      }
+    }
+    return entries;
+  }
+
+  /**
+   * Rewrites the key at the front of an entry, stored in its DataType
+   * serialization, as a normalized key of the same size.
+   */
+  private void normalizeLegacyKey(byte[] entry) {
+    byte[] keyBytes = Arrays.copyOfRange(entry, 0, this.keySize);
+    DataType key;
+    switch (this.keySchema.type()) {
+    case INT:
+      key = new IntDataType(keyBytes);
+      break;
+    case BOOL:
+      key = new BoolDataType(keyBytes);
+      break;
+    case FLOAT:
+      key = new FloatDataType(keyBytes);
+      break;
+    default:
+      // UTF-8 bytes are already a normalized key
+      return;
+    }
+    KeyCodec.encode(key, entry, 0);
+  }
+
+  private int getLegacyBitMapSize() {
+    return (8 * (Page.pageSize - 13) / (1 + 8 * this.entrySize)) / 8;
+  }
 
   /**
    * Recursively locate the child that leads to the leaf node. If a key spans
@@ -261,16 +819,4 @@ public abstract class BPlusNode {
     throw new BPlusTreeException("Not Implemented");
   }
 
-  /**
-   * Insert a key and record id into the node.
-   *
-   * @param key search key
-   * @param rid RecordID to insert into the leaf
-   */
-  public void insertKey(DataType key, RecordID rid) {
-    LeafNode leaf = locateLeaf(key, false);
-    LeafEntry ent = new LeafEntry(key, rid);
-    leaf.insertBEntry(ent);
-  }
-
 }
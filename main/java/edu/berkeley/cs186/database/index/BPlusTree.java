@@ -2,37 +2,118 @@ package edu.berkeley.cs186.database.index;
 
 import edu.berkeley.cs186.database.io.Page;
 import edu.berkeley.cs186.database.io.PageAllocator;
+import edu.berkeley.cs186.database.io.PageException;
 import edu.berkeley.cs186.database.datatypes.DataType;
 import edu.berkeley.cs186.database.table.RecordID;
 import edu.berkeley.cs186.database.datatypes.*;
 
-import java.util.LinkedList;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.io.File;
 import java.nio.file.Paths;
-import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A B+ tree. Allows the user to add, delete, search, and scan for keys in an
  * index. A B+ tree has an associated page allocator. The first page in the page
  * allocator is a header page that serializes the search key data type, root
  * node page, and first leaf node page. Each subsequent page is a BPlusNode,
- * specifically either an InnerNode or LeafNode.
+ * specifically either an InnerNode or LeafNode. Nodes store keys as normalized
+ * keys (see KeyCodec), so that they can be compared as plain bytes, and keep
+ * their entries sorted, so that they can be binary-searched in place. Nodes of
+ * trees with STRING keys are compressed (see PrefixCodec), and the keys that
+ * leaf splits copy up into inner nodes are cut down to the shortest key that
+ * separates the two leaves.
+ *
+ * The separators in inner nodes are leaf entries, a key and a RecordID, so
+ * that entries with the same key stay sorted by RecordID across leaves, and
+ * searches for a key or an entry descend straight to the first leaf that may
+ * hold it. Trees created with posting lists store each key of a leaf once,
+ * followed by the RecordIDs of its entries (see PostingCodec), which suits
+ * indexes on columns with few distinct values; a key with more entries than
+ * fit in a leaf goes on in the leaves after it.
+ *
+ * Deletes only remove the entry from its leaf, and remember the leaf if that
+ * left it underfull. Once REBALANCE_THRESHOLD nodes are underfull (or when
+ * rebalance() is called), they are merged with or filled up from their
+ * siblings, and the pages of merged nodes are freed for reuse. Until then,
+ * leaves may be sparse or empty, which searches and scans skip over.
+ *
+ * Searches descend through DecodedInnerNodes kept in a cache of the most
+ * recently used inner nodes, so that a lookup only reads the pages of the
+ * leaves it ends up in. A node is dropped from the cache whenever it changes.
+ *
+ * Any number of threads may use a tree at once, and none of them locks the
+ * whole tree: it is a B-link tree (after Lehman and Yao). A split moves the
+ * upper half of a node into a new node and links it in to the right of the
+ * node, latching only the node; it then latches the parent, and only then
+ * unlatches the node, to insert the new node's entry (see insertKey). Until
+ * the entry is in, a search that reaches the node finds the new node through
+ * the node's right link, as what it searches for is past the node's high key.
+ *
+ * Each node has two versions, kept in memory (see NodeVersion): `changes`
+ * counts the changes to an inner node, so that a node decoded while it was
+ * changing isn't cached, and `moves` counts the merges and redistributions a
+ * node took part in, and its freeing, which a search can't make up for by
+ * moving right. Searches descend through decoded inner nodes without latching
+ * them: each step reads the version of the next node before checking that the
+ * node it is leaving still has the version it was decoded at, and the search
+ * starts over if it doesn't. The leaf it ends up in is latched and checked the
+ * same way. Scans latch one leaf at a time and follow the right links, and
+ * check that the leaf they came from still has the version they read its link
+ * at; if it doesn't, they find their place again from the last entry they
+ * read. Rebalancing latches the two siblings it merges or redistributes, left
+ * to right, and then their parent. Every thread latches nodes bottom-up, and
+ * left to right within a level, so they can't deadlock. The first leaf is
+ * never merged into another one, so it never moves.
  *
  * Properties:
  * `allocator`: the PageAllocator for this index
  * `keySchema`: the DataType for this index's search key
  * `rootPageNum`: page number of the root node of this tree
  * `firstLeafPageNum`: page number of the first leaf node of this tree
+ * `fileDir`: the directory of the index file
+ * `postingLists`: whether leaves store posting lists
+ * `underfullPages`: the page numbers of the underfull nodes waiting to be
+ *                   rebalanced
+ * `innerNodes`: the decoded inner nodes, by page number, least recently used
+ *               first
+ * `versions`: the versions of the nodes, by page number
+ * `rootLock`: held while the root is replaced
  */
 public class BPlusTree {
   public static final String FILENAME_PREFIX = "db";
   public static final String FILENAME_EXTENSION = ".index";
+  public static final int FORMAT_NORMALIZED_KEYS = 1;
+  public static final int FORMAT_SORTED_NODES = 2;
+  public static final int FORMAT_NO_PARENT_POINTERS = 3;
+  public static final int FORMAT_PREFIX_COMPRESSION = 4;
+  public static final int FORMAT_RECORD_SEPARATORS = 5;
+  public static final int FORMAT_BLINK = 6;
+
+  public static final double DEFAULT_FILL_FACTOR = 0.9;
+  public static final int DEFAULT_SORT_PAGES = 64;
+  public static final int REBALANCE_THRESHOLD = 16;
+  public static final int INNER_NODE_CACHE_SIZE = 256;
 
   protected PageAllocator allocator;
   protected DataType keySchema;
-  private int rootPageNum;
+  private volatile int rootPageNum;
   private int firstLeafPageNum;
+  private File fileDir;
+  private boolean postingLists;
+  private Set<Integer> underfullPages;
+  private Map<Integer, DecodedInnerNode> innerNodes;
+  private ConcurrentHashMap<Integer, NodeVersion> versions;
+  private Object rootLock;
 
   /**
    * This constructor is used for creating an empty BPlusTree.
@@ -46,8 +127,28 @@ public class BPlusTree {
   }
 
   public BPlusTree(DataType keySchema, String fName, String filePrefix) {
+    this(keySchema, fName, filePrefix, false);
+  }
+
+  /**
+   * This constructor is used for creating an empty BPlusTree whose leaves
+   * store posting lists (see PostingCodec), for keys with many entries each.
+   *
+   * @param keySchema the schema of the index key
+   * @param fName the filename of where the index will be built
+   * @param filePrefix the directory of the index file
+   * @param postingLists whether leaves store posting lists
+   */
+
+  public BPlusTree(DataType keySchema, String fName, String filePrefix, boolean postingLists) {
     String pathname = Paths.get(filePrefix, fName + FILENAME_EXTENSION).toString();
     this.allocator = new PageAllocator(pathname, true);
+    this.fileDir = new File(filePrefix);
+    this.postingLists = postingLists;
+    this.underfullPages = new LinkedHashSet<Integer>();
+    this.innerNodes = newInnerNodeCache();
+    this.versions = new ConcurrentHashMap<Integer, NodeVersion>();
+    this.rootLock = new Object();
     this.keySchema = keySchema;
     int headerPageNum = this.allocator.allocPage();
     assert(headerPageNum == 0);
@@ -70,6 +171,11 @@ public class BPlusTree {
   public BPlusTree(String fName, String filePrefix) {
     String pathname = Paths.get(filePrefix, fName + FILENAME_EXTENSION).toString();
     this.allocator = new PageAllocator(pathname, false);
+    this.fileDir = new File(filePrefix);
+    this.underfullPages = new LinkedHashSet<Integer>();
+    this.innerNodes = newInnerNodeCache();
+    this.versions = new ConcurrentHashMap<Integer, NodeVersion>();
+    this.rootLock = new Object();
     this.readHeader();
   }
 
@@ -80,8 +186,7 @@ public class BPlusTree {
    */
 
   public Iterator<RecordID> sortedScan() {
-    LeafNode firstLeaf = new LeafNode(this, firstLeafPageNum);
-    return new BPlusIterator(firstLeaf);
+    return scanRange(null, true, null, true);
   }
 
   /**
@@ -92,10 +197,7 @@ public class BPlusTree {
    */
 
   public Iterator<RecordID> sortedScanFrom(DataType keyStart) {
-    BPlusNode root = BPlusNode.getBPlusNode(this, rootPageNum);
-    LeafNode leaf = root.locateLeaf(keyStart, true);
-
-    return new BPlusIterator(leaf, keyStart, true);
+    return scanRange(keyStart, true, null, true);
   }
 
   /**
@@ -106,9 +208,48 @@ public class BPlusTree {
    */
 
   public Iterator<RecordID> lookupKey(DataType key) {
-    BPlusNode root = BPlusNode.getBPlusNode(this, rootPageNum);
-    LeafNode leaf = root.locateLeaf(key, true);
-    return new BPlusIterator(leaf, key, false);
+    return scanRange(key, true, key, true);
+  }
+
+  /**
+   * Performs a sorted scan of the entries whose key lies between low and
+   * high. The scan descends to the first entry past low, and reads one leaf
+   * at a time until it reaches a key past high. Either bound may be null, in
+   * which case the range is unbounded on that side.
+   *
+   * @param low the lower bound of the range, or null
+   * @param lowInclusive whether keys equal to low are in the range
+   * @param high the upper bound of the range, or null
+   * @param highInclusive whether keys equal to high are in the range
+   * @return Iterator of the RecordIDs in the range in sorted order.
+   */
+
+  public Iterator<RecordID> scanRange(DataType low, boolean lowInclusive,
+                                      DataType high, boolean highInclusive) {
+    byte[] lowBytes = low == null ? null : KeyCodec.encode(low);
+    byte[] highBytes = high == null ? null : KeyCodec.encode(high);
+    return new BPlusIterator(lowBytes, lowInclusive, highBytes, highInclusive);
+  }
+
+  /**
+   * Collects the RecordIDs of every entry whose key lies between low and high,
+   * in key order. See scanRange.
+   *
+   * @param low the lower bound of the range, or null
+   * @param lowInclusive whether keys equal to low are in the range
+   * @param high the upper bound of the range, or null
+   * @param highInclusive whether keys equal to high are in the range
+   * @return a list of the RecordIDs in the range
+   */
+
+  public List<RecordID> lookupRange(DataType low, boolean lowInclusive,
+                                    DataType high, boolean highInclusive) {
+    List<RecordID> rids = new ArrayList<RecordID>();
+    Iterator<RecordID> iter = scanRange(low, lowInclusive, high, highInclusive);
+    while (iter.hasNext()) {
+      rids.add(iter.next());
+    }
+    return rids;
   }
 
   /**
@@ -119,19 +260,945 @@ public class BPlusTree {
    */
 
   public void insertKey(DataType key, RecordID rid) {
-    BPlusNode.getBPlusNode(this, rootPageNum).insertKey(key, rid);
+    LeafEntry ent = new LeafEntry(key, rid);
+    BPlusNode node = latchLeaf(ent.toBytes(), true);
+    try {
+      // a node that splits stays latched until its parent is, so that it
+      // can't be merged away before the entry of the new node is in
+      InnerEntry split = node.insertBEntry(ent);
+      while (split != null) {
+        int child = node.getPageNum();
+        InnerNode parent = latchParent(node, split);
+        node.getPage().unlatchExclusive();
+        node = parent;
+        split = parent.insertChild(child, split);
+      }
+    } finally {
+      node.getPage().unlatchExclusive();
+    }
+  }
+
+  /**
+   * Builds this index, which must be empty, from (key, RecordID) entries in
+   * any order, using the default fill factor and sort memory budget.
+   *
+   * @param entries the entries to load
+   */
+
+  public void bulkLoad(Iterator<LeafEntry> entries) {
+    bulkLoad(entries, DEFAULT_FILL_FACTOR, DEFAULT_SORT_PAGES);
+  }
+
+  /**
+   * Builds this index, which must be empty, from (key, RecordID) entries in
+   * any order. The entries are sorted, spilling sorted runs next to the index
+   * file if they don't fit in numSortPages pages, and the tree is then built
+   * bottom-up in one pass: leaves are packed left to right, and each level of
+   * inner nodes is built over the level below it. Nodes are allocated in the
+   * order they are filled, so the index file is written sequentially.
+   *
+   * @param entries the entries to load
+   * @param fillFactor the fraction of each node to fill, leaving room for
+   *                   later inserts
+   * @param numSortPages the memory budget of the sort, in pages
+   */
+
+  public void bulkLoad(Iterator<LeafEntry> entries, double fillFactor, int numSortPages) {
+    BPlusNode root = BPlusNode.getBPlusNode(this, rootPageNum);
+    if (!root.isLeaf() || root.getNumValidEntries() != 0) {
+      throw new BPlusTreeException("Can only bulk load an empty BPlusTree");
+    }
+    if (fillFactor <= 0 || fillFactor > 1) {
+      throw new BPlusTreeException("Fill factor must be in (0, 1]");
+    }
+
+    int entrySize = keySchema.getSize() + RecordID.getSize();
+    EntrySorter sorter = new EntrySorter(entrySize, numSortPages, this.fileDir);
+    try {
+      while (entries.hasNext()) {
+        sorter.add(entries.next().toBytes());
+      }
+      long numEntries = sorter.getNumEntries();
+      Iterator<byte[]> sorted = sorter.sort();
+
+      // only the build holds up other threads, not the sort; the rest of the
+      // tree can only be reached through the root leaf until the build is done
+      Page rootPage = root.getPage();
+      rootPage.latchExclusive();
+      try {
+        if (root.getPageNum() != rootPageNum || root.getNumValidEntries() != 0) {
+          throw new BPlusTreeException("Can only bulk load an empty BPlusTree");
+        }
+        buildFromSorted(sorted, numEntries, (LeafNode) root, fillFactor);
+      } finally {
+        rootPage.unlatchExclusive();
+      }
+    } finally {
+      sorter.close();
+    }
+  }
+
+  /**
+   * Packs sorted leaf entries into leaves starting at firstLeaf, and builds
+   * the inner levels over them.
+   */
+  private void buildFromSorted(Iterator<byte[]> sorted, long numEntries,
+                               LeafNode firstLeaf, double fillFactor) {
+    // the nodes of the level being built, and the key separating each node from
+    // the one before it (null for the first node)
+    List<Integer> level = new ArrayList<Integer>();
+    List<byte[]> separators = new ArrayList<byte[]>();
+
+    if (firstLeaf.isCompressed()) {
+      packLeaves(sorted, numEntries, firstLeaf, fillFactor, level, separators);
+    } else {
+      spreadLeaves(sorted, numEntries, firstLeaf, fillFactor, level, separators);
+    }
+    linkLevel(level, separators);
+
+    for (int height = 1; level.size() > 1; height++) {
+      List<Integer> parents = new ArrayList<Integer>();
+      List<byte[]> parentSeparators = new ArrayList<byte[]>();
+
+      InnerNode inner = new InnerNode(this);
+      inner.setLevel(height);
+      int entrySize = inner.getEntrySize();
+      // the entry of each node of the level but the first, as it would be in
+      // the level above
+      byte[] entries = new byte[(level.size() - 1) * entrySize];
+      ByteBuffer buf = ByteBuffer.wrap(entries);
+      for (int child = 1; child < level.size(); child++) {
+        buf.put(separators.get(child)).putInt(level.get(child));
+      }
+
+      int numNodes = 0;
+      if (!inner.isCompressed()) {
+        int maxChildren = getFill(inner.numEntries, fillFactor) + 1;
+        numNodes = (int) ceilDiv(level.size(), maxChildren);
+      }
+
+      int child = 0;
+      for (int i = 0; child < level.size(); i++) {
+        if (i > 0) {
+          inner = new InnerNode(this);
+          inner.setLevel(height);
+        }
+
+        // the separator of the node's first child moves up to the next level
+        int numChildren;
+        if (inner.isCompressed()) {
+          int maxCount = Math.min(level.size() - child - 1, inner.getMaxCount());
+          byte[] next = Arrays.copyOfRange(entries, child * entrySize, (child + maxCount) * entrySize);
+          numChildren = maxCount == 0 ? 1 : inner.getFitCount(next, maxCount, fillFactor) + 1;
+          // rather than leave a node with a single child for last
+          if (numChildren > 2 && level.size() - child - numChildren == 1) {
+            numChildren--;
+          }
+        } else {
+          numChildren = (int) ((long) level.size() * (i + 1) / numNodes - (long) level.size() * i / numNodes);
+        }
+        parents.add(inner.getPageNum());
+        parentSeparators.add(separators.get(child));
+        inner.setFirstChild(level.get(child));
+        inner.writeEntryBytes(Arrays.copyOfRange(entries, child * entrySize, (child + numChildren - 1) * entrySize),
+                              numChildren - 1);
+        child += numChildren;
+      }
+
+      level = parents;
+      separators = parentSeparators;
+      linkLevel(level, separators);
+    }
+
+    if (level.get(0) != rootPageNum) {
+      updateRoot(level.get(0));
+    }
+  }
+
+  /**
+   * Links each node of a level built bottom-up to the next one, and gives it
+   * the separator of the next one as its high key.
+   *
+   * @param level the page numbers of the nodes of the level, in order
+   * @param separators the separator of each node from the one before it
+   */
+  private void linkLevel(List<Integer> level, List<byte[]> separators) {
+    for (int i = 0; i < level.size(); i++) {
+      BPlusNode node = BPlusNode.getBPlusNode(this, level.get(i));
+      boolean last = i == level.size() - 1;
+      node.setRightLink(last ? -1 : level.get(i + 1));
+      node.setHighKey(last ? null : separators.get(i + 1));
+    }
   }
 
   /**
-   * Deletes an entry with the matching Key and RecordID
+   * Spreads sorted leaf entries evenly over as many leaves, starting at
+   * firstLeaf, as it takes to fill each up to fillFactor.
+   *
+   * @param level the list to add the page numbers of the leaves to
+   * @param separators the list to add the separator of each leaf from the one
+   *                   before it to (null for the first leaf)
+   */
+  private void spreadLeaves(Iterator<byte[]> sorted, long numEntries, LeafNode firstLeaf,
+                            double fillFactor, List<Integer> level, List<byte[]> separators) {
+    int keySize = keySchema.getSize();
+    int entrySize = keySize + RecordID.getSize();
+    long numLeaves = Math.max(1, ceilDiv(numEntries, getFill(firstLeaf.numEntries, fillFactor)));
+
+    LeafNode leaf = firstLeaf;
+    for (long i = 0; i < numLeaves; i++) {
+      if (i > 0) {
+        leaf = appendLeaf(leaf);
+      }
+
+      int count = (int) (numEntries * (i + 1) / numLeaves - numEntries * i / numLeaves);
+      byte[] bytes = new byte[count * entrySize];
+      for (int j = 0; j < count; j++) {
+        System.arraycopy(sorted.next(), 0, bytes, j * entrySize, entrySize);
+      }
+      leaf.writeEntryBytes(bytes, count);
+
+      level.add(leaf.getPageNum());
+      separators.add(i == 0 ? null : Arrays.copyOf(bytes, entrySize));
+    }
+  }
+
+  /**
+   * Packs sorted leaf entries into compressed leaves, starting at firstLeaf,
+   * filling each up to fillFactor before starting the next, since how many
+   * entries fit depends on their keys. See spreadLeaves.
+   */
+  private void packLeaves(Iterator<byte[]> sorted, long numEntries, LeafNode firstLeaf,
+                          double fillFactor, List<Integer> level, List<byte[]> separators) {
+    int entrySize = keySchema.getSize() + RecordID.getSize();
+    int maxCount = firstLeaf.getMaxCount();
+    // the entries read but not written yet
+    byte[] buffer = new byte[maxCount * entrySize];
+    int buffered = 0;
+    long remaining = numEntries;
+    byte[] last = null;
+
+    LeafNode leaf = firstLeaf;
+    while (true) {
+      for (; buffered < maxCount && remaining > 0; buffered++, remaining--) {
+        System.arraycopy(sorted.next(), 0, buffer, buffered * entrySize, entrySize);
+      }
+
+      int count = buffered == 0 ? 0 : leaf.getFitCount(buffer, buffered, fillFactor);
+      leaf.writeEntryBytes(Arrays.copyOf(buffer, count * entrySize), count);
+      level.add(leaf.getPageNum());
+      separators.add(last == null ? null : leaf.getSeparatorKey(last, 0, buffer, 0));
+      if (count == buffered && remaining == 0) {
+        return;
+      }
+
+      last = Arrays.copyOfRange(buffer, (count - 1) * entrySize, count * entrySize);
+      System.arraycopy(buffer, count * entrySize, buffer, 0, (buffered - count) * entrySize);
+      buffered -= count;
+      leaf = appendLeaf(leaf);
+    }
+  }
+
+  /**
+   * @return a new leaf linked in after leaf
+   */
+  private LeafNode appendLeaf(LeafNode leaf) {
+    LeafNode next = new LeafNode(this);
+    leaf.setNextLeaf(next.getPageNum());
+    return next;
+  }
+
+  /**
+   * @return the number of entries to put in a node that can hold capacity
+   *         entries; nodes split as soon as they are full, so never all of them
+   */
+  private static int getFill(int capacity, double fillFactor) {
+    return Math.max(1, Math.min(capacity - 1, (int) (capacity * fillFactor)));
+  }
+
+  private static long ceilDiv(long a, long b) {
+    return (a + b - 1) / b;
+  }
+
+  /**
+   * Deletes an entry with the matching Key and RecordID. The leaf it was in
+   * is only rebalanced later, once enough nodes are underfull.
    *
    * @param key the key to be deleted.
    * @param rid the RecordID of the key to be deleted
+   * @return true if the entry was found and deleted, otherwise false
    */
 
   public boolean deleteKey(DataType key, RecordID rid) {
-    /*You will not have to implement this in this project*/
-    throw new BPlusTreeException("BPlusTree#DeleteKey Not Implemented!");
+    LeafEntry ent = new LeafEntry(key, rid);
+    LeafNode leaf = latchEntryLeaf(ent, true);
+    if (leaf == null) {
+      return false;
+    }
+
+    boolean rebalance = false;
+    try {
+      leaf.removeEntry(leaf.findEntry(ent));
+      // marked while the leaf is latched, so that it can't have been freed
+      if (leaf.isUnderfull() && leaf.getPageNum() != this.rootPageNum) {
+        markUnderfull(leaf.getPageNum());
+        synchronized (this.underfullPages) {
+          rebalance = this.underfullPages.size() >= REBALANCE_THRESHOLD;
+        }
+      }
+    } finally {
+      leaf.getPage().unlatchExclusive();
+    }
+
+    if (rebalance) {
+      rebalance();
+    }
+    return true;
+  }
+
+  /**
+   * Merges or redistributes the underfull nodes, including the parents left
+   * underfull by merges below them, and frees the pages of merged nodes. Only
+   * the parents of the marked nodes are visited, found by descending to each
+   * node's high key. Children of a node with no entries have to wait until it
+   * is merged, so they are visited again as long as nodes are merged. A root
+   * left with no entries is replaced by its only child.
+   */
+
+  public void rebalance() {
+    boolean merged = true;
+    while (merged) {
+      merged = false;
+      List<Integer> marked;
+      synchronized (this.underfullPages) {
+        marked = new ArrayList<Integer>(this.underfullPages);
+        this.underfullPages.clear();
+      }
+      for (int pageNum : marked) {
+        merged |= rebalanceNode(pageNum);
+      }
+    }
+    collapseRoot();
+  }
+
+  /**
+   * Merges an underfull node with a sibling, or moves entries between them,
+   * and marks the nodes that leaves underfull. The node is merged with the
+   * sibling to its right in the same parent, or, if it is the last child, with
+   * the one to its left, so the first leaf is never merged into another one.
+   *
+   * @param pageNum the page number of the node
+   * @return whether the node was merged with its sibling
+   */
+
+  private boolean rebalanceNode(int pageNum) {
+    while (true) {
+      Page page;
+      try {
+        page = this.allocator.fetchPage(pageNum);
+      } catch (PageException e) {
+        // merged into its sibling since it was marked
+        return false;
+      }
+
+      int level;
+      byte[] target;
+      page.latchShared();
+      try {
+        BPlusNode node = BPlusNode.getBPlusNode(this, pageNum);
+        if (!node.isUnderfull() || pageNum == this.rootPageNum) {
+          return false;
+        }
+        level = node.getLevel();
+        target = node.getHighKey();
+        if (target == null) {
+          // the last node of its level: descend to the greatest separator
+          target = new byte[node.getSeparatorSize()];
+          Arrays.fill(target, (byte) 0xFF);
+        }
+      } finally {
+        page.unlatchShared();
+      }
+
+      NodeRef ref = findNode(target, level + 1);
+      if (ref == null) {
+        return false;
+      }
+      DecodedInnerNode parent = getDecodedInnerNode(ref.pageNum, ref.moves);
+      if (parent == null) {
+        continue;
+      }
+      int index = parent.findChildIndex(pageNum);
+      if (index == -1) {
+        // no longer where its high key leads, e.g. after it was merged
+        return false;
+      }
+      if (parent.getNumKeys() == 0) {
+        // no siblings to merge with until the parent is merged itself
+        markUnderfull(pageNum);
+        return false;
+      }
+      if (index == parent.getNumKeys()) {
+        index--;
+      }
+
+      Result result = rebalanceChildren(ref, parent.getChildAt(index), parent.getChildAt(index + 1), pageNum);
+      if (result != Result.RETRY) {
+        return result == Result.MERGED;
+      }
+    }
+  }
+
+  /**
+   * What became of two siblings passed to rebalanceChildren.
+   */
+  private enum Result {MERGED, NOT_MERGED, RETRY}
+
+  /**
+   * Latches two siblings, left to right, and then their parent, and merges
+   * or redistributes them if they are still siblings and the marked one is
+   * still underfull.
+   *
+   * @param parentRef the parent, as found by the descent
+   * @param leftPageNum the page number of the left sibling
+   * @param rightPageNum the page number of the right sibling
+   * @param pageNum the page number of the marked one of the two
+   * @return whether they were merged, or whether the tree changed since the
+   *         descent so that the parent must be found again
+   */
+
+  private Result rebalanceChildren(NodeRef parentRef, int leftPageNum, int rightPageNum, int pageNum) {
+    List<Page> latched = new ArrayList<Page>();
+    try {
+      BPlusNode left = latchPage(leftPageNum, latched);
+      BPlusNode right = latchPage(rightPageNum, latched);
+      if (left == null || right == null) {
+        return Result.RETRY;
+      }
+      BPlusNode parentNode = latchNode(parentRef, true);
+      if (parentNode == null) {
+        return Result.RETRY;
+      }
+      latched.add(parentNode.getPage());
+
+      InnerNode parent = (InnerNode) parentNode;
+      int index = parent.findChildIndex(leftPageNum);
+      if (index == -1 || index >= parent.getNumValidEntries() || parent.getChildAt(index + 1) != rightPageNum
+          || left.getRightLink() != rightPageNum) {
+        return Result.RETRY;
+      }
+      if (!BPlusNode.getBPlusNode(this, pageNum).isUnderfull()) {
+        return Result.NOT_MERGED;
+      }
+
+      boolean merged = left.rebalance(parent, index, right);
+      // searches that read any of the three before can't make up for entries
+      // that moved left, or for a freed node, by moving right
+      bumpMoves(parent.getPageNum());
+      bumpMoves(leftPageNum);
+      bumpMoves(rightPageNum);
+      if (!merged) {
+        return Result.NOT_MERGED;
+      }
+
+      freeNode(rightPageNum);
+      if (left.isUnderfull()) {
+        markUnderfull(leftPageNum);
+      }
+      if (parent.isUnderfull()) {
+        markUnderfull(parent.getPageNum());
+      }
+      return Result.MERGED;
+    } finally {
+      for (Page page : latched) {
+        page.unlatchExclusive();
+      }
+    }
+  }
+
+  /**
+   * Latches a page in exclusive mode, unless it has been freed.
+   *
+   * @param pageNum the page number
+   * @param latched the list to add the page to once it is latched
+   * @return the node on the page, or null if it has been freed
+   */
+
+  private BPlusNode latchPage(int pageNum, List<Page> latched) {
+    Page page;
+    try {
+      page = this.allocator.fetchPage(pageNum);
+    } catch (PageException e) {
+      return null;
+    }
+    page.latchExclusive();
+    latched.add(page);
+    return BPlusNode.getBPlusNode(this, pageNum);
+  }
+
+  /**
+   * Replaces the root with its only child for as long as it has no entries,
+   * and frees it.
+   */
+
+  private void collapseRoot() {
+    while (true) {
+      int pageNum = this.rootPageNum;
+      Page page;
+      try {
+        page = this.allocator.fetchPage(pageNum);
+      } catch (PageException e) {
+        continue;
+      }
+
+      page.latchExclusive();
+      try {
+        synchronized (this.rootLock) {
+          if (pageNum != this.rootPageNum) {
+            continue;
+          }
+          BPlusNode root = BPlusNode.getBPlusNode(this, pageNum);
+          if (root.isLeaf() || root.getNumValidEntries() != 0) {
+            unmarkUnderfull(pageNum);
+            return;
+          }
+          updateRoot(((InnerNode) root).getFirstChild());
+          freeNode(pageNum);
+        }
+      } finally {
+        page.unlatchExclusive();
+      }
+    }
+  }
+
+  /**
+   * Remembers that a node is underfull, to rebalance it later.
+   *
+   * @param pageNum the page number of the node
+   */
+
+  protected void markUnderfull(int pageNum) {
+    synchronized (this.underfullPages) {
+      this.underfullPages.add(pageNum);
+    }
+  }
+
+  /**
+   * @param pageNum the page number of a node
+   * @return whether the node was waiting to be rebalanced
+   */
+
+  private boolean unmarkUnderfull(int pageNum) {
+    synchronized (this.underfullPages) {
+      return this.underfullPages.remove(pageNum);
+    }
+  }
+
+  /**
+   * Frees the page of a node that has been merged into another one, or of a
+   * root that has been replaced. The node must be latched in exclusive mode.
+   *
+   * @param pageNum the page number of the node
+   */
+
+  protected void freeNode(int pageNum) {
+    unmarkUnderfull(pageNum);
+    bumpMoves(pageNum);
+    invalidateNode(pageNum);
+    this.allocator.freePage(pageNum);
+  }
+
+  /**
+   * The versions of a node. `changes` is guarded by the cache of decoded inner
+   * nodes, and `moves` only changes while the node is latched in exclusive
+   * mode. Versions are never dropped, so they keep counting up when a freed
+   * page is reused.
+   *
+   * Properties:
+   * `changes`: the number of times the node changed (see invalidateNode)
+   * `moves`: the number of times entries moved out of the node other than by
+   *          a split, or it was freed
+   */
+
+  private static class NodeVersion {
+    private long changes;
+    private volatile long moves;
+  }
+
+  /**
+   * A node found by a descent, with its moves version when it was found.
+   */
+
+  private static class NodeRef {
+    private final int pageNum;
+    private final long moves;
+
+    private NodeRef(int pageNum, long moves) {
+      this.pageNum = pageNum;
+      this.moves = moves;
+    }
+  }
+
+  private NodeVersion getVersion(int pageNum) {
+    NodeVersion version = this.versions.get(pageNum);
+    if (version == null) {
+      NodeVersion created = new NodeVersion();
+      version = this.versions.putIfAbsent(pageNum, created);
+      if (version == null) {
+        version = created;
+      }
+    }
+    return version;
+  }
+
+  private void bumpMoves(int pageNum) {
+    getVersion(pageNum).moves++;
+  }
+
+  /**
+   * Descends from the root to the node on a level that a key or an entry
+   * belongs in, through decoded inner nodes, decoding the ones on the way
+   * that are not cached yet. Nothing is latched: each step checks that the
+   * node it leaves hasn't moved entries since it was decoded, and the descent
+   * starts over if it has. Splits since then are made up for by following
+   * right links, here and after the node is latched (see moveRight).
+   *
+   * @param keyBytes a normalized key, or the bytes of an entry
+   * @param level the level of the node to find
+   * @return the node, or null if the tree isn't that high
+   */
+
+  private NodeRef findNode(byte[] keyBytes, int level) {
+    while (true) {
+      try {
+        int pageNum = this.rootPageNum;
+        long moves = getVersion(pageNum).moves;
+        if (pageNum != this.rootPageNum) {
+          continue;
+        }
+
+        boolean cached;
+        synchronized (this.innerNodes) {
+          cached = this.innerNodes.containsKey(pageNum);
+        }
+        if (!cached && this.allocator.fetchPage(pageNum).readByte(0) != (byte) 0) {
+          // a leaf root, unless the page was freed and reused since
+          if (getVersion(pageNum).moves != moves || pageNum != this.rootPageNum) {
+            continue;
+          }
+          return level == 0 ? new NodeRef(pageNum, moves) : null;
+        }
+
+        DecodedInnerNode node = getDecodedInnerNode(pageNum, moves);
+        if (node == null) {
+          continue;
+        }
+        if (node.getLevel() <= level) {
+          return node.getLevel() == level ? new NodeRef(pageNum, moves) : null;
+        }
+
+        while (node != null) {
+          boolean right = node.isPastHighKey(keyBytes);
+          int next = right ? node.getRightLink() : node.getChild(keyBytes);
+          int nextLevel = right ? node.getLevel() : node.getLevel() - 1;
+          long nextMoves = getVersion(next).moves;
+          if (getVersion(node.getPageNum()).moves != node.getMoves()) {
+            break;
+          }
+          if (nextLevel == level) {
+            return new NodeRef(next, nextMoves);
+          }
+          node = getDecodedInnerNode(next, nextMoves);
+        }
+      } catch (PageException e) {
+        // a node that was freed on the way
+      }
+    }
+  }
+
+  /**
+   * Latches a node found by a descent.
+   *
+   * @param ref the node
+   * @param exclusive whether to latch the node in exclusive mode
+   * @return the latched node, or null if entries have moved out of it since
+   *         it was found, or it was freed
+   */
+
+  private BPlusNode latchNode(NodeRef ref, boolean exclusive) {
+    Page page;
+    try {
+      page = this.allocator.fetchPage(ref.pageNum);
+    } catch (PageException e) {
+      return null;
+    }
+
+    latch(page, exclusive);
+    if (getVersion(ref.pageNum).moves != ref.moves) {
+      unlatch(page, exclusive);
+      return null;
+    }
+    return BPlusNode.getBPlusNode(this, ref.pageNum);
+  }
+
+  /**
+   * Latches the node to the right of a latched node, and then unlatches the
+   * latched one. The node to the right can't be freed in between, as that
+   * takes a latch on the node to its left.
+   *
+   * @param node the latched node
+   * @param exclusive whether the nodes are latched in exclusive mode
+   * @return the latched node to its right
+   */
+
+  private BPlusNode latchRight(BPlusNode node, boolean exclusive) {
+    int pageNum = node.getRightLink();
+    latch(this.allocator.fetchPage(pageNum), exclusive);
+    unlatch(node.getPage(), exclusive);
+    return BPlusNode.getBPlusNode(this, pageNum);
+  }
+
+  /**
+   * Moves right from a latched node to the one that a key or an entry belongs
+   * in, if the node has split since the parent it was found through was read.
+   *
+   * @param node the latched node
+   * @param keyBytes a normalized key, or the bytes of an entry
+   * @param exclusive whether the nodes are latched in exclusive mode
+   * @return the latched node keyBytes belongs in
+   */
+
+  private BPlusNode moveRight(BPlusNode node, byte[] keyBytes, boolean exclusive) {
+    while (node.isPastHighKey(keyBytes)) {
+      node = latchRight(node, exclusive);
+    }
+    return node;
+  }
+
+  /**
+   * Descends to the leaf that a key or an entry belongs in, and latches it.
+   *
+   * @param keyBytes a normalized key, or the bytes of an entry
+   * @param exclusive whether to latch the leaf in exclusive mode
+   * @return the latched leaf
+   */
+
+  private LeafNode latchLeaf(byte[] keyBytes, boolean exclusive) {
+    while (true) {
+      BPlusNode node = latchNode(findNode(keyBytes, 0), exclusive);
+      if (node != null) {
+        return (LeafNode) moveRight(node, keyBytes, exclusive);
+      }
+    }
+  }
+
+  /**
+   * Finds and latches the first leaf that may hold entries with a key, or an
+   * entry. Separators are entries, so no leaf before the one the descent ends
+   * in holds any, but deletes may have left it with smaller entries only, in
+   * which case they start in a leaf after it.
+   *
+   * @param keyBytes a normalized key, the bytes of an entry, or null for the
+   *                 first leaf of the tree, which never moves
+   * @param exclusive whether to latch the leaf in exclusive mode
+   * @return the latched leaf
+   */
+
+  private LeafNode latchFirstLeaf(byte[] keyBytes, boolean exclusive) {
+    if (keyBytes == null) {
+      latch(this.allocator.fetchPage(this.firstLeafPageNum), exclusive);
+      return new LeafNode(this, this.firstLeafPageNum);
+    }
+    return latchLeaf(keyBytes, exclusive);
+  }
+
+  /**
+   * Finds and latches the leaf holding an entry. Copies of the entry may span
+   * several leaves, and the entry may start the leaf after the one it was
+   * separated from, so the leaves are searched in turn.
+   *
+   * @param ent the entry to find
+   * @param exclusive whether to latch the leaf in exclusive mode
+   * @return the latched leaf holding the entry, or null if there is none
+   */
+
+  private LeafNode latchEntryLeaf(LeafEntry ent, boolean exclusive) {
+    byte[] entryBytes = ent.toBytes();
+    LeafNode leaf = latchLeaf(entryBytes, exclusive);
+    while (leaf.findEntry(ent) == -1) {
+      // the entry can only be further on if it is greater than every entry
+      // of this leaf
+      if (leaf.getNextLeaf() == -1 || leaf.entryUpperBound(entryBytes) != leaf.getNumValidEntries()) {
+        unlatch(leaf.getPage(), exclusive);
+        return null;
+      }
+      leaf = (LeafNode) latchRight(leaf, exclusive);
+    }
+    return leaf;
+  }
+
+  /**
+   * Latches the parent of a node that has split, so that the entry of the
+   * node split off it can be inserted. Creates a new root if the node is the
+   * root.
+   *
+   * @param node the node that has split, latched in exclusive mode
+   * @param split the entry of the node split off it
+   * @return the parent, latched in exclusive mode
+   */
+
+  private InnerNode latchParent(BPlusNode node, InnerEntry split) {
+    // the separator of the new node is the high key of the node
+    byte[] highKey = Arrays.copyOf(split.toBytes(), node.getSeparatorSize());
+    int level = node.getLevel() + 1;
+
+    while (true) {
+      NodeRef ref = findNode(highKey, level);
+      if (ref == null) {
+        synchronized (this.rootLock) {
+          if (node.getPageNum() == this.rootPageNum) {
+            InnerNode root = new InnerNode(this);
+            root.setLevel(level);
+            root.setFirstChild(node.getPageNum());
+            root.getPage().latchExclusive();
+            updateRoot(root.getPageNum());
+            return root;
+          }
+          // the root split, and the thread that split it has yet to create
+          // the new root (see updateRoot)
+          while (node.getPageNum() != this.rootPageNum
+                 && BPlusNode.getBPlusNode(this, this.rootPageNum).getLevel() < level) {
+            try {
+              this.rootLock.wait();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+        }
+        continue;
+      }
+
+      BPlusNode parent = latchNode(ref, true);
+      if (parent == null) {
+        continue;
+      }
+      parent = moveRight(parent, highKey, true);
+      // nodes whose entries are all copies of one entry share their high key
+      while (((InnerNode) parent).findChildIndex(node.getPageNum()) == -1 && parent.getRightLink() != -1
+             && Arrays.equals(parent.getHighKey(), highKey)) {
+        parent = latchRight(parent, true);
+      }
+      if (((InnerNode) parent).findChildIndex(node.getPageNum()) != -1) {
+        return (InnerNode) parent;
+      }
+      // the entry of the node is yet to be inserted by the thread that split
+      // the node before it
+      parent.getPage().unlatchExclusive();
+    }
+  }
+
+  private static void latch(Page page, boolean exclusive) {
+    if (exclusive) {
+      page.latchExclusive();
+    } else {
+      page.latchShared();
+    }
+  }
+
+  private static void unlatch(Page page, boolean exclusive) {
+    if (exclusive) {
+      page.unlatchExclusive();
+    } else {
+      page.unlatchShared();
+    }
+  }
+
+  /**
+   * @param pageNum the page number of an inner node
+   * @param moves the moves version of the node when it was found
+   * @return the decoded node, from the cache if it is there, or null if
+   *         entries have moved out of the node since it was found, or it was
+   *         freed
+   */
+
+  protected DecodedInnerNode getDecodedInnerNode(int pageNum, long moves) {
+    synchronized (this.innerNodes) {
+      DecodedInnerNode node = this.innerNodes.get(pageNum);
+      if (node != null && node.getMoves() == moves) {
+        return node;
+      }
+    }
+
+    Page page;
+    try {
+      page = this.allocator.fetchPage(pageNum);
+    } catch (PageException e) {
+      return null;
+    }
+    DecodedInnerNode node;
+    long changes;
+    page.latchShared();
+    try {
+      if (getVersion(pageNum).moves != moves) {
+        return null;
+      }
+      synchronized (this.innerNodes) {
+        changes = getVersion(pageNum).changes;
+      }
+      node = new DecodedInnerNode(new InnerNode(this, pageNum), moves);
+    } finally {
+      page.unlatchShared();
+    }
+
+    synchronized (this.innerNodes) {
+      // the node may have changed, and been dropped, since it was decoded
+      if (getVersion(pageNum).changes == changes) {
+        this.innerNodes.put(pageNum, node);
+      }
+    }
+    return node;
+  }
+
+  /**
+   * Drops a node from the cache of decoded inner nodes. Called whenever the
+   * entries of a node or its header change.
+   *
+   * @param pageNum the page number of the node
+   */
+
+  protected void invalidateNode(int pageNum) {
+    synchronized (this.innerNodes) {
+      getVersion(pageNum).changes++;
+      this.innerNodes.remove(pageNum);
+    }
+  }
+
+  private static Map<Integer, DecodedInnerNode> newInnerNodeCache() {
+    return new LinkedHashMap<Integer, DecodedInnerNode>(16, 0.75f, true) {
+      protected boolean removeEldestEntry(Map.Entry<Integer, DecodedInnerNode> eldest) {
+        return size() > INNER_NODE_CACHE_SIZE;
+      }
+    };
+  }
+
+  /**
+   * Points the entry with the matching Key and RecordID at a new RecordID,
+   * e.g. after the record has been moved to another page of its table. Entries
+   * are ordered by RecordID within a key, so the entry is deleted and inserted
+   * again where it now belongs, which may be another leaf.
+   *
+   * @param key the key of the entry
+   * @param oldRid the RecordID the entry currently points to
+   * @param newRid the RecordID the entry should point to
+   * @return true if the entry was found and updated, otherwise false
+   */
+
+  public boolean updateRecordID(DataType key, RecordID oldRid, RecordID newRid) {
+    if (!deleteKey(key, oldRid)) {
+      return false;
+    }
+    insertKey(key, newRid);
+    return true;
   }
 
   /**
@@ -145,19 +1212,50 @@ public class BPlusTree {
     return lookupKey(key).hasNext();
   }
 
+  /**
+   * Checks whether the index holds an entry with a key and a RecordID. Unlike
+   * going through lookupKey, this descends straight to the entry, however many
+   * other entries have the key.
+   *
+   * @param key the key of the entry
+   * @param rid the RecordID of the entry
+   * @return whether the entry is in the index
+   */
+
+  public boolean containsEntry(DataType key, RecordID rid) {
+    LeafNode leaf = latchEntryLeaf(new LeafEntry(key, rid), false);
+    if (leaf == null) {
+      return false;
+    }
+    leaf.getPage().unlatchShared();
+    return true;
+  }
+
   public int getNumPages() {
     return this.allocator.getNumPages();
   }
 
   /**
-   * Updates where the root page is. Should be called whenever the root node has been split
+   * @return whether the leaves of this tree store posting lists
+   */
+
+  public boolean hasPostingLists() {
+    return this.postingLists;
+  }
+
+  /**
+   * Updates where the root page is. Should be called whenever the root node has been split.
+   * Wakes the threads waiting in latchParent for the root to be replaced.
    *
    * @param pNum the page number of where the new root now is
    */
 
   protected void updateRoot(int pNum) {
-    this.rootPageNum = pNum;
-    writeHeader();
+    synchronized (this.rootLock) {
+      this.rootPageNum = pNum;
+      writeHeader();
+      this.rootLock.notifyAll();
+    }
   }
 
 
@@ -178,6 +1276,12 @@ public class BPlusTree {
       headerPage.writeInt(bytesWritten, this.keySchema.getSize());
       bytesWritten += 4;
     }
+
+    headerPage.writeInt(bytesWritten, FORMAT_BLINK);
+    bytesWritten += 4;
+
+    headerPage.writeInt(bytesWritten, this.postingLists ? 1 : 0);
+    bytesWritten += 4;
     headerPage.flush();
   }
 
@@ -212,6 +1316,193 @@ public class BPlusTree {
       this.keySchema = new FloatDataType();
       break;
     }
+
+    // indexes written before keys were normalized have zeros here
+    int format = headerPage.readInt(bytesRead);
+    bytesRead += 4;
+    if (format >= FORMAT_RECORD_SEPARATORS) {
+      this.postingLists = headerPage.readInt(bytesRead) != 0;
+      bytesRead += 4;
+    }
+    if (format < FORMAT_BLINK) {
+      rebuildLegacyTree(format);
+    }
+  }
+
+  /**
+   * Rebuilds an index written in an older format from the entries of its
+   * leaves. Inner nodes of formats before FORMAT_RECORD_SEPARATORS separate
+   * their children by keys alone, which doesn't tell which leaf an entry
+   * belongs in, and nodes of formats before FORMAT_BLINK have no right links
+   * or high keys, so they can't be converted in place.
+   *
+   * @param format the format the index was written in
+   */
+  private void rebuildLegacyTree(int format) {
+    List<Integer> pageNums = new ArrayList<Integer>();
+    for (Page page : this.allocator) {
+      if (page.getPageNum() != 0) {
+        pageNums.add(page.getPageNum());
+      }
+    }
+
+    int entrySize = keySchema.getSize() + RecordID.getSize();
+    EntrySorter sorter = new EntrySorter(entrySize, DEFAULT_SORT_PAGES, this.fileDir);
+    try {
+      for (int pageNum : pageNums) {
+        BPlusNode node = BPlusNode.getBPlusNode(this, pageNum);
+        if (node.isLeaf()) {
+          for (byte[] entry : node.readLegacyEntries(format)) {
+            sorter.add(entry);
+          }
+        }
+        this.allocator.freePage(pageNum);
+      }
+      long numEntries = sorter.getNumEntries();
+      Iterator<byte[]> sorted = sorter.sort();
+
+      LeafNode root = new LeafNode(this);
+      this.rootPageNum = root.getPageNum();
+      this.firstLeafPageNum = this.rootPageNum;
+      buildFromSorted(sorted, numEntries, root, DEFAULT_FILL_FACTOR);
+    } finally {
+      sorter.close();
+    }
+    writeHeader();
+  }
+
+  /**
+   * Reads the entries of the tree in order, a leaf at a time, from the first
+   * entry with a given key, or past it, on. Only the leaf being read is
+   * latched; if rebalancing has moved entries out of the last leaf read in
+   * the meantime, the reader descends to the last entry it read again, and
+   * skips the entries up to it (and as many copies of it as it already read).
+   *
+   * Properties:
+   * `startKey`: the normalized key to start from, or null
+   * `startInclusive`: whether entries with startKey are read
+   * `startTarget`: what to descend to for startKey: the key itself or, to
+   *                skip its entries, the greatest entry it could have
+   * `lastEntry`: the last entry read, or null if none has been
+   * `numLastEntry`: the number of copies of lastEntry read
+   * `numToSkip`: the number of copies of lastEntry still to skip after
+   *              searching the tree again
+   * `nextPageNum`: the page number of the next leaf to read, or -1
+   * `leafPageNum`: the page number of the last leaf read
+   * `leafMoves`: the moves version of the last leaf when it was read
+   * `found`: whether nextPageNum can be followed, or the tree must be searched
+   */
+
+  private class LeafReader {
+    private byte[] startKey;
+    private boolean startInclusive;
+    private byte[] startTarget;
+    private byte[] lastEntry;
+    private int numLastEntry;
+    private int numToSkip;
+    private int nextPageNum;
+    private int leafPageNum;
+    private long leafMoves;
+    private boolean found;
+
+    public LeafReader(byte[] startKey, boolean startInclusive) {
+      this.startKey = startKey;
+      this.startInclusive = startInclusive;
+      this.startTarget = startKey;
+      if (startKey != null && !startInclusive) {
+        this.startTarget = Arrays.copyOf(startKey, keySchema.getSize() + RecordID.getSize());
+        Arrays.fill(this.startTarget, startKey.length, this.startTarget.length, (byte) 0xFF);
+      }
+      this.lastEntry = null;
+      this.numLastEntry = 0;
+      this.numToSkip = 0;
+      this.found = false;
+    }
+
+    /**
+     * @return the unread entries of the next leaf, packed one after the
+     *         other, or null if there are no more leaves
+     */
+    public byte[] readLeaf() {
+      int keySize = keySchema.getSize();
+      int entrySize = keySize + RecordID.getSize();
+
+      while (true) {
+        LeafNode leaf;
+        if (this.found) {
+          if (this.nextPageNum == -1) {
+            return null;
+          }
+          leaf = latchNextLeaf();
+        } else {
+          this.numToSkip = this.numLastEntry;
+          byte[] key = this.lastEntry == null ? this.startTarget : this.lastEntry;
+          leaf = latchFirstLeaf(key, false);
+        }
+        if (leaf == null) {
+          this.found = false;
+          continue;
+        }
+
+        byte[] entries;
+        try {
+          int count = leaf.getNumValidEntries();
+          int fromSlot = 0;
+          if (this.numToSkip > 0) {
+            fromSlot = leaf.entryLowerBound(this.lastEntry);
+            int skipped = Math.min(this.numToSkip, leaf.entryUpperBound(this.lastEntry) - fromSlot);
+            fromSlot += skipped;
+            this.numToSkip = fromSlot < count ? 0 : this.numToSkip - skipped;
+          } else if (this.startKey != null) {
+            fromSlot = this.startInclusive ? leaf.lowerBound(this.startKey) : leaf.upperBound(this.startKey);
+          }
+          entries = leaf.readEntryBytes(fromSlot, count);
+          this.nextPageNum = leaf.getNextLeaf();
+          this.leafPageNum = leaf.getPageNum();
+          this.leafMoves = getVersion(this.leafPageNum).moves;
+          this.found = true;
+        } finally {
+          leaf.getPage().unlatchShared();
+        }
+
+        int numEntries = entries.length / entrySize;
+        if (numEntries > 0) {
+          byte[] last = Arrays.copyOfRange(entries, entries.length - entrySize, entries.length);
+          int numLast = 1;
+          while (numLast < numEntries && Arrays.equals(last, Arrays.copyOfRange(entries,
+              (numEntries - numLast - 1) * entrySize, (numEntries - numLast) * entrySize))) {
+            numLast++;
+          }
+          if (numLast == numEntries && Arrays.equals(last, this.lastEntry)) {
+            numLast += this.numLastEntry;
+          }
+          this.lastEntry = last;
+          this.numLastEntry = numLast;
+        }
+        return entries;
+      }
+    }
+
+    /**
+     * @return the next leaf, latched in shared mode, or null if entries have
+     *         moved out of the last leaf read since, in which case its link
+     *         may be stale
+     */
+    private LeafNode latchNextLeaf() {
+      Page page;
+      try {
+        page = allocator.fetchPage(this.nextPageNum);
+      } catch (PageException e) {
+        return null;
+      }
+
+      page.latchShared();
+      if (getVersion(this.leafPageNum).moves != this.leafMoves) {
+        page.unlatchShared();
+        return null;
+      }
+      return new LeafNode(BPlusTree.this, this.nextPageNum);
+    }
   }
 
   /**
@@ -220,108 +1511,51 @@ public class BPlusTree {
    */
 
   private class BPlusIterator implements Iterator<RecordID> {
-    private LeafNode currLeaf;
-    private Iterator<RecordID> currLeafIter;
-    private DataType lookupKey = null;
-    private boolean isScan;
-    private boolean allScan;
-    private Queue<RecordID> rids = new LinkedList<RecordID>();
-
-  /**
-   * This constructor creates an Iterator that scans starting from some LeafNode.
-   *
-   * @param leaf the LeafNode to start scanning from.
-   */
-
-    public BPlusIterator(LeafNode leaf) {
-      //TODO: Implement Me!
-//      currLeafIter = leaf.scan();
-      currLeaf = leaf;
-      currLeafIter = leaf.scan();
-      isScan = false;
-      lookupKey = null;
-      allScan = true;
-
-////      currLeafIter = leaf
-//      while (leaf.getNextLeaf() >= 0) {
-////          if (leaf.getPageNum())
-//          currLeafIter = leaf.scan();
-//          while (currLeafIter.hasNext()) {
-//              rids.add(currLeafIter.next());
-//          }
-//          leaf = (LeafNode) BPlusNode.getBPlusNode(leaf.getTree(), leaf.getNextLeaf());
-//      }
-//      currLeafIter = leaf.scan();
-//      while (currLeafIter.hasNext()) {
-//          rids.add(currLeafIter.next());
-//
-//      }
-    }
-
-  /**
-   * This constructor creates an Iterator that scans starting from some LeafNode and some starting value.
-   * Can be used for LookupKey or sortedScanFrom via a boolean toggle.
-   *
-   * @param leaf the LeafNode to start scanning from.
-   * @param key the key to that has to match
-   * @param scan boolean to toggle lookupKey that matches an exact key vs a sortedScanFrom that starts from some value
-   */
-
-    public BPlusIterator(LeafNode leaf, DataType key, boolean scan) {
-      //TODO: Implement Me!
-      currLeaf = leaf;
-      lookupKey = key;
-      isScan = scan;
-      allScan = false;
-      if (isScan) {
-          currLeafIter = currLeaf.scanFrom(lookupKey);
-      } else {
-          currLeafIter = currLeaf.scanForKey(lookupKey);
-      }
-
-//      currLeafIter = currLeaf.scan();
-
-//        if ((leaf.getNextLeaf() < 0)) {
-//          if (!scan) {
-//              currLeafIter = leaf.scanForKey(key);
-//          } else {
-//              currLeafIter = leaf.scanFrom(key);
-//          }
-////          currLeafIter = leaf.scanFrom(key);
-//          while (currLeafIter.hasNext()) {
-//              rids.add(currLeafIter.next());
-//          }
-//      } else {
-//          while (leaf.getNextLeaf() >= 0) {
-//              if (scan) {
-//                  currLeafIter = leaf.scanFrom(key);
-//              } else {
-//                  currLeafIter = leaf.scanForKey(key);
-//              }
-//              if (!currLeafIter.hasNext()) {
-//                  break;
-//              }
-//              while (currLeafIter.hasNext()) {
-//                  rids.add(currLeafIter.next());
-//              }
-//              leaf = (LeafNode) BPlusNode.getBPlusNode(leaf.getTree(), leaf.getNextLeaf());
-//          }
-//          if (scan) {
-//              currLeafIter = leaf.scanFrom(key);
-//          } else {
-//              currLeafIter = leaf.scanForKey(key);
-//          }
-//          while (currLeafIter.hasNext()) {
-//              rids.add(currLeafIter.next());
-//          }
-//      }
+    private LeafReader reader;
+    private byte[] endKey;
+    private boolean endInclusive;
+    private byte[] entries;
+    private int offset;
+    private boolean done;
+
+  /**
+   * This constructor creates an Iterator that scans the keys between two
+   * bounds. Can be used for lookupKey, sortedScanFrom and scanRange.
+   *
+   * @param startKey the normalized key to start from, or null to scan from the start of the index
+   * @param startInclusive whether entries with startKey are scanned
+   * @param endKey the normalized key to stop at, or null to scan to the end of the index
+   * @param endInclusive whether entries with endKey are scanned
+   */
+
+    public BPlusIterator(byte[] startKey, boolean startInclusive, byte[] endKey, boolean endInclusive) {
+      reader = new LeafReader(startKey, startInclusive);
+      this.endKey = endKey;
+      this.endInclusive = endInclusive;
+      entries = new byte[0];
+      offset = 0;
+      done = false;
     }
 
     public boolean hasNext() {
-        return currLeafIter.hasNext();
-//      return !rids.isEmpty();
-      //TODO: Implement Me!
-//      return false;
+      // empty leaves are skipped
+      while (!done && offset == entries.length) {
+        entries = reader.readLeaf();
+        offset = 0;
+        if (entries == null) {
+          entries = new byte[0];
+          done = true;
+        }
+      }
+      // the scan is over at the first entry past endKey, without reading the
+      // leaves after it
+      if (!done && endKey != null) {
+        int c = KeyCodec.compare(entries, offset, endKey.length, endKey, 0, endKey.length);
+        if (c > 0 || (c == 0 && !endInclusive)) {
+          done = true;
+        }
+      }
+      return !done;
     }
 
     /**
@@ -331,55 +1565,11 @@ public class BPlusTree {
      * @throws NoSuchElementException if there are no more Records to yield
      */
     public RecordID next() {
-      //TODO: Implement Me!
-      RecordID rid = null;
-      if (currLeafIter.hasNext()) {
-          rid = currLeafIter.next();
-      }
-      if (currLeafIter.hasNext()) {
-          return rid;
-      }
-        //now see if there is a nextLeaf
-
-      if (currLeaf.getNextLeaf() != -1) { //set the next leaf
-          currLeaf = (LeafNode) BPlusNode.getBPlusNode(currLeaf.getTree(), currLeaf.getNextLeaf());
-      } else {
-          return rid;
-      }
-
-      if (allScan) { //means we want a pure scan
-          currLeafIter = currLeaf.scan();
-      } else { //means we want to start from key
-          if (isScan) {
-              currLeafIter = currLeaf.scanFrom(lookupKey);
-          } else {
-              currLeafIter = currLeaf.scanForKey(lookupKey);
-          }
+      if (!hasNext()) {
+        throw new NoSuchElementException("there is no such element");
       }
-      return rid;
-//      return rid;
-//      if (currLeafIter.hasNext()) {
-//          return currLeafIter.next();
-//      } else {
-//          throw new NoSuchElementException("there is no such element");
-//      }
-//          if (currLeafIter.hasNext()) {
-//              return .next();
-//          } else {
-////              if (currLeaf.getNextLeaf() == -1) {
-////                  throw new NoSuchElementException("there is no such element");
-////              } else {
-////                  currLeaf = (LeafNode) BPlusNode.getBPlusNode(currLeaf.getTree(), currLeaf.getNextLeaf());
-////                  currLeafIter = currLeaf.
-////              }
-//          }
-//      }
-
-//        return null;
-//      if (hasNext()) {
-//          return rids.poll();
-//      }
-//      throw new NoSuchElementException("there is no such element");
+      offset += keySchema.getSize() + RecordID.getSize();
+      return new RecordID(Arrays.copyOfRange(entries, offset - RecordID.getSize(), offset));
     }
 
     public void remove() {
@@ -0,0 +1,163 @@
+package edu.berkeley.cs186.database.index;
+
+import edu.berkeley.cs186.database.datatypes.KeyCodec;
+
+/**
+ * An in-memory copy of an InnerNode, decoded once so that descending through
+ * it is a binary search over arrays rather than over the node's page. The
+ * first 8 bytes of each separator (a key and a RecordID, see InnerEntry) are
+ * packed into a long, left-aligned, so that comparing two of them as unsigned
+ * longs mostly settles how the separators compare; the whole separators are
+ * kept packed one after the other in a byte array for when it doesn't.
+ *
+ * A DecodedInnerNode is a snapshot: BPlusTree drops it from its cache whenever
+ * the node it was decoded from changes, and only descends through it as long
+ * as no entries have moved out of the node since it was decoded (see
+ * BPlusTree#findNode).
+ *
+ * Properties:
+ * `pageNum`: the page number of the node
+ * `moves`: the moves version of the node when it was decoded
+ * `level`: the level of the node
+ * `rightLink`: the page number of the node to its right, or -1
+ * `highKey`: the high key of the node, or null
+ * `separatorSize`: the size (in bytes) of a separator
+ * `numKeys`: the number of separators (entries) of the node
+ * `longKeys`: the first 8 bytes of the separators packed into longs
+ * `byteKeys`: the separators packed one after the other
+ * `children`: the page numbers of the children, starting with the first child
+ */
+public class DecodedInnerNode {
+  private int pageNum;
+  private long moves;
+  private int level;
+  private int rightLink;
+  private byte[] highKey;
+  private int separatorSize;
+  private int numKeys;
+  private long[] longKeys;
+  private byte[] byteKeys;
+  private int[] children;
+
+  /**
+   * @param node the node to decode, latched
+   * @param moves the moves version of the node
+   */
+  public DecodedInnerNode(InnerNode node, long moves) {
+    this.pageNum = node.getPageNum();
+    this.moves = moves;
+    this.level = node.getLevel();
+    this.rightLink = node.getRightLink();
+    this.highKey = node.getHighKey();
+    int entrySize = node.getEntrySize();
+    this.separatorSize = entrySize - 4;
+    this.numKeys = node.getNumValidEntries();
+    byte[] bytes = node.readEntryBytes(0, this.numKeys);
+    this.children = new int[this.numKeys + 1];
+    this.children[0] = node.getFirstChild();
+
+    this.byteKeys = new byte[this.numKeys * this.separatorSize];
+    this.longKeys = new long[this.numKeys];
+    for (int i = 0; i < this.numKeys; i++) {
+      int offset = i * entrySize;
+      System.arraycopy(bytes, offset, this.byteKeys, i * this.separatorSize, this.separatorSize);
+      this.longKeys[i] = toLong(bytes, offset, this.separatorSize);
+      offset += this.separatorSize;
+      this.children[i + 1] = ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16)
+          | ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+    }
+  }
+
+  /**
+   * @param keyBytes a normalized key, or the bytes of a leaf entry
+   * @return the page number of the child to descend into for keyBytes: the
+   *         child of the last entry whose separator is less than keyBytes, or
+   *         the first child if there is none
+   */
+  public int getChild(byte[] keyBytes) {
+    long key = toLong(keyBytes, 0, keyBytes.length);
+    int low = 0;
+    int high = this.numKeys;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      // bytes past the end of either side are packed as zeros, so only equal
+      // longs leave the comparison open
+      int c = Long.compareUnsigned(this.longKeys[mid], key);
+      if (c == 0) {
+        c = KeyCodec.compare(this.byteKeys, mid * this.separatorSize, this.separatorSize,
+                             keyBytes, 0, keyBytes.length);
+      }
+      if (c < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return this.children[low];
+  }
+
+  /**
+   * @param keyBytes a normalized key, or the bytes of a leaf entry
+   * @return whether keyBytes is greater than the high key of this node
+   */
+  public boolean isPastHighKey(byte[] keyBytes) {
+    return this.highKey != null
+        && KeyCodec.compare(keyBytes, 0, keyBytes.length, this.highKey, 0, this.highKey.length) > 0;
+  }
+
+  /**
+   * @param childPage a page number
+   * @return the position of the child (see InnerNode#getChildAt), or -1 if it
+   *         is not a child of this node
+   */
+  public int findChildIndex(int childPage) {
+    for (int i = 0; i < this.children.length; i++) {
+      if (this.children[i] == childPage) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @param index the position of a child
+   * @return the page number of the child
+   */
+  public int getChildAt(int index) {
+    return this.children[index];
+  }
+
+  public int getNumKeys() {
+    return this.numKeys;
+  }
+
+  public int getPageNum() {
+    return this.pageNum;
+  }
+
+  public long getMoves() {
+    return this.moves;
+  }
+
+  public int getLevel() {
+    return this.level;
+  }
+
+  public int getRightLink() {
+    return this.rightLink;
+  }
+
+  /**
+   * Packs the first 8 of length bytes into the high bytes of a long.
+   */
+  private static long toLong(byte[] bytes, int offset, int length) {
+    long value = 0;
+    for (int i = 0; i < 8; i++) {
+      value <<= 8;
+      if (i < length) {
+        value |= bytes[offset + i] & 0xFF;
+      }
+    }
+    return value;
+  }
+}
@@ -0,0 +1,254 @@
+package edu.berkeley.cs186.database.index;
+
+import edu.berkeley.cs186.database.datatypes.KeyCodec;
+import edu.berkeley.cs186.database.io.Page;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts fixed-size index entries, compared as unsigned bytes, within a memory
+ * budget of numPages pages. Entries are buffered until the budget is used up,
+ * and each full buffer is sorted and written out to a run file. sort() then
+ * merges the runs, reading each through a buffer of one page; if there are
+ * more runs than the budget has pages for, they are first merged into longer
+ * runs in several passes. If every entry fits in memory, nothing is written.
+ *
+ * Properties:
+ * `entrySize`: the size (in bytes) of an entry
+ * `maxEntries`: the number of entries that fit in the memory budget
+ * `maxFanIn`: the number of runs that can be merged at once
+ * `runDir`: the directory run files are created in
+ * `buffer`: the entries not written to a run yet
+ * `runs`: the run files
+ * `runSizes`: the number of entries in each run
+ * `readers`: the runs being merged by sort()
+ * `numEntries`: the number of entries added
+ */
+public class EntrySorter {
+  private static final Comparator<byte[]> ORDER = new Comparator<byte[]>() {
+    public int compare(byte[] a, byte[] b) {
+      return KeyCodec.compare(a, b);
+    }
+  };
+
+  private int entrySize;
+  private int maxEntries;
+  private int maxFanIn;
+  private File runDir;
+  private List<byte[]> buffer;
+  private List<File> runs;
+  private List<Long> runSizes;
+  private List<RunReader> readers;
+  private long numEntries;
+
+  /**
+   * @param entrySize the size (in bytes) of an entry
+   * @param numPages the memory budget, in pages
+   * @param runDir the directory to create run files in
+   */
+  public EntrySorter(int entrySize, int numPages, File runDir) {
+    this.entrySize = entrySize;
+    this.maxEntries = Math.max(2, numPages * (Page.pageSize / entrySize));
+    this.maxFanIn = Math.max(2, numPages - 1);
+    this.runDir = runDir;
+    this.buffer = new ArrayList<byte[]>();
+    this.runs = new ArrayList<File>();
+    this.runSizes = new ArrayList<Long>();
+    this.readers = new ArrayList<RunReader>();
+    this.numEntries = 0;
+  }
+
+  public void add(byte[] entry) {
+    this.buffer.add(entry);
+    this.numEntries++;
+    if (this.buffer.size() == this.maxEntries) {
+      spill();
+    }
+  }
+
+  public long getNumEntries() {
+    return this.numEntries;
+  }
+
+  /**
+   * Sorts the entries added so far. No entry may be added afterwards.
+   *
+   * @return an iterator over the entries in sorted order
+   */
+  public Iterator<byte[]> sort() {
+    if (this.runs.isEmpty()) {
+      Collections.sort(this.buffer, ORDER);
+      return this.buffer.iterator();
+    }
+    if (!this.buffer.isEmpty()) {
+      spill();
+    }
+
+    while (this.runs.size() > this.maxFanIn) {
+      List<File> runs = this.runs;
+      List<Long> runSizes = this.runSizes;
+      this.runs = new ArrayList<File>();
+      this.runSizes = new ArrayList<Long>();
+
+      for (int i = 0; i < runs.size(); i += this.maxFanIn) {
+        int end = Math.min(i + this.maxFanIn, runs.size());
+        Iterator<byte[]> merged = merge(runs.subList(i, end), runSizes.subList(i, end));
+        writeRun(merged);
+        closeReaders();
+        for (File run : runs.subList(i, end)) {
+          run.delete();
+        }
+      }
+    }
+
+    return merge(this.runs, this.runSizes);
+  }
+
+  /**
+   * Closes the runs being merged and deletes every run file.
+   */
+  public void close() {
+    closeReaders();
+    for (File run : this.runs) {
+      run.delete();
+    }
+    this.runs.clear();
+    this.runSizes.clear();
+  }
+
+  private void spill() {
+    Collections.sort(this.buffer, ORDER);
+    writeRun(this.buffer.iterator());
+    this.buffer = new ArrayList<byte[]>();
+  }
+
+  private void writeRun(Iterator<byte[]> entries) {
+    try {
+      File run = File.createTempFile("sort", ".run", this.runDir);
+      this.runs.add(run);
+
+      DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(run), Page.pageSize));
+      long size = 0;
+      try {
+        while (entries.hasNext()) {
+          out.write(entries.next());
+          size++;
+        }
+      } finally {
+        out.close();
+      }
+      this.runSizes.add(size);
+    } catch (IOException e) {
+      throw new BPlusTreeException(e);
+    }
+  }
+
+  private Iterator<byte[]> merge(List<File> runs, List<Long> runSizes) {
+    final PriorityQueue<RunReader> heads = new PriorityQueue<RunReader>(runs.size(),
+        new Comparator<RunReader>() {
+          public int compare(RunReader a, RunReader b) {
+            return KeyCodec.compare(a.head, b.head);
+          }
+        });
+
+    for (int i = 0; i < runs.size(); i++) {
+      RunReader reader = new RunReader(runs.get(i), runSizes.get(i));
+      this.readers.add(reader);
+      if (reader.advance()) {
+        heads.add(reader);
+      }
+    }
+
+    return new Iterator<byte[]>() {
+      public boolean hasNext() {
+        return !heads.isEmpty();
+      }
+
+      public byte[] next() {
+        if (heads.isEmpty()) {
+          throw new NoSuchElementException();
+        }
+        RunReader reader = heads.poll();
+        byte[] entry = reader.head;
+        if (reader.advance()) {
+          heads.add(reader);
+        }
+        return entry;
+      }
+
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  private void closeReaders() {
+    for (RunReader reader : this.readers) {
+      reader.close();
+    }
+    this.readers.clear();
+  }
+
+  /**
+   * Reads the entries of a run in order.
+   */
+  private class RunReader {
+    private DataInputStream in;
+    private long remaining;
+    private byte[] head;
+
+    public RunReader(File run, long size) {
+      try {
+        this.in = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(run), Page.pageSize));
+      } catch (IOException e) {
+        throw new BPlusTreeException(e);
+      }
+      this.remaining = size;
+    }
+
+    /**
+     * Reads the next entry of the run into head.
+     *
+     * @return false if the run has no entries left
+     */
+    public boolean advance() {
+      if (this.remaining == 0) {
+        close();
+        return false;
+      }
+
+      this.head = new byte[EntrySorter.this.entrySize];
+      try {
+        this.in.readFully(this.head);
+      } catch (IOException e) {
+        throw new BPlusTreeException(e);
+      }
+      this.remaining--;
+      return true;
+    }
+
+    public void close() {
+      try {
+        this.in.close();
+      } catch (IOException e) {
+        throw new BPlusTreeException(e);
+      }
+    }
+  }
+}
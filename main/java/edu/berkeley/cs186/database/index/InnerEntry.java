@@ -1,43 +1,38 @@
 package edu.berkeley.cs186.database.index;
 
 import edu.berkeley.cs186.database.datatypes.*;
+import edu.berkeley.cs186.database.table.RecordID;
 
 import java.util.Arrays;
 import java.nio.ByteBuffer;
 
 /**
- * A B+ tree inner node entry.
+ * A B+ tree inner node entry. Leaves are split between two entries rather
+ * than two keys, so the key to split on is followed by the RecordID of the
+ * entry it was copied from, and the two together separate the entries of the
+ * children; entries with the same key stay sorted by RecordID across leaves.
  *
  * Properties:
  * `key`: the key which to split on for searching
+ * `ridBytes`: the RecordID that follows the key
  * `pageNum`: the page number of a child node
  */
 public class InnerEntry extends BEntry {
+  private byte[] ridBytes;
   private int pageNum;
 
   public InnerEntry(DataType key, int pageNum) {
     super(key);
+    this.ridBytes = new byte[RecordID.getSize()];
     this.pageNum = pageNum;
   }
 
   public InnerEntry(DataType keySchema, byte[] buff) {
-    byte[] keyBytes = Arrays.copyOfRange(buff, 0, keySchema.getSize());
-    DataType.Types type = keySchema.type();
-    switch(type) {
-    case INT:
-      this.key = new IntDataType(keyBytes);
-      break;
-    case STRING:
-      this.key = new StringDataType(keyBytes);
-      break;
-    case BOOL:
-      this.key = new BoolDataType(keyBytes);
-      break;
-    case FLOAT:
-      this.key = new FloatDataType(keyBytes);
-      break;
-    }
-    byte[] pBytes = Arrays.copyOfRange(buff, keySchema.getSize(), keySchema.getSize() + 4);
+    super(keySchema, buff);
+    int ridOffset = keySchema.getSize();
+    int pageNumOffset = ridOffset + RecordID.getSize();
+    this.ridBytes = Arrays.copyOfRange(buff, ridOffset, pageNumOffset);
+    byte[] pBytes = Arrays.copyOfRange(buff, pageNumOffset, pageNumOffset + 4);
     this.pageNum = ByteBuffer.wrap(pBytes).getInt();
   }
 
@@ -47,9 +42,9 @@ public class InnerEntry extends BEntry {
   }
   
   public byte[] toBytes() {
-    byte[] keyBytes = this.key.getBytes();
-    byte[] pageNumBytes = ByteBuffer.allocate(4).putInt(this.pageNum).array();
-    return ByteBuffer.allocate(keyBytes.length + pageNumBytes.length).put(keyBytes).put(pageNumBytes).array();
+    byte[] keyBytes = getKeyBytes();
+    return ByteBuffer.allocate(keyBytes.length + this.ridBytes.length + 4)
+        .put(keyBytes).put(this.ridBytes).putInt(this.pageNum).array();
   }
   
   @Override
@@ -59,12 +54,13 @@ public class InnerEntry extends BEntry {
     }
 
     InnerEntry otherLE = (InnerEntry) other;
-    return otherLE.key.equals(this.key) && otherLE.pageNum == this.pageNum;
+    return otherLE.getKey().equals(this.getKey()) && Arrays.equals(otherLE.ridBytes, this.ridBytes)
+        && otherLE.pageNum == this.pageNum;
   }
 
   @Override
   public String toString() {
-    return key + " <" + pageNum + ">";
+    return getKey() + " <" + pageNum + ">";
   }
   
   public int compareTo(Object obj) {
@@ -73,16 +69,11 @@ public class InnerEntry extends BEntry {
     }
 
     InnerEntry other = (InnerEntry) obj;
-    
-    if (!other.getKey().type().equals(this.getKey().type())) {
-      throw new BPlusTreeException("DataTypes in InnerEntry compareTo do not match");
+    int keyCompVal = this.compareKeys(other);
+    if (keyCompVal == 0) {
+      keyCompVal = KeyCodec.compare(this.ridBytes, other.ridBytes);
     }
 
-    if (other.getKey().getSize() != this.getKey().getSize()) {
-      throw new BPlusTreeException("DataTypes in InnerEntry compareTo have differing sizes");
-    }
-    int keyCompVal = this.getKey().compareTo(other.getKey());
-    
     if (keyCompVal == 0) {
       return Integer.compare(this.getPageNum(), other.getPageNum());
     }
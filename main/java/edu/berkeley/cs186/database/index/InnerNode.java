@@ -1,28 +1,40 @@
 package edu.berkeley.cs186.database.index;
 
 import edu.berkeley.cs186.database.datatypes.DataType;
+import edu.berkeley.cs186.database.datatypes.KeyCodec;
 import edu.berkeley.cs186.database.io.Page;
 import edu.berkeley.cs186.database.io.PageAllocator;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
- * A B+ tree inner node. An inner node header contains the page number of the
- * parent node (or -1 if no parent exists), and the page number of the first
- * child node (or -1 if no child exists). An inner node contains InnerEntry's.
+ * A B+ tree inner node. An inner node header also contains the page number of
+ * the first child node (or -1 if no child exists), after the high key. An
+ * inner node contains InnerEntry's.
  * Note that an inner node can have duplicate keys if a key spans multiple leaf
- * pages.
+ * pages, but their separators differ in the RecordIDs that follow the keys,
+ * unless the same entry was inserted more than once. Entries with the same
+ * separator are kept in the order of their children, not of their page
+ * numbers, since pages freed by merges are reused.
  *
  * Inherits all the properties of a BPlusNode.
  */
 public class InnerNode extends BPlusNode {
 
+  /**
+   * Creates a new inner node, with no children, at level 1. Nodes over inner
+   * nodes are given their level with setLevel.
+   */
   public InnerNode(BPlusTree tree) {
     super(tree, false);
     getPage().writeByte(0, (byte) 0);
+    setRightLink(-1);
+    setLevel(1);
+    setHighKey(null);
     setFirstChild(-1);
-    setParent(-1);
   }
   
   public InnerNode(BPlusTree tree, int pageNum) {
@@ -38,52 +50,98 @@ public class InnerNode extends BPlusNode {
   }
 
   public int getFirstChild() {
-    return getPage().readInt(5);
+    return getPage().readInt(HIGH_KEY_OFFSET + getSeparatorSize());
   }
   
   public void setFirstChild(int val) {
-    getPage().writeInt(5, val);
+    getPage().writeInt(HIGH_KEY_OFFSET + getSeparatorSize(), val);
+    changed();
+  }
+
+  /**
+   * @param slot the slot of an entry
+   * @return the page number of the child the entry points to
+   */
+  public int getChild(int slot) {
+    return ByteBuffer.wrap(readEntryBytes(slot, slot + 1)).getInt(getSeparatorSize());
+  }
+
+  /**
+   * @param index the position of a child, where 0 is the first child and i is
+   *              the child of the entry in slot i - 1
+   * @return the page number of the child
+   */
+  public int getChildAt(int index) {
+    return index == 0 ? getFirstChild() : getChild(index - 1);
   }
 
   /**
-   * See BPlusNode#locateLeaf documentation.
+   * @param childPage the page number of a child of this node
+   * @return the position of the child (see getChildAt)
+   */
+  public int getChildIndex(int childPage) {
+    int index = findChildIndex(childPage);
+    if (index == -1) {
+      throw new BPlusTreeException("Page " + childPage + " is not a child of this node");
+    }
+    return index;
+  }
+
+  /**
+   * @param childPage a page number
+   * @return the position of the child on the page (see getChildAt), or -1 if
+   *         it is not a child of this node
+   */
+  public int findChildIndex(int childPage) {
+    if (getFirstChild() == childPage) {
+      return 0;
+    }
+    int count = getNumValidEntries();
+    ByteBuffer entries = ByteBuffer.wrap(readEntryBytes(0, count));
+    for (int slot = 0; slot < count; slot++) {
+      if (entries.getInt(slot * getEntrySize() + getSeparatorSize()) == childPage) {
+        return slot + 1;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Inserts the entry of a new child right after the child it was split off
+   * from, splitting this node if it would become full.
+   *
+   * @param leftChild the page number of the child that was split
+   * @param ent the entry of the new child
+   * @return the entry of the node split off this one, or null if this node
+   *         didn't split
+   */
+  public InnerEntry insertChild(int leftChild, InnerEntry ent) {
+    return insertOrSplit(getChildIndex(leftChild), ent.toBytes());
+  }
+
+  /**
+   * See BPlusNode#locateLeaf documentation. Unlike the searches of BPlusTree,
+   * this doesn't latch the nodes it reads. The separators of entries with the
+   * key are greater than the key itself, so this descends to the first leaf
+   * that may hold the key.
    */
   @Override
   public LeafNode locateLeaf(DataType key, boolean findFirst) {
-    //TODO: Implement Me!!
-    List<BEntry> entries = this.getAllValidEntries();
-    int goTo = 0;
-    for (int count = 0; count < entries.size(); count++) {
-        if (count == 0) {
-            if (key.compareTo(entries.get(count).getKey()) < 0) {
-                goTo = this.getFirstChild();
-                break;
-            }
-        }
-        if (count + 1 == entries.size()) { //there is no next entry
-            goTo = entries.get(count).getPageNum();
-            break;
-        } else {
-            if ((key.compareTo(entries.get(count).getKey()) >= 0) & (key.compareTo(entries.get(count+1).getKey()) < 0)) {
-//            if (key.compareTo(entries.get(count+1).getKey()) <= 0) {
-                goTo = entries.get(count).getPageNum();
-                break;
-            }
-        }
-    }
-    BPlusNode node = getBPlusNode(this.getTree(), goTo);
-    return node.locateLeaf(key, findFirst);
+    int child = getChildAt(lowerBound(KeyCodec.encode(key)));
+    return getBPlusNode(this.getTree(), child).locateLeaf(key, findFirst);
   }
 
   /**
    * Splits this node and pushes up the middle key. Note that we split this node
-   * immediately after it becomes full rather than when trying to insert an
-   * entry into a full node. Thus a full inner node of 2d entries will be split
+   * as soon as it would become full rather than when trying to insert an entry
+   * into a full node. Thus the 2d entries of a full inner node will be split
    * into a left node with d entries and a right node with d-1 entries, with the
-   * middle key pushed up.
+   * middle key pushed up, and kept as the high key of this node. The children
+   * that move to the right node are left as they are, since they don't point
+   * back at their parent.
    */
   @Override
-  public void splitNode() {
+  public InnerEntry splitNode(byte[] entries, int count) {
     //TODO: Implement me!!
     boolean musty = true;
     boolean crusty = true;
@@ -91,39 +149,75 @@ public class InnerNode extends BPlusNode {
     boolean rusty = true;
     if (musty & dusty & crusty & rusty) {
         InnerNode newNode = new InnerNode(this.getTree());
-        int parentPage = this.getParent();
-        InnerNode parentNode;
-        if (isRoot()) {
-            parentNode = new InnerNode(this.getTree());
-            this.getTree().updateRoot(parentNode.getPageNum());
-            parentNode.setFirstChild(this.getPageNum());
-            this.setParent(parentNode.getPageNum());
-        } else {
-            parentNode = (InnerNode) getBPlusNode(this.getTree(), parentPage);
-        }
-
-        List<BEntry> entries = this.getAllValidEntries();
-        List<BEntry> curr = entries.subList(0, numEntries/2);
-        List<BEntry> other = entries.subList(numEntries/2+1, numEntries);
-
-        BEntry push = entries.get(numEntries/2);
-        int pushChildPage = push.getPageNum();
-        BPlusNode pushChildNode = BPlusNode.getBPlusNode(this.getTree(), pushChildPage);
-        pushChildNode.setParent(newNode.getPageNum());
-        newNode.setFirstChild(pushChildPage);
-
-        InnerEntry newEnt = new InnerEntry(push.getKey(), newNode.getPageNum());
-
-        this.overwriteBNodeEntries(curr);
-        newNode.overwriteBNodeEntries(other);
-//        this.setParent(parentNode.getPageNum());
-        newNode.setParent(parentNode.getPageNum());
-
-        for (BEntry bEntry: newNode.getAllValidEntries()) {
-            BPlusNode node = BPlusNode.getBPlusNode(this.getTree(), bEntry.getPageNum());
-            node.setParent(newNode.getPageNum());
-        }
-        parentNode.insertBEntry(newEnt);
+        int entrySize = this.getEntrySize();
+        int middle = this.getSplitSlot(entries, count, 1);
+        InnerEntry push = new InnerEntry(this.getTree().keySchema,
+            Arrays.copyOfRange(entries, middle*entrySize, (middle+1)*entrySize));
+        byte[] sep = Arrays.copyOf(push.toBytes(), getSeparatorSize());
+
+        newNode.setLevel(this.getLevel());
+        newNode.setFirstChild(push.getPageNum());
+        newNode.writeEntryBytes(Arrays.copyOfRange(entries, (middle+1)*entrySize, count*entrySize),
+            count - middle - 1);
+        newNode.setHighKey(this.getHighKey());
+        newNode.setRightLink(this.getRightLink());
+        this.writeEntryBytes(Arrays.copyOf(entries, middle*entrySize), middle);
+        this.setHighKey(sep);
+        this.setRightLink(newNode.getPageNum());
+        return toEntry(push, newNode.getPageNum());
     }
+    return null;
+  }
+
+  /**
+   * Merges the right sibling of this node into it, pulling the key between
+   * them down from the parent, if the entries of both fit in one node.
+   * Otherwise the entries are split evenly between the two, and the middle
+   * key is pushed up to the parent.
+   */
+  @Override
+  public boolean rebalance(InnerNode parent, int sepSlot, BPlusNode rightNode) {
+    InnerNode left = this;
+    InnerNode right = (InnerNode) rightNode;
+
+    // the entries of both nodes, with the parent's key between them pointing
+    // at the first child of right
+    int leftCount = left.getNumValidEntries();
+    int rightCount = right.getNumValidEntries();
+    int total = leftCount + 1 + rightCount;
+    BEntry sep = toEntry((InnerEntry) parent.readEntry(sepSlot), right.getFirstChild());
+    List<BEntry> entries = new ArrayList<BEntry>(total);
+    entries.addAll(left.getAllValidEntries());
+    entries.add(sep);
+    entries.addAll(right.getAllValidEntries());
+    byte[] bytes = toBytes(entries);
+
+    if (left.canHold(bytes, total)) {
+      left.writeEntryBytes(bytes, total);
+      left.setHighKey(right.getHighKey());
+      left.setRightLink(right.getRightLink());
+      parent.removeEntry(sepSlot);
+      return true;
+    } else {
+      int middle = getSplitSlot(bytes, total, 1);
+      InnerEntry push = (InnerEntry) entries.get(middle);
+      left.overwriteBNodeEntries(entries.subList(0, middle));
+      left.setHighKey(Arrays.copyOf(push.toBytes(), getSeparatorSize()));
+      right.setFirstChild(push.getPageNum());
+      right.overwriteBNodeEntries(entries.subList(middle + 1, total));
+      parent.writeEntry(sepSlot, toEntry(push, right.getPageNum()));
+      return false;
+    }
+  }
+
+  /**
+   * @return an entry with the separator of ent pointing at another child. The
+   *         key is copied as it is: separator keys may have been cut short in
+   *         the middle of a character, so they don't survive being decoded.
+   */
+  private InnerEntry toEntry(InnerEntry ent, int pageNum) {
+    byte[] bytes = ByteBuffer.allocate(getEntrySize()).put(ent.toBytes(), 0, getSeparatorSize())
+        .putInt(pageNum).array();
+    return new InnerEntry(this.getTree().keySchema, bytes);
   }
 }
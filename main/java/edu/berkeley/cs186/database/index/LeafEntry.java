@@ -22,23 +22,7 @@ public class LeafEntry extends BEntry {
   }
 
   public LeafEntry(DataType keySchema, byte[] buff) {
-    byte[] keyBytes = Arrays.copyOfRange(buff, 0, keySchema.getSize());
-    DataType.Types type = keySchema.type();
-    
-    switch(type) {
-    case INT:
-      this.key = new IntDataType(keyBytes);
-      break;
-    case STRING:
-      this.key = new StringDataType(keyBytes);
-      break;
-    case BOOL:
-      this.key = new BoolDataType(keyBytes);
-      break;
-    case FLOAT:
-      this.key = new FloatDataType(keyBytes);
-      break;
-    }
+    super(keySchema, buff);
     byte[] rBytes = Arrays.copyOfRange(buff, keySchema.getSize(), keySchema.getSize() + RecordID.getSize());
     this.rid = new RecordID(rBytes);
   }
@@ -50,7 +34,7 @@ public class LeafEntry extends BEntry {
 
   @Override 
   public byte[] toBytes() {
-    byte[] keyBytes = getKey().getBytes();
+    byte[] keyBytes = getKeyBytes();
     byte[] ridBytes = this.rid.getBytes();
     return ByteBuffer.allocate(keyBytes.length + ridBytes.length).put(keyBytes).put(ridBytes).array();
   }
@@ -75,16 +59,8 @@ public class LeafEntry extends BEntry {
     }
 
     LeafEntry other = (LeafEntry) obj;
-    
-    if (!other.getKey().type().equals(this.getKey().type())) {
-      throw new BPlusTreeException("DataTypes in LeafEntry compareTo do not match");
-    }
+    int keyCompVal = this.compareKeys(other);
 
-    if (other.getKey().getSize() != this.getKey().getSize()) {
-      throw new BPlusTreeException("DataTypes in LeafEntry compareTo have differing sizes");
-    }
-    int keyCompVal = this.getKey().compareTo(other.getKey());
-    
     if (keyCompVal == 0) {
       return this.getRecordID().compareTo(other.getRecordID());
     }
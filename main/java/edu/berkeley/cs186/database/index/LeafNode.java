@@ -1,19 +1,21 @@
 package edu.berkeley.cs186.database.index;
 
 import edu.berkeley.cs186.database.datatypes.DataType;
+import edu.berkeley.cs186.database.datatypes.KeyCodec;
 import edu.berkeley.cs186.database.io.Page;
 import edu.berkeley.cs186.database.io.PageAllocator;
 import edu.berkeley.cs186.database.table.RecordID;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ArrayList;
 
 /**
- * A B+ tree leaf node. A leaf node header contains the page number of the
- * parent node (or -1 if no parent exists), the page number of the previous leaf
- * node (or -1 if no previous leaf exists), and the page number of the next leaf
- * node (or -1 if no next leaf exists). A leaf node contains LeafEntry's.
+ * A B+ tree leaf node. The right link in a leaf node header is the page number
+ * of the next leaf node (or -1 if no next leaf exists). A leaf node contains
+ * LeafEntry's.
  *
  * Inherits all the properties of a BPlusNode.
  */
@@ -22,8 +24,8 @@ public class LeafNode extends BPlusNode {
   public LeafNode(BPlusTree tree) {
     super(tree, true);
     getPage().writeByte(0, (byte) 1);
-    setPrevLeaf(-1);
-    setParent(-1);
+    setLevel(0);
+    setHighKey(null);
     setNextLeaf(-1);
   }
   
@@ -45,110 +47,131 @@ public class LeafNode extends BPlusNode {
   @Override
   public LeafNode locateLeaf(DataType key, boolean findFirst) {
     //TODO: Implement Me!!
-    if (findFirst) {
-        Iterator<RecordID> rids = scanForKey(key);
-        if (!rids.hasNext()) {
-            return this;
-        }
-        LeafNode leaf = this;
-        LeafNode currLeaf = this;
-        while (currLeaf.getPrevLeaf() != -1) {
-            if (currLeaf.scanForKey(key).hasNext()) {
-                leaf = currLeaf;
-            } else {
-                break;
-            }
-            currLeaf = (LeafNode) getBPlusNode(this.getTree(), currLeaf.getPrevLeaf());
-        }
-        if (currLeaf.scanForKey(key).hasNext()) {
-            return currLeaf;
-        } else {
-            return leaf;
-        }
-    } else {
-        Iterator<RecordID> rids = scanForKey(key);
-        if (!rids.hasNext()) {
-            return this;
-        }
-        LeafNode leaf = this;
-        LeafNode currLeaf = this;
-        while (currLeaf.getNextLeaf() != -1) {
-            if (currLeaf.scanForKey(key).hasNext()) {
-                leaf = currLeaf;
-            } else {
-                break;
-            }
-            currLeaf = (LeafNode) getBPlusNode(this.getTree(), currLeaf.getNextLeaf());
+    // the descent stops at the first leaf that may hold the key, but deletes
+    // may have emptied it or left it with smaller entries only
+    byte[] keyBytes = KeyCodec.encode(key);
+    LeafNode leaf = this;
+    while (leaf.lowerBound(keyBytes) == leaf.getNumValidEntries() && leaf.getNextLeaf() != -1) {
+        leaf = (LeafNode) getBPlusNode(this.getTree(), leaf.getNextLeaf());
+    }
+    if (findFirst || leaf.upperBound(keyBytes) == 0) {
+        return leaf;
+    }
+    // entries with the key may go on in the leaves after it, with empty
+    // leaves in between
+    LeafNode currLeaf = leaf;
+    while (currLeaf.getNextLeaf() != -1) {
+        currLeaf = (LeafNode) getBPlusNode(this.getTree(), currLeaf.getNextLeaf());
+        if (currLeaf.getNumValidEntries() == 0) {
+            continue;
         }
-        if (currLeaf.scanForKey(key).hasNext()) {
-            return currLeaf;
-        } else {
-            return leaf;
+        if (currLeaf.upperBound(keyBytes) == 0) {
+            break;
         }
+        leaf = currLeaf;
     }
+    return leaf;
   }
 
   /**
    * Splits this node and copies up the middle key. Note that we split this node
-   * immediately after it becomes full rather than when trying to insert an
-   * entry into a full node. Thus a full leaf node of 2d entries will be split
+   * as soon as it would become full rather than when trying to insert an entry
+   * into a full node. Thus the 2d entries of a full leaf node will be split
    * into a left node with d entries and a right node with d entries, with the
-   * leftmost key of the right node copied up.
+   * leftmost key of the right node copied up, or in a compressed tree, the
+   * shortest key that separates the two nodes. The copied up key becomes the
+   * high key of this node.
    */
   @Override
-  public void splitNode() {
+  public InnerEntry splitNode(byte[] entries, int count) {
     //TODO: Implement Me!!
-      int oldNextLeaf = this.getNextLeaf();
       LeafNode node = new LeafNode(this.getTree());
-      List<BEntry> entries = this.getAllValidEntries();
-      List<BEntry> curr = entries.subList(0, numEntries/2);
-      List<BEntry> other = entries.subList(numEntries/2, numEntries);
-
-      BEntry push = other.get(0);
-      InnerEntry newEnt = new InnerEntry(push.getKey(), node.getPageNum()); //make this point to new leaf
-
-      this.overwriteBNodeEntries(curr); //overwrite this node's entries
-      node.overwriteBNodeEntries(other); //put the entries in the new node
-      int parentPage = this.getParent();
-      InnerNode parentNode;
-
-      if (parentPage == -1) { //if it has no parent, it is Root
-          parentNode = new InnerNode(this.getTree());
-          parentPage = parentNode.getPageNum();
-          this.getTree().updateRoot(parentPage);
-          parentNode.setFirstChild(this.getPageNum());
-      } else {
-          parentNode = (InnerNode) getBPlusNode(this.getTree(), parentPage);
-      }
-
-      this.setParent(parentPage);
-      node.setParent(parentPage);
+      int entrySize = this.getEntrySize();
+      int half = this.getSplitSlot(entries, count, 0);
+      byte[] sep = this.getSeparatorKey(entries, (half-1)*entrySize, entries, half*entrySize);
+
+      //put the second half of the entries in the new node, and link it in
+      //after this one
+      node.writeEntryBytes(Arrays.copyOfRange(entries, half*entrySize, count*entrySize), count - half);
+      node.setHighKey(this.getHighKey());
+      node.setNextLeaf(this.getNextLeaf());
+      this.writeEntryBytes(Arrays.copyOf(entries, half*entrySize), half);
+      this.setHighKey(sep);
       this.setNextLeaf(node.getPageNum());
-      node.setPrevLeaf(this.getPageNum());
-
-      if (oldNextLeaf != -1) {
-          LeafNode oldNextLeafNode = (LeafNode) BPlusNode.getBPlusNode(this.getTree(), oldNextLeaf);
-          oldNextLeafNode.setPrevLeaf(node.getPageNum());
-      }
-      node.setNextLeaf(oldNextLeaf);
-      parentNode.insertBEntry(newEnt);
+      return toInnerEntry(sep, node.getPageNum()); //make this point to new leaf
+  }
 
+  /**
+   * Merges the right sibling of this leaf into it, freeing the right one, if
+   * the entries of both fit in one leaf. Otherwise the entries are split
+   * evenly between the two, and the parent's key between them is updated.
+   */
+  @Override
+  public boolean rebalance(InnerNode parent, int sepSlot, BPlusNode right) {
+    LeafNode left = this;
+    int leftCount = left.getNumValidEntries();
+    int rightCount = right.getNumValidEntries();
+    int total = leftCount + rightCount;
+    byte[] leftBytes = left.readEntryBytes(0, leftCount);
+    byte[] rightBytes = right.readEntryBytes(0, rightCount);
+    byte[] bytes = Arrays.copyOf(leftBytes, leftBytes.length + rightBytes.length);
+    System.arraycopy(rightBytes, 0, bytes, leftBytes.length, rightBytes.length);
+
+    if (left.canHold(bytes, total)) {
+      left.writeEntryBytes(bytes, total);
+      left.setHighKey(right.getHighKey());
+      left.setNextLeaf(right.getRightLink());
+      parent.removeEntry(sepSlot);
+      return true;
+    } else {
+      int entrySize = getEntrySize();
+      int middle = getSplitSlot(bytes, total, 0);
+      left.writeEntryBytes(Arrays.copyOf(bytes, middle * entrySize), middle);
+      right.writeEntryBytes(Arrays.copyOfRange(bytes, middle * entrySize, bytes.length), total - middle);
+      byte[] sep = getSeparatorKey(bytes, (middle - 1) * entrySize, bytes, middle * entrySize);
+      left.setHighKey(sep);
+      parent.writeEntry(sepSlot, toInnerEntry(sep, right.getPageNum()));
+      return false;
+    }
   }
-  
-  public int getPrevLeaf() {
-    return getPage().readInt(5);
+
+  /**
+   * @return an entry of an inner node with a separator key
+   */
+  private InnerEntry toInnerEntry(byte[] keyBytes, int pageNum) {
+    byte[] bytes = ByteBuffer.allocate(keyBytes.length + 4).put(keyBytes).putInt(pageNum).array();
+    return new InnerEntry(this.getTree().keySchema, bytes);
   }
 
   public int getNextLeaf() {
-    return getPage().readInt(9);
-  }
-  
-  public void setPrevLeaf(int val) {
-    getPage().writeInt(5, val);
+    return getRightLink();
   }
 
   public void setNextLeaf(int val) {
-    getPage().writeInt(9, val);
+    setRightLink(val);
+  }
+
+  /**
+   * @param slot the slot of an entry
+   * @return the RecordID of the entry
+   */
+  public RecordID getRecordID(int slot) {
+    byte[] bytes = readEntryBytes(slot, slot + 1);
+    return new RecordID(Arrays.copyOfRange(bytes, getKeySize(), bytes.length));
+  }
+
+  /**
+   * Collects the RecordID's of the entries in a range of slots.
+   *
+   * @param fromSlot the first slot of the range
+   * @param toSlot the slot after the last slot of the range
+   * @param rids the list to add the RecordID's to
+   */
+  public void collectRecordIDs(int fromSlot, int toSlot, List<RecordID> rids) {
+    byte[] bytes = readEntryBytes(fromSlot, Math.max(fromSlot, toSlot));
+    for (int offset = 0; offset < bytes.length; offset += getEntrySize()) {
+      rids.add(new RecordID(Arrays.copyOfRange(bytes, offset + getKeySize(), offset + getEntrySize())));
+    }
   }
 
   /**
@@ -157,13 +180,8 @@ public class LeafNode extends BPlusNode {
    * @return an iterator of RecordID's
    */
   public Iterator<RecordID> scan() {
-    List<BEntry> validEntries = getAllValidEntries();
     List<RecordID> rids = new ArrayList<RecordID>();
-
-    for (BEntry le : validEntries) {
-      rids.add(le.getRecordID());
-    }
-
+    collectRecordIDs(0, getNumValidEntries(), rids);
     return rids.iterator();
   }
 
@@ -175,14 +193,8 @@ public class LeafNode extends BPlusNode {
    * @return an iterator of RecordID's
    */
   public Iterator<RecordID> scanFrom(DataType startValue) {
-    List<BEntry> validEntries = getAllValidEntries();
     List<RecordID> rids = new ArrayList<RecordID>();
-
-    for (BEntry le : validEntries) {
-      if (startValue.compareTo(le.getKey()) < 1) { 
-        rids.add(le.getRecordID());
-      }
-    }
+    collectRecordIDs(lowerBound(KeyCodec.encode(startValue)), getNumValidEntries(), rids);
     return rids.iterator();
   }
 
@@ -193,14 +205,9 @@ public class LeafNode extends BPlusNode {
    * @return an iterator of RecordID's
    */
   public Iterator<RecordID> scanForKey(DataType key) {
-    List<BEntry> validEntries = getAllValidEntries();
+    byte[] keyBytes = KeyCodec.encode(key);
     List<RecordID> rids = new ArrayList<RecordID>();
-
-    for (BEntry le : validEntries) {
-      if (key.compareTo(le.getKey()) == 0) { 
-        rids.add(le.getRecordID());
-      }
-    }
+    collectRecordIDs(lowerBound(keyBytes), upperBound(keyBytes), rids);
     return rids.iterator();
   }
 }
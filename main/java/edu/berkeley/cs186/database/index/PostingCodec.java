@@ -0,0 +1,320 @@
+package edu.berkeley.cs186.database.index;
+
+import edu.berkeley.cs186.database.datatypes.KeyCodec;
+
+import java.util.Arrays;
+
+/**
+ * Encodes the entries of a leaf of a tree with posting lists (see BPlusTree),
+ * whose keys repeat. As in PrefixCodec, the prefix that all keys of the leaf
+ * share is stored once, and each key without it and without its trailing
+ * padding, but each key is also stored only once, followed by the RecordIDs of
+ * all of its entries: its posting list. Entries with the same key are sorted
+ * by RecordID, so each RecordID is stored as its distance from the one before
+ * it, in 7-bit groups, as few as it takes. RecordIDs on the same page as the
+ * one before them mostly take a single byte.
+ *
+ * An encoded leaf is the number of entries (4 bytes), the length of the prefix
+ * (2 bytes), the prefix, the number of keys (2 bytes), the offset of the end of
+ * each key's group relative to the first group and the number of entries up to
+ * the end of the group (2 bytes each), and then the groups: the length of the
+ * rest of the key (2 bytes), the rest of the key, and the RecordIDs.
+ *
+ * A posting list that doesn't fit in one leaf continues in the leaves after
+ * it, which scans read one after the other.
+ */
+public class PostingCodec extends PrefixCodec {
+  private static final int GROUP_SIZE = 4;
+
+  public PostingCodec(int keySize, int pointerSize) {
+    super(keySize, pointerSize);
+  }
+
+  @Override
+  public int getEncodedSize(byte[] entries, int count) {
+    int entrySize = this.keySize + this.pointerSize;
+    int prefixLength = getPrefixLength(entries, count);
+    int size = HEADER_SIZE + prefixLength + 2;
+    long last = 0;
+    for (int i = 0; i < count; i++) {
+      int offset = i * entrySize;
+      if (i == 0 || !sameKey(entries, offset - entrySize, offset)) {
+        size += GROUP_SIZE + 2 + getSuffixLength(entries, offset, prefixLength);
+        last = 0;
+      }
+      long pointer = readPointer(entries, offset + this.keySize);
+      size += getVarLongSize(pointer - last);
+      last = pointer;
+    }
+    return size;
+  }
+
+  @Override
+  public int getFitCount(byte[] entries, int count, int maxSize) {
+    // the size only grows with the number of entries
+    int low = 0;
+    int high = count;
+    while (low < high) {
+      int mid = (low + high + 1) >>> 1;
+      if (getEncodedSize(entries, mid) <= maxSize) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return low;
+  }
+
+  @Override
+  public int getMaxCount(int size) {
+    // a single key, with a byte for each RecordID
+    return size - (HEADER_SIZE + 2 + GROUP_SIZE + 2);
+  }
+
+  @Override
+  public byte[] encode(byte[] entries, int count) {
+    int entrySize = this.keySize + this.pointerSize;
+    int prefixLength = getPrefixLength(entries, count);
+    byte[] encoded = new byte[getEncodedSize(entries, count)];
+
+    int numGroups = 0;
+    for (int i = 0; i < count; i++) {
+      if (i == 0 || !sameKey(entries, (i - 1) * entrySize, i * entrySize)) {
+        numGroups++;
+      }
+    }
+    writeInt(encoded, 0, count);
+    writeShort(encoded, 4, prefixLength);
+    System.arraycopy(entries, 0, encoded, HEADER_SIZE, prefixLength);
+    writeShort(encoded, HEADER_SIZE + prefixLength, numGroups);
+
+    int groups = HEADER_SIZE + prefixLength + 2;
+    int data = groups + numGroups * GROUP_SIZE;
+    int end = 0;
+    int group = 0;
+    long last = 0;
+    for (int i = 0; i < count; i++) {
+      int offset = i * entrySize;
+      if (i == 0 || !sameKey(entries, offset - entrySize, offset)) {
+        if (i > 0) {
+          writeGroup(encoded, groups, group++, end, i);
+        }
+        int suffixLength = getSuffixLength(entries, offset, prefixLength);
+        writeShort(encoded, data + end, suffixLength);
+        System.arraycopy(entries, offset + prefixLength, encoded, data + end + 2, suffixLength);
+        end += 2 + suffixLength;
+        last = 0;
+      }
+      long pointer = readPointer(entries, offset + this.keySize);
+      end += writeVarLong(encoded, data + end, pointer - last);
+      last = pointer;
+    }
+    if (count > 0) {
+      writeGroup(encoded, groups, group, end, count);
+    }
+    return encoded;
+  }
+
+  @Override
+  public int getSize(byte[] encoded) {
+    int groups = HEADER_SIZE + readShort(encoded, 4) + 2;
+    int numGroups = readShort(encoded, groups - 2);
+    int data = groups + numGroups * GROUP_SIZE;
+    return numGroups == 0 ? data : data + getGroupEnd(encoded, groups, numGroups - 1);
+  }
+
+  @Override
+  public byte[] decode(byte[] encoded, int fromSlot, int toSlot) {
+    int entrySize = this.keySize + this.pointerSize;
+    int prefixLength = readShort(encoded, 4);
+    int groups = HEADER_SIZE + prefixLength + 2;
+    int numGroups = readShort(encoded, groups - 2);
+    int data = groups + numGroups * GROUP_SIZE;
+
+    byte[] entries = new byte[(toSlot - fromSlot) * entrySize];
+    byte[] key = new byte[this.keySize];
+    System.arraycopy(encoded, HEADER_SIZE, key, 0, prefixLength);
+
+    for (int group = findGroup(encoded, groups, numGroups, fromSlot); group < numGroups; group++) {
+      int slot = getSlotStart(encoded, groups, group);
+      if (slot >= toSlot) {
+        break;
+      }
+      int end = getSlotEnd(encoded, groups, group);
+      int position = data + getGroupStart(encoded, groups, group);
+      int suffixLength = readShort(encoded, position);
+      System.arraycopy(encoded, position + 2, key, prefixLength, suffixLength);
+      Arrays.fill(key, prefixLength + suffixLength, this.keySize, PAD);
+      position += 2 + suffixLength;
+
+      long pointer = 0;
+      for (; slot < end && slot < toSlot; slot++) {
+        long delta = readVarLong(encoded, position);
+        position += getVarLongSize(delta);
+        pointer += delta;
+        if (slot >= fromSlot) {
+          int offset = (slot - fromSlot) * entrySize;
+          System.arraycopy(key, 0, entries, offset, this.keySize);
+          writePointer(entries, offset + this.keySize, pointer);
+        }
+      }
+    }
+    return entries;
+  }
+
+  /**
+   * Binary-searches the keys of encoded entries, and then, if bytes is an
+   * entry, the posting list of its key. See PrefixCodec#search.
+   */
+  @Override
+  public int search(byte[] encoded, byte[] bytes, int length, boolean inclusive) {
+    int count = readInt(encoded, 0);
+    int prefixLength = readShort(encoded, 4);
+
+    int c = KeyCodec.compare(encoded, HEADER_SIZE, prefixLength, bytes, 0, prefixLength);
+    if (c != 0) {
+      return c < 0 ? count : 0;
+    }
+
+    int groups = HEADER_SIZE + prefixLength + 2;
+    int numGroups = readShort(encoded, groups - 2);
+    int data = groups + numGroups * GROUP_SIZE;
+    // an entry is searched for among the entries with its key
+    boolean stopAtKey = inclusive || length > this.keySize;
+    int low = 0;
+    int high = numGroups;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      int position = data + getGroupStart(encoded, groups, mid);
+      c = compareKey(encoded, position + 2, readShort(encoded, position), prefixLength, bytes);
+      if (c < 0 || (c == 0 && !stopAtKey)) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    if (low == numGroups) {
+      return count;
+    }
+
+    int slot = getSlotStart(encoded, groups, low);
+    int position = data + getGroupStart(encoded, groups, low);
+    int suffixLength = readShort(encoded, position);
+    if (length == this.keySize || compareKey(encoded, position + 2, suffixLength, prefixLength, bytes) != 0) {
+      return slot;
+    }
+
+    int pointerLength = length - this.keySize;
+    byte[] target = new byte[this.pointerSize];
+    System.arraycopy(bytes, this.keySize, target, 0, pointerLength);
+    byte[] current = new byte[this.pointerSize];
+    int end = getSlotEnd(encoded, groups, low);
+    position += 2 + suffixLength;
+    long pointer = 0;
+    for (; slot < end; slot++) {
+      long delta = readVarLong(encoded, position);
+      position += getVarLongSize(delta);
+      pointer += delta;
+      writePointer(current, 0, pointer);
+      c = KeyCodec.compare(current, 0, pointerLength, target, 0, pointerLength);
+      if (c > 0 || (c == 0 && inclusive)) {
+        break;
+      }
+    }
+    return slot;
+  }
+
+  /**
+   * @return the first group holding slot, or the number of groups if none does
+   */
+  private int findGroup(byte[] encoded, int groups, int numGroups, int slot) {
+    int low = 0;
+    int high = numGroups;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (getSlotEnd(encoded, groups, mid) <= slot) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private boolean sameKey(byte[] entries, int aOffset, int bOffset) {
+    return KeyCodec.compare(entries, aOffset, this.keySize, entries, bOffset, this.keySize) == 0;
+  }
+
+  private static void writeGroup(byte[] encoded, int groups, int group, int end, int slotEnd) {
+    writeShort(encoded, groups + group * GROUP_SIZE, end);
+    writeShort(encoded, groups + group * GROUP_SIZE + 2, slotEnd);
+  }
+
+  private static int getGroupStart(byte[] encoded, int groups, int group) {
+    return group == 0 ? 0 : getGroupEnd(encoded, groups, group - 1);
+  }
+
+  private static int getGroupEnd(byte[] encoded, int groups, int group) {
+    return readShort(encoded, groups + group * GROUP_SIZE);
+  }
+
+  private static int getSlotStart(byte[] encoded, int groups, int group) {
+    return group == 0 ? 0 : getSlotEnd(encoded, groups, group - 1);
+  }
+
+  private static int getSlotEnd(byte[] encoded, int groups, int group) {
+    return readShort(encoded, groups + group * GROUP_SIZE + 2);
+  }
+
+  /**
+   * @return the pointer at offset, as an unsigned number
+   */
+  private long readPointer(byte[] src, int offset) {
+    long value = 0;
+    for (int i = 0; i < this.pointerSize; i++) {
+      value = (value << 8) | (src[offset + i] & 0xFF);
+    }
+    return value;
+  }
+
+  private void writePointer(byte[] dst, int offset, long value) {
+    for (int i = this.pointerSize - 1; i >= 0; i--) {
+      dst[offset + i] = (byte) value;
+      value >>>= 8;
+    }
+  }
+
+  private static int getVarLongSize(long value) {
+    int size = 1;
+    while ((value >>>= 7) != 0) {
+      size++;
+    }
+    return size;
+  }
+
+  /**
+   * @return the number of bytes written
+   */
+  private static int writeVarLong(byte[] dst, int offset, long value) {
+    int size = 0;
+    while ((value & ~0x7FL) != 0) {
+      dst[offset + size++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    dst[offset + size++] = (byte) value;
+    return size;
+  }
+
+  private static long readVarLong(byte[] src, int offset) {
+    long value = 0;
+    int shift = 0;
+    while (true) {
+      byte b = src[offset++];
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+      shift += 7;
+    }
+  }
+}
@@ -0,0 +1,330 @@
+package edu.berkeley.cs186.database.index;
+
+import edu.berkeley.cs186.database.datatypes.KeyCodec;
+
+import java.util.Arrays;
+
+/**
+ * Encodes the entries of a node of a tree with STRING keys, which are padded
+ * with spaces to the size of the key, so that long keys don't cost their full
+ * size in every entry. The prefix that all keys of the node share is stored
+ * once, and each key is stored without it and without its trailing padding.
+ * Entries are decoded back into packed entries of full size (see
+ * BPlusNode#readEntryBytes), and can be binary-searched in their encoded form.
+ *
+ * An encoded node is the number of entries (4 bytes), the length of the
+ * prefix (2 bytes), the prefix, the offset of the end of each entry relative
+ * to the first one (2 bytes each), and then the entries: the rest of the key
+ * followed by the RecordID or child page number.
+ *
+ * Since the keys of a node are sorted, the prefix they all share is the one
+ * that the first and last key share.
+ *
+ * Properties:
+ * `keySize`: the size (in bytes) of a key
+ * `pointerSize`: the size (in bytes) of the RecordID or page number of an entry
+ */
+public class PrefixCodec {
+  public static final byte PAD = (byte) ' ';
+
+  protected static final int HEADER_SIZE = 6;
+  private static final int OFFSET_SIZE = 2;
+
+  protected int keySize;
+  protected int pointerSize;
+
+  public PrefixCodec(int keySize, int pointerSize) {
+    this.keySize = keySize;
+    this.pointerSize = pointerSize;
+  }
+
+  /**
+   * @param entries count packed entries of full size, in sorted order
+   * @param count the number of entries
+   * @return the size (in bytes) the entries take up encoded
+   */
+  public int getEncodedSize(byte[] entries, int count) {
+    int entrySize = this.keySize + this.pointerSize;
+    int prefixLength = getPrefixLength(entries, count);
+    int size = HEADER_SIZE + prefixLength + count * (OFFSET_SIZE + this.pointerSize);
+    for (int i = 0; i < count; i++) {
+      size += getSuffixLength(entries, i * entrySize, prefixLength);
+    }
+    return size;
+  }
+
+  /**
+   * @param entries count packed entries of full size, in sorted order
+   * @param count the number of entries
+   * @param maxSize the size the entries may take up encoded
+   * @return the largest number of entries from the first one on that take up
+   *         no more than maxSize bytes encoded
+   */
+  public int getFitCount(byte[] entries, int count, int maxSize) {
+    int entrySize = this.keySize + this.pointerSize;
+    int prefixLength = this.keySize;
+    // the sum of the lengths of the keys without trailing padding, but at least
+    // prefixLength each, of the entries so far
+    int significant = 0;
+
+    for (int n = 1; n <= count; n++) {
+      int offset = (n - 1) * entrySize;
+      int shared = commonPrefixLength(entries, 0, entries, offset);
+      if (shared < prefixLength) {
+        // the prefix only shrinks, a few times at most
+        prefixLength = shared;
+        significant = 0;
+        for (int i = 0; i < n - 1; i++) {
+          significant += prefixLength + getSuffixLength(entries, i * entrySize, prefixLength);
+        }
+      }
+      significant += prefixLength + getSuffixLength(entries, offset, prefixLength);
+
+      int size = HEADER_SIZE + prefixLength + n * (OFFSET_SIZE + this.pointerSize)
+          + significant - n * prefixLength;
+      if (size > maxSize) {
+        return n - 1;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * @param size a number of bytes
+   * @return the most entries that fit in size bytes encoded
+   */
+  public int getMaxCount(int size) {
+    return (size - HEADER_SIZE) / (OFFSET_SIZE + this.pointerSize);
+  }
+
+  /**
+   * @param entries count packed entries of full size, in sorted order
+   * @param count the number of entries
+   * @return the encoded entries
+   */
+  public byte[] encode(byte[] entries, int count) {
+    int entrySize = this.keySize + this.pointerSize;
+    int prefixLength = getPrefixLength(entries, count);
+    byte[] encoded = new byte[getEncodedSize(entries, count)];
+
+    writeInt(encoded, 0, count);
+    writeShort(encoded, 4, prefixLength);
+    System.arraycopy(entries, 0, encoded, HEADER_SIZE, prefixLength);
+
+    int offsets = HEADER_SIZE + prefixLength;
+    int data = offsets + count * OFFSET_SIZE;
+    int end = 0;
+    for (int i = 0; i < count; i++) {
+      int offset = i * entrySize;
+      int suffixLength = getSuffixLength(entries, offset, prefixLength);
+      System.arraycopy(entries, offset + prefixLength, encoded, data + end, suffixLength);
+      end += suffixLength;
+      System.arraycopy(entries, offset + this.keySize, encoded, data + end, this.pointerSize);
+      end += this.pointerSize;
+      writeShort(encoded, offsets + i * OFFSET_SIZE, end);
+    }
+    return encoded;
+  }
+
+  /**
+   * @param encoded encoded entries, followed by anything
+   * @return the size (in bytes) of the encoded entries
+   */
+  public int getSize(byte[] encoded) {
+    int count = readInt(encoded, 0);
+    int offsets = HEADER_SIZE + readShort(encoded, 4);
+    int data = offsets + count * OFFSET_SIZE;
+    return count == 0 ? data : data + readShort(encoded, offsets + (count - 1) * OFFSET_SIZE);
+  }
+
+  /**
+   * @param encoded encoded entries
+   * @param fromSlot the first entry to decode
+   * @param toSlot the entry after the last one to decode
+   * @return the entries, packed one after the other at full size
+   */
+  public byte[] decode(byte[] encoded, int fromSlot, int toSlot) {
+    int entrySize = this.keySize + this.pointerSize;
+    int prefixLength = readShort(encoded, 4);
+    int offsets = HEADER_SIZE + prefixLength;
+    int data = offsets + readInt(encoded, 0) * OFFSET_SIZE;
+
+    byte[] entries = new byte[(toSlot - fromSlot) * entrySize];
+    for (int slot = fromSlot; slot < toSlot; slot++) {
+      int offset = (slot - fromSlot) * entrySize;
+      int start = getStart(encoded, offsets, slot);
+      int suffixLength = getEnd(encoded, offsets, slot) - start - this.pointerSize;
+
+      System.arraycopy(encoded, HEADER_SIZE, entries, offset, prefixLength);
+      System.arraycopy(encoded, data + start, entries, offset + prefixLength, suffixLength);
+      Arrays.fill(entries, offset + prefixLength + suffixLength, offset + this.keySize, PAD);
+      System.arraycopy(encoded, data + start + suffixLength, entries, offset + this.keySize, this.pointerSize);
+    }
+    return entries;
+  }
+
+  /**
+   * Binary-searches encoded entries for the first one whose first length bytes
+   * are greater than bytes, or, if inclusive is set, greater than or equal to
+   * bytes.
+   *
+   * @param encoded encoded entries
+   * @param bytes a normalized key, or the bytes of an entry
+   * @param length the size of a key, or of an entry
+   * @param inclusive whether to stop at entries equal to bytes
+   * @return the slot of the entry, or the number of entries if there is none
+   */
+  public int search(byte[] encoded, byte[] bytes, int length, boolean inclusive) {
+    int count = readInt(encoded, 0);
+    int prefixLength = readShort(encoded, 4);
+
+    // the entries all share the prefix, so they all sort on the same side of
+    // bytes unless bytes starts with it too
+    int c = KeyCodec.compare(encoded, HEADER_SIZE, prefixLength, bytes, 0, prefixLength);
+    if (c != 0) {
+      return c < 0 ? count : 0;
+    }
+
+    int offsets = HEADER_SIZE + prefixLength;
+    int data = offsets + count * OFFSET_SIZE;
+    int low = 0;
+    int high = count;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      c = compareAt(encoded, offsets, data, mid, prefixLength, bytes, length);
+      if (c < 0 || (c == 0 && !inclusive)) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Compares the first length bytes of an encoded entry, whose key is known to
+   * start with the first prefixLength bytes of bytes, with bytes.
+   */
+  private int compareAt(byte[] encoded, int offsets, int data, int slot, int prefixLength,
+                        byte[] bytes, int length) {
+    int start = getStart(encoded, offsets, slot);
+    int suffixLength = getEnd(encoded, offsets, slot) - start - this.pointerSize;
+
+    int c = compareKey(encoded, data + start, suffixLength, prefixLength, bytes);
+    if (c != 0 || length == this.keySize) {
+      return c;
+    }
+    return KeyCodec.compare(encoded, data + start + suffixLength, length - this.keySize,
+                            bytes, this.keySize, length - this.keySize);
+  }
+
+  /**
+   * Compares a key stored without its prefix and its trailing padding with
+   * the first keySize bytes of bytes, which are known to start with the prefix.
+   *
+   * @param encoded an array holding the rest of the key
+   * @param offset the position of the rest of the key in encoded
+   * @param suffixLength the length of the rest of the key
+   * @param prefixLength the length of the prefix
+   * @param bytes a normalized key, or the bytes of an entry
+   * @return a negative number, zero, or a positive number as the key is less
+   *         than, equal to, or greater than that of bytes
+   */
+  protected int compareKey(byte[] encoded, int offset, int suffixLength, int prefixLength, byte[] bytes) {
+    int c = KeyCodec.compare(encoded, offset, suffixLength, bytes, prefixLength, suffixLength);
+    if (c != 0) {
+      return c;
+    }
+    for (int i = prefixLength + suffixLength; i < this.keySize; i++) {
+      if (bytes[i] != PAD) {
+        return (PAD & 0xFF) - (bytes[i] & 0xFF);
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Finds the shortest key that separates two keys: the shortest prefix of
+   * the greater key that, padded, is still greater than the lesser key. Keys
+   * of inner nodes only have to route searches, so a separator that short
+   * will do, and it leaves more room for other entries.
+   *
+   * @param left an array holding the lesser key
+   * @param leftOffset the position of the lesser key in left
+   * @param right an array holding the greater key
+   * @param rightOffset the position of the greater key in right
+   * @return a key greater than the lesser key and no greater than the
+   *         greater one
+   */
+  public byte[] getSeparator(byte[] left, int leftOffset, byte[] right, int rightOffset) {
+    byte[] separator = new byte[this.keySize];
+    Arrays.fill(separator, PAD);
+
+    int length = commonPrefixLength(left, leftOffset, right, rightOffset);
+    System.arraycopy(right, rightOffset, separator, 0, length);
+    while (length < this.keySize) {
+      separator[length] = right[rightOffset + length];
+      length++;
+      if (KeyCodec.compare(separator, 0, this.keySize, right, rightOffset, this.keySize) <= 0) {
+        break;
+      }
+    }
+    return length < this.keySize ? separator : Arrays.copyOfRange(right, rightOffset, rightOffset + this.keySize);
+  }
+
+  protected int getPrefixLength(byte[] entries, int count) {
+    if (count == 0) {
+      return 0;
+    }
+    return commonPrefixLength(entries, 0, entries, (count - 1) * (this.keySize + this.pointerSize));
+  }
+
+  /**
+   * @return the length of the key at offset in entries without the prefix and
+   *         the trailing padding
+   */
+  protected int getSuffixLength(byte[] entries, int offset, int prefixLength) {
+    int end = this.keySize;
+    while (end > prefixLength && entries[offset + end - 1] == PAD) {
+      end--;
+    }
+    return end - prefixLength;
+  }
+
+  protected int commonPrefixLength(byte[] a, int aOffset, byte[] b, int bOffset) {
+    int length = 0;
+    while (length < this.keySize && a[aOffset + length] == b[bOffset + length]) {
+      length++;
+    }
+    return length;
+  }
+
+  private static int getStart(byte[] encoded, int offsets, int slot) {
+    return slot == 0 ? 0 : readShort(encoded, offsets + (slot - 1) * OFFSET_SIZE);
+  }
+
+  private static int getEnd(byte[] encoded, int offsets, int slot) {
+    return readShort(encoded, offsets + slot * OFFSET_SIZE);
+  }
+
+  protected static int readInt(byte[] src, int pos) {
+    return ((src[pos] & 0xFF) << 24) | ((src[pos + 1] & 0xFF) << 16)
+        | ((src[pos + 2] & 0xFF) << 8) | (src[pos + 3] & 0xFF);
+  }
+
+  protected static void writeInt(byte[] dst, int pos, int value) {
+    dst[pos] = (byte) (value >>> 24);
+    dst[pos + 1] = (byte) (value >>> 16);
+    dst[pos + 2] = (byte) (value >>> 8);
+    dst[pos + 3] = (byte) value;
+  }
+
+  protected static int readShort(byte[] src, int pos) {
+    return ((src[pos] & 0xFF) << 8) | (src[pos + 1] & 0xFF);
+  }
+
+  protected static void writeShort(byte[] dst, int pos, int value) {
+    dst[pos] = (byte) (value >>> 8);
+    dst[pos + 1] = (byte) value;
+  }
+}
@@ -0,0 +1,186 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.Arrays;
+
+/**
+ * A fast LZ77 block codec using the LZ4 block format. A compressed block is a series of sequences,
+ * each made of a token byte, a run of literal bytes copied as-is, and a match that copies bytes
+ * that were already decoded:
+ *
+ * token: the high 4 bits hold the number of literals and the low 4 bits the match length minus
+ *        MIN_MATCH; a nibble of 15 means more length bytes follow, each adding up to 255
+ * literals: the literal bytes
+ * offset: 2 bytes, little endian, how far back the match starts
+ * match length bytes: the rest of the match length, if the token's nibble was 15
+ *
+ * The last sequence has no match and ends the block. Matches are found with a single hash table
+ * of 4 byte prefixes, which trades some compression ratio for speed.
+ */
+public class BlockCodec {
+  private static final int MIN_MATCH = 4;
+  private static final int LAST_LITERALS = 5;
+  private static final int MATCH_FIND_LIMIT = 12;
+  private static final int MAX_OFFSET = 65535;
+  private static final int HASH_BITS = 12;
+
+  /**
+   * @param length the number of bytes to compress
+   * @return the largest number of bytes compressing them may produce
+   */
+  public static int maxCompressedLength(int length) {
+    return length + length / 255 + 16;
+  }
+
+  /**
+   * Compresses a block of bytes.
+   *
+   * @param src the bytes to compress
+   * @return the compressed block
+   */
+  public static byte[] compress(byte[] src) {
+    byte[] dest = new byte[maxCompressedLength(src.length)];
+    int[] table = new int[1 << HASH_BITS];
+    Arrays.fill(table, -1);
+
+    int anchor = 0;
+    int pos = 0;
+    int out = 0;
+    int findLimit = src.length - MATCH_FIND_LIMIT;
+    int matchLimit = src.length - LAST_LITERALS;
+
+    while (pos < findLimit) {
+      int prefix = readInt(src, pos);
+      int h = hash(prefix);
+      int ref = table[h];
+      table[h] = pos;
+
+      if (ref < 0 || pos - ref > MAX_OFFSET || readInt(src, ref) != prefix) {
+        pos++;
+        continue;
+      }
+
+      // the match may also cover bytes before pos that would otherwise be literals
+      while (pos > anchor && ref > 0 && src[pos - 1] == src[ref - 1]) {
+        pos--;
+        ref--;
+      }
+
+      int matchEnd = pos + MIN_MATCH;
+      while (matchEnd < matchLimit && src[matchEnd] == src[ref + matchEnd - pos]) {
+        matchEnd++;
+      }
+
+      out = writeSequence(src, anchor, pos - anchor, pos - ref, matchEnd - pos - MIN_MATCH, dest, out);
+      pos = matchEnd;
+      anchor = pos;
+    }
+
+    out = writeSequence(src, anchor, src.length - anchor, 0, -1, dest, out);
+    return Arrays.copyOf(dest, out);
+  }
+
+  /**
+   * Decompresses a block into dest.
+   *
+   * @param src the compressed block
+   * @param dest the buffer to decompress into, large enough to hold the whole block
+   * @return the number of bytes written to dest
+   * @throws PageException if src is not a valid compressed block
+   */
+  public static int decompress(byte[] src, byte[] dest) {
+    int in = 0;
+    int out = 0;
+
+    try {
+      while (true) {
+        int token = src[in++] & 0xFF;
+
+        int numLiterals = token >>> 4;
+        if (numLiterals == 15) {
+          int b;
+          do {
+            b = src[in++] & 0xFF;
+            numLiterals += b;
+          } while (b == 255);
+        }
+        System.arraycopy(src, in, dest, out, numLiterals);
+        in += numLiterals;
+        out += numLiterals;
+
+        if (in == src.length) {
+          return out;
+        }
+
+        int offset = (src[in] & 0xFF) | ((src[in + 1] & 0xFF) << 8);
+        in += 2;
+        if (offset == 0 || offset > out) {
+          throw new PageException("corrupt compressed block: bad match offset");
+        }
+
+        int matchLength = token & 0x0F;
+        if (matchLength == 15) {
+          int b;
+          do {
+            b = src[in++] & 0xFF;
+            matchLength += b;
+          } while (b == 255);
+        }
+        matchLength += MIN_MATCH;
+
+        // the match may overlap the bytes it produces, so copy one byte at a time
+        int ref = out - offset;
+        for (int i = 0; i < matchLength; i++) {
+          dest[out++] = dest[ref++];
+        }
+      }
+    } catch (IndexOutOfBoundsException e) {
+      throw new PageException("corrupt compressed block: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Writes one sequence. A matchLength of -1 writes the final, match-less sequence.
+   */
+  private static int writeSequence(byte[] src, int literalStart, int numLiterals,
+                                   int offset, int matchLength, byte[] dest, int out) {
+    int token = out++;
+    int matchNibble = matchLength < 0 ? 0 : Math.min(matchLength, 15);
+    dest[token] = (byte) ((Math.min(numLiterals, 15) << 4) | matchNibble);
+
+    out = writeLength(numLiterals, dest, out);
+    System.arraycopy(src, literalStart, dest, out, numLiterals);
+    out += numLiterals;
+
+    if (matchLength >= 0) {
+      dest[out++] = (byte) offset;
+      dest[out++] = (byte) (offset >>> 8);
+      out = writeLength(matchLength, dest, out);
+    }
+
+    return out;
+  }
+
+  /**
+   * Writes the length bytes that follow a token nibble of 15, if any.
+   */
+  private static int writeLength(int length, byte[] dest, int out) {
+    if (length >= 15) {
+      length -= 15;
+      while (length >= 255) {
+        dest[out++] = (byte) 255;
+        length -= 255;
+      }
+      dest[out++] = (byte) length;
+    }
+    return out;
+  }
+
+  private static int readInt(byte[] src, int pos) {
+    return (src[pos] & 0xFF) | ((src[pos + 1] & 0xFF) << 8)
+        | ((src[pos + 2] & 0xFF) << 16) | ((src[pos + 3] & 0xFF) << 24);
+  }
+
+  private static int hash(int prefix) {
+    return (prefix * -1640531535) >>> (32 - HASH_BITS);
+  }
+}
@@ -4,18 +4,26 @@ import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * General-purpose wrapper for interacting with the memory-mapped bytes on a page.
  *
- * YOU SHOULD NOT NEED TO CHANGE ANY OF THE CODE IN THIS PACKAGE.
+ * All reads and writes use absolute offsets and never move the position of the shared mapped
+ * buffer, so any number of threads may read a page at once. A single read or write is not atomic
+ * with respect to others, though: callers that change a page or need a consistent view of several
+ * bytes on it should hold the page's latch, in exclusive or shared mode respectively.
+ *
+ * A page that is stored compressed is fetched as a read-only frame holding its decompressed bytes
+ * instead of a mapping of the file; writing to such a page throws a PageException.
  */
 public class Page {
   public static final int pageSize = 4096;
   
-  private MappedByteBuffer pageData;
+  private ByteBuffer pageData;
   private int pageNum;
   private boolean durable;
+  private ReentrantReadWriteLock latch;
 
   /**
    * Create a new page using fc with at offset blockNum with virtual page number pageNum
@@ -29,8 +37,22 @@ public class Page {
   }
   
   public Page(FileChannel fc, int blockNum, int pageNum, boolean durable) {
+    this(fc, blockNum, pageNum, durable, new ReentrantReadWriteLock());
+  }
+
+  /**
+   * Create a new page that shares latch with every other Page object for the same virtual page.
+   *
+   * @param fc the file channel for this Page
+   * @param blockNum the block in the file for this page
+   * @param pageNum the virtual page number
+   * @param durable whether flush() forces the page to disk
+   * @param latch the reader/writer latch of the virtual page
+   */
+  public Page(FileChannel fc, int blockNum, int pageNum, boolean durable, ReentrantReadWriteLock latch) {
     this.pageNum = pageNum;
     this.durable = durable;
+    this.latch = latch;
     PageAllocator.incrementCacheMisses();
     try {
       this.pageData = fc.map(FileChannel.MapMode.READ_WRITE, blockNum*Page.pageSize, Page.pageSize);    
@@ -39,6 +61,21 @@ public class Page {
     }
   }
 
+  /**
+   * Create a new read-only page holding bytes that were decompressed from disk.
+   *
+   * @param bytes the Page.pageSize bytes of the page
+   * @param pageNum the virtual page number
+   * @param latch the reader/writer latch of the virtual page
+   */
+  Page(byte[] bytes, int pageNum, ReentrantReadWriteLock latch) {
+    this.pageNum = pageNum;
+    this.durable = false;
+    this.latch = latch;
+    PageAllocator.incrementCacheMisses();
+    this.pageData = ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+  }
+
   /**
    * Reads num bytes from offset position into buf.
    *
@@ -53,8 +90,9 @@ public class Page {
     if (buf.length < num) {
       throw new PageException("num bytes to read is longer than buffer");
     }
-    pageData.position(position);
-    pageData.get(buf, 0, num);
+    ByteBuffer data = pageData.duplicate();
+    data.position(position);
+    data.get(buf, 0, num);
   }
 
   /**
@@ -115,8 +153,13 @@ public class Page {
       throw new PageException("writeBytes would go out of bounds");
     }
 
-    pageData.position(position);
-    pageData.put(buf, 0, num);
+    if (this.isReadOnly()) {
+      throw new PageException("can't write to compressed page: " + this.pageNum);
+    }
+
+    ByteBuffer data = pageData.duplicate();
+    data.position(position);
+    data.put(buf, 0, num);
   }
 
   /**
@@ -129,6 +172,9 @@ public class Page {
     if (position < 0 || position >= Page.pageSize) {
       throw new PageException("readByte is out of bounds of page");
     }
+    if (this.isReadOnly()) {
+      throw new PageException("can't write to compressed page: " + this.pageNum);
+    }
     pageData.put(position, b);
   }
 
@@ -160,16 +206,52 @@ public class Page {
     this.writeBytes(0, Page.pageSize, zeros);
   }
 
+  /**
+   * Acquire this page's latch in shared mode, blocking while another thread holds it exclusively.
+   */
+  public void latchShared() {
+    this.latch.readLock().lock();
+  }
+
+  /**
+   * Release this page's latch after latchShared().
+   */
+  public void unlatchShared() {
+    this.latch.readLock().unlock();
+  }
+
+  /**
+   * Acquire this page's latch in exclusive mode, blocking while any other thread holds it. A thread
+   * that holds the latch exclusively may also acquire it in shared mode.
+   */
+  public void latchExclusive() {
+    this.latch.writeLock().lock();
+  }
+
+  /**
+   * Release this page's latch after latchExclusive().
+   */
+  public void unlatchExclusive() {
+    this.latch.writeLock().unlock();
+  }
+
   /**
    * Force the page to disk.
    */
   public void flush() {
     if (this.durable) { 
       PageAllocator.incrementCacheMisses();
-      this.pageData.force();
+      ((MappedByteBuffer) this.pageData).force();
     }
   }
 
+  /**
+   * @return whether this page is a read-only frame of a compressed page
+   */
+  public boolean isReadOnly() {
+    return this.pageData.isReadOnly();
+  }
+
   /**
    * @return the virtual page number of this page
    */
@@ -1,5 +1,6 @@
 package edu.berkeley.cs186.database.io;
 
+import java.io.File;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
 import java.nio.ByteBuffer;
@@ -15,7 +16,11 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Set;
+import java.util.HashSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.io.Closeable;
 
@@ -24,11 +29,29 @@ import java.io.Closeable;
  * interface to individual pages with the Page objects, an LRU cache for pages, 16GB worth of paging,
  * and virtual page translation.
  *
- * YOU SHOULD NOT NEED TO CHANGE ANY OF THE CODE IN THIS PACKAGE.
+ * Pages that are no longer written can be compressed with compressPage(). A compressed page is
+ * stored as an extent in a side file named after the allocator's file with EXTENT_FILE_EXTENSION
+ * appended, and its byte in the header page is set to COMPRESSED_PAGE instead of 1. Fetching it
+ * reads and decompresses just its extent into a read-only frame, so reading a cold page costs
+ * only as many bytes of I/O as it compresses to. Each extent starts with the page number and
+ * length it holds, so the extent file is self-describing and is scanned to rebuild the page to
+ * extent mapping when the allocator is opened; the latest extent of a page wins.
+ *
+ * The block a page is stored in is otherwise fixed by its page number, so the block of a compressed
+ * page is lent to the pages allocated after it rather than left unused: such a page is stored in
+ * the block of another page, and its byte in the header page is set to RELOCATED_PAGE. The block
+ * it borrows is recorded in the extent file as well, with a length of RELOCATION_RECORD, followed
+ * by the block number.
  */
 public class PageAllocator implements Iterable<Page>, Closeable {
   private static final int numHeaderPages = 1024;
   private static final int cacheSize = 1024;
+  private static final byte COMPRESSED_PAGE = 2;
+  private static final byte RELOCATED_PAGE = 3;
+  private static final int EXTENT_HEADER_SIZE = 8;
+  private static final int RELOCATION_RECORD = -1;
+
+  public static final String EXTENT_FILE_EXTENSION = ".cz";
 
   private static AtomicInteger pACounter = new AtomicInteger(0);
   private static LRUCache<Long, Page> pageLRU = new LRUCache<Long, Page>(cacheSize);
@@ -40,6 +63,14 @@ public class PageAllocator implements Iterable<Page>, Closeable {
   private int numPages;
   private int allocID;
   private boolean durable;
+  private ConcurrentHashMap<Integer, ReentrantReadWriteLock> latches;
+  private String extentFileName;
+  private FileChannel extentChannel;
+  private ConcurrentHashMap<Integer, Extent> extents;
+  private Object blockLock;
+  private ConcurrentHashMap<Integer, Integer> relocations;
+  private Set<Integer> lentBlocks;
+  private TreeSet<Integer> freeBlocks;
 
   /**
    * Creates a new PageAllocator that writes its bytes into a file named fName.
@@ -54,6 +85,7 @@ public class PageAllocator implements Iterable<Page>, Closeable {
 
   public PageAllocator(String fName, boolean wipe, boolean durable) {
     this.durable = durable;
+    this.latches = new ConcurrentHashMap<Integer, ReentrantReadWriteLock>();
     try {
       this.fc = new RandomAccessFile(fName, "rw").getChannel();
     } catch (IOException e) {
@@ -91,6 +123,59 @@ public class PageAllocator implements Iterable<Page>, Closeable {
     for (int i = 0; i < numHeaderPages; i++) {
       this.numPages += pageCounts[i];
     }
+
+    this.extentFileName = fName + EXTENT_FILE_EXTENSION;
+    this.extentChannel = null;
+    this.extents = new ConcurrentHashMap<Integer, Extent>();
+    this.blockLock = new Object();
+    this.relocations = new ConcurrentHashMap<Integer, Integer>();
+    this.lentBlocks = new HashSet<Integer>();
+    this.freeBlocks = new TreeSet<Integer>();
+    if (new File(this.extentFileName).exists()) {
+      openExtentFile();
+      if (wipe) {
+        try {
+          this.extentChannel.truncate(0);
+        } catch (IOException e) {
+          throw new PageException("Could not wipe extent file: " + e.getMessage());
+        }
+      } else {
+        readExtents();
+        readBlockUse(pageCounts);
+      }
+    }
+  }
+
+  /**
+   * Finds the blocks lent to relocated pages, and the blocks of compressed and relocated pages
+   * that are free to lend, from the header pages and the relocations read from the extent file.
+   *
+   * @param pageCounts the number of allocated pages of each header page
+   */
+  private void readBlockUse(int[] pageCounts) {
+    Set<Integer> relocatedPages = new HashSet<Integer>();
+    for (int i = 0; i < numHeaderPages; i++) {
+      if (pageCounts[i] == 0) {
+        continue;
+      }
+      byte[] headerBytes = getHeadPage(i).readBytes();
+      for (int j = 0; j < Page.pageSize; j++) {
+        int pageNum = i * Page.pageSize + j;
+        // lending a block past the end of the file would only make it grow
+        boolean ownBlockUnused = headerBytes[j] == COMPRESSED_PAGE || headerBytes[j] == RELOCATED_PAGE;
+        if (ownBlockUnused && isInFile(getBlockID(pageNum))) {
+          this.freeBlocks.add(getBlockID(pageNum));
+        }
+        if (headerBytes[j] == RELOCATED_PAGE) {
+          relocatedPages.add(pageNum);
+        }
+      }
+    }
+
+    // relocations of pages that have been freed or compressed since don't hold
+    this.relocations.keySet().retainAll(relocatedPages);
+    this.lentBlocks.addAll(this.relocations.values());
+    this.freeBlocks.removeAll(this.lentBlocks);
   }
 
   /**
@@ -99,53 +184,67 @@ public class PageAllocator implements Iterable<Page>, Closeable {
    * @return the virtual page number of the page
    */
   public int allocPage() {
-    byte[] masterBytes = this.masterPage.readBytes();
-    IntBuffer ib = ByteBuffer.wrap(masterBytes).asIntBuffer();
-    int[] pageCounts = new int[ib.capacity()];
-    ib.get(pageCounts);
+    int pageNum = -1;
+    synchronized (this.blockLock) {
+      byte[] masterBytes = this.masterPage.readBytes();
+      IntBuffer ib = ByteBuffer.wrap(masterBytes).asIntBuffer();
+      int[] pageCounts = new int[ib.capacity()];
+      ib.get(pageCounts);
 
-    Page headerPage = null;
-    int headerIndex = -1;
-    for (int i = 0; i < numHeaderPages; i++) {
-      if (pageCounts[i] < Page.pageSize) {
+      // a page whose block is lent to another page can only be allocated in a free block
+      boolean canRelocate = !this.freeBlocks.isEmpty();
+      Page headerPage = null;
+      int headerIndex = -1;
+      for (int i = 0; i < numHeaderPages && pageNum == -1; i++) {
+        if (pageCounts[i] >= Page.pageSize) {
+          continue;
+        }
         // Found header page with space
         headerPage = getHeadPage(i);
         headerIndex = i;
-        break;
-      }
-    }
-
-    if (headerPage == null) {
-      throw new PageException("No free Pages Available");
-    }
 
-    byte[] headerBytes = headerPage.readBytes();
-    int pageIndex = -1;
+        byte[] headerBytes = headerPage.readBytes();
+        for (int j = 0; j < Page.pageSize; j++) {
+          if (headerBytes[j] == 0
+              && (canRelocate || !this.lentBlocks.contains(getBlockID(i * Page.pageSize + j)))) {
+            pageNum = i * Page.pageSize + j;
+            break;
+          }
+        }
+      }
 
-    for (int i = 0; i < Page.pageSize; i++) {
-      if (headerBytes[i] == 0) {
-        pageIndex = i;
-        break;
+      if (pageNum == -1) {
+        throw new PageException("No free Pages Available");
       }
-    }
 
-    if (pageIndex == -1) {
-     throw new PageException("Header page should have free page but doesnt");
-    }
+      // the blocks of compressed pages are reused before the file grows
+      int block = getBlockID(pageNum);
+      byte validByte = 1;
+      if (!this.freeBlocks.remove(block) && !this.freeBlocks.isEmpty()
+          && (this.lentBlocks.contains(block) || !isInFile(block))) {
+        block = this.freeBlocks.pollFirst();
+        ByteBuffer buf = ByteBuffer.allocate(EXTENT_HEADER_SIZE + 4);
+        buf.putInt(pageNum).putInt(RELOCATION_RECORD).putInt(block);
+        buf.flip();
+        appendToExtentFile(buf, pageNum);
+        this.relocations.put(pageNum, block);
+        this.lentBlocks.add(block);
+        validByte = RELOCATED_PAGE;
+      }
 
-    int newCount = pageCounts[headerIndex] + 1;
-    byte[] newCountBytes = ByteBuffer.allocate(4).putInt(newCount).array();
-    this.masterPage.writeBytes(headerIndex*4, 4, newCountBytes);
-    headerPage.writeByte(pageIndex, (byte) 1);
+      int newCount = pageCounts[headerIndex] + 1;
+      byte[] newCountBytes = ByteBuffer.allocate(4).putInt(newCount).array();
+      this.masterPage.writeBytes(headerIndex*4, 4, newCountBytes);
+      headerPage.writeByte(pageNum % Page.pageSize, validByte);
 
-    if (this.durable) {
-      this.masterPage.flush();
-      headerPage.flush();
+      if (this.durable) {
+        this.masterPage.flush();
+        headerPage.flush();
+      }
+      this.numPages += 1;
     }
 
-    int pageNum = headerIndex * Page.pageSize + pageIndex;
     fetchPage(pageNum).wipe();
-    this.numPages += 1;
     return pageNum;
   }
 
@@ -191,16 +290,237 @@ public class PageAllocator implements Iterable<Page>, Closeable {
       throw new PageException("invalid page number -- page not allocated");
     }
 
-    int dataBlockID = 2 + headPageIndex*(Page.pageSize + 1) + dataPageIndex;
-    Page dataPage = new Page(this.fc, dataBlockID, pageNum, this.durable);
+    Page dataPage;
+    if (validByte == COMPRESSED_PAGE) {
+      dataPage = readCompressedPage(pageNum);
+    } else {
+      int dataBlockID = getBlockID(pageNum);
+      if (validByte == RELOCATED_PAGE) {
+        Integer block = this.relocations.get(pageNum);
+        if (block == null) {
+          throw new PageException("relocated page " + pageNum + " has no block");
+        }
+        dataBlockID = block;
+      }
+      dataPage = new Page(this.fc, dataBlockID, pageNum, this.durable, getLatch(pageNum));
+    }
 
     synchronized(PageAllocator.class) {
+      // another thread may have mapped the same page in the meantime
+      if (pageLRU.containsKey(translatePageNum(pageNum))) {
+        return pageLRU.get(translatePageNum(pageNum));
+      }
       pageLRU.put(translatePageNum(pageNum), dataPage);
     }
 
     return dataPage;
   }
 
+  /**
+   * Compresses a page into the extent file. From then on the page is fetched as a read-only frame
+   * of its decompressed bytes, so it must not be written anymore, and its block is lent to pages
+   * allocated later: Page objects that were fetched before compressing must not be used anymore.
+   * The page latch doesn't keep readers off the block once it is lent, so the caller must make
+   * sure no other thread holds such a Page object, e.g. by holding a lock that every reader of
+   * the page holds too (see Table#compressSealedPages). Pages that don't get smaller are left as
+   * they are.
+   *
+   * @param pageNum the virtual page number
+   * @return whether the page is now stored compressed by this call
+   */
+  public synchronized boolean compressPage(int pageNum) {
+    Page page = fetchPage(pageNum);
+    if (page.isReadOnly()) {
+      return false;
+    }
+
+    page.latchExclusive();
+    try {
+      byte[] compressed = BlockCodec.compress(page.readBytes());
+      if (compressed.length + EXTENT_HEADER_SIZE >= Page.pageSize) {
+        return false;
+      }
+
+      ByteBuffer buf = ByteBuffer.allocate(EXTENT_HEADER_SIZE + compressed.length);
+      buf.putInt(pageNum).putInt(compressed.length).put(compressed);
+      buf.flip();
+
+      synchronized (this.blockLock) {
+        long offset = appendToExtentFile(buf, pageNum);
+        this.extents.put(pageNum, new Extent(offset + EXTENT_HEADER_SIZE, compressed.length));
+
+        // the extent is on disk before the header page points at it
+        Page headPage = getHeadPage(pageNum / Page.pageSize);
+        headPage.writeByte(pageNum % Page.pageSize, COMPRESSED_PAGE);
+        if (this.durable) {
+          headPage.flush();
+        }
+
+        // the page's block is free to lend from now on
+        Integer lent = this.relocations.remove(pageNum);
+        int block = getBlockID(pageNum);
+        if (lent != null) {
+          block = lent;
+          this.lentBlocks.remove(block);
+        }
+        this.freeBlocks.add(block);
+      }
+
+      synchronized(PageAllocator.class) {
+        pageLRU.remove(translatePageNum(pageNum));
+      }
+    } finally {
+      page.unlatchExclusive();
+    }
+
+    return true;
+  }
+
+  /**
+   * @param pageNum the virtual page number
+   * @return whether the page is stored compressed
+   */
+  public boolean isCompressed(int pageNum) {
+    return fetchPage(pageNum).isReadOnly();
+  }
+
+  /**
+   * Reads the extent of a compressed page and decompresses it into a read-only frame.
+   *
+   * @param pageNum the virtual page number
+   * @return a read-only Page holding the page's bytes
+   */
+  private Page readCompressedPage(int pageNum) {
+    Extent extent = this.extents.get(pageNum);
+    if (extent == null) {
+      throw new PageException("compressed page " + pageNum + " has no extent");
+    }
+
+    ByteBuffer buf = ByteBuffer.allocate(extent.length);
+    try {
+      while (buf.hasRemaining()) {
+        if (this.extentChannel.read(buf, extent.offset + buf.position()) < 0) {
+          throw new PageException("extent of page " + pageNum + " is truncated");
+        }
+      }
+    } catch (IOException e) {
+      throw new PageException("Could not read extent of page " + pageNum + ": " + e.getMessage());
+    }
+
+    byte[] bytes = new byte[Page.pageSize];
+    if (BlockCodec.decompress(buf.array(), bytes) != Page.pageSize) {
+      throw new PageException("extent of page " + pageNum + " does not hold a whole page");
+    }
+    return new Page(bytes, pageNum, getLatch(pageNum));
+  }
+
+  private void openExtentFile() {
+    try {
+      this.extentChannel = new RandomAccessFile(this.extentFileName, "rw").getChannel();
+    } catch (IOException e) {
+      throw new PageException("Could not open extent file: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Appends a record to the end of the extent file, opening it if need be.
+   *
+   * @param buf the record, ready to be read
+   * @param pageNum the virtual page number of the page the record is about
+   * @return the offset of the record in the extent file
+   */
+  private long appendToExtentFile(ByteBuffer buf, int pageNum) {
+    if (this.extentChannel == null) {
+      openExtentFile();
+    }
+
+    try {
+      long offset = this.extentChannel.size();
+      while (buf.hasRemaining()) {
+        this.extentChannel.write(buf, offset + buf.position());
+      }
+      if (this.durable) {
+        this.extentChannel.force(false);
+      }
+      return offset;
+    } catch (IOException e) {
+      throw new PageException("Could not write extent of page " + pageNum + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * @param block a block number
+   * @return whether the file already reaches past the block
+   */
+  private boolean isInFile(int block) {
+    try {
+      return (long) (block + 1) * Page.pageSize <= this.fc.size();
+    } catch (IOException e) {
+      throw new PageException("Could not read file size: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Scans the extent file and records the latest extent and the latest relocation of every page.
+   */
+  private void readExtents() {
+    try {
+      long offset = 0;
+      long size = this.extentChannel.size();
+      ByteBuffer header = ByteBuffer.allocate(EXTENT_HEADER_SIZE);
+
+      while (offset + EXTENT_HEADER_SIZE <= size) {
+        header.clear();
+        while (header.hasRemaining()) {
+          this.extentChannel.read(header, offset + header.position());
+        }
+        int pageNum = header.getInt(0);
+        int length = header.getInt(4);
+
+        if (length == RELOCATION_RECORD) {
+          ByteBuffer block = ByteBuffer.allocate(4);
+          if (offset + EXTENT_HEADER_SIZE + 4 > size) {
+            break;
+          }
+          while (block.hasRemaining()) {
+            this.extentChannel.read(block, offset + EXTENT_HEADER_SIZE + block.position());
+          }
+          this.relocations.put(pageNum, block.getInt(0));
+          offset += EXTENT_HEADER_SIZE + 4;
+          continue;
+        }
+
+        // an extent cut short by a crash was never pointed at by a header page
+        if (offset + EXTENT_HEADER_SIZE + length > size) {
+          break;
+        }
+        this.extents.put(pageNum, new Extent(offset + EXTENT_HEADER_SIZE, length));
+        offset += EXTENT_HEADER_SIZE + length;
+      }
+    } catch (IOException e) {
+      throw new PageException("Could not read extent file: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Returns the latch of a virtual page. Every Page object mapping the page shares this latch, even
+   * after the page has been evicted from the cache and mapped again.
+   *
+   * @param pageNum the virtual page number
+   * @return the reader/writer latch for pageNum
+   */
+  private ReentrantReadWriteLock getLatch(int pageNum) {
+    ReentrantReadWriteLock latch = this.latches.get(pageNum);
+    if (latch == null) {
+      ReentrantReadWriteLock newLatch = new ReentrantReadWriteLock();
+      latch = this.latches.putIfAbsent(pageNum, newLatch);
+      if (latch == null) {
+        latch = newLatch;
+      }
+    }
+    return latch;
+  }
+
   /**
    * Frees the page to be returned back to the system. The page is no longer valid and can be re-used
    * the next time the user called allocPage.
@@ -218,22 +538,33 @@ public class PageAllocator implements Iterable<Page>, Closeable {
 
     Page headPage = getHeadPage(headPageIndex);
 
-    if (headPage.readByte(dataPageIndex) == 0) {
-      return false;
-    }
+    synchronized (this.blockLock) {
+      byte validByte = headPage.readByte(dataPageIndex);
+      if (validByte == 0) {
+        return false;
+      }
 
-    headPage.writeByte(dataPageIndex, (byte) 0);
-    if (this.durable) {
-      headPage.flush();
-    }
-    byte[] countBytes = masterPage.readBytes(4*headPageIndex,4);
-    int oldCount = ByteBuffer.wrap(countBytes).getInt();
+      headPage.writeByte(dataPageIndex, (byte) 0);
+      if (this.durable) {
+        headPage.flush();
+      }
+      byte[] countBytes = masterPage.readBytes(4*headPageIndex,4);
+      int oldCount = ByteBuffer.wrap(countBytes).getInt();
+
+      int newCount = oldCount - 1;
+      byte[] newCountBytes = ByteBuffer.allocate(4).putInt(newCount).array();
+      masterPage.writeBytes(headPageIndex*4, 4, newCountBytes);
+      if (this.durable) {
+        masterPage.flush();
+      }
 
-    int newCount = oldCount - 1;
-    byte[] newCountBytes = ByteBuffer.allocate(4).putInt(newCount).array();
-    masterPage.writeBytes(headPageIndex*4, 4, newCountBytes);
-    if (this.durable) {
-      masterPage.flush();
+      // the block a relocated page borrowed can be lent again
+      if (validByte == RELOCATED_PAGE) {
+        int block = this.relocations.remove(pageNum);
+        this.lentBlocks.remove(block);
+        this.freeBlocks.add(block);
+      }
+      this.numPages -= 1;
     }
 
     synchronized(PageAllocator.class) {
@@ -242,7 +573,7 @@ public class PageAllocator implements Iterable<Page>, Closeable {
       }
     }
 
-    this.numPages -= 1;
+    this.extents.remove(pageNum);
     return true;
   }
 
@@ -303,6 +634,9 @@ public class PageAllocator implements Iterable<Page>, Closeable {
     this.masterPage = null;
     try {
       this.fc.close();
+      if (this.extentChannel != null) {
+        this.extentChannel.close();
+      }
     } catch (IOException e) {
       throw new PageException("Could not close Page Alloc " + e.getMessage());
     }
@@ -313,6 +647,14 @@ public class PageAllocator implements Iterable<Page>, Closeable {
     return new Page(this.fc, headBlockID, -1);
   }
 
+  /**
+   * @param pageNum the virtual page number
+   * @return the block the page is stored in, unless it is compressed or relocated
+   */
+  private static int getBlockID(int pageNum) {
+    return 2 + (pageNum / Page.pageSize)*(Page.pageSize + 1) + pageNum % Page.pageSize;
+  }
+
   public int getNumPages() {
     return this.numPages;
   }
@@ -348,6 +690,19 @@ public class PageAllocator implements Iterable<Page>, Closeable {
       return new PageIterator();
   }
 
+  /**
+   * The location of a compressed page in the extent file.
+   */
+  private static class Extent {
+    private long offset;
+    private int length;
+
+    public Extent(long offset, int length) {
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+
   private class PageIterator implements Iterator<Page> {
     private int pageNum;
     private int cursor;
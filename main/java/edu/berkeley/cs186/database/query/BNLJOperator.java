@@ -59,7 +59,7 @@ public class BNLJOperator extends JoinOperator {
 
 
         public BNLJIterator() throws QueryPlanException, DatabaseException {
-            if (BNLJOperator.this.getLeftSource().isSequentialScan()) {
+            if (BNLJOperator.this.isPlainTableScan(BNLJOperator.this.getLeftSource())) {
                 this.leftTableName = ((SequentialScanOperator)BNLJOperator.this.getLeftSource()).getTableName();
             } else {
                 this.leftTableName = "Temp" + BNLJOperator.this.getJoinType().toString() + "Operator" + BNLJOperator.this.getLeftColumnName() + "Left";
@@ -69,7 +69,7 @@ public class BNLJOperator extends JoinOperator {
                     BNLJOperator.this.addRecord(leftTableName, leftIter.next().getValues());
                 }
             }
-            if (BNLJOperator.this.getRightSource().isSequentialScan()) {
+            if (BNLJOperator.this.isPlainTableScan(BNLJOperator.this.getRightSource())) {
                 this.rightTableName = ((SequentialScanOperator)BNLJOperator.this.getRightSource()).getTableName();
             } else {
                 this.rightTableName = "Temp" + BNLJOperator.this.getJoinType().toString() + "Operator" + BNLJOperator.this.getRightColumnName() + "Right";
@@ -165,18 +165,13 @@ public class BNLJOperator extends JoinOperator {
                                 }
                             }
 
+                            DataType leftJoinValue = this.leftRecord == null ? null : this.leftRecord.get(BNLJOperator.this.getLeftColumnIndex());
                             while (rightRecords != null && !rightRecords.isEmpty()) {
                                 rightRecord = rightRecords.poll();
                                 leftPageReset = false;
-                                DataType leftJoinValue = this.leftRecord.getValues().get(BNLJOperator.this.getLeftColumnIndex());
-                                DataType rightJoinValue = rightRecord.getValues().get(BNLJOperator.this.getRightColumnIndex());
 
-                                if (leftJoinValue.equals(rightJoinValue)) {
-                                    List<DataType> leftValues = new ArrayList<DataType>(this.leftRecord.getValues());
-                                    List<DataType> rightValues = new ArrayList<DataType>(rightRecord.getValues());
-
-                                    leftValues.addAll(rightValues);
-                                    this.nextRecord = new Record(leftValues);
+                                if (rightRecord.fieldEquals(BNLJOperator.this.getRightColumnIndex(), leftJoinValue)) {
+                                    this.nextRecord = this.leftRecord.concat(rightRecord);
                                     this.rightRecord = null;
                                     return true;
                                 }
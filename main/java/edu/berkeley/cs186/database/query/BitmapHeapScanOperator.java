@@ -0,0 +1,254 @@
+package edu.berkeley.cs186.database.query;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+import edu.berkeley.cs186.database.Database;
+import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.datatypes.DataType;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordID;
+import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.stats.TableStats;
+
+/**
+ * A scan that uses an index to find the RecordIDs matching a predicate, but fetches the records in
+ * physical order. The matching RecordIDs are first collected into a bitmap holding one bit set of
+ * slots per data page, and the pages are then visited in increasing page order, each of them once.
+ * Unlike an index scan, the output is not sorted on the indexed column.
+ */
+public class BitmapHeapScanOperator extends QueryOperator {
+  private Database.Transaction transaction;
+  private String tableName;
+  private String columnName;
+  private QueryPlan.PredicateOperator predicate;
+  private DataType value;
+
+  private int columnIndex;
+
+  /**
+   * A bitmap heap scan operator.
+   *
+   * @param transaction the transaction containing this operator
+   * @param tableName the table to iterate over
+   * @param columnName the name of the column the index is on
+   * @throws QueryPlanException
+   * @throws DatabaseException
+   */
+  public BitmapHeapScanOperator(Database.Transaction transaction,
+                                String tableName,
+                                String columnName,
+                                QueryPlan.PredicateOperator predicate,
+                                DataType value) throws QueryPlanException, DatabaseException {
+    super(OperatorType.BITMAPHEAPSCAN);
+    this.tableName = tableName;
+    this.transaction = transaction;
+    this.columnName = columnName;
+    this.predicate = predicate;
+    this.value = value;
+
+    if (predicate == QueryPlan.PredicateOperator.NOT_EQUALS) {
+      throw new QueryPlanException("A bitmap heap scan can't evaluate NOT_EQUALS.");
+    }
+
+    this.setOutputSchema(this.computeSchema());
+
+    columnName = this.checkSchemaForColumn(this.getOutputSchema(), columnName);
+    this.columnIndex = this.getOutputSchema().getFieldNames().indexOf(columnName);
+
+    this.stats = this.estimateStats();
+    this.cost = this.estimateIOCost();
+  }
+
+  public Iterator<Record> execute() throws DatabaseException {
+    return this.iterator();
+  }
+
+  public Iterator<Record> iterator() throws DatabaseException {
+    return new BitmapHeapScanIterator(this.buildBitmap());
+  }
+
+  /**
+   * Looks up the RecordIDs matching the predicate in the index and sets their slots in a bitmap
+   * keyed by page number.
+   *
+   * @return the bitmap of matching slots, ordered by page number
+   */
+  private TreeMap<Integer, BitSet> buildBitmap() throws DatabaseException {
+    DataType low = null;
+    DataType high = null;
+    boolean lowInclusive = true;
+    boolean highInclusive = true;
+
+    switch (this.predicate) {
+      case EQUALS:
+        low = this.value;
+        high = this.value;
+        break;
+      case LESS_THAN:
+        high = this.value;
+        highInclusive = false;
+        break;
+      case LESS_THAN_EQUALS:
+        high = this.value;
+        break;
+      case GREATER_THAN:
+        low = this.value;
+        lowInclusive = false;
+        break;
+      case GREATER_THAN_EQUALS:
+        low = this.value;
+        break;
+      default:
+        break;
+    }
+
+    List<RecordID> rids = this.transaction.lookupRange(this.tableName, this.columnName,
+        low, lowInclusive, high, highInclusive);
+
+    TreeMap<Integer, BitSet> bitmap = new TreeMap<Integer, BitSet>();
+    for (RecordID rid : rids) {
+      BitSet slots = bitmap.get(rid.getPageNum());
+      if (slots == null) {
+        slots = new BitSet();
+        bitmap.put(rid.getPageNum(), slots);
+      }
+      slots.set(rid.getSlotNumber());
+    }
+
+    return bitmap;
+  }
+
+  public String str() {
+    return "type: " + this.getType() +
+        "\ntable: " + this.tableName +
+        "\ncolumn: " + this.columnName +
+        "\noperator: " + this.predicate +
+        "\nvalue: " + this.value;
+  }
+
+  /**
+   * Estimates the table statistics for the result of executing this query operator.
+   *
+   * @return estimated TableStats
+   */
+  public TableStats estimateStats() throws QueryPlanException {
+    TableStats stats;
+
+    try {
+      stats = this.transaction.getStats(this.tableName);
+    } catch (DatabaseException de) {
+      throw new QueryPlanException(de);
+    }
+
+    return stats.copyWithPredicate(this.columnIndex,
+                                   this.predicate,
+                                   this.value);
+  }
+
+  /**
+   * Estimates the IO cost of executing this query operator: the index pages read to find the
+   * matching RecordIDs, plus one IO per distinct data page they fall on. The number of distinct
+   * pages holding k of the records of an m page table is estimated with Cardenas' formula,
+   * m * (1 - (1 - 1/m)^k), which assumes the matching records are spread uniformly over the pages.
+   *
+   * @return estimate IO cost
+   * @throws QueryPlanException
+   */
+  public int estimateIOCost() throws QueryPlanException {
+    int numIndexPages;
+    int numDataPages;
+    long numTuples;
+    float redFact;
+    try {
+      numIndexPages = this.transaction.getNumIndexPages(this.tableName, this.columnName);
+      numDataPages = this.transaction.getNumDataPages(this.tableName);
+      numTuples = this.transaction.getNumRecords(this.tableName);
+      redFact = this.transaction.getStats(this.tableName).getReductionFactor(this.columnIndex,
+          this.predicate, this.value);
+    } catch (DatabaseException d) {
+      throw new QueryPlanException(d);
+    }
+
+    double numMatches = numTuples * redFact;
+    double numPagesTouched = 0;
+    if (numDataPages > 0) {
+      numPagesTouched = numDataPages * (1 - Math.pow(1 - 1.0 / numDataPages, numMatches));
+    }
+
+    return (int) Math.ceil(numIndexPages * redFact + numPagesTouched);
+  }
+
+  public Schema computeSchema() throws QueryPlanException {
+    try {
+      return this.transaction.getFullyQualifiedSchema(this.tableName);
+    } catch (DatabaseException de) {
+      throw new QueryPlanException(de);
+    }
+  }
+
+  /**
+   * An implementation of Iterator that walks the bitmap in page order and fetches the marked
+   * records of one page at a time.
+   */
+  private class BitmapHeapScanIterator implements Iterator<Record> {
+    private Iterator<Map.Entry<Integer, BitSet>> pageIterator;
+    private Iterator<Record> pageRecords;
+
+    public BitmapHeapScanIterator(TreeMap<Integer, BitSet> bitmap) {
+      this.pageIterator = bitmap.entrySet().iterator();
+      this.pageRecords = null;
+    }
+
+    /**
+     * Checks if there are more record(s) to yield
+     *
+     * @return true if this iterator has another record to yield, otherwise false
+     */
+    public boolean hasNext() {
+      while (this.pageRecords == null || !this.pageRecords.hasNext()) {
+        if (!this.pageIterator.hasNext()) {
+          return false;
+        }
+
+        Map.Entry<Integer, BitSet> page = this.pageIterator.next();
+        BitSet slots = page.getValue();
+        List<RecordID> rids = new ArrayList<RecordID>(slots.cardinality());
+        for (int slot = slots.nextSetBit(0); slot >= 0; slot = slots.nextSetBit(slot + 1)) {
+          rids.add(new RecordID(page.getKey(), slot));
+        }
+
+        try {
+          this.pageRecords = BitmapHeapScanOperator.this.transaction.getRecords(
+              BitmapHeapScanOperator.this.tableName, rids).iterator();
+        } catch (DatabaseException e) {
+          throw new NoSuchElementException(e.getMessage());
+        }
+      }
+
+      return true;
+    }
+
+    /**
+     * Yields the next record of this iterator.
+     *
+     * @return the next Record
+     * @throws NoSuchElementException if there are no more Records to yield
+     */
+    public Record next() {
+      if (this.hasNext()) {
+        return this.pageRecords.next();
+      }
+      throw new NoSuchElementException();
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -70,7 +70,6 @@ public class GraceHashOperator extends JoinOperator {
     private Record leftRecord;
     private ArrayList<Record> leftRecords;
     private DataType rightType = null;
-    private List<DataType> rightValues = null;
 //    DataType realType;
 
 
@@ -99,7 +98,7 @@ public class GraceHashOperator extends JoinOperator {
       modValue = leftPartitions.length;
       while (leftIterator.hasNext()) {
           Record rec = leftIterator.next();
-          int recHash = rec.getValues().get(leftIndex).hashCode() % modValue;
+          int recHash = rec.get(leftIndex).hashCode() % modValue;
           String tableIn = leftPartitions[recHash];
           transaction.addRecord(tableIn, rec.getValues());
       }
@@ -108,7 +107,7 @@ public class GraceHashOperator extends JoinOperator {
       modValue = rightPartitions.length;
       while (rightIterator.hasNext()) {
           Record rec = rightIterator.next();
-          int recHash = rec.getValues().get(rightIndex).hashCode() % modValue;
+          int recHash = rec.get(rightIndex).hashCode() % modValue;
           String tableIn = rightPartitions[recHash];
           transaction.addRecord(tableIn, rec.getValues());
       }
@@ -120,7 +119,7 @@ public class GraceHashOperator extends JoinOperator {
           Iterator<Record> iter = transaction.getRecordIterator(partition);
           while (iter.hasNext()) {
               Record rec = iter.next();
-              DataType realType = rec.getValues().get(leftIndex);
+              DataType realType = rec.get(leftIndex);
               if (inMemoryHashTable.containsKey(realType)) {
                   inMemoryHashTable.get(realType).add(rec);
 //                  recs = inMemoryHashTable.get(realType);
@@ -154,8 +153,7 @@ public class GraceHashOperator extends JoinOperator {
               if (rightIterator.hasNext()) {
                   rightRecord = rightIterator.next();
 
-                  rightType = rightRecord.getValues().get(rightIndex);
-                  rightValues = new ArrayList<>(rightRecord.getValues());
+                  rightType = rightRecord.get(rightIndex);
                   leftRecords = new ArrayList<>(inMemoryHashTable.get(rightType));
 
                   break;
@@ -173,13 +171,8 @@ public class GraceHashOperator extends JoinOperator {
           }
           this.leftRecord = leftRecords.remove(0);
 
-          DataType leftJoinValue = this.leftRecord.getValues().get(leftIndex);
-
-          if (leftJoinValue.equals(rightType)) {
-              List<DataType> leftValues = new ArrayList<DataType>(this.leftRecord.getValues());
-
-              leftValues.addAll(rightValues);
-              this.nextRecord = new Record(leftValues);
+          if (this.leftRecord.fieldEquals(leftIndex, rightType)) {
+              this.nextRecord = this.leftRecord.concat(this.rightRecord);
               if (leftRecords.isEmpty()) {
                   this.rightRecord = null;
               }
@@ -7,6 +7,7 @@ import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.datatypes.DataType;
 import edu.berkeley.cs186.database.table.MarkerRecord;
 import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordView;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
@@ -46,31 +47,13 @@ public class GroupByOperator extends QueryOperator {
    * @throws DatabaseException
    */
   public Iterator<Record> execute() throws QueryPlanException, DatabaseException {
-    Map<String, String> hashGroupTempTables = new HashMap<String, String>();
-    Iterator<Record> inputRecords = this.getSource().execute();
-
-    while (inputRecords.hasNext()) {
-      Record record = inputRecords.next();
-      DataType groupByColumn = record.getValues().get(this.groupByColumnIndex);
-
-      String tableName;
-      if (!hashGroupTempTables.containsKey(groupByColumn.toString())) {
-        tableName = "Temp" + this.groupByColumn + "GroupBy" + hashGroupTempTables.size();
-
-        this.transaction.createTempTable(this.getSource().getOutputSchema(), tableName);
-        hashGroupTempTables.put(groupByColumn.toString(), tableName);
-      } else {
-        tableName = hashGroupTempTables.get(groupByColumn.toString());
-      }
-
-      this.transaction.addRecord(tableName, record.getValues());
-    }
+    Map<Object, String> hashGroupTempTables = this.partitionIntoGroups(true);
 
     MarkerRecord markerRecord = MarkerRecord.getMarker();
     List<Record> recordList = new ArrayList<Record>();
 
     int count = 0;
-    for (String key : hashGroupTempTables.keySet()) {
+    for (Object key : hashGroupTempTables.keySet()) {
       String tableName = hashGroupTempTables.get(key);
       Iterator<Record> recordIterator = this.transaction.getRecordIterator(tableName);
 
@@ -88,6 +71,70 @@ public class GroupByOperator extends QueryOperator {
 
   public Iterator<Record> iterator() throws QueryPlanException, DatabaseException { return new GroupByIterator(); }
 
+  /**
+   * Reads the source and copies each input tuple into the temp table of its group.
+   *
+   * Groups are keyed on the group by column's value. If the source supports views and the column
+   * is dictionary-encoded, groups are keyed on the dictionary code instead, so the value is never
+   * decoded or hashed as a string.
+   *
+   * @param execute whether to read the source with execute() rather than iterator()
+   * @return a map from each group's key to the name of its temp table
+   * @throws QueryPlanException
+   * @throws DatabaseException
+   */
+  private Map<Object, String> partitionIntoGroups(boolean execute) throws QueryPlanException, DatabaseException {
+    Map<Object, String> hashGroupTempTables = new HashMap<Object, String>();
+
+    if (this.getSource().supportsViews()) {
+      Iterator<RecordView> inputViews = this.getSource().viewIterator();
+
+      while (inputViews.hasNext()) {
+        RecordView view = inputViews.next();
+        Object key;
+        if (view.isDictionaryEncoded(this.groupByColumnIndex)) {
+          key = view.getCode(this.groupByColumnIndex);
+        } else {
+          key = view.get(this.groupByColumnIndex).toString();
+        }
+
+        String tableName = this.getGroupTempTable(hashGroupTempTables, key);
+        this.transaction.addRecord(tableName, view.materialize().getValues());
+      }
+
+      return hashGroupTempTables;
+    }
+
+    Iterator<Record> inputRecords = execute ? this.getSource().execute() : this.getSource().iterator();
+
+    while (inputRecords.hasNext()) {
+      Record record = inputRecords.next();
+      DataType groupByColumn = record.get(this.groupByColumnIndex);
+
+      String tableName = this.getGroupTempTable(hashGroupTempTables, groupByColumn.toString());
+      this.transaction.addRecord(tableName, record.getValues());
+    }
+
+    return hashGroupTempTables;
+  }
+
+  /**
+   * Returns the temp table of a group, creating it if this is the group's first tuple.
+   */
+  private String getGroupTempTable(Map<Object, String> hashGroupTempTables, Object key)
+      throws QueryPlanException, DatabaseException {
+    String tableName = hashGroupTempTables.get(key);
+
+    if (tableName == null) {
+      tableName = "Temp" + this.groupByColumn + "GroupBy" + hashGroupTempTables.size();
+
+      this.transaction.createTempTable(this.getSource().getOutputSchema(), tableName);
+      hashGroupTempTables.put(key, tableName);
+    }
+
+    return tableName;
+  }
+
   protected Schema computeSchema() throws QueryPlanException {
     return this.getSource().getOutputSchema();
   }
@@ -114,37 +161,18 @@ public class GroupByOperator extends QueryOperator {
    * An implementation of Iterator that provides an iterator interface for this operator.
    */
   private class GroupByIterator implements Iterator<Record> {
-    private Iterator<Record> sourceIterator;
     private MarkerRecord markerRecord;
-    private Map<String, String> hashGroupTempTables;
+    private Map<Object, String> hashGroupTempTables;
     private int currCount;
-    private Iterator<String> keyIter;
+    private Iterator<Object> keyIter;
     private Iterator<Record> rIter;
 
     public GroupByIterator() throws QueryPlanException, DatabaseException {
-      this.sourceIterator = GroupByOperator.this.getSource().iterator();
       this.markerRecord = MarkerRecord.getMarker();
-      this.hashGroupTempTables = new HashMap<String, String>();
       this.currCount = 0;
       this.rIter = null;
 
-      while (this.sourceIterator.hasNext()) {
-        Record record = this.sourceIterator.next();
-        DataType groupByColumn = record.getValues().get(GroupByOperator.this.groupByColumnIndex);
-
-        String tableName;
-        if (!this.hashGroupTempTables.containsKey(groupByColumn.toString())) {
-          tableName = "Temp" + GroupByOperator.this.groupByColumn + "GroupBy" + this.hashGroupTempTables.size();
-
-          GroupByOperator.this.transaction.createTempTable(GroupByOperator.this.getSource().getOutputSchema(), tableName);
-          this.hashGroupTempTables.put(groupByColumn.toString(), tableName);
-        } else {
-          tableName = this.hashGroupTempTables.get(groupByColumn.toString());
-        }
-
-        GroupByOperator.this.transaction.addRecord(tableName, record.getValues());
-      }
-
+      this.hashGroupTempTables = GroupByOperator.this.partitionIntoGroups(false);
       this.keyIter = hashGroupTempTables.keySet().iterator();
     }
 
@@ -168,7 +196,7 @@ public class GroupByOperator extends QueryOperator {
         if (this.rIter != null && this.rIter.hasNext()) {
           return this.rIter.next();
         } else if (this.keyIter.hasNext()) {
-          String key = this.keyIter.next();
+          Object key = this.keyIter.next();
           String tableName = this.hashGroupTempTables.get(key);
           Iterator<Record> prevIter = this.rIter;
           try {
@@ -1,8 +1,6 @@
 package edu.berkeley.cs186.database.query;
 
-import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.List;
 import java.util.NoSuchElementException;
 
 import edu.berkeley.cs186.database.Database;
@@ -53,74 +51,38 @@ public class IndexScanOperator extends QueryOperator {
   }
 
   public Iterator<Record> execute() throws DatabaseException {
-    if (this.predicate == QueryPlan.PredicateOperator.EQUALS) {
-      // if equality search, just use a key lookup
-
-      return this.transaction.lookupKey(this.tableName, this.columnName, this.value);
-    } else if (this.predicate == QueryPlan.PredicateOperator.LESS_THAN) {
-      // if less than, scan until you get any values >= to the boundary value
-
-      Iterator<Record> recordIterator = this.transaction.sortedScan(this.tableName, this.columnName);
-      List<Record> recordList = new ArrayList<Record>();
-
-      while (recordIterator.hasNext()) {
-        Record record = recordIterator.next();
-
-        if (record.getValues().get(this.columnIndex).compareTo(this.value) >= 0) {
-          break;
-        }
-
-        recordList.add(record);
-      }
-
-      return recordList.iterator();
-    } else if (this.predicate == QueryPlan.PredicateOperator.LESS_THAN_EQUALS){
-      // if less than or equals, scan until you get values > the boundary valeu
-
-      Iterator<Record> recordIterator = this.transaction.sortedScan(this.tableName, this.columnName);
-      List<Record> recordList = new ArrayList<Record>();
-
-      while (recordIterator.hasNext()) {
-        Record record = recordIterator.next();
-
-        if (record.getValues().get(this.columnIndex).compareTo(this.value) > 0) {
-          break;
-        }
-
-        recordList.add(record);
-      }
-
-      return recordList.iterator();
-    } else {
-      // if greater than or equals, sortedScanFrom works just find
-      Iterator<Record> recordIterator = this.transaction.sortedScanFrom(this.tableName, this.columnName, this.value);
-
-      // if greater than, get rid of all equal values first
-      if (this.predicate == QueryPlan.PredicateOperator.GREATER_THAN) {
-        List<Record> recordList = new ArrayList<Record>();
-
-        Record record = null;
-        while (recordIterator.hasNext()) {
-          record = recordIterator.next();
-
-          if (record.getValues().get(this.columnIndex).compareTo(this.value) > 0) {
-            break;
-          }
-        }
-
-        if (record != null) {
-          recordList.add(record);
-        }
-
-        while (recordIterator.hasNext()) {
-          recordList.add(recordIterator.next());
-        }
-
-        return recordList.iterator();
-      }
-
-      return recordIterator;
+    // the predicate bounds the range of the index to scan on one side, or on
+    // both for an equality search; the index streams the records in the range
+    DataType low = null;
+    boolean lowInclusive = true;
+    DataType high = null;
+    boolean highInclusive = true;
+
+    switch (this.predicate) {
+    case EQUALS:
+      low = this.value;
+      high = this.value;
+      break;
+    case LESS_THAN:
+      high = this.value;
+      highInclusive = false;
+      break;
+    case LESS_THAN_EQUALS:
+      high = this.value;
+      break;
+    case GREATER_THAN:
+      low = this.value;
+      lowInclusive = false;
+      break;
+    case GREATER_THAN_EQUALS:
+      low = this.value;
+      break;
+    default:
+      throw new DatabaseException("Cannot scan an index for " + this.predicate);
     }
+
+    return this.transaction.scanRange(this.tableName, this.columnName,
+                                      low, lowInclusive, high, highInclusive);
   }
 
   public String str() {
@@ -200,40 +162,9 @@ public class IndexScanOperator extends QueryOperator {
    */
   private class IndexScanIterator implements Iterator<Record> {
     private Iterator<Record> sourceIterator;
-    private Record nextRecord;
 
     public IndexScanIterator() throws QueryPlanException, DatabaseException {
-      this.nextRecord = null;
-      if (IndexScanOperator.this.predicate == QueryPlan.PredicateOperator.EQUALS) {
-        this.sourceIterator = IndexScanOperator.this.transaction.lookupKey(
-                IndexScanOperator.this.tableName,
-                IndexScanOperator.this.columnName,
-                IndexScanOperator.this.value);
-      } else if (IndexScanOperator.this.predicate == QueryPlan.PredicateOperator.LESS_THAN ||
-              IndexScanOperator.this.predicate == QueryPlan.PredicateOperator.LESS_THAN_EQUALS){
-        this.sourceIterator = IndexScanOperator.this.transaction.sortedScan(
-                IndexScanOperator.this.tableName,
-                IndexScanOperator.this.columnName);
-      } else if (IndexScanOperator.this.predicate == QueryPlan.PredicateOperator.GREATER_THAN) {
-        this.sourceIterator = IndexScanOperator.this.transaction.sortedScanFrom(
-                IndexScanOperator.this.tableName,
-                IndexScanOperator.this.columnName,
-                IndexScanOperator.this.value);
-        while (this.sourceIterator.hasNext()) {
-          Record r = this.sourceIterator.next();
-
-          if (r.getValues().get(IndexScanOperator.this.columnIndex)
-                  .compareTo(IndexScanOperator.this.value) > 0) {
-            this.nextRecord = r;
-            break;
-          }
-        }
-      } else if (IndexScanOperator.this.predicate == QueryPlan.PredicateOperator.GREATER_THAN_EQUALS) {
-        this.sourceIterator = IndexScanOperator.this.transaction.sortedScanFrom(
-                IndexScanOperator.this.tableName,
-                IndexScanOperator.this.columnName,
-                IndexScanOperator.this.value);
-      }
+      this.sourceIterator = IndexScanOperator.this.execute();
     }
 
     /**
@@ -242,37 +173,7 @@ public class IndexScanOperator extends QueryOperator {
      * @return true if this iterator has another record to yield, otherwise false
      */
     public boolean hasNext() {
-      if (this.nextRecord != null) {
-        return true;
-      }
-      if (IndexScanOperator.this.predicate == QueryPlan.PredicateOperator.LESS_THAN) {
-        if (this.sourceIterator.hasNext()) {
-          Record r = this.sourceIterator.next();
-          if (r.getValues().get(IndexScanOperator.this.columnIndex)
-                  .compareTo(IndexScanOperator.this.value) >= 0) {
-            return false;
-          }
-          this.nextRecord = r;
-          return true;
-        }
-        return false;
-      } else if (IndexScanOperator.this.predicate == QueryPlan.PredicateOperator.LESS_THAN_EQUALS) {
-        if (this.sourceIterator.hasNext()) {
-          Record r = this.sourceIterator.next();
-          if (r.getValues().get(IndexScanOperator.this.columnIndex)
-                  .compareTo(IndexScanOperator.this.value) > 0) {
-            return false;
-          }
-          this.nextRecord = r;
-          return true;
-        }
-        return false;
-      }
-      if (this.sourceIterator.hasNext()) {
-        this.nextRecord = this.sourceIterator.next();
-        return true;
-      }
-      return false;
+      return this.sourceIterator.hasNext();
     }
 
     /**
@@ -283,9 +184,7 @@ public class IndexScanOperator extends QueryOperator {
      */
     public Record next() {
       if (this.hasNext()) {
-        Record r = this.nextRecord;
-        this.nextRecord = null;
-        return r;
+        return this.sourceIterator.next();
       }
       throw new NoSuchElementException();
     }
@@ -79,20 +79,14 @@ public abstract class JoinOperator extends QueryOperator {
 
     while (leftIterator.hasNext()) {
       Record leftRecord = leftIterator.next();
+      DataType leftJoinValue = leftRecord.get(this.leftColumnIndex);
 
       Iterator<Record> rightIterator = this.rightSource.execute();
       while (rightIterator.hasNext()) {
         Record rightRecord = rightIterator.next();
 
-        DataType leftJoinValue = leftRecord.getValues().get(this.leftColumnIndex);
-        DataType rightJoinValue = rightRecord.getValues().get(this.rightColumnIndex);
-
-        if (leftJoinValue.equals(rightJoinValue)) {
-          List<DataType> leftValues = new ArrayList<DataType>(leftRecord.getValues());
-          List<DataType> rightValues = new ArrayList<DataType>(rightRecord.getValues());
-
-          leftValues.addAll(rightValues);
-          newRecords.add(new Record(leftValues));
+        if (rightRecord.fieldEquals(this.rightColumnIndex, leftJoinValue)) {
+          newRecords.add(leftRecord.concat(rightRecord));
         }
       }
     }
@@ -231,6 +225,18 @@ public abstract class JoinOperator extends QueryOperator {
     return this.transaction.getRecordIterator(tableName);
   }
 
+  /**
+   * Checks whether a source reads an entire table unchanged, in which case its pages can be read
+   * directly by table name instead of being copied into a temporary table. A sequential scan with
+   * pushed down predicates does not qualify.
+   *
+   * @param source the source to check
+   * @return true if source is a sequential scan without predicates
+   */
+  public boolean isPlainTableScan(QueryOperator source) {
+    return source.isSequentialScan() && !((SequentialScanOperator) source).hasPredicates();
+  }
+
   public void createTempTable(Schema schema, String tableName) throws DatabaseException {
     this.transaction.createTempTable(schema, tableName);
   }
@@ -76,7 +76,7 @@ public class PNLJOperator extends JoinOperator {
 
 
         public PNLJIterator() throws QueryPlanException, DatabaseException {
-            if (PNLJOperator.this.getLeftSource().isSequentialScan()) {
+            if (PNLJOperator.this.isPlainTableScan(PNLJOperator.this.getLeftSource())) {
                 this.leftTableName = ((SequentialScanOperator) PNLJOperator.this.getLeftSource()).getTableName();
             } else {
                 this.leftTableName = "Temp" + PNLJOperator.this.getJoinType().toString() + "Operator" + PNLJOperator.this.getLeftColumnName() + "Left";
@@ -87,7 +87,7 @@ public class PNLJOperator extends JoinOperator {
                 }
             }
 
-            if (PNLJOperator.this.getRightSource().isSequentialScan()) {
+            if (PNLJOperator.this.isPlainTableScan(PNLJOperator.this.getRightSource())) {
                 this.rightTableName = ((SequentialScanOperator) PNLJOperator.this.getRightSource()).getTableName();
             } else {
                 this.rightTableName = "Temp" + PNLJOperator.this.getJoinType().toString() + "Operator" + PNLJOperator.this.getRightColumnName() + "Right";
@@ -183,18 +183,13 @@ public class PNLJOperator extends JoinOperator {
                                 }
                             }
 
+                            DataType leftJoinValue = this.leftRecord == null ? null : this.leftRecord.get(PNLJOperator.this.getLeftColumnIndex());
                             while (rightRecords != null && !rightRecords.isEmpty()) {
                                 rightRecord = rightRecords.poll();
                                 leftPageReset = false;
-                                DataType leftJoinValue = this.leftRecord.getValues().get(PNLJOperator.this.getLeftColumnIndex());
-                                DataType rightJoinValue = rightRecord.getValues().get(PNLJOperator.this.getRightColumnIndex());
 
-                                if (leftJoinValue.equals(rightJoinValue)) {
-                                    List<DataType> leftValues = new ArrayList<DataType>(this.leftRecord.getValues());
-                                    List<DataType> rightValues = new ArrayList<DataType>(rightRecord.getValues());
-
-                                    leftValues.addAll(rightValues);
-                                    this.nextRecord = new Record(leftValues);
+                                if (rightRecord.fieldEquals(PNLJOperator.this.getRightColumnIndex(), leftJoinValue)) {
+                                    this.nextRecord = this.leftRecord.concat(rightRecord);
                                     this.rightRecord = null;
                                     return true;
                                 }
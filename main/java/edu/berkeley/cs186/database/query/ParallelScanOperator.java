@@ -0,0 +1,450 @@
+package edu.berkeley.cs186.database.query;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.berkeley.cs186.database.Database;
+import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.datatypes.DataType;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordView;
+import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.stats.TableStats;
+
+/**
+ * A table scan that reads the pages of a table on a pool of worker threads. The data pages of the
+ * table are split into morsels of MORSEL_SIZE pages, and each worker repeatedly claims the next
+ * unclaimed morsel, so a worker that falls behind never holds up the others. Pushed down predicates
+ * and the projection are evaluated by the workers on the page bytes, and each worker hands the
+ * records that survive to the consumer through its own output queue. The queues are bounded, so
+ * workers only run QUEUE_SIZE morsels ahead of a slow consumer, and the workers of every scan run
+ * on one shared pool of daemon threads.
+ *
+ * The records of a morsel are returned together and in page order, but morsels from different
+ * workers are interleaved in no particular order.
+ */
+public class ParallelScanOperator extends QueryOperator {
+  public static final int MORSEL_SIZE = 8;
+  public static final int QUEUE_SIZE = 4;
+
+  // threads are only kept while scans are running, so idle scans cost nothing; index builds
+  // scan their tables on it too (see Database#createIndex)
+  public static final ExecutorService WORKER_POOL = Executors.newCachedThreadPool(new ThreadFactory() {
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "parallel-scan-worker");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  private Database.Transaction transaction;
+  private String tableName;
+  private Schema tableSchema;
+  private int numWorkers;
+
+  private List<String> predicateColumnNames;
+  private List<Integer> predicateColumnIndices;
+  private List<QueryPlan.PredicateOperator> predicateOperators;
+  private List<DataType> predicateValues;
+
+  private List<String> projectionColumnNames;
+  private List<Integer> projectionColumnIndices;
+
+  /**
+   * Creates a new ParallelScanOperator that scans a table with one worker per available processor.
+   *
+   * @param transaction
+   * @param tableName
+   * @throws QueryPlanException
+   * @throws DatabaseException
+   */
+  public ParallelScanOperator(Database.Transaction transaction,
+                              String tableName) throws QueryPlanException, DatabaseException {
+    this(transaction, tableName, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Creates a new ParallelScanOperator that scans a table with numWorkers worker threads.
+   *
+   * NOTE: Like sequential scans, parallel scans don't take a source operator.
+   *
+   * @param transaction
+   * @param tableName
+   * @param numWorkers the number of worker threads to scan with
+   * @throws QueryPlanException
+   * @throws DatabaseException
+   */
+  public ParallelScanOperator(Database.Transaction transaction,
+                              String tableName,
+                              int numWorkers) throws QueryPlanException, DatabaseException {
+    super(OperatorType.PARALLELSCAN);
+
+    if (numWorkers < 1) {
+      throw new QueryPlanException("A parallel scan needs at least one worker.");
+    }
+
+    this.transaction = transaction;
+    this.tableName = tableName;
+    this.numWorkers = numWorkers;
+
+    this.predicateColumnNames = new ArrayList<String>();
+    this.predicateColumnIndices = new ArrayList<Integer>();
+    this.predicateOperators = new ArrayList<QueryPlan.PredicateOperator>();
+    this.predicateValues = new ArrayList<DataType>();
+
+    this.projectionColumnNames = null;
+    this.projectionColumnIndices = null;
+
+    this.tableSchema = this.computeSchema();
+    this.setOutputSchema(this.tableSchema);
+    this.stats = this.estimateStats();
+    this.cost = this.estimateIOCost();
+  }
+
+  public String getTableName() {
+    return this.tableName;
+  }
+
+  public int getNumWorkers() {
+    return this.numWorkers;
+  }
+
+  /**
+   * Pushes a column predicate down into this scan. The workers evaluate pushed predicates against
+   * the encoded bytes of each record and only decode the records that satisfy all of them.
+   *
+   * @param columnName the name of the column to evaluate the predicate on
+   * @param predicate the actual comparator
+   * @param value the value to compare against
+   * @throws QueryPlanException if the column is not in this table
+   */
+  public void addPredicate(String columnName,
+                           QueryPlan.PredicateOperator predicate,
+                           DataType value) throws QueryPlanException {
+    columnName = this.checkSchemaForColumn(this.tableSchema, columnName);
+    int columnIndex = this.tableSchema.getFieldNames().indexOf(columnName);
+
+    this.predicateColumnNames.add(columnName);
+    this.predicateColumnIndices.add(columnIndex);
+    this.predicateOperators.add(predicate);
+    this.predicateValues.add(value);
+
+    this.stats = this.stats.copyWithPredicate(columnIndex, predicate, value);
+    this.cost = this.estimateIOCost();
+  }
+
+  /**
+   * Restricts the output of this scan to the given columns, in the given order. The workers only
+   * decode the projected columns of each record.
+   *
+   * @param columnNames the names of the columns to output
+   * @throws QueryPlanException if a column is not in this table
+   */
+  public void project(List<String> columnNames) throws QueryPlanException {
+    List<String> names = new ArrayList<String>();
+    List<Integer> indices = new ArrayList<Integer>();
+    List<DataType> types = new ArrayList<DataType>();
+
+    for (String columnName : columnNames) {
+      columnName = this.checkSchemaForColumn(this.tableSchema, columnName);
+      int columnIndex = this.tableSchema.getFieldNames().indexOf(columnName);
+
+      names.add(columnName);
+      indices.add(columnIndex);
+      types.add(this.tableSchema.getFieldTypes().get(columnIndex));
+    }
+
+    this.projectionColumnNames = names;
+    this.projectionColumnIndices = indices;
+    this.setOutputSchema(new Schema(names, types));
+  }
+
+  public Iterator<Record> execute() throws DatabaseException {
+    return this.iterator();
+  }
+
+  /**
+   * Starts the workers of a new scan. A consumer that stops before the scan is exhausted should
+   * close() the iterator, so that its workers stop too.
+   *
+   * @return an iterator over the output of the scan
+   */
+  public ParallelScanIterator iterator() throws DatabaseException {
+    List<Integer> pageNums = this.transaction.getCandidatePages(this.tableName,
+        this.predicateColumnIndices, this.predicateOperators, this.predicateValues);
+
+    // open every morsel up front so that only this thread touches the transaction
+    List<Iterator<RecordView>> morsels = new ArrayList<Iterator<RecordView>>();
+    for (int i = 0; i < pageNums.size(); i += MORSEL_SIZE) {
+      List<Integer> morselPageNums = pageNums.subList(i, Math.min(i + MORSEL_SIZE, pageNums.size()));
+      morsels.add(this.transaction.getRecordViewIterator(this.tableName,
+          new ArrayList<Integer>(morselPageNums)));
+    }
+
+    return new ParallelScanIterator(morsels);
+  }
+
+  public Schema computeSchema() throws QueryPlanException {
+    try {
+      return this.transaction.getFullyQualifiedSchema(this.tableName);
+    } catch (DatabaseException de) {
+      throw new QueryPlanException(de);
+    }
+  }
+
+  public String str() {
+    String r = "type: " + this.getType() +
+        "\ntable: " + this.tableName +
+        "\nworkers: " + this.numWorkers;
+
+    for (int i = 0; i < this.predicateOperators.size(); i++) {
+      r += "\npredicate: " + this.predicateColumnNames.get(i) +
+          " " + this.predicateOperators.get(i) +
+          " " + this.predicateValues.get(i);
+    }
+
+    if (this.projectionColumnNames != null) {
+      r += "\ncolumns: " + this.projectionColumnNames;
+    }
+
+    return r;
+  }
+
+  /**
+   * Estimates the table statistics for the result of executing this query operator.
+   *
+   * @return estimated TableStats
+   */
+  public TableStats estimateStats() throws QueryPlanException {
+    try {
+      return this.transaction.getStats(this.tableName);
+    } catch (DatabaseException de) {
+      throw new QueryPlanException(de);
+    }
+  }
+
+  /**
+   * Estimates the IO cost of this scan. Every candidate page is still read once; the workers only
+   * spread the reads over several threads.
+   *
+   * @return estimated number of IO's performed
+   */
+  public int estimateIOCost() throws QueryPlanException {
+    try {
+      return this.transaction.getNumCandidatePages(this.tableName, this.predicateColumnIndices,
+          this.predicateOperators, this.predicateValues);
+    } catch (DatabaseException de) {
+      throw new QueryPlanException(de);
+    }
+  }
+
+  /**
+   * Checks whether the record under a view satisfies every pushed down predicate.
+   *
+   * @param view the view to check
+   * @return true if the record should be returned by this scan
+   */
+  private boolean matches(RecordView view) {
+    for (int i = 0; i < this.predicateOperators.size(); i++) {
+      if (!view.satisfies(this.predicateColumnIndices.get(i),
+                          this.predicateOperators.get(i),
+                          this.predicateValues.get(i))) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Decodes the projected columns of the record under a view.
+   *
+   * @param view the view to decode
+   * @return the output record for the view
+   */
+  private Record project(RecordView view) {
+    if (this.projectionColumnIndices == null) {
+      return view.materialize();
+    }
+
+    List<DataType> values = new ArrayList<DataType>(this.projectionColumnIndices.size());
+    for (int columnIndex : this.projectionColumnIndices) {
+      values.add(view.get(columnIndex));
+    }
+
+    return new Record(values);
+  }
+
+  /**
+   * An implementation of Iterator that runs the scan workers and merges their output queues. Each
+   * worker posts one permit on `available` for every batch it queues and one more when it is done,
+   * so the consumer only blocks while no worker has anything to hand over.
+   */
+  public class ParallelScanIterator implements Iterator<Record> {
+    private List<Iterator<RecordView>> morsels;
+    private AtomicInteger nextMorsel;
+    private List<BlockingQueue<List<Record>>> queues;
+    private Semaphore available;
+    private volatile RuntimeException failure;
+    private volatile boolean closed;
+
+    private int numDone;
+    private int nextQueue;
+    private Iterator<Record> batch;
+
+    public ParallelScanIterator(List<Iterator<RecordView>> morsels) {
+      this.morsels = morsels;
+      this.nextMorsel = new AtomicInteger(0);
+      this.queues = new ArrayList<BlockingQueue<List<Record>>>();
+      this.available = new Semaphore(0);
+      this.failure = null;
+      this.closed = false;
+
+      this.numDone = 0;
+      this.nextQueue = 0;
+      this.batch = null;
+
+      int workers = Math.max(1, Math.min(numWorkers, morsels.size()));
+      for (int i = 0; i < workers; i++) {
+        BlockingQueue<List<Record>> queue = new ArrayBlockingQueue<List<Record>>(QUEUE_SIZE);
+        this.queues.add(queue);
+        WORKER_POOL.execute(new ScanWorker(queue));
+      }
+    }
+
+    /**
+     * Checks if there are more record(s) to yield
+     *
+     * @return true if this iterator has another record to yield, otherwise false
+     */
+    public boolean hasNext() {
+      while (this.batch == null || !this.batch.hasNext()) {
+        if (this.numDone == this.queues.size()) {
+          if (this.failure != null && !this.closed) {
+            throw this.failure;
+          }
+          return false;
+        }
+
+        List<Record> records = takeBatch();
+        if (records.isEmpty()) {
+          this.numDone++;
+        } else {
+          this.batch = records.iterator();
+        }
+      }
+
+      return true;
+    }
+
+    /**
+     * Stops the workers once they finish the morsel they are scanning, e.g. if the consumer of the
+     * scan stops early, and waits for them. The iterator yields no more records afterwards.
+     */
+    public void close() {
+      this.closed = true;
+      this.batch = null;
+      // workers blocked on a full queue are only freed by taking from it
+      while (this.numDone < this.queues.size()) {
+        if (takeBatch().isEmpty()) {
+          this.numDone++;
+        }
+      }
+    }
+
+    /**
+     * Waits for a worker to queue a batch and takes it.
+     *
+     * @return the batch, which is empty if its worker is done
+     */
+    private List<Record> takeBatch() {
+      this.available.acquireUninterruptibly();
+
+      List<Record> records = null;
+      while (records == null) {
+        records = this.queues.get(this.nextQueue).poll();
+        this.nextQueue = (this.nextQueue + 1) % this.queues.size();
+      }
+      return records;
+    }
+
+    /**
+     * Yields the next record of this iterator.
+     *
+     * @return the next Record
+     * @throws NoSuchElementException if there are no more Records to yield
+     */
+    public Record next() {
+      if (this.hasNext()) {
+        return this.batch.next();
+      }
+      throw new NoSuchElementException();
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    /**
+     * A worker that scans morsels until there are none left or the scan is closed, queueing the
+     * output of each morsel as one batch. An empty batch marks that the worker is done.
+     */
+    private class ScanWorker implements Runnable {
+      private BlockingQueue<List<Record>> queue;
+
+      public ScanWorker(BlockingQueue<List<Record>> queue) {
+        this.queue = queue;
+      }
+
+      public void run() {
+        try {
+          int morsel;
+          while (!closed && failure == null
+                 && (morsel = nextMorsel.getAndIncrement()) < morsels.size()) {
+            Iterator<RecordView> views = morsels.get(morsel);
+            List<Record> records = new ArrayList<Record>();
+
+            while (!closed && views.hasNext()) {
+              RecordView view = views.next();
+              if (matches(view)) {
+                records.add(project(view));
+              }
+            }
+
+            if (!records.isEmpty()) {
+              put(records);
+            }
+          }
+        } catch (RuntimeException e) {
+          failure = e;
+        } finally {
+          put(new ArrayList<Record>(0));
+        }
+      }
+
+      /**
+       * Queues a batch, waiting for the consumer to make room for it.
+       */
+      private void put(List<Record> records) {
+        while (true) {
+          try {
+            this.queue.put(records);
+            available.release();
+            return;
+          } catch (InterruptedException e) {
+            // keep trying: hasNext() and close() count on every batch being queued
+          }
+        }
+      }
+    }
+  }
+}
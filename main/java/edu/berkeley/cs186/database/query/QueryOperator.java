@@ -5,6 +5,7 @@ import java.util.List;
 
 import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordView;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
@@ -21,7 +22,9 @@ public abstract class QueryOperator {
     WHERE,
     GROUPBY,
     SEQSCAN,
-    INDEXSCAN
+    PARALLELSCAN,
+    INDEXSCAN,
+    BITMAPHEAPSCAN
   }
 
   private OperatorType type;
@@ -99,6 +102,28 @@ public abstract class QueryOperator {
 
   public abstract Iterator<Record> iterator() throws QueryPlanException, DatabaseException;
 
+  /**
+   * Whether this operator can yield its tuples as RecordViews over page bytes
+   * through viewIterator(). Operators that only filter or project can consume
+   * views from such a source and avoid materializing rows they drop.
+   *
+   * @return true if viewIterator() is supported
+   */
+  public boolean supportsViews() {
+    return false;
+  }
+
+  /**
+   * Returns an iterator of RecordViews over this operator's output. The views
+   * may be reused between calls to next(); see RecordView.
+   *
+   * @return an iterator of views
+   * @throws QueryPlanException if this operator does not support views
+   */
+  public Iterator<RecordView> viewIterator() throws QueryPlanException, DatabaseException {
+    throw new QueryPlanException("Operator does not support record views: " + this.getType());
+  }
+
   /**
    * Utility method that checks to see if a column is found in a schema using dot notation.
    *
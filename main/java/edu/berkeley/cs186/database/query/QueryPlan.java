@@ -20,7 +20,34 @@ public class QueryPlan {
     LESS_THAN,
     LESS_THAN_EQUALS,
     GREATER_THAN,
-    GREATER_THAN_EQUALS
+    GREATER_THAN_EQUALS;
+
+    /**
+     * Evaluates this predicate given the result of comparing a value against
+     * the predicate's operand (e.g. value.compareTo(operand)). Only the sign of
+     * comparison is used.
+     *
+     * @param comparison the result of the comparison
+     * @return true if the predicate is satisfied
+     */
+    public boolean evaluate(int comparison) {
+      switch (this) {
+        case EQUALS:
+          return comparison == 0;
+        case NOT_EQUALS:
+          return comparison != 0;
+        case LESS_THAN:
+          return comparison < 0;
+        case LESS_THAN_EQUALS:
+          return comparison <= 0;
+        case GREATER_THAN:
+          return comparison > 0;
+        case GREATER_THAN_EQUALS:
+          return comparison >= 0;
+        default:
+          return false;
+      }
+    }
   }
 
   private Database.Transaction transaction;
@@ -256,25 +283,29 @@ public class QueryPlan {
    * this.whereColumnNames, this.whereOperators, and this.whereDataTypes that
    * correspond to the same index of these lists.
    *
+   * If the source is a sequential scan, the predicates are pushed into the scan
+   * itself so that they are evaluated on the encoded records before decoding.
+   * Predicates on columns that are not in the source are skipped.
+   *
    * @return a new QueryOperator after WHERE has been applied
    * @throws DatabaseException
    * @throws QueryPlanException
    */
   private QueryOperator pushDownWheres(QueryOperator source, int except) throws QueryPlanException, DatabaseException {
-    // TODO: implement me!
-//    QueryOperator toRtn = source;
     for (int i = 0; i < this.whereColumnNames.size(); i++) {
-        if (i != except) {
-            try {
-                source = new WhereOperator(source, whereColumnNames.get(i), whereOperators.get(i), whereDataTypes.get(i));
-//                toRtn = new WhereOperator(toRtn, whereColumnNames.get(i), whereOperators.get(i), whereDataTypes.get(i));
-            } catch (QueryPlanException q) {
-                break;
-            }
+      if (i != except) {
+        try {
+          if (source.isSequentialScan()) {
+            ((SequentialScanOperator) source).addPredicate(whereColumnNames.get(i), whereOperators.get(i), whereDataTypes.get(i));
+          } else {
+            source = new WhereOperator(source, whereColumnNames.get(i), whereOperators.get(i), whereDataTypes.get(i));
+          }
+        } catch (QueryPlanException q) {
+          continue;
         }
+      }
     }
     return source;
-//    return toRtn;
   }
 
   /**
@@ -296,7 +327,9 @@ public class QueryPlan {
     // Find the cost of a sequential scan of the table
     // TODO: implement me!
 
-    QueryOperator scanOp = (new SequentialScanOperator(this.transaction, table));
+    // The scan's cost is taken with every applicable predicate pushed into it,
+    // so that pages its zone maps rule out are not counted.
+    QueryOperator scanOp = this.pushDownWheres(new SequentialScanOperator(this.transaction, table), -1);
     int lowestCost = scanOp.estimateIOCost();
     minOp = scanOp;
 
@@ -315,11 +348,23 @@ public class QueryPlan {
             minOp = qop;
             minWhereIdx = i;
         }
+
+        // a bitmap heap scan reads each matching page once, so it wins when too
+        // many records match for an index scan but too few for a full scan
+        qop = new BitmapHeapScanOperator(this.transaction, table, whereColumnNames.get(i), op, whereDataTypes.get(i));
+        cost = qop.estimateIOCost();
+        if (cost < lowestCost) {
+            lowestCost = cost;
+            minOp = qop;
+            minWhereIdx = i;
+        }
     }
 
     // Push down WHERE predicates that apply to this table and that were not
     // used for an index scan
-    minOp = this.pushDownWheres(minOp, minWhereIdx);
+    if (minWhereIdx != -1) {
+      minOp = this.pushDownWheres(minOp, minWhereIdx);
+    }
     return minOp;
   }
 
@@ -538,10 +583,14 @@ public class QueryPlan {
       PredicateOperator operator = this.whereOperators.get(index);
       DataType value = this.whereDataTypes.get(index);
 
-      WhereOperator whereOperator = new WhereOperator(this.finalOperator, whereColumn,
-          operator, value);
+      if (this.finalOperator.isSequentialScan()) {
+        ((SequentialScanOperator) this.finalOperator).addPredicate(whereColumn, operator, value);
+      } else {
+        WhereOperator whereOperator = new WhereOperator(this.finalOperator, whereColumn,
+            operator, value);
 
-      this.finalOperator = whereOperator;
+        this.finalOperator = whereOperator;
+      }
       index++;
     }
   }
@@ -1,8 +1,6 @@
 package edu.berkeley.cs186.database.query;
 
-import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.List;
 import java.util.NoSuchElementException;
 
 import edu.berkeley.cs186.database.Database;
@@ -48,6 +46,7 @@ public class SNLJOperator extends JoinOperator {
     private Iterator<Record> leftIterator;
     private Iterator<Record> rightIterator;
     private Record leftRecord;
+    private DataType leftJoinValue;
     private Record nextRecord;
 
     public SNLJIterator() throws QueryPlanException, DatabaseException {
@@ -71,6 +70,7 @@ public class SNLJOperator extends JoinOperator {
         if (this.leftRecord == null) {
           if (this.leftIterator.hasNext()) {
             this.leftRecord = this.leftIterator.next();
+            this.leftJoinValue = this.leftRecord.get(SNLJOperator.this.getLeftColumnIndex());
             try {
               this.rightIterator = SNLJOperator.this.getRightSource().iterator();
             } catch (QueryPlanException q) {
@@ -85,15 +85,8 @@ public class SNLJOperator extends JoinOperator {
         while (this.rightIterator.hasNext()) {
           Record rightRecord = this.rightIterator.next();
 
-          DataType leftJoinValue = this.leftRecord.getValues().get(SNLJOperator.this.getLeftColumnIndex());
-          DataType rightJoinValue = rightRecord.getValues().get(SNLJOperator.this.getRightColumnIndex());
-
-          if (leftJoinValue.equals(rightJoinValue)) {
-            List<DataType> leftValues = new ArrayList<DataType>(this.leftRecord.getValues());
-            List<DataType> rightValues = new ArrayList<DataType>(rightRecord.getValues());
-
-            leftValues.addAll(rightValues);
-            this.nextRecord = new Record(leftValues);
+          if (rightRecord.fieldEquals(SNLJOperator.this.getRightColumnIndex(), this.leftJoinValue)) {
+            this.nextRecord = this.leftRecord.concat(rightRecord);
             return true;
           }
         }
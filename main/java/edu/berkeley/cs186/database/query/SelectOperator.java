@@ -11,6 +11,7 @@ import edu.berkeley.cs186.database.datatypes.FloatDataType;
 import edu.berkeley.cs186.database.datatypes.IntDataType;
 import edu.berkeley.cs186.database.table.MarkerRecord;
 import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordView;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
@@ -149,8 +150,27 @@ public class SelectOperator extends QueryOperator {
    * @throws DatabaseException
    */
   public Iterator<Record> execute() throws QueryPlanException, DatabaseException {
-    Iterator<Record> sourceIterator = this.getSource().execute();
     List<Record> newRecords = new ArrayList<Record>();
+
+    // project straight off of the source's views so that only selected columns are decoded
+    if (this.getSource().supportsViews()) {
+      Iterator<Record> selectIterator = this.iterator();
+
+      while (selectIterator.hasNext()) {
+        newRecords.add(selectIterator.next());
+      }
+
+      // aggregates over an empty input still produce a single record
+      if (this.hasAggregate && newRecords.isEmpty()) {
+        List<DataType> values = new ArrayList<DataType>();
+        this.appendAggregates(values);
+        newRecords.add(new Record(values));
+      }
+
+      return newRecords.iterator();
+    }
+
+    Iterator<Record> sourceIterator = this.getSource().execute();
     MarkerRecord markerRecord = MarkerRecord.getMarker();
 
     // the case where the select has one or more aggregates in it
@@ -161,30 +181,11 @@ public class SelectOperator extends QueryOperator {
 
       while (sourceIterator.hasNext()) {
         Record r = sourceIterator.next();
-        List<DataType> recordValues = r.getValues();
 
         // if the record is a MarkerRecord, that means we reached the end of a group... we reset
         // the aggregates and add the appropriate new record to the new Records
         if (r == markerRecord) {
-          if (this.hasCount) {
-            int count = this.getAndResetCount();
-            baseValues.add(new IntDataType(count));
-          }
-
-          if (this.sumColumnIndex != -1) {
-            double sum = this.getAndResetSum();
-
-            if (this.sumIsFloat) {
-              baseValues.add(new FloatDataType((float) sum));
-            } else {
-              baseValues.add(new IntDataType((int) sum));
-            }
-          }
-
-          if (this.averageColumnIndex != -1) {
-            double average = (float) this.getAndResetAverage();
-            baseValues.add(new FloatDataType((float) average));
-          }
+          this.appendAggregates(baseValues);
 
           // record that we just saw a marker record
           prevWasMarker = true;
@@ -196,7 +197,7 @@ public class SelectOperator extends QueryOperator {
           // fields out of the record
           if (prevWasMarker) {
             for (int index : this.indices) {
-              baseValues.add(recordValues.get(index));
+              baseValues.add(r.get(index));
             }
 
             prevWasMarker = false;
@@ -218,25 +219,7 @@ public class SelectOperator extends QueryOperator {
 
       // at the very end, we need to make sure we add all the aggregated records to the result
       // either because there was no group by or to add the last group we saw
-      if (this.hasCount) {
-        int count = this.getAndResetCount();
-        baseValues.add(new IntDataType(count));
-      }
-
-      if (this.sumColumnIndex != -1) {
-        double sum = this.getAndResetSum();
-
-        if (this.sumIsFloat) {
-          baseValues.add(new FloatDataType((float) sum));
-        } else {
-          baseValues.add(new IntDataType((int) sum));
-        }
-      }
-
-      if (this.averageColumnIndex != -1) {
-        double average = this.getAndResetAverage();
-        baseValues.add(new FloatDataType((float) average));
-      }
+      this.appendAggregates(baseValues);
 
       newRecords.add(new Record(baseValues));
       baseValues = new ArrayList<DataType>();
@@ -245,7 +228,6 @@ public class SelectOperator extends QueryOperator {
       // and project out the columns
       while (sourceIterator.hasNext()) {
         Record r = sourceIterator.next();
-        List<DataType> recordValues = r.getValues();
         List<DataType> newValues = new ArrayList<DataType>();
 
         // if there is a marker record (in the case we're selecting from a group by), we simply
@@ -254,7 +236,7 @@ public class SelectOperator extends QueryOperator {
           newRecords.add(markerRecord);
         } else {
           for (int index : this.indices) {
-            newValues.add(recordValues.get(index));
+            newValues.add(r.get(index));
           }
 
           Record newRecord = new Record(newValues);
@@ -268,6 +250,49 @@ public class SelectOperator extends QueryOperator {
 
   public Iterator<Record> iterator() throws QueryPlanException, DatabaseException { return new SelectIterator(); }
 
+  /**
+   * Appends the current value of each aggregate to values and resets the aggregates.
+   *
+   * @param values the values of the output record being built
+   */
+  private void appendAggregates(List<DataType> values) {
+    if (this.hasCount) {
+      int count = this.getAndResetCount();
+      values.add(new IntDataType(count));
+    }
+
+    if (this.sumColumnIndex != -1) {
+      double sum = this.getAndResetSum();
+
+      if (this.sumIsFloat) {
+        values.add(new FloatDataType((float) sum));
+      } else {
+        values.add(new IntDataType((int) sum));
+      }
+    }
+
+    if (this.averageColumnIndex != -1) {
+      double average = this.getAndResetAverage();
+      values.add(new FloatDataType((float) average));
+    }
+  }
+
+  /**
+   * Decodes only the selected columns of the record under view.
+   *
+   * @param view the view to project
+   * @return the projected values
+   */
+  private List<DataType> project(RecordView view) {
+    List<DataType> values = new ArrayList<DataType>(this.indices.size());
+
+    for (int index : this.indices) {
+      values.add(view.get(index));
+    }
+
+    return values;
+  }
+
   private void addToCount() {
     this.countValue++;
   }
@@ -280,9 +305,17 @@ public class SelectOperator extends QueryOperator {
 
   private void addToSum(Record record) {
     if (this.sumIsFloat) {
-      this.sumValue += record.getValues().get(this.sumColumnIndex).getFloat();
+      this.sumValue += record.getFloat(this.sumColumnIndex);
     } else {
-      this.sumValue += record.getValues().get(this.sumColumnIndex).getInt();
+      this.sumValue += record.getInt(this.sumColumnIndex);
+    }
+  }
+
+  private void addToSum(RecordView view) {
+    if (this.sumIsFloat) {
+      this.sumValue += view.getFloat(this.sumColumnIndex);
+    } else {
+      this.sumValue += view.getInt(this.sumColumnIndex);
     }
   }
 
@@ -294,7 +327,16 @@ public class SelectOperator extends QueryOperator {
 
   private void addToAverage(Record record) {
     this.averageCountValue++;
-    this.averageSumValue += record.getValues().get(this.averageColumnIndex).getInt();
+    this.averageSumValue += record.getInt(this.averageColumnIndex);
+  }
+
+  private void addToAverage(RecordView view) {
+    this.averageCountValue++;
+    if (view.getType(this.averageColumnIndex) == DataType.Types.FLOAT) {
+      this.averageSumValue += view.getFloat(this.averageColumnIndex);
+    } else {
+      this.averageSumValue += view.getInt(this.averageColumnIndex);
+    }
   }
 
   private double getAndResetAverage() {
@@ -331,13 +373,18 @@ public class SelectOperator extends QueryOperator {
    */
   private class SelectIterator implements Iterator<Record> {
     private Iterator<Record> sourceIterator;
+    private Iterator<RecordView> viewIterator;
     private MarkerRecord markerRecord;
     private Record nextRecord;
     private boolean prevWasMarker;
     private List<DataType> baseValues;
 
     public SelectIterator() throws QueryPlanException, DatabaseException {
-      this.sourceIterator = SelectOperator.this.getSource().iterator();
+      if (SelectOperator.this.getSource().supportsViews()) {
+        this.viewIterator = SelectOperator.this.getSource().viewIterator();
+      } else {
+        this.sourceIterator = SelectOperator.this.getSource().iterator();
+      }
       this.markerRecord = MarkerRecord.getMarker();
       this.nextRecord = null;
       this.prevWasMarker = true;
@@ -350,6 +397,9 @@ public class SelectOperator extends QueryOperator {
      * @return true if this iterator has another record to yield, otherwise false
      */
     public boolean hasNext() {
+      if (this.viewIterator != null) {
+        return this.viewIterator.hasNext();
+      }
       return this.sourceIterator.hasNext();
     }
 
@@ -360,34 +410,19 @@ public class SelectOperator extends QueryOperator {
      * @throws NoSuchElementException if there are no more Records to yield
      */
     public Record next() {
+      if (this.viewIterator != null) {
+        return this.nextFromViews();
+      }
+
       if (this.hasNext()) {
         if (SelectOperator.this.hasAggregate) {
           while (this.sourceIterator.hasNext()) {
             Record r = this.sourceIterator.next();
-            List<DataType> recordValues = r.getValues();
 
             // if the record is a MarkerRecord, that means we reached the end of a group... we reset
             // the aggregates and add the appropriate new record to the new Records
             if (r == this.markerRecord) {
-              if (SelectOperator.this.hasCount) {
-                int count = SelectOperator.this.getAndResetCount();
-                this.baseValues.add(new IntDataType(count));
-              }
-
-              if (SelectOperator.this.sumColumnIndex != -1) {
-                double sum = SelectOperator.this.getAndResetSum();
-
-                if (SelectOperator.this.sumIsFloat) {
-                  this.baseValues.add(new FloatDataType((float) sum));
-                } else {
-                  this.baseValues.add(new IntDataType((int) sum));
-                }
-              }
-
-              if (SelectOperator.this.averageColumnIndex != -1) {
-                double average = (float) SelectOperator.this.getAndResetAverage();
-                this.baseValues.add(new FloatDataType((float) average));
-              }
+              SelectOperator.this.appendAggregates(this.baseValues);
 
               // record that we just saw a marker record
               this.prevWasMarker = true;
@@ -399,7 +434,7 @@ public class SelectOperator extends QueryOperator {
               if (this.prevWasMarker) {
                 this.baseValues = new ArrayList<DataType>();
                 for (int index : SelectOperator.this.indices) {
-                  this.baseValues.add(recordValues.get(index));
+                  this.baseValues.add(r.get(index));
                 }
 
                 this.prevWasMarker = false;
@@ -421,30 +456,11 @@ public class SelectOperator extends QueryOperator {
 
           // at the very end, we need to make sure we add all the aggregated records to the result
           // either because there was no group by or to add the last group we saw
-          if (SelectOperator.this.hasCount) {
-            int count = SelectOperator.this.getAndResetCount();
-            this.baseValues.add(new IntDataType(count));
-          }
-
-          if (SelectOperator.this.sumColumnIndex != -1) {
-            double sum = SelectOperator.this.getAndResetSum();
-
-            if (SelectOperator.this.sumIsFloat) {
-              this.baseValues.add(new FloatDataType((float) sum));
-            } else {
-              this.baseValues.add(new IntDataType((int) sum));
-            }
-          }
-
-          if (SelectOperator.this.averageColumnIndex != -1) {
-            double average = SelectOperator.this.getAndResetAverage();
-            this.baseValues.add(new FloatDataType((float) average));
-          }
+          SelectOperator.this.appendAggregates(this.baseValues);
 
           return new Record(this.baseValues);
         } else {
           Record r = this.sourceIterator.next();
-          List<DataType> recordValues = r.getValues();
           List<DataType> newValues = new ArrayList<DataType>();
 
           // if there is a marker record (in the case we're selecting from a group by), we simply
@@ -453,7 +469,7 @@ public class SelectOperator extends QueryOperator {
             return markerRecord;
           } else {
             for (int index : SelectOperator.this.indices) {
-              newValues.add(recordValues.get(index));
+              newValues.add(r.get(index));
             }
 
             return new Record(newValues);
@@ -463,6 +479,44 @@ public class SelectOperator extends QueryOperator {
       throw new NoSuchElementException();
     }
 
+    /**
+     * Yields the next record when reading views. A view source never yields marker records, so
+     * with aggregates the whole input is a single group.
+     */
+    private Record nextFromViews() {
+      if (!this.viewIterator.hasNext()) {
+        throw new NoSuchElementException();
+      }
+
+      if (!SelectOperator.this.hasAggregate) {
+        return new Record(SelectOperator.this.project(this.viewIterator.next()));
+      }
+
+      this.baseValues = null;
+      while (this.viewIterator.hasNext()) {
+        RecordView view = this.viewIterator.next();
+
+        if (this.baseValues == null) {
+          this.baseValues = SelectOperator.this.project(view);
+        }
+
+        if (SelectOperator.this.hasCount) {
+          SelectOperator.this.addToCount();
+        }
+
+        if (SelectOperator.this.sumColumnIndex != -1) {
+          SelectOperator.this.addToSum(view);
+        }
+
+        if (SelectOperator.this.averageColumnIndex != -1) {
+          SelectOperator.this.addToAverage(view);
+        }
+      }
+
+      SelectOperator.this.appendAggregates(this.baseValues);
+      return new Record(this.baseValues);
+    }
+
     public void remove() {
       throw new UnsupportedOperationException();
     }
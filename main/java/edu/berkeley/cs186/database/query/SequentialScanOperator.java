@@ -1,10 +1,15 @@
 package edu.berkeley.cs186.database.query;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 
 import edu.berkeley.cs186.database.Database;
 import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.datatypes.DataType;
 import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordView;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
@@ -12,6 +17,11 @@ public class SequentialScanOperator extends QueryOperator {
   private Database.Transaction transaction;
   private String tableName;
 
+  private List<String> predicateColumnNames;
+  private List<Integer> predicateColumnIndices;
+  private List<QueryPlan.PredicateOperator> predicateOperators;
+  private List<DataType> predicateValues;
+
   /**
    * Creates a new SequentialScanOperator that provides an iterator on all tuples in a table.
    *
@@ -30,6 +40,11 @@ public class SequentialScanOperator extends QueryOperator {
     this.transaction = transaction;
     this.tableName = tableName;
 
+    this.predicateColumnNames = new ArrayList<String>();
+    this.predicateColumnIndices = new ArrayList<Integer>();
+    this.predicateOperators = new ArrayList<QueryPlan.PredicateOperator>();
+    this.predicateValues = new ArrayList<DataType>();
+
     this.setOutputSchema(this.computeSchema());
     this.stats = this.estimateStats();
     this.cost = this.estimateIOCost();
@@ -39,12 +54,62 @@ public class SequentialScanOperator extends QueryOperator {
     return this.tableName;
   }
 
+  /**
+   * Pushes a column predicate down into this scan. Pushed predicates are evaluated against the
+   * encoded bytes of each record in the page, and only records that satisfy all of them are
+   * decoded and returned.
+   *
+   * @param columnName the name of the column to evaluate the predicate on
+   * @param predicate the actual comparator
+   * @param value the value to compare against
+   * @throws QueryPlanException if the column is not in this table
+   */
+  public void addPredicate(String columnName,
+                           QueryPlan.PredicateOperator predicate,
+                           DataType value) throws QueryPlanException {
+    columnName = this.checkSchemaForColumn(this.getOutputSchema(), columnName);
+    int columnIndex = this.getOutputSchema().getFieldNames().indexOf(columnName);
+
+    this.predicateColumnNames.add(columnName);
+    this.predicateColumnIndices.add(columnIndex);
+    this.predicateOperators.add(predicate);
+    this.predicateValues.add(value);
+
+    this.stats = this.stats.copyWithPredicate(columnIndex, predicate, value);
+    this.cost = this.estimateIOCost();
+  }
+
+  /**
+   * @return true if any predicates have been pushed down into this scan
+   */
+  public boolean hasPredicates() {
+    return !this.predicateOperators.isEmpty();
+  }
+
   public Iterator<Record> execute() throws DatabaseException {
-    return this.transaction.getRecordIterator(tableName);
+    return this.iterator();
   }
 
   public Iterator<Record> iterator() throws DatabaseException {
-    return this.transaction.getRecordIterator(tableName);
+    if (!this.hasPredicates()) {
+      return this.transaction.getRecordIterator(tableName);
+    }
+    return new MaterializingIterator(this.viewIterator());
+  }
+
+  public boolean supportsViews() {
+    return true;
+  }
+
+  public Iterator<RecordView> viewIterator() throws DatabaseException {
+    if (!this.hasPredicates()) {
+      return this.transaction.getRecordViewIterator(tableName);
+    }
+
+    // only read the pages whose zone maps may match all predicates
+    Iterator<RecordView> views = this.transaction.getRecordViewIterator(tableName,
+        this.predicateColumnIndices, this.predicateOperators, this.predicateValues);
+    return new PredicateViewIterator(views);
   }
 
   public Schema computeSchema() throws QueryPlanException {
@@ -56,8 +121,16 @@ public class SequentialScanOperator extends QueryOperator {
   }
 
   public String str() {
-    return "type: " + this.getType() +
+    String r = "type: " + this.getType() +
         "\ntable: " + this.tableName;
+
+    for (int i = 0; i < this.predicateOperators.size(); i++) {
+      r += "\npredicate: " + this.predicateColumnNames.get(i) +
+          " " + this.predicateOperators.get(i) +
+          " " + this.predicateValues.get(i);
+    }
+
+    return r;
   }
 
   /**
@@ -73,11 +146,106 @@ public class SequentialScanOperator extends QueryOperator {
     }
   }
 
+  /**
+   * Estimates the IO cost of this scan. With pushed down predicates, only the pages whose zone maps
+   * may satisfy every predicate are counted.
+   *
+   * @return estimated number of IO's performed
+   */
   public int estimateIOCost() throws QueryPlanException {
     try {
+      if (this.hasPredicates()) {
+        return this.transaction.getNumCandidatePages(this.tableName, this.predicateColumnIndices,
+            this.predicateOperators, this.predicateValues);
+      }
       return this.transaction.getNumDataPages(this.tableName);
     } catch (DatabaseException de) {
       throw new QueryPlanException(de);
     }
   }
+
+  /**
+   * Checks whether the record under a view satisfies every pushed down predicate.
+   *
+   * @param view the view to check
+   * @return true if the record should be returned by this scan
+   */
+  private boolean matches(RecordView view) {
+    for (int i = 0; i < this.predicateOperators.size(); i++) {
+      if (!view.satisfies(this.predicateColumnIndices.get(i),
+                          this.predicateOperators.get(i),
+                          this.predicateValues.get(i))) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * An implementation of Iterator that passes through only the table views that satisfy all of the
+   * pushed down predicates.
+   */
+  private class PredicateViewIterator implements Iterator<RecordView> {
+    private Iterator<RecordView> sourceIterator;
+    private RecordView nextView;
+
+    public PredicateViewIterator(Iterator<RecordView> sourceIterator) {
+      this.sourceIterator = sourceIterator;
+      this.nextView = null;
+    }
+
+    public boolean hasNext() {
+      if (this.nextView != null) {
+        return true;
+      }
+
+      while (this.sourceIterator.hasNext()) {
+        RecordView view = this.sourceIterator.next();
+
+        if (SequentialScanOperator.this.matches(view)) {
+          this.nextView = view;
+          return true;
+        }
+      }
+
+      return false;
+    }
+
+    public RecordView next() {
+      if (this.hasNext()) {
+        RecordView view = this.nextView;
+        this.nextView = null;
+        return view;
+      }
+      throw new NoSuchElementException();
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * An implementation of Iterator that decodes each view it is given into a Record.
+   */
+  private class MaterializingIterator implements Iterator<Record> {
+    private Iterator<RecordView> viewIterator;
+
+    public MaterializingIterator(Iterator<RecordView> viewIterator) {
+      this.viewIterator = viewIterator;
+    }
+
+    public boolean hasNext() {
+      return this.viewIterator.hasNext();
+    }
+
+    public Record next() {
+      return this.viewIterator.next().materialize();
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
 }
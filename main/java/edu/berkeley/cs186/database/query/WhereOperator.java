@@ -9,6 +9,7 @@ import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.datatypes.DataType;
 import edu.berkeley.cs186.database.table.MarkerRecord;
 import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordView;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
@@ -44,67 +45,61 @@ public class WhereOperator extends QueryOperator {
   }
 
   public Iterator<Record> execute() throws QueryPlanException, DatabaseException {
-    Iterator<Record> sourceIterator = this.getSource().execute();
     List<Record> validRecords = new ArrayList<Record>();
+
+    // filter views directly off the pages so that only matching rows are decoded
+    if (this.supportsViews()) {
+      Iterator<RecordView> viewIterator = this.viewIterator();
+
+      while (viewIterator.hasNext()) {
+        validRecords.add(viewIterator.next().materialize());
+      }
+
+      return validRecords.iterator();
+    }
+
+    Iterator<Record> sourceIterator = this.getSource().execute();
     MarkerRecord markerRecord = MarkerRecord.getMarker();
 
     while (sourceIterator.hasNext()) {
       Record r = sourceIterator.next();
 
-      if (r == markerRecord) {
+      if (r == markerRecord || this.matches(r)) {
         validRecords.add(r);
-      } else {
-
-        switch (this.predicate) {
-          case EQUALS:
-            if (r.getValues().get(this.columnIndex).equals(value)) {
-              validRecords.add(r);
-            }
-            break;
-
-          case NOT_EQUALS:
-            if (!r.getValues().get(this.columnIndex).equals(value)) {
-              validRecords.add(r);
-            }
-            break;
-
-          case LESS_THAN:
-            if (r.getValues().get(this.columnIndex).compareTo(value) == -1) {
-              validRecords.add(r);
-            }
-            break;
-
-          case LESS_THAN_EQUALS:
-            if (r.getValues().get(this.columnIndex).compareTo(value) == -1) {
-              validRecords.add(r);
-            } else if (r.getValues().get(this.columnIndex).compareTo(value) == 0) {
-              validRecords.add(r);
-            }
-            break;
-          case GREATER_THAN:
-            if (r.getValues().get(this.columnIndex).compareTo(value) == 1) {
-              validRecords.add(r);
-            }
-            break;
-
-          case GREATER_THAN_EQUALS:
-            if (r.getValues().get(this.columnIndex).compareTo(value) == 1) {
-              validRecords.add(r);
-            } else if (r.getValues().get(this.columnIndex).compareTo(value) == 0) {
-              validRecords.add(r);
-            }
-            break;
-
-          default:
-            break;
-        }
       }
-
     }
 
     return validRecords.iterator();
   }
 
+  /**
+   * Checks whether a record satisfies this operator's predicate.
+   *
+   * @param record the record to check
+   * @return true if the record should be kept
+   */
+  private boolean matches(Record record) {
+    switch (this.predicate) {
+      case EQUALS:
+        return record.fieldEquals(this.columnIndex, this.value);
+      case NOT_EQUALS:
+        return !record.fieldEquals(this.columnIndex, this.value);
+      default:
+        return this.predicate.evaluate(record.compareField(this.columnIndex, this.value));
+    }
+  }
+
+  /**
+   * Checks whether the record under a view satisfies this operator's predicate
+   * without decoding it.
+   *
+   * @param view the view to check
+   * @return true if the record should be kept
+   */
+  private boolean matches(RecordView view) {
+    return view.satisfies(this.columnIndex, this.predicate, this.value);
+  }
+
   public Schema computeSchema() throws QueryPlanException {
     return this.getSource().getOutputSchema();
   }
@@ -134,16 +129,31 @@ public class WhereOperator extends QueryOperator {
 
   public Iterator<Record> iterator() throws QueryPlanException, DatabaseException { return new WhereIterator(); }
 
+  public boolean supportsViews() {
+    return this.source.supportsViews();
+  }
+
+  public Iterator<RecordView> viewIterator() throws QueryPlanException, DatabaseException {
+    return new WhereViewIterator(this.getSource().viewIterator());
+  }
+
   /**
-   * An implementation of Iterator that provides an iterator interface for this operator.
+   * An implementation of Iterator that provides an iterator interface for this operator. If the
+   * source supports views, the predicate is checked on views and only matching rows are
+   * materialized.
    */
   private class WhereIterator implements Iterator<Record> {
     private Iterator<Record> sourceIterator;
+    private Iterator<RecordView> viewIterator;
     private MarkerRecord markerRecord;
     private Record nextRecord;
 
     public WhereIterator() throws QueryPlanException, DatabaseException {
-      this.sourceIterator = WhereOperator.this.getSource().iterator();
+      if (WhereOperator.this.supportsViews()) {
+        this.viewIterator = WhereOperator.this.viewIterator();
+      } else {
+        this.sourceIterator = WhereOperator.this.getSource().iterator();
+      }
       this.markerRecord = MarkerRecord.getMarker();
       this.nextRecord = null;
     }
@@ -157,60 +167,22 @@ public class WhereOperator extends QueryOperator {
       if (this.nextRecord != null) {
         return true;
       }
+
+      if (this.viewIterator != null) {
+        if (this.viewIterator.hasNext()) {
+          this.nextRecord = this.viewIterator.next().materialize();
+          return true;
+        }
+        return false;
+      }
+
       while (this.sourceIterator.hasNext()) {
         Record r = this.sourceIterator.next();
 
-        if (r == this.markerRecord) {
+        if (r == this.markerRecord || WhereOperator.this.matches(r)) {
           this.nextRecord = r;
           return true;
         }
-
-        switch (WhereOperator.this.predicate) {
-          case EQUALS:
-            if (r.getValues().get(WhereOperator.this.columnIndex).equals(value)) {
-              this.nextRecord = r;
-              return true;
-            }
-            break;
-          case NOT_EQUALS:
-            if (!r.getValues().get(WhereOperator.this.columnIndex).equals(value)) {
-              this.nextRecord = r;
-              return true;
-            }
-            break;
-          case LESS_THAN:
-            if (r.getValues().get(WhereOperator.this.columnIndex).compareTo(value) == -1) {
-              this.nextRecord = r;
-              return true;
-            }
-            break;
-          case LESS_THAN_EQUALS:
-            if (r.getValues().get(WhereOperator.this.columnIndex).compareTo(value) == -1) {
-              this.nextRecord = r;
-              return true;
-            } else if (r.getValues().get(WhereOperator.this.columnIndex).compareTo(value) == 0) {
-              this.nextRecord = r;
-              return true;
-            }
-            break;
-          case GREATER_THAN:
-            if (r.getValues().get(WhereOperator.this.columnIndex).compareTo(value) == 1) {
-              this.nextRecord = r;
-              return true;
-            }
-            break;
-          case GREATER_THAN_EQUALS:
-            if (r.getValues().get(WhereOperator.this.columnIndex).compareTo(value) == 1) {
-              this.nextRecord = r;
-              return true;
-            } else if (r.getValues().get(WhereOperator.this.columnIndex).compareTo(value) == 0) {
-              this.nextRecord = r;
-              return true;
-            }
-            break;
-          default:
-            break;
-        }
       }
 
       return false;
@@ -235,4 +207,48 @@ public class WhereOperator extends QueryOperator {
       throw new UnsupportedOperationException();
     }
   }
+
+  /**
+   * An implementation of Iterator that passes through only the source views that satisfy the
+   * predicate.
+   */
+  private class WhereViewIterator implements Iterator<RecordView> {
+    private Iterator<RecordView> sourceIterator;
+    private RecordView nextView;
+
+    public WhereViewIterator(Iterator<RecordView> sourceIterator) {
+      this.sourceIterator = sourceIterator;
+      this.nextView = null;
+    }
+
+    public boolean hasNext() {
+      if (this.nextView != null) {
+        return true;
+      }
+
+      while (this.sourceIterator.hasNext()) {
+        RecordView view = this.sourceIterator.next();
+
+        if (WhereOperator.this.matches(view)) {
+          this.nextView = view;
+          return true;
+        }
+      }
+
+      return false;
+    }
+
+    public RecordView next() {
+      if (this.hasNext()) {
+        RecordView view = this.nextView;
+        this.nextView = null;
+        return view;
+      }
+      throw new NoSuchElementException();
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
 }
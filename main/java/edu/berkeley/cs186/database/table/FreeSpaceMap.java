@@ -0,0 +1,156 @@
+package edu.berkeley.cs186.database.table;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tracks how many free record slots each data page of a table has. Pages
+ * with free slots are bucketed into NUM_FILL_CLASSES fill classes by the
+ * fraction of their slots that are free, so finding a page with room never
+ * has to look at more than a handful of pages, and never has to fetch a page
+ * to find out whether it has room.
+ *
+ * Inserts first try the append hint, the page the last reservation went to,
+ * so an insert-heavy table keeps filling the same page until it is full.
+ * Otherwise the emptiest pages are preferred, so that a page that regains a
+ * single slot through a delete isn't fetched for every insert that follows;
+ * the holes left behind are reclaimed by Table#compact.
+ *
+ * All methods are synchronized, so concurrent inserters can reserve slots
+ * without ever being handed the same last slot of a page.
+ *
+ * Properties:
+ * `capacity`: number of record slots on a data page
+ * `freeSlots`: number of free slots of every tracked data page
+ * `fillClasses`: the pages with free slots, bucketed by fraction of free slots
+ * `appendHint`: page number of the page the last reservation went to, or -1
+ */
+public class FreeSpaceMap {
+  public static final int NUM_FILL_CLASSES = 8;
+
+  private int capacity;
+  private Map<Integer, Integer> freeSlots;
+  private List<LinkedHashSet<Integer>> fillClasses;
+  private int appendHint;
+
+  public FreeSpaceMap(int capacity) {
+    this.capacity = capacity;
+    this.freeSlots = new HashMap<Integer, Integer>();
+    this.fillClasses = new ArrayList<LinkedHashSet<Integer>>();
+    for (int i = 0; i < NUM_FILL_CLASSES; i++) {
+      this.fillClasses.add(new LinkedHashSet<Integer>());
+    }
+    this.appendHint = -1;
+  }
+
+  /**
+   * Records the number of free slots on a page, adding the page if it isn't
+   * tracked yet.
+   *
+   * @param pageNum the data page
+   * @param numFree the number of free slots on it
+   */
+  public synchronized void update(int pageNum, int numFree) {
+    Integer oldFree = this.freeSlots.put(pageNum, numFree);
+    if (oldFree != null && oldFree > 0) {
+      this.fillClasses.get(getFillClass(oldFree)).remove(pageNum);
+    }
+    if (numFree > 0) {
+      this.fillClasses.get(getFillClass(numFree)).add(pageNum);
+    }
+  }
+
+  /**
+   * Finds a page with at least numSlots free slots and takes those slots off
+   * its free count. The caller must fill the slots or give them back with
+   * release().
+   *
+   * @param numSlots the number of slots to reserve
+   * @return the page the slots were reserved on, or -1 if no page has room
+   */
+  public synchronized int reserve(int numSlots) {
+    int pageNum = -1;
+
+    if (this.appendHint != -1 && getFreeSlots(this.appendHint) >= numSlots) {
+      pageNum = this.appendHint;
+    } else {
+      // every page in a class above the one numSlots falls in fits, and no page
+      // in a class below it does, so only that class may have to be searched
+      int lowestClass = getFillClass(numSlots);
+      for (int c = NUM_FILL_CLASSES - 1; c >= lowestClass && pageNum == -1; c--) {
+        Iterator<Integer> pages = this.fillClasses.get(c).iterator();
+        while (pages.hasNext()) {
+          int candidate = pages.next();
+          if (this.freeSlots.get(candidate) >= numSlots) {
+            pageNum = candidate;
+            break;
+          }
+        }
+      }
+    }
+
+    if (pageNum != -1) {
+      update(pageNum, this.freeSlots.get(pageNum) - numSlots);
+      this.appendHint = pageNum;
+    }
+
+    return pageNum;
+  }
+
+  /**
+   * Adds freed slots back to a page's free count, e.g. after a delete.
+   *
+   * @param pageNum the data page
+   * @param numSlots the number of slots that were freed
+   */
+  public synchronized void release(int pageNum, int numSlots) {
+    update(pageNum, getFreeSlots(pageNum) + numSlots);
+  }
+
+  /**
+   * Stops tracking a page, e.g. because it was freed.
+   *
+   * @param pageNum the data page
+   */
+  public synchronized void remove(int pageNum) {
+    Integer oldFree = this.freeSlots.remove(pageNum);
+    if (oldFree != null && oldFree > 0) {
+      this.fillClasses.get(getFillClass(oldFree)).remove(pageNum);
+    }
+    if (this.appendHint == pageNum) {
+      this.appendHint = -1;
+    }
+  }
+
+  /**
+   * @param pageNum the data page
+   * @return the number of free slots on the page, or 0 if it isn't tracked
+   */
+  public synchronized int getFreeSlots(int pageNum) {
+    Integer numFree = this.freeSlots.get(pageNum);
+    return numFree == null ? 0 : numFree;
+  }
+
+  /**
+   * @return the number of tracked pages with at least one free slot
+   */
+  public synchronized int getNumPagesWithSpace() {
+    int count = 0;
+    for (LinkedHashSet<Integer> fillClass : this.fillClasses) {
+      count += fillClass.size();
+    }
+    return count;
+  }
+
+  /**
+   * Class c holds the pages with more than c/NUM_FILL_CLASSES and at most
+   * (c+1)/NUM_FILL_CLASSES of their slots free.
+   */
+  private int getFillClass(int numFree) {
+    return Math.min(NUM_FILL_CLASSES - 1, (numFree * NUM_FILL_CLASSES - 1) / this.capacity);
+  }
+}
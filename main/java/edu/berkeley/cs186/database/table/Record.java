@@ -2,23 +2,153 @@ package edu.berkeley.cs186.database.table;
 
 import edu.berkeley.cs186.database.datatypes.DataType;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.lang.StringBuilder;
 
 /**
- * A wrapper class for an individual record. Simply stores a list of DataTypes.
+ * A wrapper class for an individual record. A record either holds a list of DataTypes, or the
+ * encoded bytes of the record along with the RecordCodec that describes their layout.
+ *
+ * Records read out of a table are byte-backed: the typed accessors (getInt(field), getFloat(field),
+ * ...) read a field of the matching type straight out of the bytes, and get(field) decodes only that field, so an
+ * operator that looks at a few columns of a row never creates DataType objects for the rest.
+ * getValues() decodes every field the first time it is called, and from then on the decoded list
+ * is the record's value. concat() joins two byte-backed records by concatenating their bytes.
+ *
+ * Properties:
+ * `values`: the fields of the record, or null if they haven't been decoded yet
+ * `codec`: the layout of bytes, or null for a record built from a list of DataTypes
+ * `bytes`: the encoded record, or null for a record built from a list of DataTypes
+ * `view`: a view over bytes used by the typed accessors
  */
 public class Record {
   private List<DataType> values;
+  private RecordCodec codec;
+  private byte[] bytes;
+  private RecordView view;
 
   public Record(List<DataType> values) {
     this.values = values;
   }
 
+  /**
+   * Creates a record backed by its encoded bytes. The record takes ownership of bytes.
+   *
+   * @param codec the layout of the record
+   * @param bytes the encoded record, exactly codec.getEntrySize() bytes long
+   */
+  public Record(RecordCodec codec, byte[] bytes) {
+    this.codec = codec;
+    this.bytes = bytes;
+    this.view = new RecordView(codec, bytes, 0);
+  }
+
   public List<DataType> getValues() {
+    if (this.values == null) {
+      List<DataType> decoded = new ArrayList<DataType>(this.codec.getNumFields());
+      for (int i = 0; i < this.codec.getNumFields(); i++) {
+        decoded.add(this.codec.decodeField(this.bytes, 0, i));
+      }
+      this.values = decoded;
+    }
     return this.values;
   }
 
+  /**
+   * @return whether this record still reads its fields out of its encoded bytes
+   */
+  private boolean isByteBacked() {
+    return this.values == null;
+  }
+
+  public int getNumFields() {
+    return this.isByteBacked() ? this.codec.getNumFields() : this.values.size();
+  }
+
+  /**
+   * Returns a single field, decoding only that field for a byte-backed record.
+   *
+   * @param field the index of the field
+   * @return the value of the field
+   */
+  public DataType get(int field) {
+    return this.isByteBacked() ? this.view.get(field) : this.values.get(field);
+  }
+
+  public int getInt(int field) {
+    if (this.isByteBacked() && this.codec.getType(field) == DataType.Types.INT) {
+      return this.view.getInt(field);
+    }
+    return this.get(field).getInt();
+  }
+
+  public float getFloat(int field) {
+    if (this.isByteBacked() && this.codec.getType(field) == DataType.Types.FLOAT) {
+      return this.view.getFloat(field);
+    }
+    return this.get(field).getFloat();
+  }
+
+  public boolean getBool(int field) {
+    if (this.isByteBacked() && this.codec.getType(field) == DataType.Types.BOOL) {
+      return this.view.getBool(field);
+    }
+    return this.get(field).getBool();
+  }
+
+  public String getString(int field) {
+    if (this.isByteBacked() && this.codec.getType(field) == DataType.Types.STRING) {
+      return this.view.getString(field);
+    }
+    return this.get(field).getString();
+  }
+
+  /**
+   * Checks whether a field equals value, with the semantics of get(field).equals(value).
+   *
+   * @param field the index of the field
+   * @param value the value to compare against
+   * @return true if the field equals value
+   */
+  public boolean fieldEquals(int field, DataType value) {
+    return this.isByteBacked() ? this.view.fieldEquals(field, value) : this.values.get(field).equals(value);
+  }
+
+  /**
+   * Compares a field against value. The sign of the result agrees with
+   * get(field).compareTo(value).
+   *
+   * @param field the index of the field
+   * @param value the value to compare against
+   * @return a negative number, zero, or a positive number as the field is less than, equal to, or
+   *         greater than value
+   */
+  public int compareField(int field, DataType value) {
+    return this.isByteBacked() ? this.view.compareTo(field, value) : this.values.get(field).compareTo(value);
+  }
+
+  /**
+   * Returns a record holding the fields of this record followed by the fields of other. If both
+   * records are byte-backed, the result is too, and no field is decoded.
+   *
+   * @param other the record to append
+   * @return the concatenated record
+   */
+  public Record concat(Record other) {
+    if (this.isByteBacked() && other.isByteBacked()) {
+      byte[] joined = Arrays.copyOf(this.bytes, this.bytes.length + other.bytes.length);
+      System.arraycopy(other.bytes, 0, joined, this.bytes.length, other.bytes.length);
+      return new Record(this.codec.concat(other.codec), joined);
+    }
+
+    List<DataType> joined = new ArrayList<DataType>(this.getNumFields() + other.getNumFields());
+    joined.addAll(this.getValues());
+    joined.addAll(other.getValues());
+    return new Record(joined);
+  }
+
   @Override
   public boolean equals(Object other) {
     if (!(other instanceof Record)) {
@@ -26,13 +156,15 @@ public class Record {
     }
 
     Record otherRecord = (Record) other;
+    List<DataType> values = this.getValues();
+    List<DataType> otherValues = otherRecord.getValues();
 
-    if (values.size() != otherRecord.values.size()) {
+    if (values.size() != otherValues.size()) {
       return false;
     }
 
     for (int i = 0; i < values.size(); i++) {
-      if (!(values.get(i).equals(otherRecord.values.get(i)))) {
+      if (!(values.get(i).equals(otherValues.get(i)))) {
         return false;
       }
     }
@@ -43,7 +175,7 @@ public class Record {
   @Override
   public String toString() {
     StringBuilder s = new StringBuilder();
-    for (DataType d : values) {
+    for (DataType d : this.getValues()) {
       s.append(d.toString().trim());
       s.append(", ");
     }
@@ -0,0 +1,289 @@
+package edu.berkeley.cs186.database.table;
+
+import edu.berkeley.cs186.database.datatypes.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A record serializer specialized to a single Schema. The physical layout of a
+ * record (the offset, size, and type of every field) is computed once when the
+ * codec is built, so encoding and decoding only switch on each field's type and
+ * read or write the field directly at its precomputed offset. No per-field
+ * byte arrays or ByteBuffers are allocated.
+ *
+ * The byte format is identical to the concatenation of each DataType's
+ * getBytes(): big-endian ints and floats, a single byte for booleans, and
+ * fixed-length UTF-8 for strings. A STRING field with a StringDictionary is
+ * instead stored as the 4 byte big-endian code of its value.
+ *
+ * Properties:
+ * `types`: the type of each field, in schema order
+ * `offsets`: the byte offset of each field within an encoded record
+ * `sizes`: the physical size (in bytes) of each field
+ * `dictionaries`: the dictionary of each dictionary-encoded field, null for other fields
+ * `size`: physical size (in bytes) of an encoded record
+ * `lastConcat`: the last codec this one was concatenated with, and the result
+ */
+public class RecordCodec {
+  private DataType.Types[] types;
+  private int[] offsets;
+  private int[] sizes;
+  private StringDictionary[] dictionaries;
+  private int size;
+  private Concat lastConcat;
+
+  public RecordCodec(List<DataType> fieldTypes) {
+    this(fieldTypes, null);
+  }
+
+  /**
+   * Builds a codec that stores the STRING fields that have a dictionary as
+   * dictionary codes.
+   *
+   * @param fieldTypes the type of each field, in schema order
+   * @param dictionaries the dictionary of each field, null for fields that are
+   *                     not dictionary-encoded; null if no field is
+   */
+  public RecordCodec(List<DataType> fieldTypes, List<StringDictionary> dictionaries) {
+    int numFields = fieldTypes.size();
+
+    this.types = new DataType.Types[numFields];
+    this.offsets = new int[numFields];
+    this.sizes = new int[numFields];
+    this.dictionaries = new StringDictionary[numFields];
+    this.size = 0;
+
+    for (int i = 0; i < numFields; i++) {
+      DataType dt = fieldTypes.get(i);
+      this.types[i] = dt.type();
+      this.offsets[i] = this.size;
+      if (dictionaries != null && dictionaries.get(i) != null) {
+        this.dictionaries[i] = dictionaries.get(i);
+        this.sizes[i] = 4;
+      } else {
+        this.sizes[i] = dt.getSize();
+      }
+      this.size += this.sizes[i];
+    }
+  }
+
+  private RecordCodec(DataType.Types[] types, int[] sizes, StringDictionary[] dictionaries) {
+    this.types = types;
+    this.sizes = sizes;
+    this.dictionaries = dictionaries;
+    this.offsets = new int[types.length];
+    this.size = 0;
+
+    for (int i = 0; i < types.length; i++) {
+      this.offsets[i] = this.size;
+      this.size += this.sizes[i];
+    }
+  }
+
+  /**
+   * Builds the codec of records made of the fields of a record of this codec followed by the
+   * fields of a record of other. A join concatenates records of the same two codecs over and
+   * over, so the last result is remembered.
+   *
+   * @param other the codec of the fields to append
+   * @return the codec of the concatenated records
+   */
+  public RecordCodec concat(RecordCodec other) {
+    // the pair is replaced as a whole, and its final fields make it safe to
+    // read from another thread without a lock
+    Concat last = this.lastConcat;
+    if (last != null && last.other == other) {
+      return last.result;
+    }
+
+    int n = this.types.length;
+    int m = other.types.length;
+    DataType.Types[] types = Arrays.copyOf(this.types, n + m);
+    int[] sizes = Arrays.copyOf(this.sizes, n + m);
+    StringDictionary[] dictionaries = Arrays.copyOf(this.dictionaries, n + m);
+    System.arraycopy(other.types, 0, types, n, m);
+    System.arraycopy(other.sizes, 0, sizes, n, m);
+    System.arraycopy(other.dictionaries, 0, dictionaries, n, m);
+
+    RecordCodec result = new RecordCodec(types, sizes, dictionaries);
+    this.lastConcat = new Concat(other, result);
+    return result;
+  }
+
+  /**
+   * A codec concatenated with this one, and the codec of the result.
+   */
+  private static class Concat {
+    private final RecordCodec other;
+    private final RecordCodec result;
+
+    private Concat(RecordCodec other, RecordCodec result) {
+      this.other = other;
+      this.result = result;
+    }
+  }
+
+  public int getNumFields() {
+    return this.types.length;
+  }
+
+  public int getEntrySize() {
+    return this.size;
+  }
+
+  public DataType.Types getType(int field) {
+    return this.types[field];
+  }
+
+  public int getOffset(int field) {
+    return this.offsets[field];
+  }
+
+  public int getSize(int field) {
+    return this.sizes[field];
+  }
+
+  /**
+   * @param field the index of the field in the schema
+   * @return the dictionary of the field, or null if it is not dictionary-encoded
+   */
+  public StringDictionary getDictionary(int field) {
+    return this.dictionaries[field];
+  }
+
+  /**
+   * Serializes record into a new byte array.
+   *
+   * @param record the record to encode
+   * @return the encoded record
+   */
+  public byte[] encode(Record record) {
+    byte[] output = new byte[this.size];
+    this.encode(record, output, 0);
+    return output;
+  }
+
+  /**
+   * Serializes record into dst starting at offset. Assumes that the record
+   * corresponds to the schema this codec was built from.
+   *
+   * @param record the record to encode
+   * @param dst the buffer to write into
+   * @param offset the position in dst where the record starts
+   */
+  public void encode(Record record, byte[] dst, int offset) {
+    List<DataType> values = record.getValues();
+
+    for (int i = 0; i < this.types.length; i++) {
+      encodeField(values.get(i), i, dst, offset);
+    }
+  }
+
+  /**
+   * Serializes a single field value of a record into dst.
+   *
+   * @param value the value to encode
+   * @param field the index of the field in the schema
+   * @param dst the buffer holding the record
+   * @param offset the position in dst where the record starts
+   */
+  public void encodeField(DataType value, int field, byte[] dst, int offset) {
+    int pos = offset + this.offsets[field];
+
+    switch (this.types[field]) {
+      case BOOL:
+        dst[pos] = value.getBool() ? (byte) 1 : (byte) 0;
+        break;
+      case INT:
+        writeInt(dst, pos, value.getInt());
+        break;
+      case FLOAT:
+        writeInt(dst, pos, Float.floatToIntBits(value.getFloat()));
+        break;
+      case STRING:
+        if (this.dictionaries[field] != null) {
+          writeInt(dst, pos, this.dictionaries[field].encode(value.getString()));
+        } else {
+          writeString(value.getString(), dst, pos, this.sizes[field]);
+        }
+        break;
+    }
+  }
+
+  /**
+   * Deserializes the record stored in src starting at offset. The record is
+   * returned byte-backed: only its bytes are copied, and its fields are decoded
+   * when they are accessed.
+   *
+   * @param src the buffer holding the record
+   * @param offset the position in src where the record starts
+   * @return the decoded Record
+   */
+  public Record decode(byte[] src, int offset) {
+    return new Record(this, Arrays.copyOfRange(src, offset, offset + this.size));
+  }
+
+  /**
+   * Deserializes a single field of the record stored in src starting at offset.
+   *
+   * @param src the buffer holding the record
+   * @param offset the position in src where the record starts
+   * @param field the index of the field in the schema
+   * @return the decoded value
+   */
+  public DataType decodeField(byte[] src, int offset, int field) {
+    int pos = offset + this.offsets[field];
+
+    switch (this.types[field]) {
+      case BOOL:
+        return new BoolDataType(src[pos] != 0);
+      case INT:
+        return new IntDataType(readInt(src, pos));
+      case FLOAT:
+        return new FloatDataType(Float.intBitsToFloat(readInt(src, pos)));
+      case STRING:
+        if (this.dictionaries[field] != null) {
+          String value = this.dictionaries[field].decode(readInt(src, pos));
+          return new StringDataType(value, value.length());
+        }
+        return new StringDataType(src, pos, this.sizes[field]);
+      default:
+        throw new DataTypeException("Unknown type in schema: " + this.types[field]);
+    }
+  }
+
+  static int readInt(byte[] src, int pos) {
+    return ((src[pos] & 0xFF) << 24)
+        | ((src[pos + 1] & 0xFF) << 16)
+        | ((src[pos + 2] & 0xFF) << 8)
+        | (src[pos + 3] & 0xFF);
+  }
+
+  static void writeInt(byte[] dst, int pos, int value) {
+    dst[pos] = (byte) (value >>> 24);
+    dst[pos + 1] = (byte) (value >>> 16);
+    dst[pos + 2] = (byte) (value >>> 8);
+    dst[pos + 3] = (byte) value;
+  }
+
+  /**
+   * Writes a fixed-length string. Plain ASCII strings are copied char by char;
+   * anything else falls back to a UTF-8 encode of the whole string.
+   */
+  private static void writeString(String s, byte[] dst, int pos, int len) {
+    if (s.length() == len) {
+      int i = 0;
+      while (i < len && s.charAt(i) < 0x80) {
+        dst[pos + i] = (byte) s.charAt(i);
+        i++;
+      }
+      if (i == len) {
+        return;
+      }
+    }
+
+    byte[] bytes = s.getBytes(StringDataType.UTF8);
+    System.arraycopy(bytes, 0, dst, pos, Math.min(len, bytes.length));
+  }
+}
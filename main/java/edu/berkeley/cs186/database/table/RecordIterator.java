@@ -1,40 +1,57 @@
 package edu.berkeley.cs186.database.table;
 
 import edu.berkeley.cs186.database.DatabaseException;
-  
+
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
  * An implementation of Iterator that takes in a RecordID iterator provides iteration over Records
  *
+ * RecordIDs are pulled from the underlying iterator BATCH_SIZE at a time and fetched together with
+ * Table#getRecords, so records that share a page cost one page fetch per batch rather than one per
+ * record. Records are still returned in the order of the RecordIDs.
  */
 public class RecordIterator implements Iterator<Record> {
+  public static final int BATCH_SIZE = 256;
+
   private Iterator<RecordID> recordIDIter;
-  private Table table; 
-  
+  private Table table;
+  private Iterator<Record> batch;
+
   public RecordIterator(Table table, Iterator<RecordID> recIDIter) {
     this.recordIDIter = recIDIter;
     this.table = table;
+    this.batch = null;
   }
 
   public boolean hasNext() {
-    return recordIDIter.hasNext();
+    return (batch != null && batch.hasNext()) || recordIDIter.hasNext();
   }
 
   public Record next() {
-    if (hasNext()) {
+    if (batch == null || !batch.hasNext()) {
+      List<RecordID> rids = new ArrayList<RecordID>(BATCH_SIZE);
+      while (rids.size() < BATCH_SIZE && recordIDIter.hasNext()) {
+        rids.add(recordIDIter.next());
+      }
+
+      if (rids.isEmpty()) {
+        throw new NoSuchElementException();
+      }
+
       try {
-        return table.getRecord(recordIDIter.next());
+        batch = table.getRecords(rids).iterator();
       } catch (DatabaseException e) {
         throw new NoSuchElementException();
       }
     }
-    throw new NoSuchElementException();
+    return batch.next();
   }
 
   public void remove() {
     throw new UnsupportedOperationException();
   }
 }
-
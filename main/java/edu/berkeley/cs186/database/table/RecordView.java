@@ -0,0 +1,287 @@
+package edu.berkeley.cs186.database.table;
+
+import edu.berkeley.cs186.database.datatypes.*;
+import edu.berkeley.cs186.database.query.QueryPlan;
+
+/**
+ * A flyweight over the bytes of a single encoded record. A RecordView does not
+ * copy or decode the record it points at; each field is decoded only when it
+ * is accessed, using the offsets of the schema's RecordCodec. The typed
+ * accessors and comparisons below do not allocate, so operators that reject
+ * most of their input (e.g. a WHERE) never build a Record for rejected rows.
+ *
+ * Views are meant to be reused: an iterator of views typically moves a single
+ * view from record to record and reuses the underlying buffer from page to
+ * page. A view (and any field it hands out as a primitive) is therefore only
+ * valid until the iterator that produced it advances. Call materialize() for
+ * any row that needs to outlive that.
+ *
+ * Dictionary-encoded STRING fields are compared for equality on their codes:
+ * the value compared against is looked up in the dictionary once, and then
+ * every row only compares an int.
+ *
+ * Properties:
+ * `codec`: the codec describing the layout of the viewed record
+ * `buf`: the bytes holding the record
+ * `offset`: the position in buf where the record starts
+ * `pageNum`: the data page of the viewed record, or -1 if it is not known
+ * `slot`: the slot of the viewed record on its page
+ * `lookupField`: the field whose dictionary was looked up last
+ * `lookupValue`: the value whose dictionary code was looked up last
+ * `lookupCode`: the dictionary code of lookupValue
+ */
+public class RecordView {
+  private RecordCodec codec;
+  private byte[] buf;
+  private int offset;
+  private int pageNum;
+  private int slot;
+  private int lookupField;
+  private DataType lookupValue;
+  private int lookupCode;
+
+  public RecordView(RecordCodec codec) {
+    this(codec, null, 0);
+  }
+
+  public RecordView(RecordCodec codec, byte[] buf, int offset) {
+    this.codec = codec;
+    this.buf = buf;
+    this.offset = offset;
+    this.pageNum = -1;
+    this.slot = -1;
+    this.lookupField = -1;
+    this.lookupValue = null;
+    this.lookupCode = -1;
+  }
+
+  /**
+   * Points this view at the record stored in buf starting at offset.
+   *
+   * @param buf the bytes holding the record
+   * @param offset the position in buf where the record starts
+   */
+  public void moveTo(byte[] buf, int offset) {
+    this.moveTo(buf, offset, -1, -1);
+  }
+
+  /**
+   * Points this view at the record stored in buf starting at offset, which is
+   * the record in the given slot of the given data page of its table.
+   *
+   * @param buf the bytes holding the record
+   * @param offset the position in buf where the record starts
+   * @param pageNum the data page of the record
+   * @param slot the slot of the record on its page
+   */
+  public void moveTo(byte[] buf, int offset, int pageNum, int slot) {
+    this.buf = buf;
+    this.offset = offset;
+    this.pageNum = pageNum;
+    this.slot = slot;
+  }
+
+  /**
+   * @return the RecordID of the viewed record, or null if the view was not
+   *         moved over the pages of a table
+   */
+  public RecordID getRecordID() {
+    if (this.pageNum == -1) {
+      return null;
+    }
+    return new RecordID(this.pageNum, this.slot);
+  }
+
+  public int getNumFields() {
+    return this.codec.getNumFields();
+  }
+
+  public DataType.Types getType(int field) {
+    return this.codec.getType(field);
+  }
+
+  public int getInt(int field) {
+    return RecordCodec.readInt(this.buf, this.offset + this.codec.getOffset(field));
+  }
+
+  public float getFloat(int field) {
+    return Float.intBitsToFloat(this.getInt(field));
+  }
+
+  public boolean getBool(int field) {
+    return this.buf[this.offset + this.codec.getOffset(field)] != 0;
+  }
+
+  public String getString(int field) {
+    StringDictionary dictionary = this.codec.getDictionary(field);
+    if (dictionary != null) {
+      return dictionary.decode(this.getCode(field));
+    }
+
+    int pos = this.offset + this.codec.getOffset(field);
+    return new String(this.buf, pos, this.codec.getSize(field), StringDataType.UTF8);
+  }
+
+  /**
+   * @param field the index of the field
+   * @return whether the field is stored as a dictionary code
+   */
+  public boolean isDictionaryEncoded(int field) {
+    return this.codec.getDictionary(field) != null;
+  }
+
+  /**
+   * Reads the dictionary code of a dictionary-encoded field. Within a table,
+   * two values of the field are equal exactly when their codes are.
+   *
+   * @param field the index of the field
+   * @return the code of the field's value
+   */
+  public int getCode(int field) {
+    return this.getInt(field);
+  }
+
+  /**
+   * Decodes a single field into a DataType.
+   *
+   * @param field the index of the field
+   * @return the decoded value
+   */
+  public DataType get(int field) {
+    return this.codec.decodeField(this.buf, this.offset, field);
+  }
+
+  /**
+   * Compares a field against value without decoding the field. The sign of
+   * the result agrees with get(field).compareTo(value).
+   *
+   * @param field the index of the field
+   * @param value the value to compare against
+   * @return a negative number, zero, or a positive number as the field is less
+   *         than, equal to, or greater than value
+   * @throws DataTypeException if value is not of the field's type
+   */
+  public int compareTo(int field, DataType value) {
+    DataType.Types type = this.codec.getType(field);
+
+    if (value.type() != type) {
+      throw new DataTypeException("Invalid Comparsion");
+    }
+
+    switch (type) {
+      case BOOL:
+        return Boolean.compare(this.getBool(field), value.getBool());
+      case INT:
+        return Integer.compare(this.getInt(field), value.getInt());
+      case FLOAT:
+        return Float.compare(this.getFloat(field), value.getFloat());
+      case STRING:
+        return this.compareString(field, value.getString());
+      default:
+        throw new DataTypeException("Unknown type in schema: " + type);
+    }
+  }
+
+  /**
+   * Checks whether a field equals value, with the semantics of
+   * get(field).equals(value), without decoding the field.
+   *
+   * @param field the index of the field
+   * @param value the value to compare against
+   * @return true if the field equals value
+   */
+  public boolean fieldEquals(int field, DataType value) {
+    DataType.Types type = this.codec.getType(field);
+
+    if (value.type() != type) {
+      return false;
+    }
+
+    switch (type) {
+      case FLOAT:
+        return this.getFloat(field) == value.getFloat();
+      case STRING:
+        if (this.isDictionaryEncoded(field)) {
+          return this.getCode(field) == this.lookupCode(field, value);
+        }
+        return this.compareTo(field, value) == 0;
+      default:
+        return this.compareTo(field, value) == 0;
+    }
+  }
+
+  /**
+   * Evaluates a single column predicate against the viewed record without
+   * decoding it. Equality follows DataType.equals and the ordered comparisons
+   * follow the sign of DataType.compareTo.
+   *
+   * @param field the index of the field
+   * @param predicate the comparator
+   * @param value the value to compare against
+   * @return true if the field satisfies the predicate
+   */
+  public boolean satisfies(int field, QueryPlan.PredicateOperator predicate, DataType value) {
+    switch (predicate) {
+      case EQUALS:
+        return this.fieldEquals(field, value);
+      case NOT_EQUALS:
+        return !this.fieldEquals(field, value);
+      default:
+        return predicate.evaluate(this.compareTo(field, value));
+    }
+  }
+
+  /**
+   * Decodes every field of the viewed record into a new Record that does not
+   * reference the underlying buffer.
+   *
+   * @return the materialized Record
+   */
+  public Record materialize() {
+    return this.codec.decode(this.buf, this.offset);
+  }
+
+  /**
+   * Looks up the dictionary code of value, reusing the last lookup when the
+   * same field is compared against the same value again.
+   *
+   * @return the code of value, or -1 if value is not in the dictionary
+   */
+  private int lookupCode(int field, DataType value) {
+    if (field != this.lookupField || value != this.lookupValue) {
+      this.lookupCode = this.codec.getDictionary(field).lookup(value.getString());
+      this.lookupField = field;
+      this.lookupValue = value;
+    }
+    return this.lookupCode;
+  }
+
+  /**
+   * Compares a string field with s the way String.compareTo would compare the
+   * decoded field. ASCII bytes are compared in place; the first non-ASCII
+   * character on either side falls back to decoding the field.
+   */
+  private int compareString(int field, String s) {
+    if (this.isDictionaryEncoded(field)) {
+      return this.getString(field).compareTo(s);
+    }
+
+    int pos = this.offset + this.codec.getOffset(field);
+    int len = this.codec.getSize(field);
+    int n = Math.min(len, s.length());
+
+    for (int i = 0; i < n; i++) {
+      byte b = this.buf[pos + i];
+      char c = s.charAt(i);
+
+      if (b < 0 || c >= 0x80) {
+        return this.getString(field).compareTo(s);
+      }
+      if (b != c) {
+        return b - c;
+      }
+    }
+
+    return len - s.length();
+  }
+}
@@ -2,9 +2,6 @@ package edu.berkeley.cs186.database.table;
 
 import edu.berkeley.cs186.database.datatypes.*;
 
-import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -14,22 +11,21 @@ import java.util.List;
  * `fields`: an ordered list of column names
  * `fieldTypes`: an ordered list of data types corresponding to the columns
  * `size`: physical size (in bytes) of a record conforming to this schema
+ * `codec`: the serializer for records conforming to this schema, built once
  */
 public class Schema {
   private List<String> fields;
   private List<DataType> fieldTypes;
   private int size;
+  private RecordCodec codec;
 
   public Schema(List<String> fields, List<DataType> fieldTypes) {
     assert(fields.size() == fieldTypes.size());
 
     this.fields = fields;
     this.fieldTypes = fieldTypes;
-    this.size = 0;
-
-    for (DataType dt : fieldTypes) {
-      this.size += dt.getSize();
-    }
+    this.codec = new RecordCodec(fieldTypes);
+    this.size = this.codec.getEntrySize();
   }
 
   /**
@@ -63,22 +59,17 @@ public class Schema {
   }
 
   /**
-   * Serializes the provided record into a byte[]. Uses the DataTypes's
-   * serialization methods. A serialized record is represented as the
-   * concatenation of each serialized DataType. This method assumes that the
-   * input record corresponds to this schema.
+   * Serializes the provided record into a byte[]. A serialized record is
+   * represented as the concatenation of each serialized DataType. This method
+   * assumes that the input record corresponds to this schema.
    *
    * @param record the record to encode
    * @return the encoded record as a byte[]
    */
   public byte[] encode(Record record) {
-    //TODO: Implement Me!!
-      List<DataType> lst = record.getValues();
-      ByteBuffer buff = ByteBuffer.allocate(this.getEntrySize());
-      for (int i = 0; i < lst.size(); i++) {
-          buff.put(lst.get(i).getBytes());
-      }
-    return buff.array();
+    byte[] output = new byte[this.size];
+    this.codec.encode(record, output, 0);
+    return output;
   }
 
   /**
@@ -89,34 +80,23 @@ public class Schema {
    * @return the decoded Record
    */
   public Record decode(byte[] input) {
-    //TODO: Implement Me!!
-      List<DataType> names = this.getFieldTypes();
-      List<DataType> ft = this.getFieldTypes();
-      List<DataType> datatypes = new ArrayList<DataType>();
-      for (int i = 0, j = 0, chunk=0; i < this.getEntrySize(); i+=chunk, j++) {
-          DataType.Types StrType = names.get(j).type();
-          if (StrType.toString().equals("BOOL")) {
-              chunk = ft.get(j).getSize();
-              BoolDataType type = new BoolDataType(Arrays.copyOfRange(input, i, i+chunk));
-              datatypes.add(type);
-          } else if (StrType.toString().equals("FLOAT")) {
-              chunk = ft.get(j).getSize();
-              FloatDataType type = new FloatDataType(Arrays.copyOfRange(input, i, i+chunk));
-              datatypes.add(type);
-          } else if (StrType.toString().equals("INT")) {
-              chunk = ft.get(j).getSize();
-              IntDataType type = new IntDataType(Arrays.copyOfRange(input, i, i+chunk));
-              datatypes.add(type);
-          } else if (StrType.toString().equals("STRING")) {
-              chunk = ft.get(j).getSize();
-              StringDataType type = new StringDataType(Arrays.copyOfRange(input, i, i+chunk));
-              datatypes.add(type);
-          } else {
-              System.out.print(StrType);
-              System.out.println("what the hell datatype is this");
-          }
-      }
-      return new Record(datatypes);
+    return this.codec.decode(input, 0);
+  }
+
+  /**
+   * Decodes the record stored in input starting at offset, without copying it
+   * out first.
+   *
+   * @param input the byte array holding the record
+   * @param offset the position in input where the record starts
+   * @return the decoded Record
+   */
+  public Record decode(byte[] input, int offset) {
+    return this.codec.decode(input, offset);
+  }
+
+  public RecordCodec getCodec() {
+    return this.codec;
   }
 
   public int getEntrySize() {
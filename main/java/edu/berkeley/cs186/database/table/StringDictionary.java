@@ -0,0 +1,154 @@
+package edu.berkeley.cs186.database.table;
+
+import edu.berkeley.cs186.database.datatypes.StringDataType;
+import edu.berkeley.cs186.database.io.PageException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The dictionary of a dictionary-encoded STRING column. Every distinct value of the column is
+ * assigned a code, in the order the values are first inserted, and rows store the 4 byte code
+ * instead of the padded string. Two values of the column are equal exactly when their codes are,
+ * so equality checks and hashing can be done on the codes; codes don't preserve the order of the
+ * strings, though, so range comparisons still decode them.
+ *
+ * The dictionaries of a table share one append-only file. Each entry in it is the field index,
+ * the byte length of the value and the UTF-8 bytes of the value, and an entry is forced to disk
+ * before the code it assigns is written into any page.
+ *
+ * Properties:
+ * `field`: the index of the column in the table's schema
+ * `file`: the dictionary file of the table
+ * `values`: the value of every code, indexed by code
+ * `codes`: the code of every value
+ */
+public class StringDictionary {
+  private static final int ENTRY_HEADER_SIZE = 8;
+
+  private int field;
+  private FileChannel file;
+  private List<String> values;
+  private ConcurrentHashMap<String, Integer> codes;
+
+  public StringDictionary(int field, FileChannel file) {
+    this.field = field;
+    this.file = file;
+    this.values = new ArrayList<String>();
+    this.codes = new ConcurrentHashMap<String, Integer>();
+  }
+
+  /**
+   * Returns the code of a value, assigning it a new code and appending it to the dictionary file
+   * if the value has not been seen before.
+   *
+   * @param value the value to encode
+   * @return the code of value
+   */
+  public synchronized int encode(String value) {
+    Integer code = this.codes.get(value);
+    if (code != null) {
+      return code;
+    }
+
+    byte[] bytes = value.getBytes(StringDataType.UTF8);
+    ByteBuffer entry = ByteBuffer.allocate(ENTRY_HEADER_SIZE + bytes.length);
+    entry.putInt(this.field).putInt(bytes.length).put(bytes);
+    entry.flip();
+
+    // entries of every dictionary of the table are appended to the same file
+    synchronized (this.file) {
+      try {
+        long offset = this.file.size();
+        while (entry.hasRemaining()) {
+          this.file.write(entry, offset + entry.position());
+        }
+        this.file.force(false);
+      } catch (IOException e) {
+        throw new PageException("Could not write dictionary entry: " + e.getMessage());
+      }
+    }
+
+    return this.add(value);
+  }
+
+  /**
+   * @param value the value to look up
+   * @return the code of value, or -1 if value is not in the dictionary
+   */
+  public int lookup(String value) {
+    Integer code = this.codes.get(value);
+    return code == null ? -1 : code;
+  }
+
+  /**
+   * @param code a code assigned by this dictionary
+   * @return the value with that code
+   */
+  public synchronized String decode(int code) {
+    return this.values.get(code);
+  }
+
+  /**
+   * @return the number of distinct values in the dictionary
+   */
+  public synchronized int size() {
+    return this.values.size();
+  }
+
+  private synchronized int add(String value) {
+    int code = this.values.size();
+    this.values.add(value);
+    this.codes.put(value, code);
+    return code;
+  }
+
+  /**
+   * Reads the entries of a dictionary file into the dictionaries of its table.
+   *
+   * @param file the dictionary file of the table
+   * @param dictionaries the dictionary of every field of the table, null for fields that are not
+   *                     dictionary-encoded
+   */
+  public static void load(FileChannel file, List<StringDictionary> dictionaries) {
+    try {
+      long offset = 0;
+      long size = file.size();
+      ByteBuffer header = ByteBuffer.allocate(ENTRY_HEADER_SIZE);
+
+      while (offset + ENTRY_HEADER_SIZE <= size) {
+        header.clear();
+        while (header.hasRemaining()) {
+          file.read(header, offset + header.position());
+        }
+        int field = header.getInt(0);
+        int length = header.getInt(4);
+
+        // an entry cut short by a crash was never referenced by a page
+        if (length < 0 || offset + ENTRY_HEADER_SIZE + length > size) {
+          break;
+        }
+
+        ByteBuffer bytes = ByteBuffer.allocate(length);
+        while (bytes.hasRemaining()) {
+          file.read(bytes, offset + ENTRY_HEADER_SIZE + bytes.position());
+        }
+        dictionaries.get(field).add(new String(bytes.array(), StringDataType.UTF8));
+        offset += ENTRY_HEADER_SIZE + length;
+      }
+
+      // drop a torn last entry, so that new entries are appended right after
+      // the last complete one instead of after bytes no load can read past
+      if (offset < size) {
+        file.truncate(offset);
+        file.force(false);
+      }
+    } catch (IOException e) {
+      throw new PageException("Could not read dictionary file: " + e.getMessage());
+    }
+  }
+}
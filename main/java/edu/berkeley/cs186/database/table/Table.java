@@ -9,14 +9,19 @@ import edu.berkeley.cs186.database.datatypes.StringDataType;
 import edu.berkeley.cs186.database.io.PageAllocator;
 import edu.berkeley.cs186.database.io.Page;
 import edu.berkeley.cs186.database.io.PageException;
+import edu.berkeley.cs186.database.query.QueryPlan.PredicateOperator;
 import edu.berkeley.cs186.database.table.stats.TableStats;
+import edu.berkeley.cs186.database.table.stats.ZoneMap;
 
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.file.Paths;
 import java.util.*;
 
 import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 
 /**
  * A database table. Allows the user to add, delete, update, and get records.
@@ -26,22 +31,48 @@ import java.io.Closeable;
  *
  * Properties:
  * `schema`: the Schema (column names and column types) for this table
- * `freePages`: a set of page numbers that correspond to allocated pages with free space
+ * `freeSpace`: the number of free slots on each data page, bucketed by fill class
  * `stats`: the TableStats for this table
+ * `zoneMaps`: a per data page min/max summary of every column, used to skip pages during scans
  * `allocator`: the PageAllocator for this table
  * `tableName`: name of this table
  * `numEntriesPerPage`: number of records a data page of this table can hold
  * `pageHeaderSize`: physical size (in bytes) of a page header slot bitmap
  * `numRecords`: number of records currently contained in this table
+ * `appendOnly`: whether records can only be appended, and never deleted or updated
+ * `tailPage`: the data page an append-only table appends to, or null if it has no data pages
+ * `tailSlot`: the next free slot on the tail page of an append-only table
+ * `dictionaryColumns`: the indices of the dictionary-encoded STRING columns
+ * `dictionaries`: the StringDictionary of every column, null for columns that aren't encoded
+ * `dictionaryFile`: the file the dictionaries are stored in, or null if there are none
+ * `codec`: the serializer for the records as they are stored on the data pages
+ *
+ * An append-only table is declared when the table is created, and the flag is
+ * stored in the header page after the schema. Records are only ever written to
+ * its tail page, which the table keeps a reference to, and slots are handed out
+ * in order by a counter, so inserts never consult this.freeSpace or scan a slot
+ * bitmap. Once the tail page is full it is sealed: it is never written again,
+ * so readers of sealed pages skip the page latch, and they can be stored
+ * compressed with compressSealedPages(), under the table's exclusive lock.
+ *
+ * STRING columns can be declared dictionary-encoded when the table is created.
+ * Their values are stored in the rows as 4 byte codes, which shrinks the rows of
+ * wide, low-cardinality columns, and the dictionaries live in a side file named
+ * after the table file with DICTIONARY_EXTENSION appended. The header page lists
+ * the encoded columns after the flags. Records passed in and out of the table
+ * hold the decoded strings, so only this.codec knows about the encoding.
  */
 public class Table implements Iterable<Record>, Closeable {
   public static final String FILENAME_PREFIX = "db";
   public static final String FILENAME_EXTENSION = ".table";
+  public static final String DICTIONARY_EXTENSION = ".dict";
+  public static final int APPEND_ONLY_FLAG = 0x1;
 
   private Schema schema;
-  private TreeSet<Integer> freePages;
+  private FreeSpaceMap freeSpace;
 
   private TableStats stats;
+  private TreeMap<Integer, ZoneMap> zoneMaps;
 
   private PageAllocator allocator;
   private String tableName;
@@ -50,6 +81,16 @@ public class Table implements Iterable<Record>, Closeable {
   private int pageHeaderSize;
   private long numRecords;
 
+  private boolean appendOnly;
+  private Page tailPage;
+  private volatile int tailPageNum;
+  private int tailSlot;
+
+  private List<Integer> dictionaryColumns;
+  private List<StringDictionary> dictionaries;
+  private FileChannel dictionaryFile;
+  private RecordCodec codec;
+
   public Table(String tableName) {
     this(tableName, FILENAME_PREFIX);
   }
@@ -60,48 +101,56 @@ public class Table implements Iterable<Record>, Closeable {
     String pathname = Paths.get(filenamePrefix, tableName + FILENAME_EXTENSION).toString();
     this.allocator = new PageAllocator(pathname, false);
     this.readHeaderPage();
+    this.openDictionaries(pathname, false);
 
     this.stats = new TableStats(this.schema);
+    this.zoneMaps = new TreeMap<Integer, ZoneMap>();
 
-    this.freePages = new TreeSet<Integer>();
     this.setEntryCounts();
+    this.freeSpace = new FreeSpaceMap(this.numEntriesPerPage);
     Iterator<Page> pIter = this.allocator.iterator();
     pIter.next();
 
     long freshCountRecords = 0;
+    this.tailPage = null;
+    this.tailPageNum = -1;
+    this.tailSlot = 0;
 
     while(pIter.hasNext()) {
       Page p = pIter.next();
 
-      // add all records in this page to TableStats
+      // add all records in this page to TableStats, decoding each record
+      // directly out of a single copy of the page
       int entryNum = 0;
-      byte[] header = this.readPageHeader(p);
+      byte[] bytes = p.readBytes();
+      int entrySize = this.codec.getEntrySize();
       while (entryNum < this.numEntriesPerPage) {
-        byte b = header[entryNum/8];
+        byte b = bytes[entryNum/8];
         int bitOffset = 7 - (entryNum % 8);
         byte mask = (byte) (1 << bitOffset);
 
         byte value = (byte) (b & mask);
         if (value != 0) {
-          int entrySize = this.schema.getEntrySize();
-
           int offset = this.pageHeaderSize + (entrySize * entryNum);
-          byte[] bytes = p.readBytes(offset, entrySize);
-
-          Record record = this.schema.decode(bytes);
-          entryNum++;
+          Record record = this.codec.decode(bytes, offset);
 
           this.stats.addRecord(record);
+          this.getZoneMap(p.getPageNum()).widen(record);
         }
 
         entryNum++;
       }
 
-      if (spaceOnPage(p)) {
-        this.freePages.add(p.getPageNum());
+      int numValid = numValidEntries(p);
+      if (this.appendOnly) {
+        // nothing is ever deleted, so the last page's slots are filled in order
+        this.tailPage = p;
+        this.tailPageNum = p.getPageNum();
+        this.tailSlot = numValid;
+      } else {
+        this.freeSpace.update(p.getPageNum(), this.numEntriesPerPage - numValid);
       }
-
-      freshCountRecords += numValidEntries(p);
+      freshCountRecords += numValid;
     }
 
     this.numRecords = freshCountRecords;
@@ -119,27 +168,209 @@ public class Table implements Iterable<Record>, Closeable {
    * @param filenamePrefix the prefix where the table's files will be created
    */
   public Table(Schema schema, String tableName, String filenamePrefix) {
+    this(schema, tableName, filenamePrefix, false);
+  }
+
+  /**
+   * This constructor is used for creating a table in some specified directory,
+   * optionally as an append-only table.
+   *
+   * @param schema the schema for this table
+   * @param tableName the name of the table
+   * @param filenamePrefix the prefix where the table's files will be created
+   * @param appendOnly whether records can only be appended to this table
+   */
+  public Table(Schema schema, String tableName, String filenamePrefix, boolean appendOnly) {
+    this(schema, tableName, filenamePrefix, appendOnly, new ArrayList<String>());
+  }
+
+  /**
+   * This constructor is used for creating a table in some specified directory,
+   * optionally as an append-only table, with some of its STRING columns
+   * dictionary-encoded.
+   *
+   * @param schema the schema for this table
+   * @param tableName the name of the table
+   * @param filenamePrefix the prefix where the table's files will be created
+   * @param appendOnly whether records can only be appended to this table
+   * @param dictionaryColumns the names of the STRING columns to dictionary-encode
+   */
+  public Table(Schema schema, String tableName, String filenamePrefix, boolean appendOnly,
+               List<String> dictionaryColumns) {
     this.schema = schema;
     this.tableName = tableName;
+    this.appendOnly = appendOnly;
+    this.dictionaryColumns = new ArrayList<Integer>();
+    for (String column : dictionaryColumns) {
+      this.dictionaryColumns.add(schema.getFieldNames().indexOf(column));
+    }
+    this.tailPage = null;
+    this.tailPageNum = -1;
+    this.tailSlot = 0;
     this.stats = new TableStats(this.schema);
+    this.zoneMaps = new TreeMap<Integer, ZoneMap>();
 
-    this.freePages = new TreeSet<Integer>();
     String pathname = Paths.get(filenamePrefix, tableName + FILENAME_EXTENSION).toString();
     this.allocator = new PageAllocator(pathname, true);
+    this.openDictionaries(pathname, true);
 
     this.setEntryCounts();
+    this.freeSpace = new FreeSpaceMap(this.numEntriesPerPage);
 
     this.writeHeaderPage();
   }
 
   public void close() {
     allocator.close();
+    if (this.dictionaryFile != null) {
+      try {
+        this.dictionaryFile.close();
+      } catch (IOException e) {
+        throw new PageException("Could not close dictionary file: " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Opens the dictionaries of the dictionary-encoded columns and builds
+   * this.codec, which stores those columns as codes.
+   *
+   * @param pathname the path of the table file
+   * @param wipe whether to start with empty dictionaries
+   */
+  private void openDictionaries(String pathname, boolean wipe) {
+    int numFields = this.schema.getFieldNames().size();
+    this.dictionaries = new ArrayList<StringDictionary>(Collections.<StringDictionary>nCopies(numFields, null));
+    this.dictionaryFile = null;
+
+    if (this.dictionaryColumns.isEmpty()) {
+      this.codec = this.schema.getCodec();
+      return;
+    }
+
+    try {
+      this.dictionaryFile = new RandomAccessFile(pathname + DICTIONARY_EXTENSION, "rw").getChannel();
+      if (wipe) {
+        this.dictionaryFile.truncate(0);
+      }
+    } catch (IOException e) {
+      throw new PageException("Could not open dictionary file: " + e.getMessage());
+    }
+
+    for (int column : this.dictionaryColumns) {
+      this.dictionaries.set(column, new StringDictionary(column, this.dictionaryFile));
+    }
+    if (!wipe) {
+      StringDictionary.load(this.dictionaryFile, this.dictionaries);
+    }
+
+    this.codec = new RecordCodec(this.schema.getFieldTypes(), this.dictionaries);
+  }
+
+  /**
+   * @param column the index of a column
+   * @return the dictionary of the column, or null if it isn't dictionary-encoded
+   */
+  public StringDictionary getDictionary(int column) {
+    return this.dictionaries.get(column);
   }
 
   public Iterator<Record> iterator() {
       return new TableIterator();
   }
 
+  /**
+   * Returns an iterator of RecordViews over all of the records in this table.
+   * The iterator yields the same view object for every record and reuses one
+   * page buffer, so each view is only valid until the next call to next().
+   *
+   * @return an iterator of views over this table's records
+   */
+  public Iterator<RecordView> viewIterator() {
+    return new TableViewIterator();
+  }
+
+  /**
+   * Returns an iterator of RecordViews over the records on the pages that may
+   * satisfy all of the given predicates, skipping pages whose zone map rules
+   * them out. The i-th predicate is columns[i] predicates[i] values[i]. The
+   * views still have to be checked against the predicates by the caller.
+   *
+   * @return an iterator of views over the candidate pages of this table
+   */
+  public Iterator<RecordView> viewIterator(List<Integer> columns,
+                                           List<PredicateOperator> predicates,
+                                           List<DataType> values) {
+    List<Integer> pageNums = this.getCandidatePages(columns, predicates, values);
+    return new TableViewIterator(new PageNumIterator(pageNums.iterator()));
+  }
+
+  /**
+   * Counts the data pages that may hold a record satisfying all of the given
+   * predicates, according to the pages' zone maps.
+   *
+   * @return the number of pages a filtered scan would have to read
+   */
+  public int getNumCandidatePages(List<Integer> columns,
+                                  List<PredicateOperator> predicates,
+                                  List<DataType> values) {
+    return this.getCandidatePages(columns, predicates, values).size();
+  }
+
+  /**
+   * Returns an iterator of RecordViews over the records on the given data
+   * pages, in the order the pages are listed. Like viewIterator(), the
+   * iterator reuses a single view and page buffer, but separate iterators
+   * share nothing, so different threads may each iterate over their own.
+   *
+   * @param pageNums the data pages to read
+   * @return an iterator of views over the records on those pages
+   */
+  public Iterator<RecordView> viewIterator(List<Integer> pageNums) {
+    return new TableViewIterator(new PageNumIterator(pageNums.iterator()));
+  }
+
+  /**
+   * Lists the data pages that may hold a record satisfying all of the given
+   * predicates, according to the pages' zone maps. With no predicates, this
+   * lists every data page that holds records.
+   *
+   * @return the page numbers of the candidate pages, in increasing order
+   */
+  public List<Integer> getCandidatePages(List<Integer> columns,
+                                         List<PredicateOperator> predicates,
+                                         List<DataType> values) {
+    List<Integer> pageNums = new ArrayList<Integer>();
+
+    synchronized (this) {
+      for (Map.Entry<Integer, ZoneMap> entry : this.zoneMaps.entrySet()) {
+        if (entry.getValue().mayMatch(columns, predicates, values)) {
+          pageNums.add(entry.getKey());
+        }
+      }
+    }
+
+    return pageNums;
+  }
+
+  /**
+   * Gets the zone map for a data page, creating an empty one if the page has
+   * not been summarized yet. Callers hold the table's monitor.
+   *
+   * @param pageNum the page number
+   * @return the ZoneMap for that page
+   */
+  private ZoneMap getZoneMap(int pageNum) {
+    ZoneMap zoneMap = this.zoneMaps.get(pageNum);
+
+    if (zoneMap == null) {
+      zoneMap = new ZoneMap(this.schema.getFieldTypes().size());
+      this.zoneMaps.put(pageNum, zoneMap);
+    }
+
+    return zoneMap;
+  }
+
   public Iterator<Page> pageIterator() {
     return this.allocator.iterator();
   }
@@ -149,7 +380,7 @@ public class Table implements Iterable<Record>, Closeable {
    * free slot of the first free page if one exists, otherwise a new page should
    * be allocated and the record should be placed in the first slot of that
    * page. Recall that a free slot in the slot bitmap means the bit is set to 0.
-   * Make sure to update this.stats, this.freePages, and this.numRecords as
+   * Make sure to update this.stats, this.freeSpace, and this.numRecords as
    * necessary.
    *
    * @param values the values of the record being added
@@ -165,38 +396,147 @@ public class Table implements Iterable<Record>, Closeable {
     } catch (SchemaException s) {
         throw new DatabaseException("schema does not match table");
     }
+      if (this.appendOnly) {
+          return appendRecord(record);
+      }
       Page toInsert = getFirstFreePage();
-      int slot = getFirstFreeSlotInHeader(toInsert);
+      byte[] toWrite = this.codec.encode(record);
+      int slot;
+
+      toInsert.latchExclusive();
+      try {
+          slot = getFirstFreeSlotInHeader(toInsert);
+          int offset = pageHeaderSize + slot * codec.getEntrySize();
+
+          toInsert.writeBytes(offset, codec.getEntrySize(), toWrite);
+          writeBitToHeader(toInsert, slot, (byte) 1);
+      } finally {
+          toInsert.unlatchExclusive();
+      }
 
-      byte[] toWrite = this.schema.encode(record);
-      int offset = pageHeaderSize + slot * schema.getEntrySize();
+      // concurrent inserts only latch their own pages
+      synchronized (this) {
+          numRecords++;
+          stats.addRecord(record);
+          getZoneMap(toInsert.getPageNum()).widen(record);
+      }
+      return new RecordID(toInsert.getPageNum(), slot);
+  }
 
-      toInsert.writeBytes(offset, schema.getEntrySize(), toWrite);
-      writeBitToHeader(toInsert, slot, (byte) 1);
-      if (!spaceOnPage(toInsert)) {
-          freePages.remove(toInsert.getPageNum());
+  /**
+   * Appends a record to the tail page of an append-only table, sealing the
+   * tail page and starting a new one when it is full. Since slots are filled
+   * strictly in order, the header byte of the new slot is known without
+   * reading it.
+   *
+   * @param record the verified record to append
+   * @return the RecordID of the appended record
+   */
+  private synchronized RecordID appendRecord(Record record) {
+    if (this.tailPage == null || this.tailSlot == this.numEntriesPerPage) {
+      int pageNum;
+      // the new page becomes the tail before any other thread can check whether
+      // it is sealed, see isSealed
+      synchronized (this.allocator) {
+        pageNum = this.allocator.allocPage();
+        this.tailPageNum = pageNum;
       }
+      this.tailPage = this.allocator.fetchPage(pageNum);
+      this.tailSlot = 0;
+    }
 
-      numRecords++;
-      stats.addRecord(record);
-      return new RecordID(toInsert.getPageNum(), slot);
+    int slot = this.tailSlot;
+    int entrySize = this.codec.getEntrySize();
+    byte headerByte = (byte) (0xFF << (7 - (slot % 8)));
+
+    this.tailPage.latchExclusive();
+    try {
+      this.tailPage.writeBytes(this.pageHeaderSize + slot * entrySize, entrySize, this.codec.encode(record));
+      this.tailPage.writeByte(slot / 8, headerByte);
+    } finally {
+      this.tailPage.unlatchExclusive();
+    }
+    this.tailSlot++;
+
+    this.numRecords++;
+    this.stats.addRecord(record);
+    this.getZoneMap(this.tailPageNum).widen(record);
+    return new RecordID(this.tailPageNum, slot);
+  }
+
+  /**
+   * Checks whether a data page is sealed, i.e. is a full page of an
+   * append-only table that will never be written again. Sealed pages can be
+   * read without taking the page latch. A new tail page is allocated and made
+   * the tail under the allocator's monitor, so a thread that has found the
+   * page sees it as the tail once it gets the monitor.
+   *
+   * @param pageNum the data page
+   * @return true if the page is sealed
+   */
+  private boolean isSealed(int pageNum) {
+    if (!this.appendOnly) {
+      return false;
+    }
+    synchronized (this.allocator) {
+      return pageNum != this.tailPageNum;
+    }
+  }
+
+  public boolean isAppendOnly() {
+    return this.appendOnly;
+  }
+
+  /**
+   * Compresses the sealed pages of an append-only table that aren't stored
+   * compressed yet. Since sealed pages are never written again, they can be
+   * kept in the PageAllocator's compressed extents, and scans of them read
+   * only their compressed bytes. Other tables have no sealed pages.
+   *
+   * The block of a compressed page is reused for new pages, and readers of
+   * sealed pages don't latch them, so no other thread may be using the table
+   * meanwhile: callers must hold the table's exclusive lock (see
+   * Database.Transaction#compressTable).
+   *
+   * @return the number of pages that were compressed
+   */
+  public int compressSealedPages() {
+    int count = 0;
+    if (!this.appendOnly) {
+      return count;
+    }
+
+    Iterator<Page> pIter = this.allocator.iterator();
+    pIter.next();
+    while (pIter.hasNext()) {
+      Page page = pIter.next();
+      int pageNum = page.getPageNum();
+      // a page that isn't full may still be appended to
+      if (isSealed(pageNum) && numValidEntries(page) == this.numEntriesPerPage
+          && this.allocator.compressPage(pageNum)) {
+        count++;
+      }
+    }
+
+    return count;
   }
 
+  /**
+   * Returns a page with a free slot, allocating a new page if no page has room.
+   * The free slot is reserved in this.freeSpace for the caller, which must
+   * then fill it.
+   *
+   * @return a page with at least one slot reserved for the caller
+   */
   public Page getFirstFreePage() {
-    if (freePages.isEmpty()) {
-        int pageNum = allocator.allocPage();
-        freePages.add(pageNum);
-        return allocator.fetchPage(pageNum);
-    }
-    while (!freePages.isEmpty()) {
-        int pageNum = freePages.first();
-        Page p = allocator.fetchPage(pageNum);
-        if (spaceOnPage(p)) {
-            return p;
+    int pageNum = freeSpace.reserve(1);
+    if (pageNum == -1) {
+        synchronized (allocator) {
+            pageNum = allocator.allocPage();
         }
-        freePages.remove(pageNum);
+        freeSpace.update(pageNum, numEntriesPerPage - 1);
     }
-    return getFirstFreePage();
+    return allocator.fetchPage(pageNum);
   }
 
   /*Assumes this method is called with a free page*/
@@ -240,25 +580,36 @@ public class Table implements Iterable<Record>, Closeable {
 
   /**
    * Deletes the record specified by rid from the table. Make sure to update
-   * this.stats, this.freePages, and this.numRecords as necessary.
+   * this.stats, this.freeSpace, and this.numRecords as necessary.
    *
    * @param rid the RecordID of the record to delete
    * @return the Record referenced by rid that was removed
-   * @throws DatabaseException if rid does not correspond to a valid record
+   * @throws DatabaseException if rid does not correspond to a valid record, or
+   *         if this table is append-only
    */
   public Record deleteRecord(RecordID rid) throws DatabaseException {
     //TODO: Implement Me!!
 //    System.out.println("in delete");
+    if (this.appendOnly) {
+      throw new DatabaseException("cannot delete from an append-only table");
+    }
     int pageNum = rid.getPageNum();
     int slotNum = rid.getSlotNumber();
     Record toRtn = this.getRecord(rid);
-    this.stats.removeRecord(toRtn);
-    this.numRecords--;
+    synchronized (this) {
+      this.stats.removeRecord(toRtn);
+      this.numRecords--;
+    }
     Page page = allocator.fetchPage(pageNum);
-    int offset = pageHeaderSize + slotNum * schema.getEntrySize();
-    page.writeBytes(offset, schema.getEntrySize(), new byte[schema.getEntrySize()]);
-    this.writeBitToHeader(page, slotNum, (byte) 0);
-    freePages.add(pageNum);
+    int offset = pageHeaderSize + slotNum * codec.getEntrySize();
+    page.latchExclusive();
+    try {
+      page.writeBytes(offset, codec.getEntrySize(), new byte[codec.getEntrySize()]);
+      this.writeBitToHeader(page, slotNum, (byte) 0);
+    } finally {
+      page.unlatchExclusive();
+    }
+    freeSpace.release(pageNum, 1);
     return toRtn;
   }
 
@@ -272,18 +623,34 @@ public class Table implements Iterable<Record>, Closeable {
   public Record getRecord(RecordID rid) throws DatabaseException {
     //TODO: Implement Me!!
 //      System.out.println(tableName);
-      if (!(checkRecordIDValidity(rid))) {
-          throw new DatabaseException("invalid rid");
-      }
-//      if (rid.getSlotNumber() == 0) {
-//          System.out.println(rid);
-//      }
       int pageNum = rid.getPageNum();
       int slot = rid.getSlotNumber();
-      Page fromPage = this.allocator.fetchPage(pageNum);
-      int offset = (int) (this.pageHeaderSize + this.schema.getEntrySize() * slot);
-      byte[] buf = fromPage.readBytes(offset, schema.getEntrySize());
-      Record toRtn = this.schema.decode(buf);
+      Page fromPage;
+      try {
+          fromPage = this.allocator.fetchPage(pageNum);
+      } catch (PageException p) {
+          throw new DatabaseException("this rid does not reference an existing data page");
+      }
+
+      // check the slot and read the record under one shared latch, so that a
+      // concurrent delete can't slip in between the two
+      byte[] buf;
+      boolean sealed = isSealed(pageNum);
+      if (!sealed) {
+          fromPage.latchShared();
+      }
+      try {
+          if (!isSlotTaken(fromPage, slot)) {
+              throw new DatabaseException("invalid rid");
+          }
+          int offset = (int) (this.pageHeaderSize + this.codec.getEntrySize() * slot);
+          buf = fromPage.readBytes(offset, codec.getEntrySize());
+      } finally {
+          if (!sealed) {
+              fromPage.unlatchShared();
+          }
+      }
+      Record toRtn = this.codec.decode(buf, 0);
 //      if (rid.getSlotNumber() == 0) {
 //          System.out.println(rid);
 //      }
@@ -295,6 +662,68 @@ public class Table implements Iterable<Record>, Closeable {
       return toRtn;
   }
 
+  /**
+   * Retrieves many records from the table at once. The rids are grouped by
+   * page, and each page is fetched and copied only once no matter how many of
+   * the rids point into it, so this is much cheaper than calling getRecord for
+   * each rid when many of them share pages.
+   *
+   * @param rids the RecordIDs of the records to retrieve
+   * @return the Records referenced by rids, in the iteration order of rids
+   * @throws DatabaseException if any rid does not correspond to a valid record
+   */
+  public List<Record> getRecords(Collection<RecordID> rids) throws DatabaseException {
+    final RecordID[] ridArray = rids.toArray(new RecordID[rids.size()]);
+    Integer[] order = new Integer[ridArray.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+
+    // visit the rids in page order, remembering where each one was requested
+    Arrays.sort(order, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        return ridArray[a].compareTo(ridArray[b]);
+      }
+    });
+
+    Record[] records = new Record[ridArray.length];
+    byte[] pageBytes = new byte[Page.pageSize];
+    int entrySize = this.codec.getEntrySize();
+    int i = 0;
+
+    while (i < order.length) {
+      int pageNum = ridArray[order[i]].getPageNum();
+      Page page;
+      try {
+        page = this.allocator.fetchPage(pageNum);
+      } catch (PageException p) {
+        throw new DatabaseException("this rid does not reference an existing data page");
+      }
+
+      if (isSealed(pageNum)) {
+        page.readBytes(0, Page.pageSize, pageBytes);
+      } else {
+        page.latchShared();
+        try {
+          page.readBytes(0, Page.pageSize, pageBytes);
+        } finally {
+          page.unlatchShared();
+        }
+      }
+
+      for (; i < order.length && ridArray[order[i]].getPageNum() == pageNum; i++) {
+        int slot = ridArray[order[i]].getSlotNumber();
+        if (slot < 0 || slot >= this.numEntriesPerPage
+            || (pageBytes[slot / 8] & (1 << (7 - (slot % 8)))) == 0) {
+          throw new DatabaseException("invalid rid");
+        }
+        records[order[i]] = this.codec.decode(pageBytes, this.pageHeaderSize + entrySize * slot);
+      }
+    }
+
+    return Arrays.asList(records);
+  }
+
   /**
    * Update an existing record with new values. Make sure to update this.stats
    * as necessary.
@@ -302,12 +731,16 @@ public class Table implements Iterable<Record>, Closeable {
    * @param values the new values of the record
    * @param rid the RecordID of the record to update
    * @return the old version of the record
-   * @throws DatabaseException if rid does not correspond to a valid record or
-   *         if the values do not correspond to the schema of this table
+   * @throws DatabaseException if rid does not correspond to a valid record, if
+   *         the values do not correspond to the schema of this table, or if
+   *         this table is append-only
    */
   public Record updateRecord(List<DataType> values, RecordID rid) throws DatabaseException {
     //TODO: Implement Me!!
 //    System.out.println("in update");
+    if (this.appendOnly) {
+      throw new DatabaseException("cannot update an append-only table");
+    }
     boolean validRecord;
     Record newRecord;
     try {
@@ -324,9 +757,17 @@ public class Table implements Iterable<Record>, Closeable {
         int pageNum = rid.getPageNum();
         long pageSlot = rid.getSlotNumber();
         Page fromPage = this.allocator.fetchPage(pageNum);
-        int offset = (int) (this.pageHeaderSize + this.schema.getEntrySize() * pageSlot);
-        byte[] toWrite = this.schema.encode(newRecord);
-        fromPage.writeBytes(offset, this.schema.getEntrySize(), toWrite);
+        int offset = (int) (this.pageHeaderSize + this.codec.getEntrySize() * pageSlot);
+        byte[] toWrite = this.codec.encode(newRecord);
+        fromPage.latchExclusive();
+        try {
+            fromPage.writeBytes(offset, this.codec.getEntrySize(), toWrite);
+        } finally {
+            fromPage.unlatchExclusive();
+        }
+        synchronized (this) {
+            this.getZoneMap(pageNum).widen(newRecord);
+        }
 //        this.stats.addRecord(newRecord);
         return oldRecord;
     } else {
@@ -335,6 +776,188 @@ public class Table implements Iterable<Record>, Closeable {
 //    throw new DatabaseException("invalid record"); //this should never be reached
   }
 
+  /**
+   * Compacts this table by moving the records on its sparsest data pages into
+   * the free slots of its densest pages, and returning every page that ends up
+   * empty to the PageAllocator. A page is only emptied if all of its records
+   * fit on denser pages, and at most maxPages pages are emptied per call, so a
+   * large table can be compacted in small steps. The zone maps of the pages
+   * that received records are rebuilt exactly.
+   *
+   * Moved records get new RecordIDs; the caller is responsible for remapping
+   * any index entries that point at them. An append-only table never has
+   * holes, so compacting it moves nothing.
+   *
+   * @param maxPages the maximum number of data pages to empty
+   * @return a map from the old RecordID of every moved record to its new RecordID
+   */
+  public Map<RecordID, RecordID> compact(int maxPages) {
+    return compact(getPagesToCompact(maxPages));
+  }
+
+  /**
+   * Picks the data pages that compact(maxPages) empties, so that the records
+   * on them can be looked at before they move: the sparsest pages, as long as
+   * their records fit in the free slots of the pages denser than them.
+   *
+   * @param maxPages the maximum number of data pages to empty
+   * @return the data pages to empty, sparsest first
+   */
+  public List<Integer> getPagesToCompact(int maxPages) {
+    List<Integer> sources = new ArrayList<Integer>();
+    if (this.appendOnly) {
+      return sources;
+    }
+
+    Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+    List<Integer> pageNums = getPagesBySparseness(counts);
+
+    // the free slots of the pages after the source, kept up to date as records move
+    int freeSlots = 0;
+    for (int i = 1; i < pageNums.size(); i++) {
+      freeSlots += this.numEntriesPerPage - counts.get(pageNums.get(i));
+    }
+
+    for (int source = 0; source < maxPages && source < pageNums.size() - 1; source++) {
+      int numToMove = counts.get(pageNums.get(source));
+      if (freeSlots < numToMove) {
+        break;
+      }
+      sources.add(pageNums.get(source));
+      freeSlots -= numToMove + this.numEntriesPerPage - counts.get(pageNums.get(source + 1));
+    }
+    return sources;
+  }
+
+  /**
+   * Empties data pages picked by getPagesToCompact into the free slots of the
+   * densest other pages, and frees them.
+   *
+   * @param sources the data pages to empty, which must not have changed since
+   *                they were picked
+   * @return a map from the old RecordID of every moved record to its new RecordID
+   */
+  public Map<RecordID, RecordID> compact(List<Integer> sources) {
+    Map<RecordID, RecordID> moved = new LinkedHashMap<RecordID, RecordID>();
+    if (sources.isEmpty()) {
+      return moved;
+    }
+
+    Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+    List<Integer> pageNums = getPagesBySparseness(counts);
+    pageNums.removeAll(sources);
+
+    Set<Integer> targets = new TreeSet<Integer>();
+    int entrySize = this.codec.getEntrySize();
+    int target = pageNums.size() - 1;
+
+    for (int sourceNum : sources) {
+      // readers are kept off the source page until it has been freed
+      Page sourcePage = this.allocator.fetchPage(sourceNum);
+      sourcePage.latchExclusive();
+      try {
+        for (int slot = 0; slot < this.numEntriesPerPage; slot++) {
+          if (!isSlotTaken(sourcePage, slot)) {
+            continue;
+          }
+
+          while (counts.get(pageNums.get(target)) == this.numEntriesPerPage) {
+            target--;
+          }
+
+          int targetNum = pageNums.get(target);
+          Page targetPage = this.allocator.fetchPage(targetNum);
+          byte[] bytes = sourcePage.readBytes(this.pageHeaderSize + entrySize * slot, entrySize);
+          int targetSlot;
+
+          targetPage.latchExclusive();
+          try {
+            targetSlot = getFirstFreeSlotInHeader(targetPage);
+            targetPage.writeBytes(this.pageHeaderSize + entrySize * targetSlot, entrySize, bytes);
+            writeBitToHeader(targetPage, targetSlot, (byte) 1);
+          } finally {
+            targetPage.unlatchExclusive();
+          }
+          counts.put(targetNum, counts.get(targetNum) + 1);
+          this.freeSpace.update(targetNum, this.numEntriesPerPage - counts.get(targetNum));
+          targets.add(targetNum);
+
+          moved.put(new RecordID(sourceNum, slot), new RecordID(targetNum, targetSlot));
+        }
+
+        this.allocator.freePage(sourcePage);
+      } finally {
+        sourcePage.unlatchExclusive();
+      }
+      this.freeSpace.remove(sourceNum);
+      synchronized (this) {
+        this.zoneMaps.remove(sourceNum);
+      }
+    }
+
+    for (int pageNum : targets) {
+      rebuildZoneMap(this.allocator.fetchPage(pageNum));
+    }
+
+    return moved;
+  }
+
+  /**
+   * Lists the data pages of this table, sparsest first; among equally sparse
+   * pages, the later ones first, so that they are emptied first.
+   *
+   * @param counts the map to put the number of records on each page in
+   * @return the page numbers of the data pages
+   */
+  private List<Integer> getPagesBySparseness(final Map<Integer, Integer> counts) {
+    List<Integer> pageNums = new ArrayList<Integer>();
+
+    Iterator<Page> pIter = this.allocator.iterator();
+    pIter.next();
+    while (pIter.hasNext()) {
+      Page p = pIter.next();
+      pageNums.add(p.getPageNum());
+      counts.put(p.getPageNum(), numValidEntries(p));
+    }
+
+    Collections.sort(pageNums, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        int c = Integer.compare(counts.get(a), counts.get(b));
+        return c != 0 ? c : Integer.compare(b, a);
+      }
+    });
+    return pageNums;
+  }
+
+  /**
+   * Replaces the zone map of a data page with one summarizing exactly the
+   * records currently on it.
+   *
+   * @param p the data page to summarize
+   */
+  private void rebuildZoneMap(Page p) {
+    ZoneMap zoneMap = new ZoneMap(this.schema.getFieldTypes().size());
+    byte[] bytes;
+
+    p.latchShared();
+    try {
+      bytes = p.readBytes();
+    } finally {
+      p.unlatchShared();
+    }
+    int entrySize = this.codec.getEntrySize();
+
+    for (int slot = 0; slot < this.numEntriesPerPage; slot++) {
+      if ((bytes[slot / 8] & (1 << (7 - (slot % 8)))) != 0) {
+        zoneMap.widen(this.codec.decode(bytes, this.pageHeaderSize + entrySize * slot));
+      }
+    }
+
+    synchronized (this) {
+      this.zoneMaps.put(p.getPageNum(), zoneMap);
+    }
+  }
+
   public int getNumEntriesPerPage() {
     return this.numEntriesPerPage;
   }
@@ -343,7 +966,7 @@ public class Table implements Iterable<Record>, Closeable {
     return this.allocator.getNumPages() - 1;
   }
 
-  public long getNumRecords() {
+  public synchronized long getNumRecords() {
     return this.numRecords;
   }
 
@@ -389,7 +1012,7 @@ public class Table implements Iterable<Record>, Closeable {
    */
   private void setEntryCounts() {
     //TODO: Implement Me!!
-    int size = getSchema().getEntrySize(); //how big schema is
+    int size = this.codec.getEntrySize(); //how big a stored record is
     int incFactor = size * 8 + 1;
     int bytes = 0;
     for (; bytes + incFactor < Page.pageSize; bytes+=incFactor) {
@@ -398,24 +1021,6 @@ public class Table implements Iterable<Record>, Closeable {
     }
   }
 
-  /**
-   * Checks if there is any free space on the given page.
-   *
-   * @param p the page to check
-   * @return true if there exists free space, otherwise false
-   */
-  private boolean spaceOnPage(Page p) {
-    byte[] header = this.readPageHeader(p);
-
-    for (byte b : header) {
-      if (b != (byte) 0xFF) {
-        return true;
-      }
-    }
-
-    return false;
-  }
-
   /**
    * Checks how many valid record entries are in the given page.
    *
@@ -438,8 +1043,8 @@ public class Table implements Iterable<Record>, Closeable {
   }
 
   /**
-   * Utility method to write the header page of the table. The only information written into
-   * the header page is the table's schema.
+   * Utility method to write the header page of the table. The header page holds the table's
+   * schema, followed by an int of table flags and the list of dictionary-encoded columns.
    */
   private void writeHeaderPage() {
     int numBytesWritten = 0;
@@ -470,6 +1075,18 @@ public class Table implements Iterable<Record>, Closeable {
         numBytesWritten += 4;
       }
     }
+
+    int flags = this.appendOnly ? APPEND_ONLY_FLAG : 0;
+    headerPage.writeBytes(numBytesWritten, 4, ByteBuffer.allocate(4).putInt(flags).array());
+    numBytesWritten += 4;
+
+    headerPage.writeBytes(numBytesWritten, 4, ByteBuffer.allocate(4).putInt(this.dictionaryColumns.size()).array());
+    numBytesWritten += 4;
+
+    for (int column : this.dictionaryColumns) {
+      headerPage.writeBytes(numBytesWritten, 4, ByteBuffer.allocate(4).putInt(column).array());
+      numBytesWritten += 4;
+    }
   }
 
   /**
@@ -523,6 +1140,19 @@ public class Table implements Iterable<Record>, Closeable {
 
     this.schema = new Schema(fieldNames, fieldTypes);
 
+    // header pages written before the flags existed have zeros here
+    int flags = ByteBuffer.wrap(headerPage.readBytes(numBytesRead, 4)).getInt();
+    this.appendOnly = (flags & APPEND_ONLY_FLAG) != 0;
+    numBytesRead += 4;
+
+    int numDictionaryColumns = ByteBuffer.wrap(headerPage.readBytes(numBytesRead, 4)).getInt();
+    numBytesRead += 4;
+
+    this.dictionaryColumns = new ArrayList<Integer>();
+    for (int i = 0; i < numDictionaryColumns; i++) {
+      this.dictionaryColumns.add(ByteBuffer.wrap(headerPage.readBytes(numBytesRead, 4)).getInt());
+      numBytesRead += 4;
+    }
   }
 
   /**
@@ -566,7 +1196,7 @@ public class Table implements Iterable<Record>, Closeable {
   }
 
   public int getEntrySize()  {
-    return this.schema.getEntrySize();
+    return this.codec.getEntrySize();
   }
 
   public int getNumPages() { return this.allocator.getNumPages(); }
@@ -641,4 +1271,114 @@ public class Table implements Iterable<Record>, Closeable {
       throw new UnsupportedOperationException();
     }
   }
+
+  /**
+   * An implementation of Iterator that yields a single RecordView, moved over
+   * the occupied slots of each data page in turn. Each page is copied once
+   * into a buffer that is reused for the next page.
+   */
+  private class TableViewIterator implements Iterator<RecordView> {
+    private Iterator<Page> pageIterator;
+    private RecordView view;
+    private byte[] pageBytes;
+    private int pageNum;
+    private int nextSlot;
+    private boolean hasPage;
+
+    public TableViewIterator() {
+      this(allocator.iterator());
+      this.pageIterator.next();
+    }
+
+    public TableViewIterator(Iterator<Page> pageIterator) {
+      this.pageIterator = pageIterator;
+      this.view = new RecordView(codec);
+      this.pageBytes = new byte[Page.pageSize];
+      this.pageNum = -1;
+      this.nextSlot = numEntriesPerPage;
+      this.hasPage = false;
+    }
+
+    /**
+     * Checks if there are more record(s) to yield
+     *
+     * @return true if this iterator has another record to yield, otherwise false
+     */
+    public boolean hasNext() {
+      while (true) {
+        if (this.hasPage) {
+          while (this.nextSlot < numEntriesPerPage) {
+            byte b = this.pageBytes[this.nextSlot / 8];
+            if ((b & (1 << (7 - (this.nextSlot % 8)))) != 0) {
+              return true;
+            }
+            this.nextSlot++;
+          }
+        }
+
+        if (!this.pageIterator.hasNext()) {
+          return false;
+        }
+
+        Page page = this.pageIterator.next();
+        this.pageNum = page.getPageNum();
+        if (isSealed(page.getPageNum())) {
+          page.readBytes(0, Page.pageSize, this.pageBytes);
+        } else {
+          page.latchShared();
+          try {
+            page.readBytes(0, Page.pageSize, this.pageBytes);
+          } finally {
+            page.unlatchShared();
+          }
+        }
+        this.hasPage = true;
+        this.nextSlot = 0;
+      }
+    }
+
+    /**
+     * Yields the view, moved to the next record of this iterator.
+     *
+     * @return the view over the next record
+     * @throws NoSuchElementException if there are no more records to yield
+     */
+    public RecordView next() {
+      if (!this.hasNext()) {
+        throw new NoSuchElementException("there is no next");
+      }
+
+      this.view.moveTo(this.pageBytes, pageHeaderSize + getEntrySize() * this.nextSlot,
+                       this.pageNum, this.nextSlot);
+      this.nextSlot++;
+      return this.view;
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * An implementation of Iterator that fetches the pages of a list of page numbers on demand.
+   */
+  private class PageNumIterator implements Iterator<Page> {
+    private Iterator<Integer> pageNums;
+
+    public PageNumIterator(Iterator<Integer> pageNums) {
+      this.pageNums = pageNums;
+    }
+
+    public boolean hasNext() {
+      return this.pageNums.hasNext();
+    }
+
+    public Page next() {
+      return allocator.fetchPage(this.pageNums.next());
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
 }
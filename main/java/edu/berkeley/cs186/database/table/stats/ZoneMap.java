@@ -0,0 +1,129 @@
+package edu.berkeley.cs186.database.table.stats;
+
+import java.util.List;
+
+import edu.berkeley.cs186.database.datatypes.DataType;
+import edu.berkeley.cs186.database.query.QueryPlan.PredicateOperator;
+import edu.berkeley.cs186.database.table.Record;
+
+/**
+ * A summary of the values stored on a single data page: the minimum and
+ * maximum value of every column over all records ever written to the page.
+ * A zone map only ever widens; deleting a record does not shrink it, so it is
+ * always a conservative bound on the page contents. Zone maps are rebuilt
+ * exactly whenever the table is reopened or compacted.
+ *
+ * Since a column whose minimum equals its maximum holds a single distinct
+ * value, the min/max pair also answers NOT_EQUALS predicates. There are no
+ * nulls in this database, so no null summary is kept.
+ */
+public class ZoneMap {
+  private DataType[] mins;
+  private DataType[] maxs;
+  private boolean empty;
+
+  /**
+   * Creates an empty ZoneMap for a page of a table with numColumns columns.
+   *
+   * @param numColumns the number of columns in the table schema
+   */
+  public ZoneMap(int numColumns) {
+    this.mins = new DataType[numColumns];
+    this.maxs = new DataType[numColumns];
+    this.empty = true;
+  }
+
+  /**
+   * Widens this zone map to cover every value of record.
+   *
+   * @param record the record written to the page
+   */
+  public void widen(Record record) {
+    List<DataType> values = record.getValues();
+
+    for (int i = 0; i < this.mins.length; i++) {
+      DataType value = values.get(i);
+
+      if (this.empty || value.compareTo(this.mins[i]) < 0) {
+        this.mins[i] = value;
+      }
+      if (this.empty || value.compareTo(this.maxs[i]) > 0) {
+        this.maxs[i] = value;
+      }
+    }
+
+    this.empty = false;
+  }
+
+  /**
+   * @return true if no record has been written to the page since it was summarized
+   */
+  public boolean isEmpty() {
+    return this.empty;
+  }
+
+  public DataType getMin(int column) {
+    return this.mins[column];
+  }
+
+  public DataType getMax(int column) {
+    return this.maxs[column];
+  }
+
+  /**
+   * Checks whether any record on the page could satisfy a predicate on column.
+   * Returns true whenever it can't rule the page out.
+   *
+   * @param column the index of the column the predicate is on
+   * @param predicate the comparator
+   * @param value the value to compare against
+   * @return false if no record on the page can satisfy the predicate
+   */
+  public boolean mayMatch(int column, PredicateOperator predicate, DataType value) {
+    if (this.empty) {
+      return false;
+    }
+
+    DataType min = this.mins[column];
+    DataType max = this.maxs[column];
+
+    if (min.type() != value.type()) {
+      return true;
+    }
+
+    switch (predicate) {
+      case EQUALS:
+        return min.compareTo(value) <= 0 && max.compareTo(value) >= 0;
+      case NOT_EQUALS:
+        return min.compareTo(value) != 0 || max.compareTo(value) != 0;
+      case LESS_THAN:
+        return min.compareTo(value) < 0;
+      case LESS_THAN_EQUALS:
+        return min.compareTo(value) <= 0;
+      case GREATER_THAN:
+        return max.compareTo(value) > 0;
+      case GREATER_THAN_EQUALS:
+        return max.compareTo(value) >= 0;
+      default:
+        return true;
+    }
+  }
+
+  /**
+   * Checks whether any record on the page could satisfy all of a list of
+   * predicates. The i-th predicate is columns[i] predicates[i] values[i].
+   *
+   * @return false if the page can be skipped
+   */
+  public boolean mayMatch(List<Integer> columns,
+                          List<PredicateOperator> predicates,
+                          List<DataType> values) {
+    for (int i = 0; i < columns.size(); i++) {
+      if (!this.mayMatch(columns.get(i), predicates.get(i), values.get(i))) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+}
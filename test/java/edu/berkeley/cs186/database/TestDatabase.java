@@ -4,6 +4,7 @@ import edu.berkeley.cs186.database.Database;
 import edu.berkeley.cs186.database.TestUtils;
 import edu.berkeley.cs186.database.StudentTest;
 import edu.berkeley.cs186.database.table.*;
+import edu.berkeley.cs186.database.io.PageAllocator;
 
 import org.junit.After;
 import org.junit.Before;
@@ -18,6 +19,7 @@ import org.junit.experimental.categories.Category;
 import static org.junit.Assert.*;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -233,4 +235,229 @@ public class TestDatabase {
     }
     t1.end();
   }
+
+  @Test
+  public void testTransactionIndexDeleteUpdate() throws DatabaseException {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+
+    String tableName = "testTable1";
+    List<String> indexNames = new ArrayList<String>();
+    indexNames.add("int");
+    indexNames.add("string");
+    db.createTableWithIndices(s, tableName, indexNames);
+
+    Database.Transaction t1 = db.beginTransaction();
+    List<RecordID> rids = new ArrayList<RecordID>();
+    for (int i = 0; i < 1000; i++) {
+      rids.add(t1.addRecord(tableName, TestUtils.createRecordWithAllTypesWithValue(i).getValues()));
+    }
+
+    // delete the odd values and move the even ones up by 1000
+    for (int i = 0; i < 1000; i++) {
+      if (i % 2 == 1) {
+        t1.deleteRecord(tableName, rids.get(i));
+      } else {
+        t1.updateRecord(tableName, TestUtils.createRecordWithAllTypesWithValue(i + 1000).getValues(), rids.get(i));
+      }
+    }
+
+    for (String col : indexNames) {
+      Iterator<Record> recIter = t1.sortedScan(tableName, col);
+      for (int i = 0; i < 1000; i += 2) {
+        assertTrue(recIter.hasNext());
+        assertEquals(TestUtils.createRecordWithAllTypesWithValue(i + 1000), recIter.next());
+      }
+      assertFalse(recIter.hasNext());
+    }
+    t1.end();
+  }
+
+  @Test
+  public void testCompactTableWithIndices() throws DatabaseException {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+
+    String tableName = "testTable1";
+    List<String> indexNames = new ArrayList<String>();
+    indexNames.add("int");
+    indexNames.add("string");
+    db.createTableWithIndices(s, tableName, indexNames);
+
+    Database.Transaction t1 = db.beginTransaction();
+    List<RecordID> rids = new ArrayList<RecordID>();
+    for (int i = 0; i < 1000; i++) {
+      rids.add(t1.addRecord(tableName, TestUtils.createRecordWithAllTypesWithValue(i + 1000).getValues()));
+    }
+    // leave every page a quarter full; the string keys all have four digits,
+    // so both indexes sort them in the same order
+    for (int i = 0; i < 1000; i++) {
+      if (i % 4 != 0) {
+        t1.deleteRecord(tableName, rids.get(i));
+      }
+    }
+
+    int numDataPages = t1.getNumDataPages(tableName);
+    int freed = t1.compactTable(tableName, 100);
+    assertTrue(freed > 0);
+    assertEquals(numDataPages - freed, t1.getNumDataPages(tableName));
+
+    for (String col : indexNames) {
+      Iterator<Record> recIter = t1.sortedScan(tableName, col);
+      for (int i = 0; i < 1000; i += 4) {
+        assertTrue(recIter.hasNext());
+        assertEquals(TestUtils.createRecordWithAllTypesWithValue(i + 1000), recIter.next());
+      }
+      assertFalse(recIter.hasNext());
+    }
+    t1.end();
+  }
+
+  @Test
+  public void testCreateIndex() throws DatabaseException {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+
+    String tableName = "testTable1";
+    db.createTable(s, tableName);
+
+    Database.Transaction t1 = db.beginTransaction();
+    for (int i = 999; i >= 0; i--) {
+      Record input = TestUtils.createRecordWithAllTypesWithValue(i);
+      t1.addRecord(tableName, input.getValues());
+    }
+    t1.end();
+
+    db.createIndex(tableName, "int");
+    db.createIndex(tableName, "string");
+
+    Database.Transaction t2 = db.beginTransaction();
+    assertTrue(t2.indexExists(tableName, "int"));
+    assertTrue(t2.indexExists(tableName, "string"));
+    assertFalse(t2.indexExists(tableName, "float"));
+
+    t2.addRecord(tableName, TestUtils.createRecordWithAllTypesWithValue(1000).getValues());
+    for (String col : new String[] {"int", "string"}) {
+      Iterator<Record> recIter = t2.sortedScan(tableName, col);
+      for (int i = 0; i <= 1000; i++) {
+        assertTrue(recIter.hasNext());
+        assertEquals(TestUtils.createRecordWithAllTypesWithValue(i), recIter.next());
+      }
+      assertFalse(recIter.hasNext());
+    }
+    t2.end();
+  }
+
+  @Test
+  public void testCreateIndexConcurrentWrites() throws Exception {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+
+    final String tableName = "testTable1";
+    db.createTable(s, tableName);
+
+    Database.Transaction t1 = db.beginTransaction();
+    for (int i = 0; i < 2000; i++) {
+      t1.addRecord(tableName, TestUtils.createRecordWithAllTypesWithValue(2*i).getValues());
+    }
+    t1.end();
+
+    // a writer adds the odd values, one transaction each, while the index is built
+    final List<Exception> failures = new ArrayList<Exception>();
+    Thread writer = new Thread(new Runnable() {
+      public void run() {
+        try {
+          for (int i = 0; i < 2000; i++) {
+            Database.Transaction t = db.beginTransaction();
+            t.addRecord(tableName, TestUtils.createRecordWithAllTypesWithValue(2*i + 1).getValues());
+            t.end();
+          }
+        } catch (DatabaseException e) {
+          failures.add(e);
+        }
+      }
+    });
+    writer.start();
+    db.createIndex(tableName, "int");
+    writer.join();
+    assertTrue(failures.isEmpty());
+
+    Database.Transaction t2 = db.beginTransaction();
+    Iterator<Record> recIter = t2.sortedScan(tableName, "int");
+    for (int i = 0; i < 4000; i++) {
+      assertTrue(recIter.hasNext());
+      assertEquals(TestUtils.createRecordWithAllTypesWithValue(i), recIter.next());
+    }
+    assertFalse(recIter.hasNext());
+    t2.end();
+  }
+
+  @Test
+  public void testDeleteTableWithDictionaries() throws DatabaseException {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    List<String> dictionaryColumns = new ArrayList<String>();
+    dictionaryColumns.add("string");
+    db.createTableWithDictionaries(s, "testTable1", dictionaryColumns);
+
+    File tableFile = new File(this.filename, "testTable1" + Table.FILENAME_EXTENSION);
+    File dictionaryFile = new File(tableFile.getPath() + Table.DICTIONARY_EXTENSION);
+    assertTrue(tableFile.exists());
+    assertTrue(dictionaryFile.exists());
+
+    assertTrue(db.deleteTable("testTable1"));
+    assertFalse(tableFile.exists());
+    assertFalse(dictionaryFile.exists());
+  }
+
+  @Test
+  public void testDeleteTableWithExtentFile() throws DatabaseException, IOException {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    db.createTable(s, "testTable1");
+
+    // compressed pages of the table live in an extent file next to it
+    File tableFile = new File(this.filename, "testTable1" + Table.FILENAME_EXTENSION);
+    File extentFile = new File(tableFile.getPath() + PageAllocator.EXTENT_FILE_EXTENSION);
+    assertTrue(extentFile.createNewFile());
+
+    assertTrue(db.deleteTable("testTable1"));
+    assertFalse(tableFile.exists());
+    assertFalse(extentFile.exists());
+  }
+
+  @Test
+  public void testCompressTable() throws DatabaseException {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    db.createTable(s, "logTable", true);
+    Database.Transaction t1 = db.beginTransaction();
+    int numEntriesPerPage = t1.getNumEntriesPerPage("logTable");
+    for (int i = 0; i < 2 * numEntriesPerPage + 1; i++) {
+      t1.addRecord("logTable", TestUtils.createRecordWithAllTypesWithValue(i).getValues());
+    }
+    t1.end();
+
+    // the two full pages are sealed; the tail page is not
+    Database.Transaction t2 = db.beginTransaction();
+    assertEquals(2, t2.compressTable("logTable"));
+    assertEquals(0, t2.compressTable("logTable"));
+    t2.end();
+
+    Database.Transaction t3 = db.beginTransaction();
+    Iterator<Record> records = t3.getRecordIterator("logTable");
+    for (int i = 0; i < 2 * numEntriesPerPage + 1; i++) {
+      assertEquals(TestUtils.createRecordWithAllTypesWithValue(i), records.next());
+    }
+    assertFalse(records.hasNext());
+    t3.end();
+  }
+
+  @Test(expected = DatabaseException.class)
+  public void testCreateIndexTwice() throws DatabaseException {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    db.createTable(s, "testTable1");
+    db.createIndex("testTable1", "int");
+    db.createIndex("testTable1", "int");
+  }
+
+  @Test(expected = DatabaseException.class)
+  public void testCreateIndexMissingColumn() throws DatabaseException {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    db.createTable(s, "testTable1");
+    db.createIndex("testTable1", "missing");
+  }
 }
@@ -0,0 +1,76 @@
+package edu.berkeley.cs186.database.datatypes;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestKeyCodec {
+  @Rule
+  public Timeout globalTimeout = Timeout.seconds(1); // 1 seconds max per method tested
+
+  /**
+   * Checks that every pair of values compares the same way as normalized keys as it does with
+   * DataType#compareTo, and that every key decodes back to its value.
+   */
+  private void checkOrder(List<DataType> values) {
+    for (DataType first : values) {
+      byte[] firstKey = KeyCodec.encode(first);
+      assertEquals(first.getSize(), firstKey.length);
+      assertEquals(first, KeyCodec.decode(first, firstKey, 0, firstKey.length));
+
+      for (DataType sec : values) {
+        byte[] secKey = KeyCodec.encode(sec);
+        assertEquals(Integer.signum(first.compareTo(sec)),
+                     Integer.signum(KeyCodec.compare(firstKey, secKey)));
+      }
+    }
+  }
+
+  @Test
+  public void TestKeyCodecInt() {
+    List<DataType> values = new ArrayList<DataType>();
+    int[] ints = {Integer.MIN_VALUE, -65536, -256, -1, 0, 1, 255, 256, 65535, Integer.MAX_VALUE};
+    for (int i : ints) {
+      values.add(new IntDataType(i));
+    }
+    checkOrder(values);
+  }
+
+  @Test
+  public void TestKeyCodecFloat() {
+    List<DataType> values = new ArrayList<DataType>();
+    float[] floats = {Float.NEGATIVE_INFINITY, -Float.MAX_VALUE, -1.5f, -Float.MIN_VALUE, -0.0f,
+                      0.0f, Float.MIN_VALUE, 1.5f, Float.MAX_VALUE, Float.POSITIVE_INFINITY};
+    for (float f : floats) {
+      values.add(new FloatDataType(f));
+    }
+    checkOrder(values);
+
+    byte[] nan = KeyCodec.encode(new FloatDataType(Float.NaN));
+    assertTrue(KeyCodec.compare(nan, KeyCodec.encode(new FloatDataType(Float.POSITIVE_INFINITY))) > 0);
+    assertTrue(Float.isNaN(KeyCodec.decode(new FloatDataType(), nan, 0, nan.length).getFloat()));
+  }
+
+  @Test
+  public void TestKeyCodecBool() {
+    List<DataType> values = new ArrayList<DataType>();
+    values.add(new BoolDataType(false));
+    values.add(new BoolDataType(true));
+    checkOrder(values);
+  }
+
+  @Test
+  public void TestKeyCodecString() {
+    List<DataType> values = new ArrayList<DataType>();
+    String[] strings = {"a", "ab", "abcdefgh", "abcdefghi", "abcdefgi", "b", "é", "￮"};
+    for (String s : strings) {
+      values.add(new StringDataType(s, s.length()));
+    }
+    values.add(new StringDataType("ab", 5));
+    checkOrder(values);
+  }
+}
@@ -0,0 +1,88 @@
+package edu.berkeley.cs186.database.index;
+
+import edu.berkeley.cs186.database.table.RecordID;
+import edu.berkeley.cs186.database.datatypes.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Times the same mix of lookups and inserts run by one thread and then split
+ * between several, to see how well BPlusTree scales with cores. Not a test:
+ * timings depend on the machine, so this only prints them.
+ *
+ * Usage: BPlusTreeBenchmark [numThreads] [numOps]
+ */
+public class BPlusTreeBenchmark {
+  public static void main(String[] args) throws Exception {
+    int numThreads = args.length > 0 ? Integer.parseInt(args[0])
+                                     : Math.max(4, Runtime.getRuntime().availableProcessors());
+    int numOps = args.length > 1 ? Integer.parseInt(args[1]) : 400000;
+    int numKeys = 100 * TestBPlusTree.intLeafPageSize;
+
+    File dir = Files.createTempDirectory("BPlusTreeBenchmark").toFile();
+    try {
+      BPlusTree bp = new BPlusTree(new IntDataType(), "Benchmark", dir.getAbsolutePath());
+      for (int i = 0; i < numKeys; i++) {
+        bp.insertKey(new IntDataType(i), new RecordID(i, 0));
+      }
+
+      // the first round warms up the JIT and the cache of inner nodes
+      run(bp, 1, numOps, numKeys, 0);
+      long serialNanos = run(bp, 1, numOps, numKeys, 1);
+      long parallelNanos = run(bp, numThreads, numOps, numKeys, 2);
+      System.out.printf("%d ops: 1 thread %d ms, %d threads %d ms (%.2fx)%n", numOps,
+                        serialNanos / 1000000, numThreads, parallelNanos / 1000000,
+                        (double) serialNanos / parallelNanos);
+    } finally {
+      for (File file : dir.listFiles()) {
+        file.delete();
+      }
+      dir.delete();
+    }
+  }
+
+  /**
+   * Runs numOps operations split between numThreads threads: nine in ten look
+   * up one of the first numKeys keys, and the rest insert a new key above them.
+   *
+   * @param round a number telling apart the keys inserted by different calls
+   * @return the time taken, in nanoseconds
+   */
+  private static long run(final BPlusTree bp, int numThreads, final int numOps, final int numKeys,
+                          final int round) throws InterruptedException {
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < numThreads; t++) {
+      final int from = numOps * t / numThreads;
+      final int to = numOps * (t + 1) / numThreads;
+      threads.add(new Thread(new Runnable() {
+        public void run() {
+          Random rand = new Random(from);
+          for (int i = from; i < to; i++) {
+            if (i % 10 == 0) {
+              int key = numKeys + round * numOps + i;
+              bp.insertKey(new IntDataType(key), new RecordID(key, 0));
+            } else {
+              int key = rand.nextInt(numKeys);
+              if (!bp.lookupKey(new IntDataType(key)).hasNext()) {
+                throw new IllegalStateException("key " + key + " not found");
+              }
+            }
+          }
+        }
+      }));
+    }
+
+    long start = System.nanoTime();
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    return System.nanoTime() - start;
+  }
+}
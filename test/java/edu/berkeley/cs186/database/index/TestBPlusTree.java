@@ -1,5 +1,7 @@
 package edu.berkeley.cs186.database.index;
 
+import edu.berkeley.cs186.database.io.Page;
+import edu.berkeley.cs186.database.io.PageAllocator;
 import edu.berkeley.cs186.database.table.RecordID;
 import edu.berkeley.cs186.database.datatypes.*;
 import edu.berkeley.cs186.database.StudentTest;
@@ -14,7 +16,12 @@ import org.junit.rules.Timeout;
 import org.junit.runners.MethodSorters;
 import org.junit.experimental.categories.Category;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Arrays;
 import java.util.Random;
 import static org.junit.Assert.*;
@@ -385,6 +392,1000 @@ public class TestBPlusTree {
     assertFalse(rids.hasNext());
   }
 
+  @Test
+  public void testBPlusTreeUpdateRecordIDThenDelete() {
+    // 20 entries of each of 300 keys, spread over many leaves
+    for (int i = 0; i < 6000; i++) {
+      bp.insertKey(new IntDataType(i % 300), new RecordID(i, 0));
+    }
+
+    // moving an entry to a larger RecordID moves it past the other entries of its key
+    for (int i = 0; i < 6000; i += 3) {
+      assertTrue(bp.updateRecordID(new IntDataType(i % 300), new RecordID(i, 0), new RecordID(i + 10000, 0)));
+    }
+
+    for (int i = 0; i < 6000; i++) {
+      int pageNum = i % 3 == 0 ? i + 10000 : i;
+      assertTrue(bp.deleteKey(new IntDataType(i % 300), new RecordID(pageNum, 0)));
+    }
+    assertFalse(bp.sortedScan().hasNext());
+  }
+
+  @Test
+  public void testBPlusTreeUpdateRecordIDDuplicates() {
+    // three leaves' worth of a single key, so the entry to update is not on the first leaf
+    for (int i = 0; i < 3*intLeafPageSize; i++) {
+      bp.insertKey(new IntDataType(7), new RecordID(i, 0));
+    }
+    bp.insertKey(new IntDataType(8), new RecordID(0, 1));
+
+    assertTrue(bp.updateRecordID(new IntDataType(7), new RecordID(1000, 0), new RecordID(5000, 3)));
+    assertTrue(bp.updateRecordID(new IntDataType(8), new RecordID(0, 1), new RecordID(0, 2)));
+    assertFalse(bp.updateRecordID(new IntDataType(7), new RecordID(1000, 0), new RecordID(6000, 0)));
+    assertFalse(bp.updateRecordID(new IntDataType(9), new RecordID(0, 1), new RecordID(0, 2)));
+
+    int count = 0;
+    boolean found = false;
+    Iterator<RecordID> rids = bp.lookupKey(new IntDataType(7));
+    while (rids.hasNext()) {
+      RecordID rid = rids.next();
+      assertFalse(rid.equals(new RecordID(1000, 0)));
+      found |= rid.equals(new RecordID(5000, 3));
+      count++;
+    }
+    assertTrue(found);
+    assertEquals(3*intLeafPageSize, count);
+
+    rids = bp.lookupKey(new IntDataType(8));
+    assertEquals(new RecordID(0, 2), rids.next());
+    assertFalse(rids.hasNext());
+  }
+
+  @Test
+  public void testBPlusTreeLookupRange() {
+    // several leaves, with every key twice
+    for (int i = 2*intLeafPageSize - 1; i >= 0; i--) {
+      bp.insertKey(new IntDataType(i), new RecordID(i, 0));
+      bp.insertKey(new IntDataType(i), new RecordID(i, 1));
+    }
+
+    List<RecordID> rids = bp.lookupRange(new IntDataType(100), false, new IntDataType(700), true);
+    assertEquals(2*600, rids.size());
+    for (int i = 0; i < rids.size(); i++) {
+      assertEquals(101 + i/2, rids.get(i).getPageNum());
+    }
+
+    assertEquals(2*10, bp.lookupRange(null, true, new IntDataType(10), false).size());
+    assertEquals(2*5, bp.lookupRange(new IntDataType(2*intLeafPageSize - 5), true, null, true).size());
+    assertEquals(2, bp.lookupRange(new IntDataType(42), true, new IntDataType(42), true).size());
+    assertTrue(bp.lookupRange(new IntDataType(42), false, new IntDataType(42), true).isEmpty());
+  }
+
+  @Test
+  public void testBPlusTreeScanRange() {
+    // the entries of key 100 fill several leaves
+    int numDuplicates = 3*intLeafPageSize;
+    for (int i = 0; i < 2*intLeafPageSize; i++) {
+      bp.insertKey(new IntDataType(i), new RecordID(i, 0));
+    }
+    for (int j = 0; j < numDuplicates; j++) {
+      bp.insertKey(new IntDataType(100), new RecordID(j, 1));
+    }
+
+    Iterator<RecordID> rids = bp.scanRange(new IntDataType(100), false, new IntDataType(105), false);
+    for (int i = 101; i < 105; i++) {
+      assertEquals(new RecordID(i, 0), rids.next());
+    }
+    assertFalse(rids.hasNext());
+    rids = bp.scanRange(null, true, new IntDataType(3), true);
+    for (int i = 0; i <= 3; i++) {
+      assertEquals(new RecordID(i, 0), rids.next());
+    }
+    assertFalse(rids.hasNext());
+
+    // an exclusive lower bound descends past the entries of its key rather
+    // than reading through them
+    long before = PageAllocator.getNumIOs();
+    assertEquals(new RecordID(101, 0), bp.scanRange(new IntDataType(100), false, null, true).next());
+    long exclusiveIOs = PageAllocator.getNumIOs() - before;
+    before = PageAllocator.getNumIOs();
+    rids = bp.scanRange(new IntDataType(100), true, new IntDataType(101), false);
+    int count = 0;
+    while (rids.hasNext()) {
+      rids.next();
+      count++;
+    }
+    long inclusiveIOs = PageAllocator.getNumIOs() - before;
+    assertEquals(numDuplicates + 1, count);
+    assertTrue(2 * exclusiveIOs < inclusiveIOs);
+  }
+
+  /**
+   * Returns a key of a STRING(250) tree that compresses poorly, so that nodes
+   * only hold a few entries: each digit of i is repeated 50 times, so keys
+   * close to each other share a long prefix, and the keys that separate them
+   * are long too.
+   */
+  private static DataType wideKey(int i) {
+    StringBuilder key = new StringBuilder();
+    for (char digit : String.format("%05d", i).toCharArray()) {
+      for (int j = 0; j < 50; j++) {
+        key.append(digit);
+      }
+    }
+    return new StringDataType(key.toString(), 250);
+  }
+
+  /**
+   * Checks that a sorted scan returns the keys 0 to numKeys - 1, each twice.
+   */
+  private void checkBulkLoadedKeys(BPlusTree tree, int numKeys) {
+    Iterator<RecordID> rids = tree.sortedScan();
+    for (int i = 0; i < 2*numKeys; i++) {
+      assertTrue(rids.hasNext());
+      RecordID rid = rids.next();
+      assertEquals(i/2, rid.getPageNum());
+      assertEquals(i % 2, rid.getSlotNumber());
+    }
+    assertFalse(rids.hasNext());
+  }
+
+  @Test
+  public void testBPlusTreeBulkLoad() {
+    int numKeys = 5*intLeafPageSize;
+    List<LeafEntry> entries = new ArrayList<LeafEntry>();
+    for (int i = 0; i < numKeys; i++) {
+      entries.add(new LeafEntry(new IntDataType(i), new RecordID(i, 0)));
+      entries.add(new LeafEntry(new IntDataType(i), new RecordID(i, 1)));
+    }
+    Collections.shuffle(entries, new Random(42));
+
+    // two pages of sort memory spill several runs and merge them in passes
+    bp.bulkLoad(entries.iterator(), 0.5, 2);
+    checkBulkLoadedKeys(bp, numKeys);
+    for (File file : tempFolder.getRoot().listFiles()) {
+      assertFalse(file.getName().endsWith(".run"));
+    }
+
+    Iterator<RecordID> rids = bp.lookupKey(new IntDataType(1234));
+    assertEquals(new RecordID(1234, 0), rids.next());
+    assertEquals(new RecordID(1234, 1), rids.next());
+    assertFalse(rids.hasNext());
+    assertEquals(2*10, bp.lookupRange(new IntDataType(100), true, new IntDataType(110), false).size());
+
+    // the loaded tree takes inserts like any other
+    for (int i = numKeys; i < 2*numKeys; i++) {
+      bp.insertKey(new IntDataType(i), new RecordID(i, 0));
+      bp.insertKey(new IntDataType(i), new RecordID(i, 1));
+    }
+    checkBulkLoadedKeys(bp, 2*numKeys);
+  }
+
+  @Test
+  public void testBPlusTreeBulkLoadManyLevels() {
+    int numKeys = 2000;
+    List<LeafEntry> entries = new ArrayList<LeafEntry>();
+    for (int i = numKeys - 1; i >= 0; i--) {
+      entries.add(new LeafEntry(new IntDataType(i), new RecordID(i, 1)));
+      entries.add(new LeafEntry(new IntDataType(i), new RecordID(i, 0)));
+    }
+
+    // nearly empty nodes give a tree with several levels of inner nodes
+    bp.bulkLoad(entries.iterator(), 0.01, BPlusTree.DEFAULT_SORT_PAGES);
+    checkBulkLoadedKeys(bp, numKeys);
+    for (int i = 0; i < numKeys; i += 37) {
+      assertTrue(bp.containsKey(new IntDataType(i)));
+    }
+    assertFalse(bp.containsKey(new IntDataType(numKeys)));
+  }
+
+  @Test(expected = BPlusTreeException.class)
+  public void testBPlusTreeBulkLoadNonEmpty() {
+    bp.insertKey(new IntDataType(1), new RecordID(1, 0));
+    bp.bulkLoad(new ArrayList<LeafEntry>().iterator());
+  }
+
+  @Test
+  public void testBPlusTreeNodesStaySorted() {
+    Random rand = new Random(186);
+    int numKeys = 3*intLeafPageSize;
+    for (int i = 0; i < numKeys; i++) {
+      int key = rand.nextInt(intLeafPageSize);
+      bp.insertKey(new IntDataType(key), new RecordID(key, i));
+    }
+
+    // walk the leaves from the first one, which never moves off page 1, checking
+    // that every node holds its entries in order
+    LeafNode leaf = (LeafNode) BPlusNode.getBPlusNode(bp, 1);
+
+    int count = 0;
+    BEntry prev = null;
+    while (true) {
+      assertTrue(leaf.getNumValidEntries() <= intLeafPageSize);
+      for (BEntry entry : leaf.getAllValidEntries()) {
+        if (prev != null) {
+          assertTrue(prev.compareTo(entry) < 0);
+        }
+        prev = entry;
+        count++;
+      }
+      if (leaf.getNextLeaf() == -1) {
+        break;
+      }
+      leaf = (LeafNode) BPlusNode.getBPlusNode(bp, leaf.getNextLeaf());
+    }
+    assertEquals(numKeys, count);
+  }
+
+  @Test
+  public void testBPlusTreeDeleteKey() {
+    int numKeys = 10*intLeafPageSize;
+    for (int i = 0; i < numKeys; i++) {
+      bp.insertKey(new IntDataType(i), new RecordID(i, 0));
+    }
+    int numPages = bp.getNumPages();
+
+    for (int i = 0; i < numKeys; i += 2) {
+      assertTrue(bp.deleteKey(new IntDataType(i), new RecordID(i, 0)));
+    }
+    assertFalse(bp.deleteKey(new IntDataType(0), new RecordID(0, 0)));
+    assertFalse(bp.deleteKey(new IntDataType(1), new RecordID(1, 1)));
+    assertFalse(bp.deleteKey(new IntDataType(numKeys), new RecordID(numKeys, 0)));
+
+    Iterator<RecordID> rids = bp.sortedScan();
+    for (int i = 1; i < numKeys; i += 2) {
+      assertTrue(rids.hasNext());
+      assertEquals(new RecordID(i, 0), rids.next());
+    }
+    assertFalse(rids.hasNext());
+    assertFalse(bp.containsKey(new IntDataType(100)));
+    assertTrue(bp.containsKey(new IntDataType(101)));
+    assertEquals(5, bp.lookupRange(new IntDataType(100), true, new IntDataType(110), false).size());
+
+    // deleting everything but the last key merges the tree back down to a few pages
+    for (int i = 1; i < numKeys - 1; i += 2) {
+      assertTrue(bp.deleteKey(new IntDataType(i), new RecordID(i, 0)));
+    }
+    bp.rebalance();
+    assertTrue(bp.getNumPages() < numPages);
+    assertTrue(bp.getNumPages() <= 3);
+    rids = bp.sortedScan();
+    assertEquals(new RecordID(numKeys - 1, 0), rids.next());
+    assertFalse(rids.hasNext());
+
+    // the freed pages are reused by inserts
+    for (int i = 0; i < numKeys - 1; i++) {
+      bp.insertKey(new IntDataType(i), new RecordID(i, 0));
+    }
+    assertEquals(numPages, bp.getNumPages());
+    rids = bp.sortedScan();
+    for (int i = 0; i < numKeys; i++) {
+      assertEquals(new RecordID(i, 0), rids.next());
+    }
+    assertFalse(rids.hasNext());
+  }
+
+  @Test
+  public void testBPlusTreeDeleteDuplicates() {
+    // a single key spanning several leaves, between neighbours on either side
+    int numDups = 5*intLeafPageSize;
+    bp.insertKey(new IntDataType(6), new RecordID(6, 0));
+    bp.insertKey(new IntDataType(8), new RecordID(8, 0));
+    for (int i = 0; i < numDups; i++) {
+      bp.insertKey(new IntDataType(7), new RecordID(7, i));
+    }
+
+    for (int i = 0; i < numDups; i++) {
+      if (i % 3 != 0) {
+        assertTrue(bp.deleteKey(new IntDataType(7), new RecordID(7, i)));
+      }
+    }
+    bp.rebalance();
+
+    List<RecordID> expected = new ArrayList<RecordID>();
+    for (int i = 0; i < numDups; i += 3) {
+      expected.add(new RecordID(7, i));
+    }
+    List<RecordID> found = new ArrayList<RecordID>();
+    Iterator<RecordID> rids = bp.lookupKey(new IntDataType(7));
+    while (rids.hasNext()) {
+      found.add(rids.next());
+    }
+    assertEquals(expected.size(), found.size());
+    assertEquals(new HashSet<RecordID>(expected), new HashSet<RecordID>(found));
+    assertEquals(new RecordID(8, 0), bp.sortedScanFrom(new IntDataType(8)).next());
+  }
+
+  @Test
+  public void testBPlusTreeInsertsAndDeletes() {
+    Random rand = new Random(44);
+    List<LeafEntry> live = new ArrayList<LeafEntry>();
+    for (int i = 0; i < 20000; i++) {
+      if (live.isEmpty() || rand.nextInt(5) < 3) {
+        int key = rand.nextInt(1000);
+        LeafEntry ent = new LeafEntry(new IntDataType(key), new RecordID(key, i));
+        bp.insertKey(ent.getKey(), ent.getRecordID());
+        live.add(ent);
+      } else {
+        LeafEntry ent = live.remove(rand.nextInt(live.size()));
+        assertTrue(bp.deleteKey(ent.getKey(), ent.getRecordID()));
+      }
+    }
+
+    // the scan yields every live entry once, in key order
+    List<RecordID> expected = new ArrayList<RecordID>();
+    for (LeafEntry ent : live) {
+      expected.add(ent.getRecordID());
+    }
+    List<RecordID> found = new ArrayList<RecordID>();
+    Iterator<RecordID> rids = bp.sortedScan();
+    int prevKey = -1;
+    while (rids.hasNext()) {
+      RecordID rid = rids.next();
+      assertTrue(prevKey <= rid.getPageNum());
+      prevKey = rid.getPageNum();
+      found.add(rid);
+    }
+    assertEquals(expected.size(), found.size());
+    assertEquals(new HashSet<RecordID>(expected), new HashSet<RecordID>(found));
+    assertEquals(expected.size(), bp.lookupRange(null, true, null, true).size());
+  }
+
+  @Test
+  public void testBPlusTreeDeleteManyLevels() {
+    // keys this wide leave room for only a few entries per node, so the tree
+    // has several levels of inner nodes to merge and redistribute
+    String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+    BPlusTree wide = new BPlusTree(new StringDataType(250), "WideTree", tempFolderPath);
+    int numKeys = 2000;
+    List<Integer> keys = new ArrayList<Integer>();
+    for (int i = 0; i < numKeys; i++) {
+      keys.add(i);
+      wide.insertKey(wideKey(i), new RecordID(i, 0));
+    }
+    int numPages = wide.getNumPages();
+
+    Collections.shuffle(keys, new Random(250));
+    for (int key : keys.subList(0, 9*numKeys/10)) {
+      assertTrue(wide.deleteKey(wideKey(key), new RecordID(key, 0)));
+    }
+    wide.rebalance();
+    assertTrue(wide.getNumPages() < numPages / 4);
+
+    List<Integer> left = new ArrayList<Integer>(keys.subList(9*numKeys/10, numKeys));
+    Collections.sort(left);
+    Iterator<RecordID> rids = wide.sortedScan();
+    for (int key : left) {
+      assertEquals(new RecordID(key, 0), rids.next());
+      assertTrue(wide.containsKey(wideKey(key)));
+    }
+    assertFalse(rids.hasNext());
+
+    for (int key : left) {
+      assertTrue(wide.deleteKey(wideKey(key), new RecordID(key, 0)));
+    }
+    wide.rebalance();
+    assertFalse(wide.sortedScan().hasNext());
+    assertEquals(2, wide.getNumPages());
+  }
+
+  @Test
+  public void testBPlusTreeRebalanceIOs() {
+    String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+    BPlusTree wide = new BPlusTree(new StringDataType(250), "WideTree", tempFolderPath);
+    int numKeys = 3000;
+    for (int i = 0; i < numKeys; i++) {
+      wide.insertKey(wideKey(i), new RecordID(i, 0));
+    }
+    int numPages = wide.getNumPages();
+
+    // emptying a few leaves in the middle only rebalances them and their
+    // parents; visiting every node of the tree, a few times over, took more
+    // than ten times as many page reads as the tree has pages
+    for (int i = 1000; i < 1100; i++) {
+      assertTrue(wide.deleteKey(wideKey(i), new RecordID(i, 0)));
+    }
+    long before = PageAllocator.getNumIOs();
+    wide.rebalance();
+    long ios = PageAllocator.getNumIOs() - before;
+    assertTrue(wide.getNumPages() < numPages);
+    assertTrue(ios < 4 * numPages);
+
+    Iterator<RecordID> rids = wide.sortedScan();
+    for (int i = 0; i < numKeys; i++) {
+      if (i < 1000 || i >= 1100) {
+        assertEquals(new RecordID(i, 0), rids.next());
+      }
+    }
+    assertFalse(rids.hasNext());
+  }
+
+  @Test
+  public void testBPlusTreeInnerSplitIOs() {
+    String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+    BPlusTree wide = new BPlusTree(new StringDataType(250), "WideTree", tempFolderPath);
+
+    // nodes don't point at their parents, so splitting an inner node costs
+    // about as much as splitting a leaf, rather than touching every child
+    // that moves to the new node
+    long leafSplitIOs = 0;
+    int innerSplits = 0;
+    for (int i = 0; i < 3000; i++) {
+      int numPages = wide.getNumPages();
+      long before = PageAllocator.getNumIOs();
+      wide.insertKey(wideKey(i), new RecordID(i, 0));
+      long ios = PageAllocator.getNumIOs() - before;
+      int newPages = wide.getNumPages() - numPages;
+      if (newPages == 1) {
+        leafSplitIOs = Math.max(leafSplitIOs, ios);
+      } else if (newPages > 1 && leafSplitIOs > 0) {
+        assertTrue(ios <= leafSplitIOs * newPages);
+        innerSplits++;
+      }
+    }
+    assertTrue(innerSplits > 0);
+    for (int i = 0; i < 3000; i += 7) {
+      assertEquals(new RecordID(i, 0), wide.lookupKey(wideKey(i)).next());
+    }
+  }
+
+  @Test
+  public void testBPlusTreeStringKeyCompression() {
+    String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+    BPlusTree urls = new BPlusTree(new StringDataType(200), "UrlTree", tempFolderPath);
+
+    // keys that share a long prefix and are mostly padding take up a few
+    // bytes each, so nodes hold far more of them than fit at full size
+    int numKeys = 5000;
+    for (int i = 0; i < numKeys; i++) {
+      urls.insertKey(new StringDataType("http://www.example.com/page/" + i, 200), new RecordID(i, 0));
+      // a key that sorts before the padding of its neighbour
+      urls.insertKey(new StringDataType("http://www.example.com/page/" + i + "!", 200), new RecordID(i, 1));
+    }
+    int fullSizeLeaves = 2 * numKeys / ((4096 - 13) / 208);
+    assertTrue(urls.getNumPages() < fullSizeLeaves / 4);
+
+    BPlusTree reopened = new BPlusTree("UrlTree", tempFolderPath);
+    for (int i = 0; i < numKeys; i += 13) {
+      Iterator<RecordID> rids = reopened.lookupKey(new StringDataType("http://www.example.com/page/" + i, 200));
+      assertEquals(new RecordID(i, 0), rids.next());
+      assertFalse(rids.hasNext());
+      assertTrue(reopened.containsKey(new StringDataType("http://www.example.com/page/" + i + "!", 200)));
+      assertFalse(reopened.containsKey(new StringDataType("http://www.example.com/page/" + i + " !", 200)));
+    }
+    assertFalse(reopened.containsKey(new StringDataType("http://www.example.com/", 200)));
+    assertFalse(reopened.containsKey(new StringDataType("http://www.example.org/page/1", 200)));
+
+    // deletes and rebalancing re-encode merged and redistributed nodes
+    for (int i = 0; i < numKeys; i++) {
+      if (i % 10 != 0) {
+        assertTrue(reopened.deleteKey(new StringDataType("http://www.example.com/page/" + i, 200), new RecordID(i, 0)));
+        assertTrue(reopened.deleteKey(new StringDataType("http://www.example.com/page/" + i + "!", 200), new RecordID(i, 1)));
+      }
+    }
+    reopened.rebalance();
+    List<String> expected = new ArrayList<String>();
+    for (int i = 0; i < numKeys; i += 10) {
+      expected.add("http://www.example.com/page/" + i);
+      expected.add("http://www.example.com/page/" + i + "!");
+    }
+    Collections.sort(expected);
+    Iterator<RecordID> rids = reopened.sortedScan();
+    for (String key : expected) {
+      int i = Integer.parseInt(key.substring(28, key.endsWith("!") ? key.length() - 1 : key.length()));
+      assertEquals(new RecordID(i, key.endsWith("!") ? 1 : 0), rids.next());
+    }
+    assertFalse(rids.hasNext());
+  }
+
+  @Test
+  public void testBPlusTreePostingListsUpdateRecordID() {
+    String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+    BPlusTree flags = new BPlusTree(new IntDataType(), "PostingTree", tempFolderPath, true);
+
+    // dense RecordIDs make for one-byte deltas that fill the leaves
+    for (int i = 0; i < 3000; i++) {
+      flags.insertKey(new IntDataType(i % 2), new RecordID(i / 2, 0));
+    }
+
+    // a RecordID far away needs a longer delta than the one it replaces
+    for (int i = 0; i < 3000; i += 4) {
+      assertTrue(flags.updateRecordID(new IntDataType(i % 2), new RecordID(i / 2, 0),
+                                      new RecordID(1000000 + i, 7)));
+    }
+
+    for (int k = 0; k < 2; k++) {
+      List<RecordID> expected = new ArrayList<RecordID>();
+      List<RecordID> moved = new ArrayList<RecordID>();
+      for (int i = k; i < 3000; i += 2) {
+        if (i % 4 == 0) {
+          moved.add(new RecordID(1000000 + i, 7));
+        } else {
+          expected.add(new RecordID(i / 2, 0));
+        }
+      }
+      expected.addAll(moved);
+
+      Iterator<RecordID> rids = flags.lookupKey(new IntDataType(k));
+      for (RecordID rid : expected) {
+        assertEquals(rid, rids.next());
+      }
+      assertFalse(rids.hasNext());
+    }
+  }
+
+  @Test
+  public void testBPlusTreePostingLists() {
+    String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+    BPlusTree flags = new BPlusTree(new IntDataType(), "PostingTree", tempFolderPath, true);
+
+    // a few keys with many records each, inserted in no particular order
+    int numKeys = 10;
+    int numRids = 2000;
+    List<Integer> order = new ArrayList<Integer>();
+    for (int i = 0; i < numKeys * numRids; i++) {
+      order.add(i);
+    }
+    Collections.shuffle(order, new Random(186));
+    for (int i : order) {
+      DataType key = new IntDataType(i % numKeys);
+      RecordID rid = new RecordID(i / numKeys / 50, i / numKeys % 50);
+      flags.insertKey(key, rid);
+      bp.insertKey(key, rid);
+    }
+    assertTrue(flags.getNumPages() < bp.getNumPages() / 4);
+
+    // the records of a key come out sorted, from the few leaves holding them
+    long before = PageAllocator.getNumIOs();
+    Iterator<RecordID> rids = flags.lookupKey(new IntDataType(3));
+    for (int j = 0; j < numRids; j++) {
+      assertEquals(new RecordID(j / 50, j % 50), rids.next());
+    }
+    assertFalse(rids.hasNext());
+    long postingIOs = PageAllocator.getNumIOs() - before;
+    before = PageAllocator.getNumIOs();
+    rids = bp.lookupKey(new IntDataType(3));
+    while (rids.hasNext()) {
+      rids.next();
+    }
+    assertTrue(4 * postingIOs < PageAllocator.getNumIOs() - before);
+
+    for (int i : order) {
+      if (i / numKeys % 2 == 1) {
+        assertTrue(flags.deleteKey(new IntDataType(i % numKeys), new RecordID(i / numKeys / 50, i / numKeys % 50)));
+      }
+    }
+    assertFalse(flags.deleteKey(new IntDataType(3), new RecordID(0, 1)));
+    flags.rebalance();
+
+    BPlusTree reopened = new BPlusTree("PostingTree", tempFolderPath);
+    assertTrue(reopened.hasPostingLists());
+    for (int k = 0; k < numKeys; k++) {
+      rids = reopened.lookupKey(new IntDataType(k));
+      for (int j = 0; j < numRids; j += 2) {
+        assertEquals(new RecordID(j / 50, j % 50), rids.next());
+      }
+      assertFalse(rids.hasNext());
+    }
+    assertFalse(reopened.containsKey(new IntDataType(numKeys)));
+  }
+
+  @Test
+  public void testBPlusTreeDeleteDuplicatesInsertedOutOfOrder() {
+    // the records of a key span several leaves, and are inserted last first
+    int numRids = 3 * intLeafPageSize;
+    for (int i = 0; i < 100; i++) {
+      bp.insertKey(new IntDataType(2 * i), new RecordID(i, 0));
+    }
+    for (int j = numRids - 1; j >= 0; j--) {
+      bp.insertKey(new IntDataType(101), new RecordID(j, 1));
+    }
+
+    Iterator<RecordID> rids = bp.lookupKey(new IntDataType(101));
+    for (int j = 0; j < numRids; j++) {
+      assertEquals(new RecordID(j, 1), rids.next());
+    }
+    assertFalse(rids.hasNext());
+
+    for (int j = 0; j < numRids; j++) {
+      assertTrue(bp.deleteKey(new IntDataType(101), new RecordID(j, 1)));
+    }
+    assertFalse(bp.containsKey(new IntDataType(101)));
+    assertTrue(bp.containsKey(new IntDataType(100)));
+    assertTrue(bp.containsKey(new IntDataType(102)));
+  }
+
+  @Test
+  public void testBPlusTreeInnerNodeCache() {
+    String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+    BPlusTree wide = new BPlusTree(new StringDataType(250), "WideTree", tempFolderPath);
+    for (int i = 0; i < 2000; i++) {
+      wide.insertKey(wideKey(i), new RecordID(i, 0));
+    }
+
+    // a reopened tree starts with nothing cached, so its first lookup reads
+    // every inner node on the way down and the second one none of them
+    BPlusTree reopened = new BPlusTree("WideTree", tempFolderPath);
+    DataType key = wideKey(1234);
+    long before = PageAllocator.getNumIOs();
+    assertEquals(new RecordID(1234, 0), reopened.lookupKey(key).next());
+    long coldIOs = PageAllocator.getNumIOs() - before;
+    before = PageAllocator.getNumIOs();
+    assertEquals(new RecordID(1234, 0), reopened.lookupKey(key).next());
+    long warmIOs = PageAllocator.getNumIOs() - before;
+    assertTrue(warmIOs + 6 <= coldIOs);
+
+    // splits and merges of cached nodes are seen by later lookups
+    for (int i = 2000; i < 3000; i++) {
+      reopened.insertKey(wideKey(i), new RecordID(i, 0));
+    }
+    for (int i = 0; i < 2500; i++) {
+      reopened.deleteKey(wideKey(i), new RecordID(i, 0));
+    }
+    reopened.rebalance();
+    for (int i = 0; i < 3000; i += 7) {
+      assertEquals(i >= 2500, reopened.containsKey(wideKey(i)));
+    }
+  }
+
+  @Test
+  public void testBPlusTreeConcurrentInsertsAndLookups() throws Exception {
+    final int numThreads = 4;
+    final int numKeys = 10 * intLeafPageSize;
+    final int numInserts = 30000;
+    for (int i = 0; i < numKeys; i++) {
+      bp.insertKey(new IntDataType(i), new RecordID(i, 0));
+    }
+
+    // writers insert every numThreads-th key from numKeys on, enough to split
+    // the root, while the even keys below numKeys are deleted and readers look
+    // up and scan the odd ones
+    final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < numThreads; t++) {
+      final int writer = t;
+      threads.add(new Thread(new Runnable() {
+        public void run() {
+          try {
+            for (int i = 0; i < numInserts; i++) {
+              int key = numKeys + i * numThreads + writer;
+              bp.insertKey(new IntDataType(key), new RecordID(key, 0));
+            }
+          } catch (Throwable e) {
+            failures.add(e);
+          }
+        }
+      }));
+
+      final Random rand = new Random(t);
+      threads.add(new Thread(new Runnable() {
+        public void run() {
+          try {
+            for (int i = 0; i < 1000; i++) {
+              int key = 2 * rand.nextInt(numKeys / 2) + 1;
+              Iterator<RecordID> rids = bp.lookupKey(new IntDataType(key));
+              assertEquals(new RecordID(key, 0), rids.next());
+              assertFalse(rids.hasNext());
+
+              // even keys may or may not have been deleted yet
+              if (i % 20 == 0) {
+                rids = bp.sortedScanFrom(new IntDataType(key));
+                int prev = -1;
+                int nextOdd = key;
+                for (int j = 0; j < 2 * intLeafPageSize && rids.hasNext(); j++) {
+                  int next = rids.next().getPageNum();
+                  assertTrue(next > prev);
+                  if (next % 2 == 1 && next < numKeys) {
+                    assertEquals(nextOdd, next);
+                    nextOdd += 2;
+                  }
+                  prev = next;
+                }
+
+                int numOdd = 0;
+                for (RecordID rid : bp.lookupRange(new IntDataType(key), true,
+                                                   new IntDataType(key + 10), false)) {
+                  if (rid.getPageNum() < numKeys) {
+                    numOdd += rid.getPageNum() % 2;
+                  }
+                }
+                assertEquals(Math.min(5, (numKeys - key + 1) / 2), numOdd);
+              }
+            }
+          } catch (Throwable e) {
+            failures.add(e);
+          }
+        }
+      }));
+    }
+    threads.add(new Thread(new Runnable() {
+      public void run() {
+        try {
+          for (int key = 0; key < numKeys; key += 2) {
+            assertTrue(bp.deleteKey(new IntDataType(key), new RecordID(key, 0)));
+          }
+        } catch (Throwable e) {
+          failures.add(e);
+        }
+      }
+    }));
+
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(Collections.emptyList(), failures);
+
+    bp.rebalance();
+    Iterator<RecordID> rids = bp.sortedScan();
+    for (int key = 1; key < numKeys; key += 2) {
+      assertEquals(new RecordID(key, 0), rids.next());
+    }
+    for (int key = numKeys; key < numKeys + numThreads * numInserts; key++) {
+      assertEquals(new RecordID(key, 0), rids.next());
+    }
+    assertFalse(rids.hasNext());
+  }
+
+  @Test
+  public void testBPlusTreeConcurrentSplits() throws Exception {
+    final int numKeys = 20 * intLeafPageSize;
+    for (int i = 0; i < numKeys; i++) {
+      bp.insertKey(new IntDataType(i), new RecordID(i, 0));
+    }
+
+    // the threads take turns at the keys above numKeys, so that they split the
+    // same leaves, and their parents, at the same time
+    final int numThreads = 4;
+    final int numOps = 40000;
+    final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < numThreads; t++) {
+      final int first = t;
+      threads.add(new Thread(new Runnable() {
+        public void run() {
+          try {
+            Random rand = new Random(first);
+            for (int i = first; i < numOps; i += numThreads) {
+              if (i % 2 == 0) {
+                int key = numKeys + i;
+                bp.insertKey(new IntDataType(key), new RecordID(key, 0));
+              } else {
+                int key = rand.nextInt(numKeys);
+                assertEquals(new RecordID(key, 0), bp.lookupKey(new IntDataType(key)).next());
+              }
+            }
+          } catch (Throwable e) {
+            failures.add(e);
+          }
+        }
+      }));
+    }
+
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(Collections.emptyList(), failures);
+
+    Iterator<RecordID> rids = bp.sortedScan();
+    for (int key = 0; key < numKeys; key++) {
+      assertEquals(new RecordID(key, 0), rids.next());
+    }
+    for (int key = numKeys; key < numKeys + numOps; key += 2) {
+      assertEquals(new RecordID(key, 0), rids.next());
+    }
+    assertFalse(rids.hasNext());
+  }
+
+  @Test
+  public void testBPlusTreeConcurrentRebalance() throws Exception {
+    final int numKeys = 20 * intLeafPageSize;
+    final int numInserts = 10 * intLeafPageSize;
+    for (int i = 0; i < numKeys; i++) {
+      bp.insertKey(new IntDataType(i), new RecordID(i, 0));
+    }
+
+    // two threads delete the even keys below numKeys, a third rebalances over
+    // and over, and a fourth inserts keys from numKeys on, while readers scan
+    // the whole tree: no odd key below numKeys is ever missed or read twice
+    final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+    final boolean[] done = new boolean[1];
+    List<Thread> writers = new ArrayList<Thread>();
+    for (int t = 0; t < 2; t++) {
+      final int first = 2 * t;
+      writers.add(new Thread(new Runnable() {
+        public void run() {
+          try {
+            for (int key = first; key < numKeys; key += 4) {
+              assertTrue(bp.deleteKey(new IntDataType(key), new RecordID(key, 0)));
+            }
+          } catch (Throwable e) {
+            failures.add(e);
+          }
+        }
+      }));
+    }
+    writers.add(new Thread(new Runnable() {
+      public void run() {
+        try {
+          for (int key = numKeys; key < numKeys + numInserts; key++) {
+            bp.insertKey(new IntDataType(key), new RecordID(key, 0));
+          }
+        } catch (Throwable e) {
+          failures.add(e);
+        }
+      }
+    }));
+
+    List<Thread> threads = new ArrayList<Thread>(writers);
+    threads.add(new Thread(new Runnable() {
+      public void run() {
+        try {
+          while (!done[0]) {
+            bp.rebalance();
+          }
+        } catch (Throwable e) {
+          failures.add(e);
+        }
+      }
+    }));
+    for (int t = 0; t < 2; t++) {
+      threads.add(new Thread(new Runnable() {
+        public void run() {
+          try {
+            while (!done[0]) {
+              Iterator<RecordID> rids = bp.sortedScan();
+              int prev = -1;
+              int nextOdd = 1;
+              while (rids.hasNext()) {
+                int next = rids.next().getPageNum();
+                assertTrue(next > prev);
+                if (next % 2 == 1 && next < numKeys) {
+                  assertEquals(nextOdd, next);
+                  nextOdd += 2;
+                }
+                prev = next;
+              }
+              assertEquals(numKeys + 1, nextOdd);
+            }
+          } catch (Throwable e) {
+            failures.add(e);
+          }
+        }
+      }));
+    }
+
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : writers) {
+      thread.join();
+    }
+    synchronized (done) {
+      done[0] = true;
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(Collections.emptyList(), failures);
+
+    bp.rebalance();
+    Iterator<RecordID> rids = bp.sortedScan();
+    for (int key = 1; key < numKeys; key += 2) {
+      assertEquals(new RecordID(key, 0), rids.next());
+    }
+    for (int key = numKeys; key < numKeys + numInserts; key++) {
+      assertEquals(new RecordID(key, 0), rids.next());
+    }
+    assertFalse(rids.hasNext());
+  }
+
+  @Test
+  public void testBPlusTreeOpenRecordSeparatorsFormat() throws Exception {
+    // an index of FORMAT_RECORD_SEPARATORS: a header, and a single leaf whose
+    // header is its type and its previous and next leaves
+    String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+    PageAllocator allocator = new PageAllocator(
+        new File(tempFolderPath, "OldTree" + BPlusTree.FILENAME_EXTENSION).getPath(), true);
+    Page header = allocator.fetchPage(allocator.allocPage());
+    Page leaf = allocator.fetchPage(allocator.allocPage());
+    header.writeInt(0, leaf.getPageNum());
+    header.writeInt(4, leaf.getPageNum());
+    header.writeInt(8, DataType.Types.INT.ordinal());
+    header.writeInt(12, BPlusTree.FORMAT_RECORD_SEPARATORS);
+    header.writeInt(16, 0);
+    leaf.writeByte(0, (byte) 1);
+    leaf.writeInt(1, -1);
+    leaf.writeInt(5, -1);
+    int numEntries = 100;
+    leaf.writeInt(9, numEntries);
+    for (int i = 0; i < numEntries; i++) {
+      byte[] entry = new LeafEntry(new IntDataType(2 * i), new RecordID(i, 0)).toBytes();
+      leaf.writeBytes(13 + i * entry.length, entry.length, entry);
+    }
+    header.flush();
+    leaf.flush();
+    allocator.close();
+
+    // it is rebuilt when it is opened, and splits and scans as usual after
+    BPlusTree reopened = new BPlusTree("OldTree", tempFolderPath);
+    for (int i = 0; i < numEntries; i++) {
+      assertEquals(new RecordID(i, 0), reopened.lookupKey(new IntDataType(2 * i)).next());
+      assertFalse(reopened.containsKey(new IntDataType(2 * i + 1)));
+    }
+    for (int i = 0; i < 2 * intLeafPageSize; i++) {
+      reopened.insertKey(new IntDataType(2 * numEntries + i), new RecordID(numEntries + i, 0));
+    }
+    Iterator<RecordID> rids = reopened.sortedScan();
+    for (int i = 0; i < numEntries + 2 * intLeafPageSize; i++) {
+      assertEquals(new RecordID(i, 0), rids.next());
+    }
+    assertFalse(rids.hasNext());
+  }
+
+  @Test
+  public void testBPlusTreeContainsEntry() {
+    String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+    BPlusTree flags = new BPlusTree(new BoolDataType(), "FlagTree", tempFolderPath, true);
+    // one key with entries across many leaves, and every other RecordID missing
+    int numEntries = 10 * intLeafPageSize;
+    for (int i = 0; i < numEntries; i += 2) {
+      flags.insertKey(new BoolDataType(true), new RecordID(i, 0));
+    }
+
+    for (int i = 0; i < numEntries; i++) {
+      assertEquals(i % 2 == 0, flags.containsEntry(new BoolDataType(true), new RecordID(i, 0)));
+      assertFalse(flags.containsEntry(new BoolDataType(false), new RecordID(i, 0)));
+    }
+  }
+
+  @Test
+  public void testBPlusTreeNegativeKeys() {
+    // keys on both sides of zero across several leaves
+    for (int i = intLeafPageSize; i >= -intLeafPageSize; i--) {
+      bp.insertKey(new IntDataType(i), new RecordID(i + intLeafPageSize, 0));
+    }
+
+    Iterator<RecordID> rids = bp.sortedScan();
+    int count = 0;
+    while (rids.hasNext()) {
+      assertEquals(count, rids.next().getPageNum());
+      count++;
+    }
+    assertEquals(2*intLeafPageSize + 1, count);
+
+    rids = bp.sortedScanFrom(new IntDataType(-3));
+    assertEquals(intLeafPageSize - 3, rids.next().getPageNum());
+    assertEquals(new RecordID(intLeafPageSize - 1, 0), bp.lookupKey(new IntDataType(-1)).next());
+    assertEquals(11, bp.lookupRange(new IntDataType(-5), true, new IntDataType(5), true).size());
+  }
+
+  @Test
+  public void testBPlusTreeFloatKeys() throws Exception {
+    String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+    BPlusTree floats = new BPlusTree(new FloatDataType(), "FloatTree", tempFolderPath);
+    for (int i = 0; i < 2*intLeafPageSize; i++) {
+      floats.insertKey(new FloatDataType(-0.5f * i), new RecordID(i, 0));
+    }
+
+    Iterator<RecordID> rids = floats.sortedScan();
+    int count = 2*intLeafPageSize - 1;
+    while (rids.hasNext()) {
+      assertEquals(count, rids.next().getPageNum());
+      count--;
+    }
+    assertEquals(-1, count);
+
+    BPlusTree reopened = new BPlusTree("FloatTree", tempFolderPath);
+    assertEquals(new RecordID(3, 0), reopened.lookupKey(new FloatDataType(-1.5f)).next());
+    assertFalse(reopened.containsKey(new FloatDataType(-1.25f)));
+  }
+
   @Test
   @Category(StudentTest.class) public void testOneLeafSplit() {
       for (int i = 0; i < intLeafPageSize; i++) { //split, create new root
@@ -14,6 +14,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.io.File;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ArrayList;
@@ -444,5 +445,151 @@ public class TestPageAllocator {
     }
   }
 
+  @Test
+  public void TestPageAllocatorConcurrentReads() throws IOException, InterruptedException {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false);
+
+    final int pageNum = pA.allocPage();
+    final Page p = pA.fetchPage(pageNum);
+    byte[] data = new byte[Page.pageSize];
+    for (int i = 0; i < Page.pageSize; i++) {
+      data[i] = (byte) (i / 16);
+    }
+    p.writeBytes(0, Page.pageSize, data);
+
+    // every thread reads its own 16 byte chunks of the same cached page
+    final boolean[] failed = new boolean[1];
+    Thread[] threads = new Thread[8];
+    for (int t = 0; t < threads.length; t++) {
+      final int thread = t;
+      threads[t] = new Thread(new Runnable() {
+        public void run() {
+          for (int round = 0; round < 2000; round++) {
+            int chunk = (thread + round * threads.length) % (Page.pageSize / 16);
+            for (byte b : p.readBytes(chunk * 16, 16)) {
+              if (b != (byte) chunk) {
+                failed[0] = true;
+              }
+            }
+          }
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertFalse(failed[0]);
+    assertSame(p, pA.fetchPage(pageNum));
+    pA.close();
+  }
+
+  @Test
+  public void TestBlockCodecRoundTrip() {
+    byte[] runs = new byte[Page.pageSize];
+    for (int i = 0; i < runs.length; i++) {
+      runs[i] = (byte) ((i / 100) % 7);
+    }
+    byte[] random = new byte[Page.pageSize];
+    new java.util.Random(186).nextBytes(random);
+
+    for (byte[] src : new byte[][] {new byte[0], new byte[Page.pageSize], runs, random}) {
+      byte[] compressed = BlockCodec.compress(src);
+      assertTrue(compressed.length <= BlockCodec.maxCompressedLength(src.length));
+
+      byte[] dest = new byte[src.length];
+      assertEquals(src.length, BlockCodec.decompress(compressed, dest));
+      assertArrayEquals(src, dest);
+    }
+
+    assertTrue(BlockCodec.compress(runs).length < Page.pageSize / 10);
+  }
+
+  @Test
+  public void TestPageAllocatorCompressPage() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false);
+
+    int cold = pA.allocPage();
+    int hot = pA.allocPage();
+    byte[] data = new byte[Page.pageSize];
+    for (int i = 0; i < Page.pageSize; i++) {
+      data[i] = (byte) (i % 50 < 10 ? i : 0);
+    }
+    pA.fetchPage(cold).writeBytes(0, Page.pageSize, data);
 
+    assertTrue(pA.compressPage(cold));
+    assertFalse(pA.compressPage(cold));
+    assertTrue(pA.isCompressed(cold));
+    assertFalse(pA.isCompressed(hot));
+    assertArrayEquals(data, pA.fetchPage(cold).readBytes());
+
+    try {
+      pA.fetchPage(cold).writeByte(0, (byte) 1);
+      fail();
+    } catch (PageException e) {
+      // expected
+    }
+
+    // the extent file is reread when the allocator is reopened
+    pA.close();
+    pA = new PageAllocator(tempFile.getAbsolutePath(), false, false);
+    assertTrue(pA.isCompressed(cold));
+    assertArrayEquals(data, pA.fetchPage(cold).readBytes());
+
+    // a freed compressed page is reallocated as a regular page
+    assertTrue(pA.freePage(cold));
+    assertEquals(cold, pA.allocPage());
+    assertFalse(pA.isCompressed(cold));
+    pA.close();
+  }
+
+  @Test
+  public void TestPageAllocatorReuseCompressedBlocks() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false);
+
+    byte[] data = new byte[Page.pageSize];
+    for (int i = 0; i < Page.pageSize; i++) {
+      data[i] = (byte) (i % 50 < 10 ? i : 0);
+    }
+    int[] cold = new int[20];
+    for (int i = 0; i < cold.length; i++) {
+      cold[i] = pA.allocPage();
+      pA.fetchPage(cold[i]).writeBytes(0, Page.pageSize, data);
+    }
+    for (int i = 0; i < cold.length; i++) {
+      assertTrue(pA.compressPage(cold[i]));
+    }
+
+    // the new pages are stored in the blocks the compressed pages left behind
+    long length = tempFile.length();
+    int[] hot = new int[cold.length];
+    for (int i = 0; i < hot.length; i++) {
+      hot[i] = pA.allocPage();
+      byte[] fill = new byte[Page.pageSize];
+      Arrays.fill(fill, (byte) (i + 1));
+      pA.fetchPage(hot[i]).writeBytes(0, Page.pageSize, fill);
+    }
+    assertEquals(length, tempFile.length());
+
+    pA.close();
+    pA = new PageAllocator(tempFile.getAbsolutePath(), false, false);
+    for (int i = 0; i < cold.length; i++) {
+      assertArrayEquals(data, pA.fetchPage(cold[i]).readBytes());
+    }
+    for (int i = 0; i < hot.length; i++) {
+      byte[] fill = new byte[Page.pageSize];
+      Arrays.fill(fill, (byte) (i + 1));
+      assertArrayEquals(fill, pA.fetchPage(hot[i]).readBytes());
+    }
+
+    // a freed page gives its block back
+    assertTrue(pA.freePage(hot[0]));
+    assertEquals(hot[0], pA.allocPage());
+    assertEquals(length, tempFile.length());
+    pA.close();
+  }
 }
@@ -217,12 +217,9 @@ public class OptimalQueryPlanJoinsTest {
                   "leftColumn: t1.string\n" +
                   "rightColumn: t2.string\n" +
                   "\t(left)\n" +
-                  "\ttype: WHERE\n" +
-                  "\tcolumn: t1.bool\n" +
-                  "\tpredicate: NOT_EQUALS\n" +
-                  "\tvalue: false\n" +
-                  "\t\ttype: SEQSCAN\n" +
-                  "\t\ttable: t1\n" +
+                  "\ttype: SEQSCAN\n" +
+                  "\ttable: t1\n" +
+                  "\tpredicate: t1.bool NOT_EQUALS false\n" +
                   "\n" +
                   "\t(right)\n" +
                   "\ttype: SEQSCAN\n" +
@@ -269,12 +266,9 @@ public class OptimalQueryPlanJoinsTest {
                   "\tleftColumn: t1.string\n" +
                   "\trightColumn: t2.string\n" +
                   "\t\t(left)\n" +
-                  "\t\ttype: WHERE\n" +
-                  "\t\tcolumn: t1.bool\n" +
-                  "\t\tpredicate: NOT_EQUALS\n" +
-                  "\t\tvalue: false\n" +
-                  "\t\t\ttype: SEQSCAN\n" +
-                  "\t\t\ttable: t1\n" +
+                  "\t\ttype: SEQSCAN\n" +
+                  "\t\ttable: t1\n" +
+                  "\t\tpredicate: t1.bool NOT_EQUALS false\n" +
                   "\t\n" +
                   "\t\t(right)\n" +
                   "\t\ttype: SEQSCAN\n" +
@@ -332,12 +326,9 @@ public class OptimalQueryPlanJoinsTest {
                   "\t\tleftColumn: t2.int\n" +
                   "\t\trightColumn: t1.int\n" +
                   "\t\t\t(left)\n" +
-                  "\t\t\ttype: WHERE\n" +
-                  "\t\t\tcolumn: t2.int\n" +
-                  "\t\t\tpredicate: GREATER_THAN\n" +
-                  "\t\t\tvalue: 400\n" +
-                  "\t\t\t\ttype: SEQSCAN\n" +
-                  "\t\t\t\ttable: t2\n" +
+                  "\t\t\ttype: SEQSCAN\n" +
+                  "\t\t\ttable: t2\n" +
+                  "\t\t\tpredicate: t2.int GREATER_THAN 400\n" +
                   "\t\t\n" +
                   "\t\t\t(right)\n" +
                   "\t\t\ttype: SEQSCAN\n" +
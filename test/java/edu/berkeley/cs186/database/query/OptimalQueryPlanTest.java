@@ -131,12 +131,9 @@ public class OptimalQueryPlanTest {
     }
 
     QueryOperator finalOperator = queryPlan.getFinalOperator();
-    String tree = "type: WHERE\n" +
-                  "column: testAllTypes.int\n" +
-                  "predicate: GREATER_THAN_EQUALS\n" +
-                  "value: 0\n" +
-                  "\ttype: SEQSCAN\n" +
-                  "\ttable: testAllTypes";
+    String tree = "type: SEQSCAN\n" +
+                  "table: testAllTypes\n" +
+                  "predicate: testAllTypes.int GREATER_THAN_EQUALS 0";
     assertEquals(tree, finalOperator.toString());
 
     transaction.end();
@@ -204,12 +201,9 @@ public class OptimalQueryPlanTest {
     QueryOperator finalOperator = queryPlan.getFinalOperator();
     String tree = "type: SELECT\n" +
                   "columns: [bool, int]\n" +
-                  "\ttype: WHERE\n" +
-                  "\tcolumn: testAllTypes.int\n" +
-                  "\tpredicate: GREATER_THAN_EQUALS\n" +
-                  "\tvalue: 0\n" +
-                  "\t\ttype: SEQSCAN\n" +
-                  "\t\ttable: testAllTypes";
+                  "\ttype: SEQSCAN\n" +
+                  "\ttable: testAllTypes\n" +
+                  "\tpredicate: testAllTypes.int GREATER_THAN_EQUALS 0";
     assertEquals(tree, finalOperator.toString());
 
     transaction.end();
@@ -290,12 +284,9 @@ public class OptimalQueryPlanTest {
     QueryOperator finalOperator = queryPlan.getFinalOperator();
     String tree = "type: GROUPBY\n" +
                   "column: testAllTypes.int\n" +
-                  "\ttype: WHERE\n" +
-                  "\tcolumn: testAllTypes.int\n" +
-                  "\tpredicate: GREATER_THAN\n" +
-                  "\tvalue: 10\n" +
-                  "\t\ttype: SEQSCAN\n" +
-                  "\t\ttable: testAllTypes";
+                  "\ttype: SEQSCAN\n" +
+                  "\ttable: testAllTypes\n" +
+                  "\tpredicate: testAllTypes.int GREATER_THAN 10";
     assertEquals(tree, finalOperator.toString());
 
     transaction.end();
@@ -341,12 +332,9 @@ public class OptimalQueryPlanTest {
                   "columns: [float, int]\n" +
                   "\ttype: GROUPBY\n" +
                   "\tcolumn: testAllTypes.int\n" +
-                  "\t\ttype: WHERE\n" +
-                  "\t\tcolumn: testAllTypes.int\n" +
-                  "\t\tpredicate: GREATER_THAN\n" +
-                  "\t\tvalue: 10\n" +
-                  "\t\t\ttype: SEQSCAN\n" +
-                  "\t\t\ttable: testAllTypes";
+                  "\t\ttype: SEQSCAN\n" +
+                  "\t\ttable: testAllTypes\n" +
+                  "\t\tpredicate: testAllTypes.int GREATER_THAN 10";
     assertEquals(tree, finalOperator.toString());
 
     transaction.end();
@@ -371,12 +359,9 @@ public class OptimalQueryPlanTest {
     assertEquals(0, count);
 
     QueryOperator finalOperator = queryPlan.getFinalOperator();
-    String tree = "type: WHERE\n" +
-                  "column: testAllTypes.int\n" +
-                  "predicate: GREATER_THAN_EQUALS\n" +
-                  "value: 2147483647\n" +
-                  "\ttype: SEQSCAN\n" +
-                  "\ttable: testAllTypes";
+    String tree = "type: SEQSCAN\n" +
+                  "table: testAllTypes\n" +
+                  "predicate: testAllTypes.int GREATER_THAN_EQUALS 2147483647";
     assertEquals(tree, finalOperator.toString());
 
     transaction.end();
@@ -394,14 +379,16 @@ public class OptimalQueryPlanTest {
 
     Database.Transaction transaction = this.database.beginTransaction();
 
+    // insert the keys out of order so that the pages' zone maps can't narrow a sequential scan
     Record record = null;
     for (int i = 0; i < 5000; i++) {
+      int key = (i * 7919) % 5000;
       List<DataType> values = new ArrayList<DataType>();
-      values.add(new IntDataType(i));
+      values.add(new IntDataType(key));
 
       transaction.addRecord("tempIntTable", values);
 
-      if (i == 500) {
+      if (key == 500) {
         record = new Record(values);
       }
     }
@@ -464,12 +451,62 @@ public class OptimalQueryPlanTest {
     // Note that the optimzer does NOT choose the index scan operator.
     // Since indexes in our system are unclustered, the index scan
     // operator is actually more expensive for most range queries.
-    String tree = "type: WHERE\n" +
-                  "column: tempIntTable.int\n" +
-                  "predicate: GREATER_THAN_EQUALS\n" +
-                  "value: 900\n" +
-                  "\ttype: SEQSCAN\n" +
-                  "\ttable: tempIntTable";
+    String tree = "type: SEQSCAN\n" +
+                  "table: tempIntTable\n" +
+                  "predicate: tempIntTable.int GREATER_THAN_EQUALS 900";
+    assertEquals(tree, finalOperator.toString());
+  }
+
+  @Test(timeout=10000)
+  public void testBitmapHeapScanIterator() throws DatabaseException, QueryPlanException {
+    List<String> tableNames = new ArrayList<String>();
+    tableNames.add("int");
+    tableNames.add("string");
+
+    List<DataType> tableTypes = new ArrayList<DataType>();
+    tableTypes.add(new IntDataType());
+    tableTypes.add(new StringDataType(100));
+
+    List<String> indexNames = new ArrayList<String>();
+    indexNames.add("int");
+
+    this.database.createTableWithIndices(new Schema(tableNames, tableTypes), "tempWideTable", indexNames);
+
+    Database.Transaction transaction = this.database.beginTransaction();
+
+    // every key is on a hundred different pages, and every page's zone map
+    // covers every key, so both an index scan and a sequential scan read about
+    // a hundred pages
+    for (int i = 0; i < 5000; i++) {
+      List<DataType> values = new ArrayList<DataType>();
+      values.add(new IntDataType(i % 50));
+      values.add(new StringDataType("row " + i, 100));
+
+      transaction.addRecord("tempWideTable", values);
+    }
+
+    QueryPlan queryPlan = transaction.query("tempWideTable");
+    queryPlan.where("int",
+                    QueryPlan.PredicateOperator.EQUALS,
+                    new IntDataType(7));
+    Iterator<Record> result = queryPlan.executeOptimal();
+
+    int count = 0;
+    while (result.hasNext()) {
+      List<DataType> values = result.next().getValues();
+      assertEquals(7, values.get(0).getInt());
+      assertEquals("row " + (count * 50 + 7), values.get(1).getString().trim());
+      count++;
+    }
+
+    assertEquals(100, count);
+
+    QueryOperator finalOperator = queryPlan.getFinalOperator();
+    String tree = "type: BITMAPHEAPSCAN\n" +
+                  "table: tempWideTable\n" +
+                  "column: int\n" +
+                  "operator: EQUALS\n" +
+                  "value: 7";
     assertEquals(tree, finalOperator.toString());
   }
 
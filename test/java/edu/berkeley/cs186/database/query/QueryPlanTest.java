@@ -440,6 +440,200 @@ public class QueryPlanTest {
     transaction.end();
   }
 
+  @Test
+  @Category(StudentTest.class)
+  public void testStringWhereWithAggregates() throws DatabaseException, QueryPlanException {
+    Database.Transaction transaction = this.database.beginTransaction();
+    StringDataType bound = new StringDataType("M", 1);
+
+    int expectedCount = 0;
+    int expectedSum = 0;
+    Iterator<Record> records = transaction.getRecordIterator(this.defaulTableName);
+    while (records.hasNext()) {
+      List<DataType> values = records.next().getValues();
+      if (values.get(2).getString().compareTo(bound.getString()) < 0) {
+        expectedCount++;
+        expectedSum += values.get(1).getInt();
+      }
+    }
+
+    QueryPlan queryPlan = transaction.query(this.defaulTableName);
+    queryPlan.where("string", QueryPlan.PredicateOperator.LESS_THAN, bound);
+    queryPlan.count();
+    queryPlan.sum("int");
+
+    List<String> columnNames = new ArrayList<String>();
+    columnNames.add("bool");
+    queryPlan.select(columnNames);
+
+    Iterator<Record> outputIterator = queryPlan.execute();
+    assertTrue(outputIterator.hasNext());
+    Record record = outputIterator.next();
+    assertEquals(new IntDataType(expectedCount), record.getValues().get(1));
+    assertEquals(new IntDataType(expectedSum), record.getValues().get(2));
+    assertFalse(outputIterator.hasNext());
+
+    transaction.end();
+  }
+
+  @Test
+  @Category(StudentTest.class)
+  public void testWheresPushedIntoScan() throws DatabaseException, QueryPlanException {
+    Database.Transaction transaction = this.database.beginTransaction();
+    QueryPlan queryPlan = transaction.query(this.defaulTableName);
+
+    queryPlan.where("int", QueryPlan.PredicateOperator.GREATER_THAN_EQUALS, new IntDataType(20));
+    queryPlan.where("int", QueryPlan.PredicateOperator.LESS_THAN, new IntDataType(30));
+
+    Iterator<Record> outputIterator = queryPlan.execute();
+
+    int count = 0;
+    while (outputIterator.hasNext()) {
+      assertEquals(count + 20, outputIterator.next().getValues().get(1).getInt());
+      count++;
+    }
+    assertEquals(10, count);
+
+    QueryOperator finalOperator = queryPlan.getFinalOperator();
+    String tree = "type: SEQSCAN\n" +
+                  "table: testAllTypes\n" +
+                  "predicate: testAllTypes.int GREATER_THAN_EQUALS 20\n" +
+                  "predicate: testAllTypes.int LESS_THAN 30";
+    assertEquals(tree, finalOperator.toString());
+
+    transaction.end();
+  }
+
+  @Test
+  public void testParallelScan() throws DatabaseException, QueryPlanException {
+    Database.Transaction transaction = this.database.beginTransaction();
+
+    // enough records to spread over several morsels
+    for (int i = defaultNumRecords; i < 5000; i++) {
+      transaction.addRecord(this.defaulTableName,
+          TestUtils.createRecordWithAllTypesWithValue(i).getValues());
+    }
+
+    ParallelScanOperator scan = new ParallelScanOperator(transaction, this.defaulTableName, 4);
+    scan.addPredicate("int", QueryPlan.PredicateOperator.GREATER_THAN_EQUALS, new IntDataType(1000));
+    scan.addPredicate("int", QueryPlan.PredicateOperator.LESS_THAN, new IntDataType(4000));
+
+    List<String> columns = new ArrayList<String>();
+    columns.add("int");
+    scan.project(columns);
+    assertEquals(1, scan.getOutputSchema().getFieldNames().size());
+    assertEquals("testAllTypes.int", scan.getOutputSchema().getFieldNames().get(0));
+
+    boolean[] seen = new boolean[5000];
+    int count = 0;
+    Iterator<Record> outputIterator = scan.execute();
+    while (outputIterator.hasNext()) {
+      List<DataType> values = outputIterator.next().getValues();
+      assertEquals(1, values.size());
+
+      int value = values.get(0).getInt();
+      assertTrue(value >= 1000 && value < 4000);
+      assertFalse(seen[value]);
+      seen[value] = true;
+      count++;
+    }
+    assertEquals(3000, count);
+
+    transaction.end();
+  }
+
+  @Test
+  public void testParallelScanClose() throws DatabaseException, QueryPlanException {
+    Database.Transaction transaction = this.database.beginTransaction();
+
+    // far more morsels than the workers may queue ahead of the consumer
+    for (int i = defaultNumRecords; i < 20000; i++) {
+      transaction.addRecord(this.defaulTableName,
+          TestUtils.createRecordWithAllTypesWithValue(i).getValues());
+    }
+
+    ParallelScanOperator scan = new ParallelScanOperator(transaction, this.defaulTableName, 4);
+    ParallelScanOperator.ParallelScanIterator outputIterator = scan.iterator();
+    for (int i = 0; i < 10; i++) {
+      assertTrue(outputIterator.hasNext());
+      outputIterator.next();
+    }
+
+    // closing stops the workers blocked on their full queues
+    outputIterator.close();
+    assertFalse(outputIterator.hasNext());
+
+    // a closed scan doesn't keep later scans from running
+    int count = 0;
+    Iterator<Record> records = scan.execute();
+    while (records.hasNext()) {
+      records.next();
+      count++;
+    }
+    assertEquals(20000, count);
+
+    transaction.end();
+  }
+
+  @Test
+  public void testDictionaryEncodedWhereAndGroupBy() throws DatabaseException, QueryPlanException {
+    List<String> dictionaryColumns = new ArrayList<String>();
+    dictionaryColumns.add("string");
+    this.database.createTableWithDictionaries(TestUtils.createSchemaWithAllTypes(), "encoded",
+        dictionaryColumns);
+
+    Database.Transaction transaction = this.database.beginTransaction();
+    String[] statuses = {"open ", "done ", "stale"};
+    for (int i = 0; i < 300; i++) {
+      List<DataType> values = new ArrayList<DataType>();
+      values.add(new BoolDataType(true));
+      values.add(new IntDataType(i));
+      values.add(new StringDataType(statuses[i % 3], 5));
+      values.add(new FloatDataType(1.0f));
+      transaction.addRecord("encoded", values);
+    }
+
+    // equality is checked on codes, ranges on the decoded strings
+    QueryPlan queryPlan = transaction.query("encoded");
+    queryPlan.where("string", QueryPlan.PredicateOperator.EQUALS, new StringDataType("done ", 5));
+    Iterator<Record> outputIterator = queryPlan.execute();
+    int count = 0;
+    while (outputIterator.hasNext()) {
+      Record record = outputIterator.next();
+      assertEquals(1, record.getValues().get(1).getInt() % 3);
+      assertEquals("done ", record.getValues().get(2).getString());
+      count++;
+    }
+    assertEquals(100, count);
+
+    queryPlan = transaction.query("encoded");
+    queryPlan.where("string", QueryPlan.PredicateOperator.GREATER_THAN, new StringDataType("open ", 5));
+    outputIterator = queryPlan.execute();
+    count = 0;
+    while (outputIterator.hasNext()) {
+      assertEquals("stale", outputIterator.next().getValues().get(2).getString());
+      count++;
+    }
+    assertEquals(100, count);
+
+    queryPlan = transaction.query("encoded");
+    queryPlan.groupBy("string");
+    outputIterator = queryPlan.execute();
+    int numMarkers = 0;
+    count = 0;
+    while (outputIterator.hasNext()) {
+      if (outputIterator.next() == MarkerRecord.getMarker()) {
+        numMarkers++;
+      } else {
+        count++;
+      }
+    }
+    assertEquals(2, numMarkers);
+    assertEquals(300, count);
+
+    transaction.end();
+  }
+
   @Test
   public void testEmptyWhereResult() throws DatabaseException, QueryPlanException {
     Database.Transaction transaction = this.database.beginTransaction();
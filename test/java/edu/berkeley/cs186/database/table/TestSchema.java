@@ -2,6 +2,7 @@ package edu.berkeley.cs186.database.table;
 
 import edu.berkeley.cs186.database.TestUtils;
 import edu.berkeley.cs186.database.StudentTest;
+import edu.berkeley.cs186.database.datatypes.BoolDataType;
 import edu.berkeley.cs186.database.datatypes.DataType;
 import edu.berkeley.cs186.database.datatypes.IntDataType;
 import edu.berkeley.cs186.database.datatypes.StringDataType;
@@ -93,4 +94,44 @@ public class TestSchema {
       schema.verify(values);
       fail();
   }
+
+  @Test
+  @Category(StudentTest.class)
+  public void testEncodeMatchesDataTypeBytes() {
+    Schema schema = TestUtils.createSchemaWithAllTypes();
+    List<DataType> values = new ArrayList<DataType>();
+    values.add(new BoolDataType(true));
+    values.add(new IntDataType(-123456));
+    values.add(new StringDataType("ab\u00e9", 4));
+    values.add(new FloatDataType(-2.5f));
+    Record input = new Record(values);
+
+    byte[] expected = new byte[schema.getEntrySize()];
+    int offset = 0;
+    for (DataType value : values) {
+      byte[] bytes = value.getBytes();
+      System.arraycopy(bytes, 0, expected, offset, bytes.length);
+      offset += bytes.length;
+    }
+
+    assertArrayEquals(expected, schema.encode(input));
+    assertEquals(input, schema.decode(expected));
+  }
+
+  @Test
+  @Category(StudentTest.class)
+  public void testDecodeAtOffset() {
+    Schema schema = TestUtils.createSchemaWithAllTypes();
+    Record first = TestUtils.createRecordWithAllTypesWithValue(1);
+    Record second = TestUtils.createRecordWithAllTypesWithValue(2);
+
+    int size = schema.getEntrySize();
+    byte[] buf = new byte[3 + 2 * size];
+    schema.getCodec().encode(first, buf, 3);
+    schema.getCodec().encode(second, buf, 3 + size);
+
+    assertEquals(first, schema.decode(buf, 3));
+    assertEquals(second, schema.decode(buf, 3 + size));
+    assertEquals(new IntDataType(2), schema.getCodec().decodeField(buf, 3 + size, 1));
+  }
 }
@@ -7,6 +7,7 @@ import edu.berkeley.cs186.database.datatypes.*;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.RecordID;
 import edu.berkeley.cs186.database.io.PageAllocator;
+import edu.berkeley.cs186.database.query.QueryPlan;
 
 import org.junit.After;
 import org.junit.Before;
@@ -19,9 +20,13 @@ import org.junit.experimental.categories.Category;
 import org.junit.rules.Timeout;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.List;
 import java.util.Iterator;
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 
 import static org.junit.Assert.*;
 
@@ -249,6 +254,459 @@ public class TestTable {
     assertFalse(iRec.hasNext());
   }
   
+  @Test
+  @Category(StudentTest.class)
+  public void testTableViewIteratorGap() throws DatabaseException {
+    RecordID[] recordIds = new RecordID[1000];
+
+    for (int i = 0; i < 1000; i++) {
+      recordIds[i] = table.addRecord(TestUtils.createRecordWithAllTypesWithValue(i).getValues());
+    }
+
+    for (int i = 0; i < 1000; i += 2) {
+      table.deleteRecord(recordIds[i]);
+    }
+
+    Iterator<RecordView> iView = table.viewIterator();
+    for (int i = 1; i < 1000; i += 2) {
+      assertTrue(iView.hasNext());
+      RecordView view = iView.next();
+      assertEquals(i, view.getInt(1));
+      assertEquals((float) i, view.getFloat(3), 0);
+      assertTrue(view.getBool(0));
+      assertEquals(TestUtils.createRecordWithAllTypesWithValue(i), view.materialize());
+    }
+    assertFalse(iView.hasNext());
+  }
+
+  @Test
+  @Category(StudentTest.class)
+  public void testRecordViewComparisons() throws DatabaseException {
+    Record input = TestUtils.createRecordWithAllTypesWithValue(42);
+    byte[] bytes = this.schema.encode(input);
+    RecordView view = new RecordView(this.schema.getCodec(), bytes, 0);
+
+    List<DataType> values = input.getValues();
+    for (int i = 0; i < values.size(); i++) {
+      assertEquals(0, view.compareTo(i, values.get(i)));
+      assertTrue(view.fieldEquals(i, values.get(i)));
+    }
+
+    assertTrue(view.compareTo(1, new IntDataType(43)) < 0);
+    assertTrue(view.compareTo(1, new IntDataType(-1)) > 0);
+    assertTrue(view.compareTo(2, new StringDataType("00043", 5)) < 0);
+    assertTrue(view.compareTo(2, new StringDataType("0003", 4)) > 0);
+    assertTrue(view.compareTo(2, new StringDataType("00042z", 6)) < 0);
+    assertTrue(view.compareTo(3, new FloatDataType(41.5f)) > 0);
+    assertFalse(view.fieldEquals(1, new FloatDataType(42)));
+  }
+
+  @Test
+  @Category(StudentTest.class)
+  public void testByteBackedRecord() throws DatabaseException {
+    RecordID left = table.addRecord(TestUtils.createRecordWithAllTypesWithValue(7).getValues());
+    RecordID right = table.addRecord(TestUtils.createRecordWithAllTypesWithValue(9).getValues());
+
+    Record leftRecord = table.getRecord(left);
+    Record rightRecord = table.getRecord(right);
+
+    assertEquals(4, leftRecord.getNumFields());
+    assertTrue(leftRecord.getBool(0));
+    assertEquals(7, leftRecord.getInt(1));
+    assertEquals("00007", leftRecord.getString(2));
+    assertEquals(7.0f, leftRecord.getFloat(3), 0.0f);
+    assertEquals(new IntDataType(7), leftRecord.get(1));
+    assertTrue(leftRecord.fieldEquals(2, new StringDataType("00007", 5)));
+    assertTrue(leftRecord.compareField(1, new IntDataType(8)) < 0);
+
+    try {
+      leftRecord.getInt(3);
+      fail();
+    } catch (DataTypeException e) {
+    }
+
+    List<DataType> joinedValues = new ArrayList<DataType>(leftRecord.getValues());
+    joinedValues.addAll(rightRecord.getValues());
+    Record joined = table.getRecord(left).concat(table.getRecord(right));
+
+    assertEquals(8, joined.getNumFields());
+    assertEquals(9, joined.getInt(5));
+    assertEquals("00009", joined.getString(6));
+    assertEquals(new Record(joinedValues), joined);
+  }
+
+  @Test
+  @Category(StudentTest.class)
+  public void testZoneMapsSkipPages() throws DatabaseException {
+    RecordID[] recordIds = new RecordID[1000];
+    for (int i = 0; i < 1000; i++) {
+      recordIds[i] = table.addRecord(TestUtils.createRecordWithAllTypesWithValue(i).getValues());
+    }
+
+    List<Integer> columns = new ArrayList<Integer>();
+    columns.add(1);
+    List<QueryPlan.PredicateOperator> predicates = new ArrayList<QueryPlan.PredicateOperator>();
+    predicates.add(QueryPlan.PredicateOperator.GREATER_THAN_EQUALS);
+    List<DataType> values = new ArrayList<DataType>();
+    values.add(new IntDataType(900));
+
+    // 288 records per page, so only the last of the four data pages holds keys >= 900
+    assertEquals(4, table.getNumDataPages());
+    assertEquals(1, table.getNumCandidatePages(columns, predicates, values));
+
+    int count = 0;
+    Iterator<RecordView> iView = table.viewIterator(columns, predicates, values);
+    while (iView.hasNext()) {
+      if (iView.next().getInt(1) >= 900) {
+        count++;
+      }
+    }
+    assertEquals(100, count);
+
+    // updating a record on the first page widens that page's zone map
+    table.updateRecord(TestUtils.createRecordWithAllTypesWithValue(950).getValues(), recordIds[0]);
+    assertEquals(2, table.getNumCandidatePages(columns, predicates, values));
+
+    // reopening the table rebuilds the zone maps from the records on disk
+    Table reopened = new Table(TABLENAME, tempFolder.getRoot().getAbsolutePath());
+    assertEquals(2, reopened.getNumCandidatePages(columns, predicates, values));
+    assertEquals(1000, reopened.getNumRecords());
+  }
+
+  @Test
+  public void testCompactFreesSparsePages() throws DatabaseException {
+    RecordID[] recordIds = new RecordID[1000];
+    for (int i = 0; i < 1000; i++) {
+      recordIds[i] = table.addRecord(TestUtils.createRecordWithAllTypesWithValue(i).getValues());
+    }
+
+    Map<Integer, RecordID> live = new HashMap<Integer, RecordID>();
+    for (int i = 0; i < 1000; i++) {
+      if (i % 4 == 0) {
+        live.put(i, recordIds[i]);
+      } else {
+        table.deleteRecord(recordIds[i]);
+      }
+    }
+
+    // 250 records left over four data pages
+    assertEquals(4, table.getNumDataPages());
+
+    Map<RecordID, RecordID> moved = table.compact(1);
+    assertEquals(3, table.getNumDataPages());
+    for (Map.Entry<Integer, RecordID> entry : live.entrySet()) {
+      if (moved.containsKey(entry.getValue())) {
+        entry.setValue(moved.get(entry.getValue()));
+      }
+    }
+
+    moved = table.compact(10);
+    assertEquals(1, table.getNumDataPages());
+    for (Map.Entry<Integer, RecordID> entry : live.entrySet()) {
+      if (moved.containsKey(entry.getValue())) {
+        entry.setValue(moved.get(entry.getValue()));
+      }
+    }
+
+    assertTrue(table.compact(10).isEmpty());
+    assertEquals(250, table.getNumRecords());
+    for (Map.Entry<Integer, RecordID> entry : live.entrySet()) {
+      assertEquals(TestUtils.createRecordWithAllTypesWithValue(entry.getKey()),
+                   table.getRecord(entry.getValue()));
+    }
+
+    int count = 0;
+    Iterator<Record> iRec = table.iterator();
+    while (iRec.hasNext()) {
+      iRec.next();
+      count++;
+    }
+    assertEquals(250, count);
+
+    // freed pages are reused by later inserts
+    for (int i = 0; i < 100; i++) {
+      table.addRecord(TestUtils.createRecordWithAllTypesWithValue(i).getValues());
+    }
+    assertEquals(2, table.getNumDataPages());
+  }
+
+  @Test
+  public void testConcurrentPointLookups() throws Exception {
+    final RecordID[] recordIds = new RecordID[1000];
+    for (int i = 0; i < 1000; i++) {
+      recordIds[i] = table.addRecord(TestUtils.createRecordWithAllTypesWithValue(i).getValues());
+    }
+
+    final boolean[] failed = new boolean[1];
+    Thread[] threads = new Thread[8];
+    for (int t = 0; t < threads.length; t++) {
+      final int thread = t;
+      threads[t] = new Thread(new Runnable() {
+        public void run() {
+          try {
+            for (int i = thread; i < 1000 * threads.length; i += threads.length) {
+              Record expected = TestUtils.createRecordWithAllTypesWithValue(i % 1000);
+              if (!expected.equals(table.getRecord(recordIds[i % 1000]))) {
+                failed[0] = true;
+              }
+            }
+          } catch (DatabaseException e) {
+            failed[0] = true;
+          }
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertFalse(failed[0]);
+  }
+
+  @Test
+  public void testConcurrentInserts() throws Exception {
+    final boolean[] failed = new boolean[1];
+    Thread[] threads = new Thread[8];
+    for (int t = 0; t < threads.length; t++) {
+      final int thread = t;
+      threads[t] = new Thread(new Runnable() {
+        public void run() {
+          try {
+            for (int i = 0; i < 1000; i++) {
+              table.addRecord(TestUtils.createRecordWithAllTypesWithValue(thread * 1000 + i).getValues());
+            }
+          } catch (DatabaseException e) {
+            failed[0] = true;
+          }
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertFalse(failed[0]);
+
+    // every insert is counted, and its page is summarized by a zone map
+    assertEquals(8000, table.getNumRecords());
+    assertEquals(8000, table.getStats().getNumRecords());
+    assertEquals(table.getNumDataPages(), table.getCandidatePages(new ArrayList<Integer>(),
+        new ArrayList<QueryPlan.PredicateOperator>(), new ArrayList<DataType>()).size());
+
+    boolean[] seen = new boolean[8000];
+    Iterator<Record> records = table.iterator();
+    while (records.hasNext()) {
+      int value = records.next().getValues().get(1).getInt();
+      assertFalse(seen[value]);
+      seen[value] = true;
+    }
+    for (boolean s : seen) {
+      assertTrue(s);
+    }
+  }
+
+  @Test
+  public void testGetRecordsGroupedByPage() throws DatabaseException {
+    RecordID[] recordIds = new RecordID[1000];
+    for (int i = 0; i < 1000; i++) {
+      recordIds[i] = table.addRecord(TestUtils.createRecordWithAllTypesWithValue(i).getValues());
+    }
+
+    // interleave the pages, and ask for some records twice
+    List<RecordID> rids = new ArrayList<RecordID>();
+    List<Integer> expected = new ArrayList<Integer>();
+    for (int i = 0; i < 1200; i++) {
+      int value = (i * 397) % 1000;
+      rids.add(recordIds[value]);
+      expected.add(value);
+    }
+
+    List<Record> records = table.getRecords(rids);
+    assertEquals(1200, records.size());
+    for (int i = 0; i < 1200; i++) {
+      assertEquals(TestUtils.createRecordWithAllTypesWithValue(expected.get(i)), records.get(i));
+    }
+
+    table.deleteRecord(recordIds[500]);
+    try {
+      table.getRecords(rids);
+      fail();
+    } catch (DatabaseException e) {
+      // recordIds[500] is no longer valid
+    }
+  }
+
+  @Test
+  public void testInsertsPreferEmptierPages() throws DatabaseException {
+    int numEntriesPerPage = table.getNumEntriesPerPage();
+    Record input = TestUtils.createRecordWithAllTypes();
+
+    RecordID[] recordIds = new RecordID[numEntriesPerPage + 10];
+    for (int i = 0; i < recordIds.length; i++) {
+      recordIds[i] = table.addRecord(input.getValues());
+    }
+    int firstPage = recordIds[0].getPageNum();
+    int secondPage = recordIds[numEntriesPerPage].getPageNum();
+
+    // the slot freed on the full first page is only used once the second page is full
+    table.deleteRecord(recordIds[0]);
+    for (int i = 10; i < numEntriesPerPage; i++) {
+      assertEquals(secondPage, table.addRecord(input.getValues()).getPageNum());
+    }
+    assertEquals(new RecordID(firstPage, 0), table.addRecord(input.getValues()));
+    assertEquals(2, table.getNumDataPages());
+
+    // a reopened table knows which pages have room without being told
+    Table reopened = new Table(TABLENAME, tempFolder.getRoot().getAbsolutePath());
+    reopened.deleteRecord(recordIds[5]);
+    assertEquals(recordIds[5], reopened.addRecord(input.getValues()));
+    reopened.addRecord(input.getValues());
+    assertEquals(3, reopened.getNumDataPages());
+  }
+
+  @Test
+  public void testAppendOnlyTable() throws Exception {
+    String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+    Table log = new Table(this.schema, "logtable", tempFolderPath, true);
+    int numEntriesPerPage = log.getNumEntriesPerPage();
+    Record input = TestUtils.createRecordWithAllTypes();
+
+    for (int i = 0; i < numEntriesPerPage + 3; i++) {
+      RecordID rid = log.addRecord(input.getValues());
+      assertEquals(new RecordID(1 + i / numEntriesPerPage, i % numEntriesPerPage), rid);
+    }
+    assertTrue(log.isAppendOnly());
+    assertEquals(input, log.getRecord(new RecordID(1, numEntriesPerPage - 1)));
+    assertEquals(0, log.compact(10).size());
+
+    try {
+      log.deleteRecord(new RecordID(1, 0));
+      fail();
+    } catch (DatabaseException e) {
+      // expected
+    }
+
+    try {
+      log.updateRecord(input.getValues(), new RecordID(1, 0));
+      fail();
+    } catch (DatabaseException e) {
+      // expected
+    }
+
+    // a reopened table is still append-only and keeps appending to its tail page
+    log.close();
+    log = new Table("logtable", tempFolderPath);
+    assertTrue(log.isAppendOnly());
+    assertEquals(numEntriesPerPage + 3, log.getNumRecords());
+    assertEquals(new RecordID(2, 3), log.addRecord(input.getValues()));
+    assertEquals(input, log.getRecord(new RecordID(2, 3)));
+    log.close();
+
+    // other tables are not
+    assertFalse(new Table(TABLENAME, tempFolderPath).isAppendOnly());
+  }
+
+  @Test
+  public void testCompressSealedPages() throws Exception {
+    String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+    Table log = new Table(this.schema, "logtable", tempFolderPath, true);
+    int numEntriesPerPage = log.getNumEntriesPerPage();
+    Record input = TestUtils.createRecordWithAllTypes();
+
+    for (int i = 0; i < 2 * numEntriesPerPage + 1; i++) {
+      log.addRecord(input.getValues());
+    }
+
+    // only the two full pages are sealed, and regular tables have none
+    assertEquals(2, log.compressSealedPages());
+    assertEquals(0, log.compressSealedPages());
+    assertEquals(0, table.compressSealedPages());
+
+    assertEquals(input, log.getRecord(new RecordID(1, 5)));
+    assertEquals(new RecordID(3, 1), log.addRecord(input.getValues()));
+
+    log.close();
+    log = new Table("logtable", tempFolderPath);
+    Iterator<Record> records = log.iterator();
+    for (int i = 0; i < 2 * numEntriesPerPage + 2; i++) {
+      assertEquals(input, records.next());
+    }
+    assertFalse(records.hasNext());
+    log.close();
+  }
+
+  private Record createStringRecord(String s) {
+    List<DataType> values = new ArrayList<DataType>();
+    values.add(new StringDataType(s, 100));
+    return new Record(values);
+  }
+
+  @Test
+  public void testDictionaryEncodedColumn() throws Exception {
+    String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+    Schema wideSchema = TestUtils.createSchemaOfString(100);
+    List<String> dictionaryColumns = new ArrayList<String>();
+    dictionaryColumns.add(wideSchema.getFieldNames().get(0));
+    Table encoded = new Table(wideSchema, "dicttable", tempFolderPath, false, dictionaryColumns);
+
+    // rows hold a 4 byte code, so many more of them fit on a page
+    assertEquals(4, encoded.getEntrySize());
+    assertTrue(encoded.getNumEntriesPerPage() > 10 * 40);
+
+    List<RecordID> rids = new ArrayList<RecordID>();
+    for (int i = 0; i < 30; i++) {
+      rids.add(encoded.addRecord(createStringRecord("s" + (i % 3)).getValues()));
+    }
+    assertEquals(3, encoded.getDictionary(0).size());
+    assertNull(table.getDictionary(0));
+
+    encoded.updateRecord(createStringRecord("new").getValues(), rids.get(0));
+    assertEquals(createStringRecord("new"), encoded.getRecord(rids.get(0)));
+
+    // the dictionary is reloaded with the table
+    encoded.close();
+    encoded = new Table("dicttable", tempFolderPath);
+    assertEquals(4, encoded.getEntrySize());
+    assertEquals(4, encoded.getDictionary(0).size());
+    for (int i = 1; i < 30; i++) {
+      assertEquals(createStringRecord("s" + (i % 3)), encoded.getRecord(rids.get(i)));
+    }
+    encoded.close();
+  }
+
+  @Test
+  public void testDictionaryTornEntry() throws Exception {
+    String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+    Schema wideSchema = TestUtils.createSchemaOfString(100);
+    List<String> dictionaryColumns = new ArrayList<String>();
+    dictionaryColumns.add(wideSchema.getFieldNames().get(0));
+    Table encoded = new Table(wideSchema, "dicttable", tempFolderPath, false, dictionaryColumns);
+    RecordID first = encoded.addRecord(createStringRecord("s0").getValues());
+    encoded.close();
+
+    // an entry whose header promises more bytes than a crash let through
+    File dictFile = new File(tempFolderPath, "dicttable" + Table.FILENAME_EXTENSION + Table.DICTIONARY_EXTENSION);
+    RandomAccessFile raf = new RandomAccessFile(dictFile, "rw");
+    raf.seek(raf.length());
+    raf.writeInt(0);
+    raf.writeInt(100);
+    raf.write(new byte[3]);
+    raf.close();
+
+    // the torn entry is dropped, so entries added after it can be read back
+    encoded = new Table("dicttable", tempFolderPath);
+    assertEquals(1, encoded.getDictionary(0).size());
+    RecordID second = encoded.addRecord(createStringRecord("s1").getValues());
+    encoded.close();
+
+    encoded = new Table("dicttable", tempFolderPath);
+    assertEquals(2, encoded.getDictionary(0).size());
+    assertEquals(createStringRecord("s0"), encoded.getRecord(first));
+    assertEquals(createStringRecord("s1"), encoded.getRecord(second));
+    encoded.close();
+  }
+
   @Test
   public void testTableDurable() throws Exception {
     Record input = TestUtils.createRecordWithAllTypes();